@@ -0,0 +1,90 @@
+package org.totschnig.myexpenses.test.provider
+
+import android.content.ContentValues
+import org.totschnig.myexpenses.model.AccountType
+import org.totschnig.myexpenses.model.CrStatus
+import org.totschnig.myexpenses.provider.DatabaseConstants.KEY_ACCOUNTID
+import org.totschnig.myexpenses.provider.DatabaseConstants.KEY_AMOUNT
+import org.totschnig.myexpenses.provider.DatabaseConstants.KEY_CLEARED_TOTAL
+import org.totschnig.myexpenses.provider.DatabaseConstants.KEY_CR_STATUS
+import org.totschnig.myexpenses.provider.DatabaseConstants.KEY_ROWID
+import org.totschnig.myexpenses.provider.DatabaseConstants.KEY_SUM_EXPENSES
+import org.totschnig.myexpenses.provider.DatabaseConstants.KEY_SUM_INCOME
+import org.totschnig.myexpenses.provider.DatabaseConstants.KEY_TOTAL
+import org.totschnig.myexpenses.provider.DatabaseConstants.TABLE_ACCOUNTS
+import org.totschnig.myexpenses.provider.DatabaseConstants.TABLE_ACCOUNT_TOTALS
+import org.totschnig.myexpenses.provider.DatabaseConstants.TABLE_PAYEES
+import org.totschnig.myexpenses.provider.DatabaseConstants.TABLE_TRANSACTIONS
+import org.totschnig.myexpenses.provider.TransactionProvider
+import org.totschnig.myexpenses.testutils.BaseDbTest
+import java.util.*
+
+class AccountTotalsTest : BaseDbTest() {
+    private var testAccountId: Long = 0
+    private var payeeId: Long = 0
+
+    @Throws(Exception::class)
+    override fun setUp() {
+        super.setUp()
+        testAccountId = mDb.insertOrThrow(
+            TABLE_ACCOUNTS,
+            null,
+            AccountInfo("Test account", AccountType.CASH, 0).contentValues
+        )
+        payeeId = mDb.insertOrThrow(TABLE_PAYEES, null, PayeeInfo("N.N.").contentValues)
+    }
+
+    private fun insertTransaction(amount: Long) = mDb.insertOrThrow(
+        TABLE_TRANSACTIONS,
+        null,
+        TransactionInfo("Transaction", Date(), amount, testAccountId, payeeId).contentValues
+    )
+
+    private fun updateTransaction(id: Long, values: ContentValues) {
+        mDb.update(TABLE_TRANSACTIONS, values, "$KEY_ROWID = ?", arrayOf(id.toString()))
+    }
+
+    private fun assertTotals(total: Long, clearedTotal: Long, sumIncome: Long, sumExpenses: Long) {
+        mDb.query(
+            TABLE_ACCOUNT_TOTALS,
+            arrayOf(KEY_TOTAL, KEY_CLEARED_TOTAL, KEY_SUM_INCOME, KEY_SUM_EXPENSES),
+            "$KEY_ACCOUNTID = ?", arrayOf(testAccountId.toString()), null, null, null
+        ).use {
+            assertTrue(it.moveToFirst())
+            assertEquals(total, it.getLong(0))
+            assertEquals(clearedTotal, it.getLong(1))
+            assertEquals(sumIncome, it.getLong(2))
+            assertEquals(sumExpenses, it.getLong(3))
+        }
+        assertEquals(0, checkInconsistent().size)
+    }
+
+    private fun checkInconsistent() = mockContentResolver.call(
+        TransactionProvider.DUAL_URI, TransactionProvider.METHOD_CHECK_ACCOUNT_TOTALS, null, null
+    )!!.getLongArray(TransactionProvider.KEY_RESULT)!!
+
+    fun testTotalsFollowTransactionChanges() {
+        assertTotals(0, 0, 0, 0)
+        val income = insertTransaction(5000)
+        val expense = insertTransaction(-2000)
+        assertTotals(3000, 0, 5000, -2000)
+        updateTransaction(income, ContentValues(1).apply { put(KEY_AMOUNT, 6000) })
+        assertTotals(4000, 0, 6000, -2000)
+        updateTransaction(expense, ContentValues(1).apply { put(KEY_CR_STATUS, CrStatus.CLEARED.name) })
+        assertTotals(4000, -2000, 6000, -2000)
+        updateTransaction(income, ContentValues(1).apply { put(KEY_CR_STATUS, CrStatus.VOID.name) })
+        assertTotals(-2000, -2000, 0, -2000)
+        mDb.delete(TABLE_TRANSACTIONS, "$KEY_ROWID = ?", arrayOf(expense.toString()))
+        assertTotals(0, 0, 0, 0)
+    }
+
+    fun testRebuildRepairsTotals() {
+        insertTransaction(5000)
+        mDb.delete(TABLE_ACCOUNT_TOTALS, null, null)
+        assertTrue(checkInconsistent().contains(testAccountId))
+        mockContentResolver.call(
+            TransactionProvider.DUAL_URI, TransactionProvider.METHOD_REBUILD_ACCOUNT_TOTALS, null, null
+        )
+        assertTotals(5000, 0, 5000, 0)
+    }
+}
@@ -100,6 +100,15 @@ class LocalFileBackendProvider extends AbstractSyncBackendProvider {
     }
   }
 
+  @Override
+  protected String readFileContentsFromAccountDir(String fileName) throws IOException {
+    try {
+      return new StreamReader(new FileInputStream(new File(accountDir, fileName))).read();
+    } catch (FileNotFoundException e) {
+      return null;
+    }
+  }
+
   @NonNull
   @Override
   protected InputStream getInputStreamForPicture(String relativeUri) throws IOException {
@@ -196,11 +205,7 @@ class LocalFileBackendProvider extends AbstractSyncBackendProvider {
   @NonNull
   @Override
   public Optional<ChangeSet> getChangeSetSince(SequenceNumber sequenceNumber, Context context) throws IOException {
-    List<ChangeSet> changeSets = new ArrayList<>();
-    for (Pair<Integer, File> file: filterFiles(sequenceNumber)) {
-      changeSets.add(getChangeSetFromFile(file));
-    }
-    return merge(changeSets);
+    return readChangeSets(filterFiles(sequenceNumber), this::getChangeSetFromFile);
   }
 
   @NonNull
@@ -231,15 +236,25 @@ class LocalFileBackendProvider extends AbstractSyncBackendProvider {
 
   @Override
   void saveFileContentsToAccountDir(String folder, String fileName, String fileContents, String mimeType, boolean maybeEncrypt) throws IOException {
+    saveFileContents(new File(getAccountFolder(folder), fileName), fileContents, maybeEncrypt);
+  }
+
+  @Override
+  void saveBytesToAccountDir(String folder, String fileName, byte[] contents, String mimeType) throws IOException {
+    try (FileOutputStream out = new FileOutputStream(new File(getAccountFolder(folder), fileName))) {
+      out.write(contents);
+    }
+  }
+
+  private File getAccountFolder(String folder) throws IOException {
     Preconditions.checkNotNull(accountDir);
     File dir = folder == null ? accountDir : new File(accountDir, folder);
     //noinspection ResultOfMethodCallIgnored
     dir.mkdir();
-    if (dir.isDirectory()) {
-      saveFileContents(new File(dir, fileName), fileContents, maybeEncrypt);
-    } else {
+    if (!dir.isDirectory()) {
       throw new IOException("Cannot create dir");
     }
+    return dir;
   }
 
   @Override
@@ -50,6 +50,7 @@ import org.totschnig.myexpenses.provider.DatabaseConstants
 import org.totschnig.myexpenses.provider.DatabaseConstants.KEY_AMOUNT
 import org.totschnig.myexpenses.provider.DatabaseConstants.KEY_DATE
 import org.totschnig.myexpenses.provider.DatabaseConstants.KEY_PAYEE_NAME
+import org.totschnig.myexpenses.task.PrintTask
 import org.totschnig.myexpenses.task.TaskExecutionFragment
 import org.totschnig.myexpenses.ui.DiscoveryHelper
 import org.totschnig.myexpenses.ui.IDiscoveryHelper
@@ -531,6 +532,7 @@ abstract class BaseMyExpenses : LaunchActivity(), OcrHost, OnDialogResultListene
                         it.filterCriteria
                     )
                     args.putLong(DatabaseConstants.KEY_ROWID, accountId)
+                    args.putBoolean(PrintTask.KEY_PER_ACCOUNT, tag == true)
                     if (!supportFragmentManager.isStateSaved) {
                         supportFragmentManager.beginTransaction()
                             .add(
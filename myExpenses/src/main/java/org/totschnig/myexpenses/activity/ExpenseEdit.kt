@@ -532,6 +532,8 @@ open class ExpenseEdit : AmountActivity<TransactionEditViewModel>(),
         transaction?.let {
             if (transaction.isSealed) {
                 abortWithMessage("This transaction refers to a closed account or debt and can no longer be edited")
+            } else if (transaction.isArchived) {
+                abortWithMessage("This transaction stands in for archived transactions and can not be edited")
             } else {
                 populate(it, withAutoFill && task != TRANSACTION_FROM_TEMPLATE)
 
@@ -169,55 +169,61 @@ public abstract class CategoryTreeBaseAdapter<ROWBINDING extends ViewBinding> ex
     return true;
   }
 
+  /**
+   * @param mainCategories each holding its sub categories
+   */
+  public void ingest(List<Category> mainCategories) {
+    List<Category> newList = new ArrayList<>();
+    if (withNullCategory) {
+      newList.add(new Category(NULL_ITEM_ID, null, context.getString(R.string.unmapped), null, null, 0, null, null, false));
+    }
+    newList.addAll(mainCategories);
+    this.mainCategories = newList;
+    notifyDataSetChanged();
+  }
+
+  /**
+   * reads the category at the current position of the cursor
+   */
+  public static Category readCategory(Cursor cursor) {
+    final int columnIndexSum = cursor.getColumnIndex(KEY_SUM);
+    final int columnIndexBudget = cursor.getColumnIndex(KEY_BUDGET);
+    final int columnIndexMapBudgets = cursor.getColumnIndex(KEY_MAPPED_BUDGETS);
+    final int columnIndexChildcount = cursor.getColumnIndex(KEY_CHILD_COUNT);
+    return new Category(
+        cursor.getLong(cursor.getColumnIndexOrThrow(KEY_ROWID)),
+        DbUtils.getLongOrNull(cursor, cursor.getColumnIndexOrThrow(KEY_PARENTID)),
+        cursor.getString(cursor.getColumnIndexOrThrow(KEY_LABEL)),
+        columnIndexSum == -1 ? null : cursor.getLong(columnIndexSum),
+        columnIndexMapBudgets == -1 ? null : cursor.getInt(columnIndexMapBudgets) > 0,
+        cursor.getInt(cursor.getColumnIndexOrThrow(KEY_COLOR)),
+        columnIndexBudget == -1 ? null : cursor.getLong(columnIndexBudget),
+        cursor.getString(cursor.getColumnIndexOrThrow(KEY_ICON)),
+        columnIndexChildcount != -1 && cursor.getInt(columnIndexChildcount) > 0
+    );
+  }
+
   /**
    * This method expects the main categories to be sorted first
+   *
+   * @return the main categories, each holding its sub categories
    */
-  public void ingest(Cursor cursor) {
-    if (cursor != null) {
-      try {
-        List<Category> newList = new ArrayList<>();
-        LongSparseArray<Integer> positionMap = new LongSparseArray<>();
-        int position = 0;
-        if (withNullCategory) {
-          newList.add(new Category(NULL_ITEM_ID, null, context.getString(R.string.unmapped), null, null, 0, null, null, false));
-          position = 1;
-        }
-        final int columnIndexRowId = cursor.getColumnIndex(KEY_ROWID);
-        final int columnIndexParentId = cursor.getColumnIndex(KEY_PARENTID);
-        final int columnIndexSum = cursor.getColumnIndex(KEY_SUM);
-        final int columnIndexBudget = cursor.getColumnIndex(KEY_BUDGET);
-        final int columnIndexMapBudgets = cursor.getColumnIndex(KEY_MAPPED_BUDGETS);
-        final int columnIndexColor = cursor.getColumnIndex(KEY_COLOR);
-        final int columnIndexIcon = cursor.getColumnIndex(KEY_ICON);
-        final int columnIndexChildcount = cursor.getColumnIndex(KEY_CHILD_COUNT);
-        while (cursor.moveToNext()) {
-          final long id = cursor.getLong(columnIndexRowId);
-          final Long parentId = DbUtils.getLongOrNull(cursor, columnIndexParentId);
-          final Category category = new Category(
-              id, parentId, cursor.getString(cursor.getColumnIndexOrThrow(KEY_LABEL)),
-              columnIndexSum == -1 ? null : cursor.getLong(columnIndexSum),
-              columnIndexMapBudgets == -1 ? null : cursor.getInt(columnIndexMapBudgets) > 0,
-              cursor.getInt(columnIndexColor),
-              columnIndexBudget == -1 ? null : cursor.getLong(columnIndexBudget), cursor.getString(columnIndexIcon),
-              columnIndexChildcount != -1 && cursor.getInt(columnIndexChildcount) > 0
-          );
-          if (parentId == null) {
-            newList.add(category);
-            positionMap.put(id, position);
-            position++;
-          } else {
-            final Integer catPosition = positionMap.get(parentId);
-            if (catPosition != null) {
-              newList.get(catPosition).addChild(category);
-            }
-          }
+  public static List<Category> buildTree(List<Category> categories) {
+    List<Category> mainCategories = new ArrayList<>();
+    LongSparseArray<Category> mainCategoryMap = new LongSparseArray<>();
+    for (Category category : categories) {
+      final Long parentId = category.getParentId();
+      if (parentId == null) {
+        mainCategories.add(category);
+        mainCategoryMap.put(category.getId(), category);
+      } else {
+        final Category parent = mainCategoryMap.get(parentId);
+        if (parent != null) {
+          parent.addChild(category);
         }
-        mainCategories = newList;
-      } finally {
-        cursor.close();
       }
-      notifyDataSetChanged();
     }
+    return mainCategories;
   }
 
   public List<Integer> getSubColors(int color) {
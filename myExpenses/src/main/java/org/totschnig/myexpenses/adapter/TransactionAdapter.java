@@ -67,8 +67,8 @@ import static org.totschnig.myexpenses.provider.DatabaseConstants.KEY_STATUS;
 import static org.totschnig.myexpenses.provider.DatabaseConstants.KEY_TAGLIST;
 import static org.totschnig.myexpenses.provider.DatabaseConstants.KEY_TRANSFER_PEER;
 import static org.totschnig.myexpenses.provider.DatabaseConstants.SPLIT_CATID;
+import static org.totschnig.myexpenses.provider.DatabaseConstants.STATUS_ARCHIVE_SUMMARY;
 import static org.totschnig.myexpenses.provider.DatabaseConstants.STATUS_HELPER;
-import static org.totschnig.myexpenses.util.CurrencyFormatterKt.convAmount;
 
 public class TransactionAdapter extends ResourceCursorAdapter {
   private int dateEms;
@@ -108,6 +108,7 @@ public class TransactionAdapter extends ResourceCursorAdapter {
   private Context context;
 
   private long futureCriterion;
+  private final StringBuilder amountBuilder = new StringBuilder();
 
   @Nullable
   private final OnToggleCrStatus onToggleCrStatus;
@@ -174,7 +175,8 @@ public class TransactionAdapter extends ResourceCursorAdapter {
     long amount = cursor.getLong(isTransfer || columnIndexEquivalentAmount == -1 ?
         columnIndexAmount : columnIndexEquivalentAmount);
     TextView tv1 = viewHolder.amount;
-    tv1.setText(convAmount(currencyFormatter, amount, currency));
+    amountBuilder.setLength(0);
+    tv1.setText(currencyFormatter.formatCurrency(amount, currency, amountBuilder));
 
     tv1.setTextColor(amount < 0 ? colorExpense : colorIncome);
     if (mAccount.isAggregate()) {
@@ -198,7 +200,8 @@ public class TransactionAdapter extends ResourceCursorAdapter {
       if (SPLIT_CATID.equals(catId))
         catText = context.getString(R.string.split_transaction);
       else if (catId == null) {
-        if (cursor.getInt(columnIndexStatus) != STATUS_HELPER) {
+        int status = cursor.getInt(columnIndexStatus);
+        if (status != STATUS_HELPER && status != STATUS_ARCHIVE_SUMMARY) {
           catText = Category.NO_CATEGORY_ASSIGNED_LABEL;
         }
       } else {
@@ -7,6 +7,7 @@ import android.content.ContentValues
 import android.content.Context
 import org.totschnig.myexpenses.model.CrStatus
 import org.totschnig.myexpenses.model.CurrencyContext
+import org.totschnig.myexpenses.model.CurrencyUnit
 import org.totschnig.myexpenses.model.Model
 import org.totschnig.myexpenses.model.Money
 import org.totschnig.myexpenses.model.Payee
@@ -14,6 +15,7 @@ import org.totschnig.myexpenses.model2.Transaction
 import org.totschnig.myexpenses.provider.DatabaseConstants
 import org.totschnig.myexpenses.provider.DatabaseConstants.KEY_CATID
 import org.totschnig.myexpenses.provider.DatabaseConstants.KEY_TRANSACTIONID
+import org.totschnig.myexpenses.provider.DatabaseConstants.KEY_USAGES
 import org.totschnig.myexpenses.provider.DbUtils
 import org.totschnig.myexpenses.provider.TransactionProvider
 import org.totschnig.myexpenses.util.Utils
@@ -32,41 +34,55 @@ class Repository(val contentResolver: ContentResolver, val currencyContext: Curr
     )
 
     //Transaction
-    fun createTransaction(transaction: Transaction) = with(transaction) {
-        getCurrencyUnitForAccount(account)?.let { currencyUnit ->
-            val ops = ArrayList<ContentProviderOperation>()
-            ops.add(ContentProviderOperation.newInsert(TransactionProvider.TRANSACTIONS_URI)
-                .withValues(
-                    ContentValues().apply {
-                        put(DatabaseConstants.KEY_ACCOUNTID, account)
-                        put(
-                            DatabaseConstants.KEY_AMOUNT,
-                            Money(currencyUnit, BigDecimal(amount.toString())).amountMinor
+    fun createTransaction(transaction: Transaction) = createTransactions(listOf(transaction))[0]
+
+    /**
+     * Inserts all [transactions] with one batch, i.e. in one database transaction, so that
+     * observers are notified once
+     * @return the ids of the new transactions, null for transactions whose account does not exist
+     */
+    fun createTransactions(transactions: List<Transaction>): List<Long?> {
+        val currencyUnits = HashMap<Long, CurrencyUnit?>()
+        val payeeIds = HashMap<String, Long?>()
+        val ops = ArrayList<ContentProviderOperation>()
+        val positions = transactions.map { transaction ->
+            with(transaction) {
+                currencyUnits.getOrPut(account) { getCurrencyUnitForAccount(account) }?.let { currencyUnit ->
+                    val position = ops.size
+                    ops.add(ContentProviderOperation.newInsert(TransactionProvider.TRANSACTIONS_URI)
+                        .withValues(
+                            ContentValues().apply {
+                                put(DatabaseConstants.KEY_ACCOUNTID, account)
+                                put(
+                                    DatabaseConstants.KEY_AMOUNT,
+                                    Money(currencyUnit, BigDecimal(amount.toString())).amountMinor
+                                )
+                                val toEpochSecond = localDate2Epoch(date)
+                                put(DatabaseConstants.KEY_DATE, toEpochSecond)
+                                put(DatabaseConstants.KEY_VALUE_DATE, toEpochSecond)
+                                put(DatabaseConstants.KEY_PAYEEID, payeeIds.getOrPut(payee.trim()) { findOrWritePayee(payee) })
+                                put(DatabaseConstants.KEY_CR_STATUS, CrStatus.UNRECONCILED.name)
+                                category.takeIf { it > 0 }?.let { put(KEY_CATID, it) }
+                                method.takeIf { it > 0 }?.let { put(DatabaseConstants.KEY_METHODID, it) }
+                                put(DatabaseConstants.KEY_REFERENCE_NUMBER, number)
+                                put(DatabaseConstants.KEY_COMMENT, comment)
+                                put(DatabaseConstants.KEY_UUID, Model.generateUuid())
+                            }
+                        ).build())
+                    for (tag in tags) {
+                        ops.add(
+                            ContentProviderOperation.newInsert(TransactionProvider.TRANSACTIONS_TAGS_URI)
+                                .withValueBackReference(KEY_TRANSACTIONID, position)
+                                .withValue(DatabaseConstants.KEY_TAGID, tag).build()
                         )
-                        val toEpochSecond = localDate2Epoch(date)
-                        put(DatabaseConstants.KEY_DATE, toEpochSecond)
-                        put(DatabaseConstants.KEY_VALUE_DATE, toEpochSecond)
-                        put(DatabaseConstants.KEY_PAYEEID, findOrWritePayee(payee))
-                        put(DatabaseConstants.KEY_CR_STATUS, CrStatus.UNRECONCILED.name)
-                        category.takeIf { it > 0 }?.let { put(KEY_CATID, it) }
-                        method.takeIf { it > 0 }?.let { put(DatabaseConstants.KEY_METHODID, it) }
-                        put(DatabaseConstants.KEY_REFERENCE_NUMBER, number)
-                        put(DatabaseConstants.KEY_COMMENT, comment)
-                        put(DatabaseConstants.KEY_UUID, Model.generateUuid())
                     }
-                ).build())
-            for (tag in transaction.tags) {
-                ops.add(
-                    ContentProviderOperation.newInsert(TransactionProvider.TRANSACTIONS_TAGS_URI)
-                        .withValueBackReference(KEY_TRANSACTIONID, 0)
-                        .withValue(DatabaseConstants.KEY_TAGID, tag).build()
-                )
+                    position
+                }
             }
-            contentResolver.applyBatch(
-                TransactionProvider.AUTHORITY,
-                ops
-            )[0].uri?.let { ContentUris.parseId(it) }
         }
+        if (ops.isEmpty()) return positions.map { null }
+        val results = contentResolver.applyBatch(TransactionProvider.AUTHORITY, ops)
+        return positions.map { position -> position?.let { results[it].uri?.let { uri -> ContentUris.parseId(uri) } } }
     }
 
     //Payee
@@ -85,6 +101,24 @@ class Repository(val contentResolver: ContentResolver, val currencyContext: Curr
         }
     }
 
+    /**
+     * @return the categories used with [payeeId], the most frequently used first, read from an
+     * index of usage counts maintained on write, hence independent of the number of transactions
+     */
+    fun categorySuggestions(payeeId: Long, limit: Int): List<CategorySuggestion> =
+        contentResolver.query(
+            ContentUris.withAppendedId(TransactionProvider.AUTOFILL_URI, payeeId).buildUpon()
+                .appendPath(TransactionProvider.URI_SEGMENT_CATEGORIES)
+                .appendQueryParameter(TransactionProvider.QUERY_PARAMETER_LIMIT, limit.toString())
+                .build(),
+            arrayOf(KEY_CATID, DatabaseConstants.CAT_AS_LABEL, DatabaseConstants.CATEGORY_ICON, KEY_USAGES),
+            null, null, null
+        )?.use { cursor ->
+            generateSequence { if (cursor.moveToNext()) cursor else null }.map {
+                CategorySuggestion(it.getLong(0), it.getString(1), it.getString(2), it.getInt(3))
+            }.toList()
+        } ?: emptyList()
+
     private fun findOrWritePayee(name: String) = findPayee(name) ?: createPayee(name)
 
     private fun findPayee(name: String) = contentResolver.query(
@@ -134,4 +168,6 @@ class Repository(val contentResolver: ContentResolver, val currencyContext: Curr
     fun saveParty(id: Long, name: String) = Payee(id, name).save()
 }
 
-data class AutoFillInfo(val categoryId: Long)
\ No newline at end of file
+data class AutoFillInfo(val categoryId: Long)
+
+data class CategorySuggestion(val categoryId: Long, val label: String, val icon: String?, val usages: Int)
\ No newline at end of file
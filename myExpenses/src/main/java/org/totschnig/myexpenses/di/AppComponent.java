@@ -52,6 +52,7 @@ import org.totschnig.myexpenses.fragment.SyncBackendList;
 import org.totschnig.myexpenses.fragment.TemplatesList;
 import org.totschnig.myexpenses.model.CurrencyContext;
 import org.totschnig.myexpenses.preference.PrefHandler;
+import org.totschnig.myexpenses.provider.LabelIdCache;
 import org.totschnig.myexpenses.provider.TransactionProvider;
 import org.totschnig.myexpenses.retrofit.ExchangeRateService;
 import org.totschnig.myexpenses.service.AutoBackupService;
@@ -149,6 +150,8 @@ public interface AppComponent {
 
   Repository repository();
 
+  LabelIdCache labelIdCache();
+
   JsonDeserializer<LocalDate> localDateJsonDeserializer();
 
   Gson gson();
@@ -9,6 +9,7 @@ import io.reactivex.schedulers.Schedulers
 import org.totschnig.myexpenses.MyApplication
 import org.totschnig.myexpenses.preference.PrefHandler
 import org.totschnig.myexpenses.preference.PrefHandlerImpl
+import org.totschnig.myexpenses.provider.LabelIdCache
 import javax.inject.Named
 import javax.inject.Singleton
 
@@ -29,7 +30,12 @@ open class DataModule {
     open fun providePrefHandler(context: MyApplication, sharedPreferences: SharedPreferences, @Named(AppComponent.DATABASE_NAME) databaseName: String): PrefHandler {
         return PrefHandlerImpl(context, sharedPreferences)
     }
+
+    @Provides
     @Singleton
+    fun provideLabelIdCache() = LabelIdCache()
+
     @Provides
+    @Singleton
     open fun provideSharedPreferences(application: MyApplication, @Named(AppComponent.DATABASE_NAME) databaseName: String): SharedPreferences = PreferenceManager.getDefaultSharedPreferences(application)
 }
\ No newline at end of file
@@ -25,10 +25,12 @@ import org.totschnig.myexpenses.retrofit.OpenExchangeRates
 import org.totschnig.myexpenses.retrofit.RoadmapService
 import org.totschnig.myexpenses.room.ExchangeRateDatabase.Companion.getDatabase
 import org.totschnig.myexpenses.util.DelegatingSocketFactory
+import org.totschnig.myexpenses.util.ThumbnailCache
 import org.totschnig.myexpenses.viewmodel.repository.RoadmapRepository.Companion.ROADMAP_URL
 import retrofit2.Retrofit
 import retrofit2.converter.gson.GsonConverterFactory
 import timber.log.Timber
+import java.io.File
 import java.io.IOException
 import java.lang.reflect.Type
 import java.net.InetSocketAddress
@@ -56,7 +58,14 @@ open class NetworkModule {
     companion object {
         @JvmStatic
         @Provides
-        fun providePicasso(): Picasso = Picasso.get()
+        @Singleton
+        fun providePicasso(context: MyApplication): Picasso = Picasso.Builder(context)
+            .addRequestHandler(
+                ThumbnailCache.PicassoRequestHandler(
+                    ThumbnailCache(context.contentResolver, File(context.cacheDir, "thumbnails"))
+                )
+            )
+            .build()
 
         @JvmStatic
         @Provides
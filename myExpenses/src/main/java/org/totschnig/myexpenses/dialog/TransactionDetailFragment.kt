@@ -45,6 +45,7 @@ import org.totschnig.myexpenses.provider.DatabaseConstants
 import org.totschnig.myexpenses.provider.TransactionProvider
 import org.totschnig.myexpenses.util.CurrencyFormatter
 import org.totschnig.myexpenses.util.PictureDirHelper
+import org.totschnig.myexpenses.util.ThumbnailCache
 import org.totschnig.myexpenses.util.UiUtils
 import org.totschnig.myexpenses.util.UiUtils.DateMode
 import org.totschnig.myexpenses.util.Utils
@@ -299,7 +300,9 @@ class TransactionDetailFragment : BaseDialogFragment(), DialogInterface.OnClickL
                     dlg.window?.findViewById<ImageView>(android.R.id.icon)?.let { image ->
                         image.visibility = View.VISIBLE
                         image.scaleType = ImageView.ScaleType.CENTER_CROP
-                        picasso.load(transaction.pictureUri).fit().into(image)
+                        transaction.pictureUri?.let {
+                            picasso.load(ThumbnailCache.thumbnailUri(it)).fit().into(image)
+                        }
                     }
                 }
             } else {
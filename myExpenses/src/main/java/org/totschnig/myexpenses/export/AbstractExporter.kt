@@ -1,6 +1,7 @@
 package org.totschnig.myexpenses.export
 
 import android.content.Context
+import android.database.Cursor
 import android.net.Uri
 import androidx.documentfile.provider.DocumentFile
 import org.totschnig.myexpenses.R
@@ -13,12 +14,20 @@ import org.totschnig.myexpenses.provider.DatabaseConstants.KEY_LABEL
 import org.totschnig.myexpenses.provider.DbUtils
 import org.totschnig.myexpenses.provider.TransactionProvider
 import org.totschnig.myexpenses.provider.filter.WhereFilter
+import org.totschnig.myexpenses.util.StringBuilderWrapper
 import org.totschnig.myexpenses.util.Utils
 import timber.log.Timber
+import java.io.Closeable
 import java.io.IOException
 import java.io.OutputStreamWriter
 import java.text.SimpleDateFormat
 import java.util.*
+import java.util.concurrent.Callable
+import java.util.concurrent.ExecutionException
+import java.util.concurrent.Executors
+import kotlin.math.min
+
+private const val KEY_SORT_DATE = "sort_date"
 
 abstract class AbstractExporter
 /**
@@ -43,7 +52,10 @@ abstract class AbstractExporter
 
     abstract fun header(context: Context): String?
 
-    abstract fun TransactionDTO.marshall(): String
+    /**
+     * appends the representation of the transaction to the buffer shared by all rows of one export
+     */
+    abstract fun TransactionDTO.marshall(out: StringBuilderWrapper)
 
     @Throws(IOException::class)
     fun export(
@@ -63,69 +75,93 @@ abstract class AbstractExporter
         }
         return context.contentResolver.query(
             Transaction.EXTENDED_URI,
-            null, selection, selectionArgs, DatabaseConstants.KEY_DATE
+            null, selection, selectionArgs, "${DatabaseConstants.KEY_DATE}, ${DatabaseConstants.KEY_ROWID}"
         )?.use { cursor ->
 
             if (cursor.count == 0) {
                 Result.failure(Exception(context.getString(R.string.no_exportable_expenses)))
             } else {
                 val uri = outputStream.value.getOrThrow().uri
-                (context.contentResolver.openOutputStream(uri, if (append) "wa" else "w")
-                    ?: throw IOException("openOutputStream returned null")).use { outputStream ->
-                    OutputStreamWriter(outputStream, encoding).use { out ->
-                        cursor.moveToFirst()
-                        val formatter = SimpleDateFormat(dateFormat, Locale.US)
-                        header(context)?.let { out.write(it) }
-                        while (cursor.position < cursor.count) {
-                            val catId = DbUtils.getLongOrNull(cursor, DatabaseConstants.KEY_CATID)
-                            val rowId =
-                                cursor.getLong(cursor.getColumnIndexOrThrow(DatabaseConstants.KEY_ROWID))
-                            val isSplit = DatabaseConstants.SPLIT_CATID == catId
-                            val splitCursor = if (isSplit) context.contentResolver.query(
-                                Transaction.CONTENT_URI,
-                                null,
-                                "${DatabaseConstants.KEY_PARENTID} = ?",
-                                arrayOf(rowId.toString()),
-                                null
-                            ) else null
-                            val tagList = context.contentResolver.query(
-                                TransactionProvider.TRANSACTIONS_TAGS_URI,
-                                arrayOf(KEY_LABEL),
-                                "${DatabaseConstants.KEY_TRANSACTIONID} = ?",
-                                arrayOf(rowId.toString()),
-                                null
-                            )?.use { tagCursor ->
-                                if (tagCursor.moveToFirst())
-                                    sequence {
-                                        while (!tagCursor.isAfterLast) {
-                                            yield(tagCursor.getString(0).let {
-                                                if (it.contains(',')) "'$it'" else it
-                                            })
-                                            tagCursor.moveToNext()
+                val exported =
+                    "(SELECT ${DatabaseConstants.KEY_ROWID} FROM ${DatabaseConstants.VIEW_EXTENDED} WHERE $selection)"
+                val splitParts = OrderedSideCursor(
+                    context.contentResolver.query(
+                        Transaction.CONTENT_URI,
+                        SPLIT_PART_PROJECTION,
+                        "${DatabaseConstants.KEY_PARENTID} IN $exported",
+                        selectionArgs,
+                        "$KEY_SORT_DATE, ${DatabaseConstants.KEY_PARENTID}, ${DatabaseConstants.KEY_ROWID}"
+                    ), DatabaseConstants.KEY_PARENTID
+                )
+                val tags = OrderedSideCursor(
+                    context.contentResolver.query(
+                        TransactionProvider.TRANSACTIONS_TAGS_URI,
+                        TAG_PROJECTION,
+                        "${DatabaseConstants.KEY_TRANSACTIONID} IN $exported",
+                        selectionArgs,
+                        "$KEY_SORT_DATE, ${DatabaseConstants.KEY_TRANSACTIONID}"
+                    ), DatabaseConstants.KEY_TRANSACTIONID
+                )
+                try {
+                    (context.contentResolver.openOutputStream(uri, if (append) "wa" else "w")
+                        ?: throw IOException("openOutputStream returned null")).use { outputStream ->
+                        OutputStreamWriter(outputStream, encoding).use { out ->
+                            cursor.moveToFirst()
+                            val formatter = SimpleDateFormat(dateFormat, Locale.US)
+                            val columnIndexRowId = cursor.getColumnIndexOrThrow(DatabaseConstants.KEY_ROWID)
+                            val columnIndexDate = cursor.getColumnIndexOrThrow(DatabaseConstants.KEY_DATE)
+                            val buffer = StringBuilderWrapper()
+                            val tagBuffer = StringBuilder()
+                            header(context)?.let { out.write(it) }
+                            while (cursor.position < cursor.count) {
+                                val catId = DbUtils.getLongOrNull(cursor, DatabaseConstants.KEY_CATID)
+                                val rowId = cursor.getLong(columnIndexRowId)
+                                val date = cursor.getLong(columnIndexDate)
+                                val splits = if (DatabaseConstants.SPLIT_CATID == catId) {
+                                    ArrayList<TransactionDTO>().also { parts ->
+                                        splitParts.forEachRowOf(date, rowId) {
+                                            parts.add(
+                                                TransactionDTO.fromCursor(
+                                                    context, it, formatter, account.currencyUnit,
+                                                    null, null, isPart = true
+                                                )
+                                            )
                                         }
-                                    }.joinToString(", ") else null
-                            } ?: ""
-                            out.write(
+                                    }
+                                } else null
+                                tagBuffer.setLength(0)
+                                tags.forEachRowOf(date, rowId) {
+                                    if (tagBuffer.isNotEmpty()) tagBuffer.append(", ")
+                                    val label = it.getString(1)
+                                    if (label.contains(',')) tagBuffer.append('\'').append(label).append('\'')
+                                    else tagBuffer.append(label)
+                                }
                                 TransactionDTO.fromCursor(
                                     context,
                                     cursor,
                                     formatter,
                                     account.currencyUnit,
-                                    splitCursor,
-                                    tagList
-                                ).marshall()
-                            )
-                            splitCursor?.close()
+                                    splits,
+                                    tagBuffer.toString()
+                                ).marshall(buffer)
 
-                            recordDelimiter(cursor.position == cursor.count - 1)?.let { out.write(it) }
+                                recordDelimiter(cursor.position == cursor.count - 1)?.let { buffer.append(it) }
+                                if (buffer.length() >= FLUSH_THRESHOLD) {
+                                    buffer.writeTo(out)
+                                }
 
-                            cursor.moveToNext()
-                        }
+                                cursor.moveToNext()
+                            }
+                            buffer.writeTo(out)
 
-                        footer()?.let { out.write(it) }
+                            footer()?.let { out.write(it) }
 
-                        Result.success(uri)
+                            Result.success(uri)
+                        }
                     }
+                } finally {
+                    splitParts.close()
+                    tags.close()
                 }
             }
         } ?: Result.failure(Exception("Cursor is null"))
@@ -134,4 +170,91 @@ abstract class AbstractExporter
     open fun recordDelimiter(isLastLine: Boolean): String? = "\n"
 
     open fun footer(): String? = null
-}
\ No newline at end of file
+
+    companion object {
+        /**
+         * the buffer is written to the output once it has reached this size
+         */
+        const val FLUSH_THRESHOLD = 8192
+
+        /**
+         * only the columns needed by [TransactionDTO.fromCursor] for split parts, which are sorted
+         * by the date of their parent, like the main cursor
+         */
+        private val SPLIT_PART_PROJECTION = arrayOf(
+            DatabaseConstants.KEY_ROWID,
+            DatabaseConstants.KEY_PARENTID,
+            DatabaseConstants.KEY_DATE,
+            DatabaseConstants.KEY_AMOUNT,
+            DatabaseConstants.KEY_COMMENT,
+            DatabaseConstants.LABEL_MAIN,
+            DatabaseConstants.LABEL_SUB,
+            DatabaseConstants.KEY_PAYEE_NAME,
+            DatabaseConstants.KEY_TRANSFER_PEER,
+            DatabaseConstants.KEY_PICTURE_URI,
+            "(SELECT ${DatabaseConstants.KEY_DATE} FROM ${DatabaseConstants.TABLE_TRANSACTIONS} parents WHERE parents.${DatabaseConstants.KEY_ROWID} = ${DatabaseConstants.VIEW_COMMITTED}.${DatabaseConstants.KEY_PARENTID}) AS $KEY_SORT_DATE"
+        )
+
+        private val TAG_PROJECTION = arrayOf(
+            DatabaseConstants.KEY_TRANSACTIONID,
+            KEY_LABEL,
+            "(SELECT ${DatabaseConstants.KEY_DATE} FROM ${DatabaseConstants.TABLE_TRANSACTIONS} WHERE ${DatabaseConstants.TABLE_TRANSACTIONS}.${DatabaseConstants.KEY_ROWID} = ${DatabaseConstants.TABLE_TRANSACTIONS_TAGS}.${DatabaseConstants.KEY_TRANSACTIONID}) AS $KEY_SORT_DATE"
+        )
+    }
+}
+
+/**
+ * Wraps a cursor that is sorted by the same (date, id) key as the main export cursor. Since the
+ * main cursor is traversed in this order, the rows belonging to each exported transaction are
+ * found by advancing this cursor, instead of running a query per transaction.
+ * @param keyColumn column holding the id of the exported transaction a row belongs to
+ */
+private class OrderedSideCursor(private val cursor: Cursor?, keyColumn: String) : Closeable {
+    private val columnIndexKey = cursor?.getColumnIndexOrThrow(keyColumn) ?: -1
+    private val columnIndexSortDate = cursor?.getColumnIndexOrThrow(KEY_SORT_DATE) ?: -1
+
+    init {
+        cursor?.moveToFirst()
+    }
+
+    /**
+     * skips rows of transactions that sort before the given one, then calls [block] for each row
+     * belonging to it
+     */
+    fun forEachRowOf(date: Long, id: Long, block: (Cursor) -> Unit) {
+        if (cursor == null) return
+        while (!cursor.isAfterLast) {
+            val rowDate = cursor.getLong(columnIndexSortDate)
+            val rowKey = cursor.getLong(columnIndexKey)
+            if (rowDate > date || (rowDate == date && rowKey > id)) return
+            if (rowDate == date && rowKey == id) block(cursor)
+            cursor.moveToNext()
+        }
+    }
+
+    override fun close() {
+        cursor?.close()
+    }
+}
+
+/**
+ * Calls [export] for each of [items] on up to [parallelism] threads, and returns the results in the
+ * order of [items]. Since exporters are not thread safe, each call needs to create its own, and
+ * write to its own file.
+ */
+fun <T, R> exportInParallel(items: List<T>, parallelism: Int, export: (Int, T) -> R): List<R> {
+    if (parallelism < 2 || items.size < 2) return items.mapIndexed(export)
+    val executor = Executors.newFixedThreadPool(min(parallelism, items.size))
+    try {
+        return items.mapIndexed { index, item -> executor.submit(Callable { export(index, item) }) }
+            .map {
+                try {
+                    it.get()
+                } catch (e: ExecutionException) {
+                    throw e.cause ?: e
+                }
+            }
+    } finally {
+        executor.shutdown()
+    }
+}
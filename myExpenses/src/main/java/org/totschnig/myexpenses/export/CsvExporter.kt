@@ -64,70 +64,72 @@ class CsvExporter(
         }.toString()
     } else null
 
-    override fun TransactionDTO.marshall() = StringBuilderWrapper().apply {
-        if (withAccountColumn) {
-            appendQ(account.label).append(delimiter)
-        }
-        val splitIndicator = if (splits != null) SplitTransaction.CSV_INDICATOR else ""
-        val amountAbsCSV = nfFormat.format(amount.abs())
-        appendQ(splitIndicator)
-            .append(delimiter)
-            .appendQ(dateStr)
-            .append(delimiter)
-            .appendQ(payee)
-            .append(delimiter)
-            .appendQ((if (amount.signum() == 1) amountAbsCSV else "0"))
-            .append(delimiter)
-            .appendQ((if (amount.signum() == -1) amountAbsCSV else "0"))
-            .append(delimiter)
-            .appendQ(labelMain)
-            .append(delimiter)
-            .appendQ(labelSub)
-            .append(delimiter)
-            .appendQ(comment)
-            .append(delimiter)
-            .appendQ(methodLabel ?: "")
-            .append(delimiter)
-            .appendQ(status?.symbol  ?: "")
-            .append(delimiter)
-            .appendQ(referenceNumber ?: "")
-            .append(delimiter)
-            .appendQ(pictureFileName ?: "")
-            .append(delimiter)
-            .appendQ(tagList ?: "")
-        splits?.forEach {
-            append("\n")
+    override fun TransactionDTO.marshall(out: StringBuilderWrapper) {
+        with(out) {
             if (withAccountColumn) {
-                appendQ("").append(delimiter)
+                appendQ(account.label).append(delimiter)
             }
-            with(it) {
-                val amountAbsCSV = nfFormat.format(amount.abs())
-                appendQ(SplitTransaction.CSV_PART_INDICATOR)
-                    .append(delimiter)
-                    .appendQ(dateStr)
-                    .append(delimiter)
-                    .appendQ(payee)
-                    .append(delimiter)
-                    .appendQ((if (amount.signum() == 1) amountAbsCSV else "0"))
-                    .append(delimiter)
-                    .appendQ((if (amount.signum() == -1) amountAbsCSV else "0"))
-                    .append(delimiter)
-                    .appendQ(labelMain)
-                    .append(delimiter)
-                    .appendQ(labelSub)
-                    .append(delimiter)
-                    .appendQ(comment)
-                    .append(delimiter)
-                    .appendQ("")
-                    .append(delimiter)
-                    .appendQ("")
-                    .append(delimiter)
-                    .appendQ("")
-                    .append(delimiter)
-                    .appendQ(pictureFileName ?: "")
-                    .append(delimiter)
-                    .appendQ("")
+            val splitIndicator = if (splits != null) SplitTransaction.CSV_INDICATOR else ""
+            val amountAbsCSV = nfFormat.format(amount.abs())
+            appendQ(splitIndicator)
+                .append(delimiter)
+                .appendQ(dateStr)
+                .append(delimiter)
+                .appendQ(payee)
+                .append(delimiter)
+                .appendQ((if (amount.signum() == 1) amountAbsCSV else "0"))
+                .append(delimiter)
+                .appendQ((if (amount.signum() == -1) amountAbsCSV else "0"))
+                .append(delimiter)
+                .appendQ(labelMain)
+                .append(delimiter)
+                .appendQ(labelSub)
+                .append(delimiter)
+                .appendQ(comment)
+                .append(delimiter)
+                .appendQ(methodLabel ?: "")
+                .append(delimiter)
+                .appendQ(status?.symbol  ?: "")
+                .append(delimiter)
+                .appendQ(referenceNumber ?: "")
+                .append(delimiter)
+                .appendQ(pictureFileName ?: "")
+                .append(delimiter)
+                .appendQ(tagList ?: "")
+            splits?.forEach {
+                append("\n")
+                if (withAccountColumn) {
+                    appendQ("").append(delimiter)
+                }
+                with(it) {
+                    val amountAbsCSV = nfFormat.format(amount.abs())
+                    appendQ(SplitTransaction.CSV_PART_INDICATOR)
+                        .append(delimiter)
+                        .appendQ(dateStr)
+                        .append(delimiter)
+                        .appendQ(payee)
+                        .append(delimiter)
+                        .appendQ((if (amount.signum() == 1) amountAbsCSV else "0"))
+                        .append(delimiter)
+                        .appendQ((if (amount.signum() == -1) amountAbsCSV else "0"))
+                        .append(delimiter)
+                        .appendQ(labelMain)
+                        .append(delimiter)
+                        .appendQ(labelSub)
+                        .append(delimiter)
+                        .appendQ(comment)
+                        .append(delimiter)
+                        .appendQ("")
+                        .append(delimiter)
+                        .appendQ("")
+                        .append(delimiter)
+                        .appendQ("")
+                        .append(delimiter)
+                        .appendQ(pictureFileName ?: "")
+                        .append(delimiter)
+                        .appendQ("")
+                }
             }
         }
-    }.toString()
+    }
 }
\ No newline at end of file
@@ -0,0 +1,276 @@
+package org.totschnig.myexpenses.export
+
+import android.content.ContentProviderOperation
+import org.apache.commons.csv.CSVRecord
+import org.apache.commons.text.StringTokenizer
+import org.apache.commons.text.matcher.StringMatcherFactory
+import org.totschnig.myexpenses.R
+import org.totschnig.myexpenses.db2.AutoFillInfo
+import org.totschnig.myexpenses.db2.Repository
+import org.totschnig.myexpenses.export.qif.QifDateFormat
+import org.totschnig.myexpenses.export.qif.QifUtils
+import org.totschnig.myexpenses.model.Account
+import org.totschnig.myexpenses.model.CrStatus
+import org.totschnig.myexpenses.model.CurrencyUnit
+import org.totschnig.myexpenses.model.Money
+import org.totschnig.myexpenses.model.PaymentMethod
+import org.totschnig.myexpenses.model.SplitTransaction
+import org.totschnig.myexpenses.model.Transaction
+import org.totschnig.myexpenses.model.Transfer
+import org.totschnig.myexpenses.model.extractTagIds
+import org.totschnig.myexpenses.model.saveTagLinks
+import org.totschnig.myexpenses.provider.LabelIdCache
+import timber.log.Timber
+import java.math.BigDecimal
+
+/**
+ * Resolves the labels found in imported data to database ids
+ */
+interface ImportLookup {
+    /**
+     * @param path category, optionally followed by ':' and subcategory
+     */
+    fun categoryId(path: String): Long?
+    fun transferAccountId(label: String): Long?
+    fun payee(name: String, autoFill: Boolean): Pair<Long, AutoFillInfo?>
+    fun methodId(label: String): Long?
+    fun tagIds(tags: List<String>): List<Long>
+}
+
+/**
+ * Resolves category, method and tag labels through the shared [LabelIdCache], so that the database
+ * is hit only once per distinct label. Payees with their auto fill information and transfer
+ * accounts are kept in memory for the duration of one import.
+ */
+class CachingImportLookup(private val repository: Repository, labelIdCache: LabelIdCache) : ImportLookup {
+    private val categoryToId: MutableMap<String, Long> = labelIdCache.categories
+    private val accountToId: MutableMap<String, Long> = HashMap()
+    private val payeeToInfo: MutableMap<String, Pair<Long, AutoFillInfo?>> = HashMap()
+    private val payeesWithAutoFill: MutableSet<String> = HashSet()
+    private val methodToId: MutableMap<String, Long> = labelIdCache.methods
+    private val tagToId: MutableMap<String, Long> = labelIdCache.tags
+
+    override fun categoryId(path: String): Long? = categoryToId[path] ?: run {
+        CategoryInfo(path).insert(categoryToId, false)
+        categoryToId[path]
+    }
+
+    override fun transferAccountId(label: String) =
+        accountToId.getOrPut(label) { Account.findAnyOpen(label) }.takeIf { it != -1L }
+
+    override fun payee(name: String, autoFill: Boolean): Pair<Long, AutoFillInfo?> {
+        val cached = payeeToInfo[name]
+        return if (cached != null && (!autoFill || payeesWithAutoFill.contains(name))) {
+            if (autoFill) cached else Pair(cached.first, null)
+        } else {
+            repository.findOrWritePayeeInfo(name, autoFill).also {
+                payeeToInfo[name] = it
+                if (autoFill) payeesWithAutoFill.add(name)
+            }
+        }
+    }
+
+    override fun methodId(label: String) =
+        (PaymentMethod.PreDefined.values().find { it.localizedLabel == label }?.name ?: label).let {
+            methodToId.getOrPut(it) { PaymentMethod.find(it) }
+        }.takeIf { it != -1L }
+
+    override fun tagIds(tags: List<String>) = extractTagIds(tags, tagToId)
+}
+
+/**
+ * Streams CSV records into an account. Records are converted into operations which are handed
+ * over to [writer] in chunks of [chunkSize] transactions, so that each chunk is written in one
+ * batch. A split transaction is never distributed over two chunks, since its parts reference
+ * their parent by back reference. If a chunk fails, its transactions are written one by one, so
+ * that only the failing ones are lost.
+ *
+ * @param writer applies a batch and returns the number of results
+ */
+class CsvImporter(
+    private val accountId: Long,
+    private val currencyUnit: CurrencyUnit,
+    private val columnToFieldMap: IntArray,
+    private val dateFormat: QifDateFormat,
+    private val autoFill: Boolean,
+    private val transferCategoryLabel: String,
+    private val lookup: ImportLookup,
+    private val chunkSize: Int = DEFAULT_CHUNK_SIZE,
+    private val writer: (ArrayList<ContentProviderOperation>) -> Int
+) {
+    private val columnIndexAmount = columnToFieldMap.indexOf(R.string.amount)
+    private val columnIndexExpense = columnToFieldMap.indexOf(R.string.expense)
+    private val columnIndexIncome = columnToFieldMap.indexOf(R.string.income)
+    private val columnIndexDate = columnToFieldMap.indexOf(R.string.date).takeIf { it > -1 }
+        ?: columnToFieldMap.indexOf(R.string.booking_date)
+    private val columnIndexValueDate = columnToFieldMap.indexOf(R.string.value_date)
+    private val columnIndexPayee = columnToFieldMap.indexOf(R.string.payer_or_payee)
+    private val columnIndexNotes = columnToFieldMap.indexOf(R.string.comment)
+    private val columnIndexCategory = columnToFieldMap.indexOf(R.string.category)
+    private val columnIndexSubcategory = columnToFieldMap.indexOf(R.string.subcategory)
+    private val columnIndexMethod = columnToFieldMap.indexOf(R.string.method)
+    private val columnIndexStatus = columnToFieldMap.indexOf(R.string.status)
+    private val columnIndexNumber = columnToFieldMap.indexOf(R.string.reference_number)
+    private val columnIndexSplit = columnToFieldMap.indexOf(R.string.split_transaction)
+    private val columnIndexTags = columnToFieldMap.indexOf(R.string.tags)
+
+    /**
+     * a record converted into a transaction, with the ids of its tags
+     */
+    private class Row(val transaction: Transaction, val tagIds: List<Long>?)
+
+    /**
+     * transactions of the current chunk, each of them a list holding a split transaction
+     * together with its parts, or a single transaction
+     */
+    private val pending = ArrayList<MutableList<Row>>()
+    var totalImported = 0
+        private set
+    var totalFailed = 0
+        private set
+
+    /**
+     * @param onProgress called after each chunk with the number of transactions imported so far
+     * @throws IllegalArgumentException if an amount exceeds the storage limit
+     */
+    fun import(records: Sequence<CSVRecord>, onProgress: (Int) -> Unit) {
+        for (record in records) {
+            val split = if (columnIndexSplit != -1) saveGetFromRecord(record, columnIndexSplit) else null
+            val isSplitPart = split == SplitTransaction.CSV_PART_INDICATOR
+            if (!isSplitPart && pending.size >= chunkSize) {
+                flush(onProgress)
+            }
+            val row = collect(record, split == SplitTransaction.CSV_INDICATOR)
+            val parent = pending.lastOrNull()?.takeIf { it.first().transaction is SplitTransaction }
+            if (isSplitPart && parent != null) {
+                parent.add(row)
+            } else {
+                pending.add(mutableListOf(row))
+            }
+        }
+        flush(onProgress)
+    }
+
+    private fun flush(onProgress: (Int) -> Unit) {
+        if (pending.isEmpty()) return
+        if (write(pending)) {
+            totalImported += pending.size
+        } else if (pending.size == 1) {
+            totalFailed++
+        } else {
+            for (transaction in pending) {
+                if (write(listOf(transaction))) totalImported++ else totalFailed++
+            }
+        }
+        pending.clear()
+        onProgress(totalImported)
+    }
+
+    private fun write(transactions: List<List<Row>>): Boolean {
+        val ops = ArrayList<ContentProviderOperation>()
+        for (transaction in transactions) {
+            var parentOffset = -1
+            for (row in transaction) {
+                val offset = ops.size
+                ops.addAll(row.transaction.buildSaveOperations(offset, parentOffset, false, false))
+                row.tagIds?.let { ops.addAll(saveTagLinks(it, null, offset, false)) }
+                if (row.transaction is SplitTransaction) {
+                    parentOffset = offset
+                }
+            }
+        }
+        return try {
+            writer(ops) == ops.size
+        } catch (e: Exception) {
+            Timber.w(e)
+            false
+        }
+    }
+
+    private fun collect(record: CSVRecord, isSplitParent: Boolean): Row {
+        var transferAccountId: Long? = null
+        var categoryInfo: String? = null
+        val amount = if (columnIndexAmount != -1) {
+            QifUtils.parseMoney(saveGetFromRecord(record, columnIndexAmount), currencyUnit)
+        } else {
+            val income = if (columnIndexIncome != -1) QifUtils.parseMoney(saveGetFromRecord(record, columnIndexIncome), currencyUnit).abs() else BigDecimal(0)
+            val expense = if (columnIndexExpense != -1) QifUtils.parseMoney(saveGetFromRecord(record, columnIndexExpense), currencyUnit).abs() else BigDecimal(0)
+            income.subtract(expense)
+        }
+        val m = Money(currencyUnit, amount)
+        if (!isSplitParent && columnIndexCategory != -1) {
+            val category: String = saveGetFromRecord(record, columnIndexCategory)
+            if (category != "") {
+                val subCategory = if (columnIndexSubcategory != -1) saveGetFromRecord(record, columnIndexSubcategory) else ""
+                if (category == transferCategoryLabel &&
+                        subCategory != "" &&
+                        QifUtils.isTransferCategory(subCategory)) {
+                    transferAccountId = lookup.transferAccountId(subCategory.substring(1, subCategory.length - 1))
+                } else if (QifUtils.isTransferCategory(category)) {
+                    transferAccountId = lookup.transferAccountId(category.substring(1, category.length - 1))
+                }
+                if (transferAccountId == null) {
+                    categoryInfo = category
+                    if (subCategory != "") {
+                        categoryInfo += ":$subCategory"
+                    }
+                }
+            }
+        }
+        val t: Transaction = when {
+            isSplitParent -> SplitTransaction(accountId, m)
+            transferAccountId != null -> Transfer(accountId, m, transferAccountId)
+            else -> Transaction(accountId, m)
+        }
+        if (!categoryInfo.isNullOrEmpty()) {
+            t.catId = lookup.categoryId(categoryInfo)
+        }
+        if (columnIndexDate != -1) {
+            t.date = QifUtils.parseDate(saveGetFromRecord(record, columnIndexDate), dateFormat).time / 1000
+        }
+        if (columnIndexValueDate != -1) {
+            t.valueDate = QifUtils.parseDate(saveGetFromRecord(record, columnIndexValueDate), dateFormat).time / 1000
+        }
+        if (columnIndexPayee != -1) {
+            val payee: String = saveGetFromRecord(record, columnIndexPayee)
+            if (payee != "") {
+                val payeeInfo = lookup.payee(payee, autoFill && t.catId == null)
+                t.payeeId = payeeInfo.first
+                payeeInfo.second?.categoryId?.let {
+                    t.catId = it
+                }
+            }
+        }
+        if (columnIndexNotes != -1) {
+            t.comment = saveGetFromRecord(record, columnIndexNotes)
+        }
+        if (columnIndexMethod != -1) {
+            saveGetFromRecord(record, columnIndexMethod).takeIf { it != "" }?.let { method ->
+                lookup.methodId(method)?.let { t.methodId = it }
+            }
+        }
+        if (columnIndexStatus != -1) {
+            t.crStatus = CrStatus.fromQifName(saveGetFromRecord(record, columnIndexStatus))
+        }
+        if (columnIndexNumber != -1) {
+            t.referenceNumber = saveGetFromRecord(record, columnIndexNumber)
+        }
+        val tagIds = if (columnIndexTags != -1) {
+            saveGetFromRecord(record, columnIndexTags).takeIf { it != "" }?.let { tagList ->
+                val tokenizer = StringTokenizer(tagList)
+                tokenizer.quoteMatcher = StringMatcherFactory.INSTANCE.quoteMatcher()
+                tokenizer.delimiterMatcher = StringMatcherFactory.INSTANCE.commaMatcher()
+                lookup.tagIds(tokenizer.tokenList)
+            }
+        } else null
+        return Row(t, tagIds)
+    }
+
+    private fun saveGetFromRecord(record: CSVRecord, index: Int): String {
+        return if (record.size() > index) record[index].trim() else ""
+    }
+
+    companion object {
+        const val DEFAULT_CHUNK_SIZE = 500
+    }
+}
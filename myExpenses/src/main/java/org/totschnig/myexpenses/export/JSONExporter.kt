@@ -6,6 +6,7 @@ import org.totschnig.myexpenses.model.Account
 import org.totschnig.myexpenses.model.ExportFormat
 import org.totschnig.myexpenses.model.TransactionDTO
 import org.totschnig.myexpenses.provider.filter.WhereFilter
+import org.totschnig.myexpenses.util.StringBuilderWrapper
 
 /**
  * @param account          Account to print
@@ -32,7 +33,9 @@ class JSONExporter(
 
     override fun header(context: Context) = "["
 
-    override fun TransactionDTO.marshall(): String = gson.toJson(this)
+    override fun TransactionDTO.marshall(out: StringBuilderWrapper) {
+        gson.toJson(this, out)
+    }
 
     override fun recordDelimiter(isLastLine: Boolean) = if (isLastLine) null else ","
 
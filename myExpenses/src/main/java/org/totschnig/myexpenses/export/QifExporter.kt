@@ -25,35 +25,37 @@ class QifExporter(
         .append(account.type.toQifName())
         .append("\n").toString()
 
-    override fun TransactionDTO.marshall() = StringBuilderWrapper().apply {
-        append("D")
-            .append(dateStr)
-            .append("\nT")
-            .append(nfFormat.format(amount))
-        comment.takeIf { it.isNotEmpty() }?.let {
-            append("\nM").append(it)
-        }
-        fullLabel.takeIf { it.isNotEmpty() }?.let {
-            append("\nL").append(it)
-        }
-        payee.takeIf { it.isNotEmpty() }?.let {
-            append("\nP").append(it)
-        }
-        status?.symbol?.takeIf { it != "" }?.let {
-            append("\nC").append(it)
-        }
-        referenceNumber?.takeIf { it.isNotEmpty() }?.let {
-            append("\nN").append(it)
-        }
+    override fun TransactionDTO.marshall(out: StringBuilderWrapper) {
+        with(out) {
+            append("D")
+                .append(dateStr)
+                .append("\nT")
+                .append(nfFormat.format(amount))
+            comment.takeIf { it.isNotEmpty() }?.let {
+                append("\nM").append(it)
+            }
+            fullLabel.takeIf { it.isNotEmpty() }?.let {
+                append("\nL").append(it)
+            }
+            payee.takeIf { it.isNotEmpty() }?.let {
+                append("\nP").append(it)
+            }
+            status?.symbol?.takeIf { it != "" }?.let {
+                append("\nC").append(it)
+            }
+            referenceNumber?.takeIf { it.isNotEmpty() }?.let {
+                append("\nN").append(it)
+            }
 
-        splits?.forEach { split ->
-            append("\n").append("S").append(split.fullLabel)
-            split.comment.takeIf { it.isNotEmpty() }?.let {
-                append("\nE").append(it)
+            splits?.forEach { split ->
+                append("\n").append("S").append(split.fullLabel)
+                split.comment.takeIf { it.isNotEmpty() }?.let {
+                    append("\nE").append(it)
+                }
+                append("\n$").append(nfFormat.format(split.amount))
             }
-            append("\n$").append(nfFormat.format(split.amount))
         }
-    }.toString()
+    }
 
     override fun recordDelimiter(isLastLine: Boolean): String = "\n^\n"
 }
\ No newline at end of file
@@ -0,0 +1,130 @@
+package org.totschnig.myexpenses.export
+
+import android.content.ContentProviderOperation
+import org.totschnig.myexpenses.export.qif.QifAccount
+import org.totschnig.myexpenses.export.qif.QifParser
+import org.totschnig.myexpenses.export.qif.QifTransaction
+import org.totschnig.myexpenses.export.qif.QifTransferReducer
+import org.totschnig.myexpenses.model.Account
+import org.totschnig.myexpenses.model.Transaction
+import java.io.IOException
+
+/**
+ * Resolves the labels found in a QIF file to database ids
+ */
+interface QifLookup {
+    fun payeeId(name: String?): Long?
+    fun categoryId(path: String?): Long?
+
+    /**
+     * @param title the title of an account in the QIF file
+     */
+    fun transferAccountId(title: String): Long?
+}
+
+/**
+ * Receives the transactions of a QIF file from [QifParser.stream] and writes them into the database
+ * accounts that have been assigned to the [accounts] of the first pass. Transfers are reduced by
+ * [transferReducer], which has to be prepared during the first pass. Transactions are converted into
+ * operations which are handed over to [writer] in chunks of [chunkSize] transactions, a split
+ * transaction always together with its parts. [finish] must be called once the parser is done.
+ *
+ * @param writer applies a batch and returns the number of results, a failure aborts the import
+ * @param onAccountImported called for each account in the order of [accounts]
+ */
+class QifImporter(
+    private val accounts: List<QifAccount>,
+    private val transferReducer: QifTransferReducer,
+    private val lookup: QifLookup,
+    private val chunkSize: Int,
+    private val writer: BatchWriter,
+    private val onAccountImported: AccountListener
+) : QifParser.TransactionHandler {
+
+    fun interface BatchWriter {
+        @Throws(IOException::class)
+        fun write(ops: ArrayList<ContentProviderOperation>): Int
+    }
+
+    fun interface AccountListener {
+        /**
+         * @param count number of imported transactions, 0 if [QifAccount.dbAccount] is null
+         */
+        fun onAccountImported(account: QifAccount, count: Int)
+    }
+
+    private val ops = ArrayList<ContentProviderOperation>()
+    private var pending = 0
+    private var currentAccount = -1
+    private var currentAccountCount = 0
+    var totalImported = 0
+        private set
+
+    @Throws(IOException::class)
+    override fun onTransaction(accountIndex: Int, ordinal: Int, transaction: QifTransaction) {
+        moveToAccount(accountIndex)
+        val account = accounts[accountIndex].dbAccount ?: return
+        if (transferReducer.isReduced(accountIndex, ordinal)) return
+        transferReducer.apply(accountIndex, ordinal, transaction)
+        if (pending >= chunkSize) {
+            flush()
+        }
+        collect(account, transaction)
+    }
+
+    @Throws(IOException::class)
+    fun finish() {
+        moveToAccount(accounts.size)
+    }
+
+    /**
+     * Completes the current account and reports the accounts without transactions up to
+     * [accountIndex]. Chunks do not span accounts, so that counts can be reported per account.
+     */
+    private fun moveToAccount(accountIndex: Int) {
+        if (accountIndex == currentAccount) return
+        if (currentAccount > -1) {
+            flush()
+            onAccountImported.onAccountImported(accounts[currentAccount], currentAccountCount)
+        }
+        for (skipped in currentAccount + 1 until accountIndex) {
+            onAccountImported.onAccountImported(accounts[skipped], 0)
+        }
+        currentAccount = accountIndex
+        currentAccountCount = 0
+    }
+
+    private fun flush() {
+        if (pending == 0) return
+        if (writer.write(ops) == ops.size) {
+            totalImported += pending
+            currentAccountCount += pending
+        }
+        ops.clear()
+        pending = 0
+    }
+
+    private fun collect(account: Account, transaction: QifTransaction) {
+        val t = transaction.toTransaction(account)
+        t.payeeId = lookup.payeeId(transaction.payee)
+        findToAccount(transaction, t)
+        val offset = ops.size
+        if (transaction.splits == null) {
+            t.catId = lookup.categoryId(transaction.category)
+        }
+        ops.addAll(t.buildSaveOperations(offset, -1, false, false))
+        transaction.splits?.forEach { split ->
+            val s = split.toTransaction(account)
+            findToAccount(split, s)
+            s.catId = lookup.categoryId(split.category)
+            ops.addAll(s.buildSaveOperations(ops.size, offset, false, false))
+        }
+        pending++
+    }
+
+    private fun findToAccount(transaction: QifTransaction, t: Transaction) {
+        transaction.toAccount?.let { title ->
+            lookup.transferAccountId(title)?.let { t.transferAccountId = it }
+        }
+    }
+}
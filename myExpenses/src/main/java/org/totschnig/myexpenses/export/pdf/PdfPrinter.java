@@ -13,10 +13,12 @@ import com.itextpdf.text.Element;
 import com.itextpdf.text.Paragraph;
 import com.itextpdf.text.Phrase;
 import com.itextpdf.text.pdf.PdfContentByte;
+import com.itextpdf.text.pdf.PdfCopy;
 import com.itextpdf.text.pdf.PdfPCell;
 import com.itextpdf.text.pdf.PdfPRow;
 import com.itextpdf.text.pdf.PdfPTable;
 import com.itextpdf.text.pdf.PdfPTableEvent;
+import com.itextpdf.text.pdf.PdfReader;
 import com.itextpdf.text.pdf.PdfWriter;
 import com.itextpdf.text.pdf.draw.LineSeparator;
 
@@ -44,12 +46,20 @@ import org.totschnig.myexpenses.util.io.FileUtils;
 import org.totschnig.myexpenses.util.locale.UserLocaleProvider;
 import org.totschnig.myexpenses.viewmodel.data.DateInfo;
 
+import java.io.File;
+import java.io.FileOutputStream;
 import java.io.IOException;
+import java.io.OutputStream;
 import java.text.DateFormat;
 import java.text.SimpleDateFormat;
+import java.util.ArrayList;
 import java.util.Date;
 import java.util.HashMap;
 import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 
 import javax.inject.Inject;
 
@@ -89,6 +99,54 @@ import static org.totschnig.myexpenses.util.CurrencyFormatterKt.formatMoney;
 
 public class PdfPrinter {
   private static final String VOID_MARKER = "void";
+  /**
+   * number of transactions after which a table is flushed, around the number fitting on one page
+   */
+  private static final int ROWS_PER_FLUSH = 30;
+  /**
+   * strikes through rows of void transactions
+   */
+  private static final PdfPTableEvent VOID_STRIKE_THROUGH = new PdfPTableEvent() {
+
+    private Object findFirstChunkGenericTag(PdfPRow row) {
+      for (PdfPCell cell : row.getCells()) {
+        if (cell != null) {
+          Phrase phrase = cell.getPhrase();
+          if (phrase != null) {
+            final List<Chunk> chunks = phrase.getChunks();
+            if (chunks.size() > 0) {
+              final HashMap<String, Object> attributes = chunks.get(0).getAttributes();
+              if (attributes != null) {
+                return attributes.get(GENERICTAG);
+              }
+            }
+          }
+        }
+      }
+      return null;
+    }
+
+    @Override
+    public void tableLayout(PdfPTable table1, float[][] widths, float[] heights, int headerRows, int rowStart, PdfContentByte[] canvases) {
+      for (int row = rowStart; row < widths.length; row++) {
+        if (VOID_MARKER.equals(findFirstChunkGenericTag(table1.getRow(row)))) {
+          final PdfContentByte canvas = canvases[PdfPTable.BASECANVAS];
+          canvas.saveState();
+          canvas.setColorStroke(BaseColor.RED);
+          final float left = widths[row][0];
+          final float right = widths[row][widths[row].length - 1];
+          final float bottom = heights[row];
+          final float top = heights[row + 1];
+          final float center = (bottom + top) / 2;
+          canvas.moveTo(left, center);
+          canvas.lineTo(right, center);
+          canvas.stroke();
+          canvas.restoreState();
+        }
+      }
+    }
+  };
+
   private Account account;
   private DocumentFile destDir;
   private WhereFilter filter;
@@ -106,56 +164,159 @@ public class PdfPrinter {
   }
 
   public Result<Uri> print(Context context) throws IOException, DocumentException {
-    long start = System.currentTimeMillis();
-    Timber.d("Print start %d", start);
-    PdfHelper helper = new PdfHelper();
-    Timber.d("Helper created %d", (System.currentTimeMillis() - start));
-    String selection = account.getSelectionForTransactionList();
-    String[] selectionArgs = account.getSelectionArgsForTransactionList();
-    if (filter != null && !filter.isEmpty()) {
-      selection += " AND " + filter.getSelectionForParents(DatabaseConstants.VIEW_EXTENDED);
-      selectionArgs = Utils.joinArrays(selectionArgs, filter.getSelectionArgs(false));
-    }
-    Cursor transactionCursor;
     String fileName = account.getLabel().replaceAll("\\W", "");
     DocumentFile outputFile = AppDirHelper.timeStampedFile(
         destDir,
         fileName,
         "application/pdf", null);
-    Document document = new Document();
-    transactionCursor = Model.cr().query(
-        account.getExtendedUriForTransactionList(false), account.getExtendedProjectionForTransactionList(),
-        selection + " AND " + KEY_PARENTID + " is null", selectionArgs, KEY_DATE + " ASC");
-    //first we check if there are any exportable transactions
-    //String selection = KEY_ACCOUNTID + " = " + getId() + " AND " + KEY_PARENTID + " is null";
-    if (transactionCursor.getCount() == 0) {
-      transactionCursor.close();
+    //then we check if the filename we construct already exists
+    if (outputFile == null) {
+      return Result.ofFailure(
+          R.string.io_error_unable_to_create_file,
+          fileName,
+          FileUtils.getPath(context, destDir.getUri()));
+    }
+    boolean written;
+    try (OutputStream outputStream = Model.cr().openOutputStream(outputFile.getUri())) {
+      written = write(context, outputStream);
+    }
+    if (!written) {
+      outputFile.delete();
       return Result.ofFailure(R.string.no_exportable_expenses);
     }
-    //then we check if the filename we construct already exists
+    return Result.ofSuccess(R.string.export_sdcard_success, outputFile.getUri(),
+        FileUtils.getPath(context, outputFile.getUri()));
+  }
+
+  /**
+   * Prints each of the accounts into a temporary file, on as many threads as there are processors,
+   * and concatenates the files in the order of accounts into one document. Accounts without
+   * transactions are left out.
+   */
+  public static Result<Uri> printAll(Context context, List<Account> accounts, DocumentFile destDir, WhereFilter filter)
+      throws IOException, DocumentException {
+    String fileName = context.getString(R.string.app_name).replaceAll("\\W", "");
+    DocumentFile outputFile = AppDirHelper.timeStampedFile(
+        destDir,
+        fileName,
+        "application/pdf", null);
     if (outputFile == null) {
-      transactionCursor.close();
       return Result.ofFailure(
           R.string.io_error_unable_to_create_file,
           fileName,
           FileUtils.getPath(context, destDir.getUri()));
     }
-    PdfWriter.getInstance(document, Model.cr().openOutputStream(outputFile.getUri()));
-    Timber.d("All setup %d", (System.currentTimeMillis() - start));
-    document.open();
-    Timber.d("Document open %d", (System.currentTimeMillis() - start));
-    addMetaData(document);
-    Timber.d("Metadata %d", (System.currentTimeMillis() - start));
-    addHeader(document, helper, context);
-    Timber.d("Header %d", (System.currentTimeMillis() - start));
-    addTransactionList(document, transactionCursor, helper, filter, context);
-    Timber.d("List %d", (System.currentTimeMillis() - start));
-    transactionCursor.close();
-    document.close();
+    ExecutorService executor = Executors.newFixedThreadPool(
+        Math.max(1, Math.min(accounts.size(), Runtime.getRuntime().availableProcessors())));
+    List<Future<File>> parts = new ArrayList<>(accounts.size());
+    try {
+      for (Account account : accounts) {
+        parts.add(executor.submit(() -> {
+          File part = File.createTempFile("print", ".pdf", context.getCacheDir());
+          boolean written;
+          try (OutputStream outputStream = new FileOutputStream(part)) {
+            written = new PdfPrinter(account, destDir, filter).write(context, outputStream);
+          }
+          if (!written) {
+            part.delete();
+            return null;
+          }
+          return part;
+        }));
+      }
+      Document document = null;
+      try (OutputStream outputStream = Model.cr().openOutputStream(outputFile.getUri())) {
+        PdfCopy copy = null;
+        for (Future<File> future : parts) {
+          File part = getPart(future);
+          if (part == null) continue;
+          if (document == null) {
+            document = new Document();
+            copy = new PdfCopy(document, outputStream);
+            document.open();
+          }
+          PdfReader reader = new PdfReader(part.getPath());
+          copy.addDocument(reader);
+          copy.freeReader(reader);
+          reader.close();
+          part.delete();
+        }
+        if (document != null) {
+          document.close();
+        }
+      }
+      if (document == null) {
+        outputFile.delete();
+        return Result.ofFailure(R.string.no_exportable_expenses);
+      }
+    } finally {
+      executor.shutdownNow();
+      for (Future<File> future : parts) {
+        if (future.isDone() && !future.isCancelled()) {
+          try {
+            File part = future.get();
+            if (part != null) part.delete();
+          } catch (ExecutionException | InterruptedException ignored) {
+          }
+        }
+      }
+    }
     return Result.ofSuccess(R.string.export_sdcard_success, outputFile.getUri(),
         FileUtils.getPath(context, outputFile.getUri()));
   }
 
+  private static File getPart(Future<File> future) throws IOException, DocumentException {
+    try {
+      return future.get();
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new IOException(e);
+    } catch (ExecutionException e) {
+      Throwable cause = e.getCause();
+      if (cause instanceof IOException) throw (IOException) cause;
+      if (cause instanceof DocumentException) throw (DocumentException) cause;
+      if (cause instanceof RuntimeException) throw (RuntimeException) cause;
+      throw new IOException(cause);
+    }
+  }
+
+  /**
+   * @return false if there are no transactions to print, in which case nothing is written
+   */
+  private boolean write(Context context, OutputStream outputStream) throws IOException, DocumentException {
+    long start = System.currentTimeMillis();
+    Timber.d("Print start %d", start);
+    String selection = account.getSelectionForTransactionList();
+    String[] selectionArgs = account.getSelectionArgsForTransactionList();
+    if (filter != null && !filter.isEmpty()) {
+      selection += " AND " + filter.getSelectionForParents(DatabaseConstants.VIEW_EXTENDED);
+      selectionArgs = Utils.joinArrays(selectionArgs, filter.getSelectionArgs(false));
+    }
+    try (Cursor transactionCursor = Model.cr().query(
+        account.getExtendedUriForTransactionList(false), account.getExtendedProjectionForTransactionList(),
+        selection + " AND " + KEY_PARENTID + " is null", selectionArgs, KEY_DATE + " ASC")) {
+      //first we check if there are any exportable transactions
+      if (transactionCursor == null || transactionCursor.getCount() == 0) {
+        return false;
+      }
+      PdfHelper helper = new PdfHelper();
+      Timber.d("Helper created %d", (System.currentTimeMillis() - start));
+      Document document = new Document();
+      PdfWriter.getInstance(document, outputStream).setCloseStream(false);
+      Timber.d("All setup %d", (System.currentTimeMillis() - start));
+      document.open();
+      Timber.d("Document open %d", (System.currentTimeMillis() - start));
+      addMetaData(document);
+      Timber.d("Metadata %d", (System.currentTimeMillis() - start));
+      addHeader(document, helper, context);
+      Timber.d("Header %d", (System.currentTimeMillis() - start));
+      addTransactionList(document, transactionCursor, helper, filter, context);
+      Timber.d("List %d", (System.currentTimeMillis() - start));
+      document.close();
+    }
+    return true;
+  }
+
   private void addMetaData(Document document) {
     document.addTitle(account.getLabel());
     document.addSubject("Generated by MyExpenses.mobi");
@@ -234,6 +395,9 @@ public class PdfPrinter {
     int columnIndexDate = transactionCursor.getColumnIndex(KEY_DATE);
     int columnIndexCrStatus = transactionCursor.getColumnIndex(KEY_CR_STATUS);
     int columnIndexTagList = transactionCursor.getColumnIndex(KEY_TAGLIST);
+    int columnIndexCatId = transactionCursor.getColumnIndex(KEY_CATID);
+    int columnIndexAccountLabel = transactionCursor.getColumnIndex(KEY_ACCOUNT_LABEL);
+    int columnIndexIsSameCurrency = transactionCursor.getColumnIndex(KEY_IS_SAME_CURRENCY);
     DateFormat itemDateFormat;
     switch (account.getGrouping()) {
       case DAY:
@@ -251,6 +415,12 @@ public class PdfPrinter {
         itemDateFormat = Utils.localizedYearLessDateFormat(ctx);
     }
     PdfPTable table = null;
+    int rowsInTable = 0;
+    //rows are formatted with the same date formatter, hence dates can be reused within a day
+    final boolean dateDependsOnTime = account.getGrouping() == Grouping.DAY;
+    final Date date = new Date();
+    int previousDateKey = -1;
+    String formattedDate = null;
 
     int prevHeaderId = 0, currentHeaderId;
 
@@ -283,6 +453,7 @@ public class PdfPrinter {
       }
       if (currentHeaderId != prevHeaderId) {
         if (table != null) {
+          table.setComplete(true);
           document.add(table);
         }
         switch (account.getGrouping()) {
@@ -334,64 +505,29 @@ public class PdfPrinter {
         LineSeparator sep = new LineSeparator();
         document.add(sep);
         table = helper.newTable(4);
-        table.setTableEvent(new PdfPTableEvent() {
-
-          private Object findFirstChunkGenericTag(PdfPRow row) {
-            for (PdfPCell cell : row.getCells()) {
-              if (cell != null) {
-                Phrase phrase = cell.getPhrase();
-                if (phrase != null) {
-                  final List<Chunk> chunks = phrase.getChunks();
-                  if (chunks.size() > 0) {
-                    final HashMap<String, Object> attributes = chunks.get(0).getAttributes();
-                    if (attributes != null) {
-                      return attributes.get(GENERICTAG);
-                    }
-                  }
-                }
-              }
-            }
-            return null;
-          }
-
-          @Override
-          public void tableLayout(PdfPTable table1, float[][] widths, float[] heights, int headerRows, int rowStart, PdfContentByte[] canvases) {
-            for (int row = rowStart; row < widths.length; row++) {
-              if (VOID_MARKER.equals(findFirstChunkGenericTag(table1.getRow(row)))) {
-                final PdfContentByte canvas = canvases[PdfPTable.BASECANVAS];
-                canvas.saveState();
-                canvas.setColorStroke(BaseColor.RED);
-                final float left = widths[row][0];
-                final float right = widths[row][widths[row].length - 1];
-                final float bottom = heights[row];
-                final float top = heights[row + 1];
-                final float center = (bottom + top) / 2;
-                canvas.moveTo(left, center);
-                canvas.lineTo(right, center);
-                canvas.stroke();
-                canvas.restoreState();
-              }
-            }
-          }
-        });
+        table.setTableEvent(VOID_STRIKE_THROUGH);
         table.setWidths(table.getRunDirection() == PdfWriter.RUN_DIRECTION_RTL ?
             new int[]{2, 3, 5, 1} : new int[]{1, 5, 3, 2});
         table.setSpacingBefore(2f);
         table.setSpacingAfter(2f);
         table.setWidthPercentage(100f);
+        //rows are flushed to the writer while they are added, instead of holding the whole group in memory
+        table.setComplete(false);
+        rowsInTable = 0;
         prevHeaderId = currentHeaderId;
         groupCursor.moveToNext();
         previousBalance = interimBalance;
       }
       long amount = transactionCursor.getLong(columnIndexAmount);
-      boolean isVoid = false;
-      try {
-        isVoid = CrStatus.valueOf(transactionCursor.getString(columnIndexCrStatus)) == CrStatus.VOID;
-      } catch (IllegalArgumentException ignored) {
-      }
+      boolean isVoid = CrStatus.VOID.name().equals(transactionCursor.getString(columnIndexCrStatus));
 
-      PdfPCell cell = helper.printToCell(Utils.convDateTime(transactionCursor.getLong(columnIndexDate), itemDateFormat),
-          FontType.NORMAL);
+      int dateKey = transactionCursor.getInt(columnIndexYear) * 1000 + day;
+      if (dateDependsOnTime || dateKey != previousDateKey) {
+        date.setTime(transactionCursor.getLong(columnIndexDate) * 1000L);
+        formattedDate = itemDateFormat.format(date);
+        previousDateKey = dateKey;
+      }
+      PdfPCell cell = helper.printToCell(formattedDate, FontType.NORMAL);
       table.addCell(cell);
       if (isVoid) {
         cell.getPhrase().getChunks().get(0).setGenericTag(VOID_MARKER);
@@ -401,7 +537,7 @@ public class PdfPrinter {
       if (DbUtils.getLongOrNull(transactionCursor, columnIndexTransferPeer) != null) {
         catText = Transfer.getIndicatorPrefixForLabel(amount) + catText;
       } else {
-        Long catId = DbUtils.getLongOrNull(transactionCursor, KEY_CATID);
+        Long catId = DbUtils.getLongOrNull(transactionCursor, columnIndexCatId);
         if (SPLIT_CATID.equals(catId)) {
           Cursor splits = Model.cr().query(Transaction.CONTENT_URI, null,
               KEY_PARENTID + " = " + transactionCursor.getLong(columnIndexRowId), null, null);
@@ -445,7 +581,7 @@ public class PdfPrinter {
       }
       if (account.getId() < 0) {
         //for aggregate accounts we need to indicate the account name
-        catText = transactionCursor.getString(transactionCursor.getColumnIndexOrThrow(KEY_ACCOUNT_LABEL))
+        catText = transactionCursor.getString(columnIndexAccountLabel)
             + " " + catText;
       }
       String referenceNumber = transactionCursor.getString(columnIndexReferenceNumber);
@@ -462,7 +598,7 @@ public class PdfPrinter {
       }
       FontType t;
       if (account.getId() < 0 &&
-          transactionCursor.getInt(transactionCursor.getColumnIndexOrThrow(KEY_IS_SAME_CURRENCY)) == 1) {
+          transactionCursor.getInt(columnIndexIsSameCurrency) == 1) {
         t = FontType.NORMAL;
       } else {
         t = amount < 0 ? FontType.EXPENSE : FontType.INCOME;
@@ -498,9 +634,15 @@ public class PdfPrinter {
         }
         table.addCell(helper.emptyCell());
       }
+      if (++rowsInTable % ROWS_PER_FLUSH == 0) {
+        document.add(table);
+        //spacing before applies to the first part only
+        table.setSpacingBefore(0f);
+      }
       transactionCursor.moveToNext();
     }
     // now add all this to the document
+    table.setComplete(true);
     document.add(table);
     groupCursor.close();
   }
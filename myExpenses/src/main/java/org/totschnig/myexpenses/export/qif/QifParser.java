@@ -35,6 +35,20 @@ public class QifParser {
   public final Set<String> payees = new HashSet<>();
   public final Set<String> classes = new HashSet<>();
   private final CurrencyUnit currency;
+  private TransactionHandler handler;
+  private boolean collectDictionaries;
+
+  /**
+   * Receives transactions one by one while they are parsed
+   */
+  public interface TransactionHandler {
+    /**
+     * @param accountIndex index of the account the transaction belongs to in {@link #accounts}
+     * @param ordinal      position of the transaction within its account, not counting the
+     *                     opening balance
+     */
+    void onTransaction(int accountIndex, int ordinal, QifTransaction transaction) throws IOException;
+  }
 
   public QifParser(QifBufferedReader r, QifDateFormat dateFormat, CurrencyUnit currency) {
     this.r = r;
@@ -42,7 +56,34 @@ public class QifParser {
     this.currency = currency;
   }
 
+  /**
+   * parses the complete file, transactions are collected in the transaction lists of {@link #accounts}
+   */
   public void parse() throws IOException {
+    parse((accountIndex, ordinal, transaction) ->
+        accounts.get(accountIndex).transactions.add(transaction), true);
+  }
+
+  /**
+   * First pass of a streaming import: collects {@link #accounts}, {@link #categories},
+   * {@link #payees} and {@link #classes}, while transactions are only handed over to handler.
+   */
+  public void scan(TransactionHandler handler) throws IOException {
+    parse(handler, true);
+  }
+
+  /**
+   * Second pass of a streaming import: only {@link #accounts} is collected, while transactions are
+   * handed over to handler. For a given file, the accounts and the positions of transactions are
+   * the same as in {@link #scan(TransactionHandler)}.
+   */
+  public void stream(TransactionHandler handler) throws IOException {
+    parse(handler, false);
+  }
+
+  private void parse(TransactionHandler handler, boolean collectDictionaries) throws IOException {
+    this.handler = handler;
+    this.collectDictionaries = collectDictionaries;
     String peek;
     while ((peek = r.peekLine()) != null) {
       if (peek.startsWith("!Option:AutoSwitch")) {
@@ -87,7 +128,7 @@ public class QifParser {
     do {
       QifCategory category = new QifCategory();
       category.readFrom(r);
-      if (category.getName() != null) {
+      if (collectDictionaries && category.getName() != null) {
         categories.add(category);
       }
     } while (shouldReadOn());
@@ -95,6 +136,8 @@ public class QifParser {
 
   private void parseTransactions(QifAccount account) throws IOException {
     accounts.add(account);
+    int accountIndex = accounts.size() - 1;
+    int ordinal = 0;
     String peek = r.peekLine();
     if (peek != null && peek.startsWith("!Type:")) {
       applyAccountType(account, peek);
@@ -107,9 +150,11 @@ public class QifParser {
           if (!TextUtils.isEmpty(t.toAccount))
             account.memo = t.toAccount;
         } else {
-          addPayeeFromTransaction(t);
-          addCategoryFromTransaction(t);
-          account.transactions.add(t);
+          if (collectDictionaries) {
+            addPayeeFromTransaction(t);
+            addCategoryFromTransaction(t);
+          }
+          handler.onTransaction(accountIndex, ordinal++, t);
         }
       } while (shouldReadOn());
     }
@@ -0,0 +1,196 @@
+package org.totschnig.myexpenses.export.qif;
+
+import android.text.TextUtils;
+
+import java.math.BigDecimal;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+
+/**
+ * Decides which transfers of a QIF file are imported as transfers, without holding all its
+ * transactions in memory. During the first pass, it is handed every transaction and only keeps
+ * the transfers. {@link #reduce(List, Map)} then determines, in the same order as a full in-memory
+ * pass, which incoming transfers are dropped because they are the peer of an outgoing transfer
+ * from another account of the file, and which transfers are converted into regular transactions,
+ * because their peer is not part of the import. During the second pass,
+ * {@link #isReduced(int, int)} and {@link #apply(int, int, QifTransaction)} apply this decision to
+ * the transactions as they are streamed.
+ */
+public class QifTransferReducer implements QifParser.TransactionHandler {
+  private static final int TOP_LEVEL = -1;
+
+  private static class Transfer {
+    final int accountIndex;
+    final int ordinal;
+    final int splitIndex;
+    final String toAccount;
+    final Date date;
+    final BigDecimal amount;
+
+    Transfer(int accountIndex, int ordinal, int splitIndex, QifTransaction transaction) {
+      this.accountIndex = accountIndex;
+      this.ordinal = ordinal;
+      this.splitIndex = splitIndex;
+      this.toAccount = transaction.toAccount;
+      this.date = transaction.date;
+      this.amount = transaction.amount;
+    }
+  }
+
+  private static class PeerKey {
+    final String toAccount;
+    final Date date;
+    final BigDecimal amount;
+
+    PeerKey(String toAccount, Date date, BigDecimal amount) {
+      this.toAccount = toAccount;
+      this.date = date;
+      this.amount = amount;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+      if (this == o) return true;
+      if (o == null || getClass() != o.getClass()) return false;
+      PeerKey peerKey = (PeerKey) o;
+      return toAccount.equals(peerKey.toAccount) && Objects.equals(date, peerKey.date) &&
+          amount.equals(peerKey.amount);
+    }
+
+    @Override
+    public int hashCode() {
+      return Objects.hash(toAccount, date, amount);
+    }
+  }
+
+  private final List<Transfer> transfers = new ArrayList<>();
+  private final Set<Long> reduced = new HashSet<>();
+  private final Map<Long, Set<Integer>> converted = new HashMap<>();
+
+  @Override
+  public void onTransaction(int accountIndex, int ordinal, QifTransaction transaction) {
+    if (transaction.isTransfer()) {
+      transfers.add(new Transfer(accountIndex, ordinal, TOP_LEVEL, transaction));
+    }
+    if (transaction.splits != null) {
+      for (int i = 0; i < transaction.splits.size(); i++) {
+        QifTransaction split = transaction.splits.get(i);
+        if (split.isTransfer()) {
+          transfers.add(new Transfer(accountIndex, ordinal, i, split));
+        }
+      }
+    }
+  }
+
+  /**
+   * @param accounts        the accounts collected during the first pass
+   * @param accountsByTitle the accounts that are imported, mapped from their title to their index
+   *                        in accounts
+   */
+  public void reduce(List<QifAccount> accounts, Map<String, Integer> accountsByTitle) {
+    //incoming transfers that might be matched by an outgoing transfer, per account
+    Map<Integer, Map<PeerKey, ArrayDeque<Transfer>>> candidates = new HashMap<>();
+    for (Transfer transfer : transfers) {
+      if (transfer.splitIndex == TOP_LEVEL && transfer.amount.signum() == 1) {
+        Map<PeerKey, ArrayDeque<Transfer>> perAccount = candidates.get(transfer.accountIndex);
+        if (perAccount == null) {
+          perAccount = new HashMap<>();
+          candidates.put(transfer.accountIndex, perAccount);
+        }
+        PeerKey key = new PeerKey(transfer.toAccount, transfer.date, transfer.amount);
+        ArrayDeque<Transfer> queue = perAccount.get(key);
+        if (queue == null) {
+          queue = new ArrayDeque<>();
+          perAccount.put(key, queue);
+        }
+        queue.add(transfer);
+      }
+    }
+    for (Transfer transfer : transfers) {
+      if (isReduced(transfer.accountIndex, transfer.ordinal)) {
+        continue;
+      }
+      if (transfer.amount.signum() == -1) {
+        boolean found = false;
+        String fromTitle = accounts.get(transfer.accountIndex).memo;
+        if (!transfer.toAccount.equals(fromTitle)) {
+          Integer toAccountIndex = accountsByTitle.get(transfer.toAccount);
+          Map<PeerKey, ArrayDeque<Transfer>> perAccount = toAccountIndex == null ? null :
+              candidates.get(toAccountIndex);
+          ArrayDeque<Transfer> queue = perAccount == null ? null :
+              perAccount.get(new PeerKey(fromTitle, transfer.date, transfer.amount.negate()));
+          //incoming transfers are never converted before the final pass, so the first remaining
+          //candidate is the one a sequential search would find
+          Transfer peer = queue == null ? null : queue.poll();
+          if (peer != null) {
+            reduced.add(key(peer.accountIndex, peer.ordinal));
+            found = true;
+          }
+        }
+        if (!found) {
+          markConverted(transfer);
+        }
+      }
+    }
+    for (Transfer transfer : transfers) {
+      if (!isReduced(transfer.accountIndex, transfer.ordinal) && transfer.amount.signum() >= 0) {
+        markConverted(transfer);
+      }
+    }
+    transfers.clear();
+  }
+
+  /**
+   * @return true if the transaction is the peer of a transfer imported from another account
+   */
+  public boolean isReduced(int accountIndex, int ordinal) {
+    return reduced.contains(key(accountIndex, ordinal));
+  }
+
+  /**
+   * converts the transaction and its split parts into regular transactions, if they are transfers
+   * whose peer is not imported
+   */
+  public void apply(int accountIndex, int ordinal, QifTransaction transaction) {
+    Set<Integer> indices = converted.get(key(accountIndex, ordinal));
+    if (indices != null) {
+      for (int index : indices) {
+        convertIntoRegularTransaction(index == TOP_LEVEL ? transaction : transaction.splits.get(index));
+      }
+    }
+  }
+
+  private void markConverted(Transfer transfer) {
+    long key = key(transfer.accountIndex, transfer.ordinal);
+    Set<Integer> indices = converted.get(key);
+    if (indices == null) {
+      indices = new HashSet<>();
+      converted.put(key, indices);
+    }
+    indices.add(transfer.splitIndex);
+  }
+
+  private static long key(int accountIndex, int ordinal) {
+    return ((long) accountIndex << 32) | (ordinal & 0xffffffffL);
+  }
+
+  public static void convertIntoRegularTransaction(QifTransaction fromTransaction) {
+    fromTransaction.memo = prependMemo("Transfer: " + fromTransaction.toAccount, fromTransaction);
+    fromTransaction.toAccount = null;
+  }
+
+  private static String prependMemo(String prefix, QifTransaction fromTransaction) {
+    if (TextUtils.isEmpty(fromTransaction.memo)) {
+      return prefix;
+    } else {
+      return prefix + " | " + fromTransaction.memo;
+    }
+  }
+}
@@ -51,6 +51,7 @@ import org.totschnig.myexpenses.util.Utils;
 import org.totschnig.myexpenses.viewmodel.data.Category;
 
 import java.util.ArrayList;
+import java.util.List;
 
 import javax.inject.Inject;
 
@@ -59,6 +60,7 @@ import androidx.annotation.Nullable;
 import androidx.viewbinding.ViewBinding;
 import icepick.Icepick;
 import icepick.State;
+import io.reactivex.Observable;
 import io.reactivex.android.schedulers.AndroidSchedulers;
 import io.reactivex.disposables.Disposable;
 import io.reactivex.schedulers.Schedulers;
@@ -130,15 +132,23 @@ public abstract class AbstractCategoryList<ROW_BINDING extends ViewBinding> exte
 
   protected void loadData() {
     disposeCategory();
-    categoryDisposable = createQuery()
-        .map(SqlBrite.Query::run)
+    categoryDisposable = loadCategoryTree()
         .observeOn(AndroidSchedulers.mainThread())
-        .subscribe(cursor -> {
-          mAdapter.ingest(cursor);
+        .subscribe(categories -> {
+          mAdapter.ingest(categories);
           onLoadFinished();
         });
   }
 
+  /**
+   * @return the main categories, each holding its sub categories
+   */
+  protected Observable<List<Category>> loadCategoryTree() {
+    return createQuery()
+        .mapToList(CategoryTreeBaseAdapter::readCategory)
+        .map(CategoryTreeBaseAdapter::buildTree);
+  }
+
   protected QueryObservable createQuery() {
     String selection = null;
     String[] selectionArgs;
@@ -286,6 +286,7 @@ abstract class BaseSettingsFragment : PreferenceFragmentCompat(), OnValidationEr
                     key == getKey(PrefKey.GROUP_WEEK_STARTS) || key == getKey(PrefKey.CRITERION_FUTURE))
         ) {
             activity().rebuildDbConstants()
+            viewModel.refreshDateBuckets()
         } else if (key == getKey(PrefKey.UI_FONTSIZE)) {
             updateAllWidgets()
             activity().recreate()
@@ -731,6 +732,8 @@ abstract class BaseSettingsFragment : PreferenceFragmentCompat(), OnValidationEr
                     storeInDatabaseChangeListener
                 requirePreference<Preference>(PrefKey.SYNC_WIFI_ONLY).onPreferenceChangeListener =
                     storeInDatabaseChangeListener
+                requirePreference<Preference>(PrefKey.SYNC_COMPRESSED_CHANGE_SETS).onPreferenceChangeListener =
+                    storeInDatabaseChangeListener
             }
             getKey(PrefKey.FEATURE_UNINSTALL) -> {
                 configureUninstallPrefs()
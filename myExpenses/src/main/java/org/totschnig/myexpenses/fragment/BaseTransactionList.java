@@ -88,12 +88,16 @@ import org.totschnig.myexpenses.preference.PrefKey;
 import org.totschnig.myexpenses.preference.PreferenceUtilsKt;
 import org.totschnig.myexpenses.provider.DatabaseConstants;
 import org.totschnig.myexpenses.provider.DbUtils;
+import org.totschnig.myexpenses.provider.KeysetPagingCursor;
+import org.totschnig.myexpenses.provider.KeysetPagingLoader;
+import org.totschnig.myexpenses.provider.ScopedCursorLoader;
 import org.totschnig.myexpenses.provider.TransactionProvider;
 import org.totschnig.myexpenses.provider.filter.CategoryCriteria;
 import org.totschnig.myexpenses.provider.filter.CommentCriteria;
 import org.totschnig.myexpenses.provider.filter.Criteria;
 import org.totschnig.myexpenses.provider.filter.FilterPersistence;
 import org.totschnig.myexpenses.provider.filter.PayeeCriteria;
+import org.totschnig.myexpenses.provider.filter.SearchCriteria;
 import org.totschnig.myexpenses.provider.filter.TagCriteria;
 import org.totschnig.myexpenses.provider.filter.WhereFilter;
 import org.totschnig.myexpenses.ui.ExpansionHandle;
@@ -160,7 +164,6 @@ import static org.totschnig.myexpenses.provider.DatabaseConstants.KEY_AMOUNT;
 import static org.totschnig.myexpenses.provider.DatabaseConstants.KEY_CATID;
 import static org.totschnig.myexpenses.provider.DatabaseConstants.KEY_CR_STATUS;
 import static org.totschnig.myexpenses.provider.DatabaseConstants.KEY_CURRENCY;
-import static org.totschnig.myexpenses.provider.DatabaseConstants.KEY_DATE;
 import static org.totschnig.myexpenses.provider.DatabaseConstants.KEY_DAY;
 import static org.totschnig.myexpenses.provider.DatabaseConstants.KEY_HAS_TRANSFERS;
 import static org.totschnig.myexpenses.provider.DatabaseConstants.KEY_LABEL;
@@ -202,6 +205,7 @@ public abstract class BaseTransactionList extends ContextualActionBarFragment im
 
   public static final String NEW_TEMPLATE_DIALOG = "dialogNewTempl";
   public static final String FILTER_COMMENT_DIALOG = "dialogFilterCom";
+  public static final String FILTER_SEARCH_DIALOG = "dialogFilterSearch";
   public static final String REMAP_DIALOG = "dialogRemap";
   public static final String KEY_COLUMN = "column";
 
@@ -521,6 +525,8 @@ public abstract class BaseTransactionList extends ContextualActionBarFragment im
     CursorLoader cursorLoader;
     String selection = mAccount.getSelectionForTransactionList();
     String[] selectionArgs = mAccount.getSelectionArgsForTransactionList();
+    //writes to other accounts do not trigger a reload
+    final Uri notificationUri = TransactionProvider.accountChangesUri(mAccount.getId());
     switch (id) {
       case TRANSACTION_CURSOR:
         if (!getFilter().isEmpty()) {
@@ -537,19 +543,19 @@ public abstract class BaseTransactionList extends ContextualActionBarFragment im
           selection += " AND ";
         }
         selection += KEY_PARENTID + " is null";
-        cursorLoader = new CursorLoader(requireActivity(),
+        cursorLoader = new KeysetPagingLoader(requireActivity(),
             mAccount.getExtendedUriForTransactionList(false),
             mAccount.getExtendedProjectionForTransactionList(),
             selection,
-            selectionArgs, KEY_DATE + " " + mAccount.getSortDirection().name());
+            selectionArgs, mAccount.getSortDirection() == SortDirection.DESC, notificationUri);
         break;
       //TODO: probably we can get rid of SUM_CURSOR, if we also aggregate unmapped transactions
       case SUM_CURSOR:
-        cursorLoader = new CursorLoader(requireActivity(),
+        cursorLoader = new ScopedCursorLoader(requireActivity(),
             TransactionProvider.TRANSACTIONS_URI,
             new String[]{MAPPED_CATEGORIES, MAPPED_METHODS, MAPPED_PAYEES, HAS_TRANSFERS, MAPPED_TAGS},
             selection,
-            selectionArgs, null);
+            selectionArgs, null, notificationUri);
         break;
       case GROUPING_CURSOR:
       case SECTION_CURSOR:
@@ -568,9 +574,9 @@ public abstract class BaseTransactionList extends ContextualActionBarFragment im
           sortOrder = String.format("%1$s %3$s,%2$s %3$s",
               KEY_YEAR, KEY_SECOND_GROUP, mAccount.getSortDirection().name());
         }
-        cursorLoader = new CursorLoader(getActivity(),
+        cursorLoader = new ScopedCursorLoader(requireActivity(),
             builder.build(),
-            null, selection, selectionArgs, sortOrder);
+            null, selection, selectionArgs, sortOrder, notificationUri);
         break;
       default: throw new IllegalStateException("No loader defined for id " + id);
     }
@@ -613,7 +619,7 @@ public abstract class BaseTransactionList extends ContextualActionBarFragment im
           } else {
             firstLoadCompleted = true;
             if (prefHandler.getBoolean(PrefKey.SCROLL_TO_CURRENT_DATE, false)) {
-              final int currentPosition = findCurrentPosition(c);
+              final int currentPosition = findCurrentPosition((KeysetPagingCursor) c);
               binding.list.post(() -> {
                 if (binding != null) {
                   binding.list.setSelection(currentPosition);
@@ -679,27 +685,26 @@ public abstract class BaseTransactionList extends ContextualActionBarFragment im
     }
   }
 
-  private int findCurrentPosition(Cursor c) {
-    int dateColumn = c.getColumnIndex(KEY_DATE);
+  /**
+   * only looks at the dates held by the index of the cursor, so that no page needs to be loaded
+   */
+  private int findCurrentPosition(KeysetPagingCursor c) {
+    final int count = c.getCount();
     switch (mAccount.getSortDirection()) {
       case ASC:
         long startOfToday = localDateTime2Epoch(LocalDateTime.now().truncatedTo(ChronoUnit.DAYS));
-        if (c.moveToLast()) {
-          do {
-            if (c.getLong(dateColumn) <= startOfToday) {
-              return c.isLast() ? c.getPosition() : c.getPosition() + 1;
-            }
-          } while (c.moveToPrevious());
+        for (int position = count - 1; position >= 0; position--) {
+          if (c.getKeyDate(position) <= startOfToday) {
+            return position == count - 1 ? position : position + 1;
+          }
         }
         break;
       case DESC:
         long endOfDay = localDateTime2Epoch(LocalDateTime.now().truncatedTo(ChronoUnit.DAYS).plusDays(1));
-        if (c.moveToFirst()) {
-          do {
-            if (c.getLong(dateColumn) < endOfDay) {
-              return c.getPosition();
-            }
-          } while (c.moveToNext());
+        for (int position = 0; position < count; position++) {
+          if (c.getKeyDate(position) < endOfDay) {
+            return position;
+          }
         }
     }
     return 0;
@@ -1234,6 +1239,11 @@ public abstract class BaseTransactionList extends ContextualActionBarFragment im
     if (syncItem != null) {
       Utils.menuItemSetEnabledAndVisible(syncItem, mAccount.getSyncAccountName() != null);
     }
+
+    MenuItem printPerAccountItem = menu.findItem(R.id.PRINT_PER_ACCOUNT_COMMAND);
+    if (printPerAccountItem != null) {
+      Utils.menuItemSetEnabledAndVisible(printPerAccountItem, mAccount.isAggregate());
+    }
   }
 
   @Override
@@ -1286,6 +1296,15 @@ public abstract class BaseTransactionList extends ContextualActionBarFragment im
             .show(this, FILTER_COMMENT_DIALOG);
       }
       return true;
+    } else if (command == R.id.FILTER_SEARCH_COMMAND) {
+      if (!removeFilter(command)) {
+        SimpleInputDialog.build()
+            .title(R.string.search_text)
+            .pos(R.string.menu_search)
+            .neut()
+            .show(this, FILTER_SEARCH_DIALOG);
+      }
+      return true;
     } else if (command == R.id.FILTER_STATUS_COMMAND) {
       if (!removeFilter(command)) {
         SelectCrStatusDialogFragment.newInstance()
@@ -1318,12 +1337,12 @@ public abstract class BaseTransactionList extends ContextualActionBarFragment im
             .show(getActivity().getSupportFragmentManager(), "ACCOUNT_FILTER");
       }
       return true;
-    } else if (command == R.id.PRINT_COMMAND) {
+    } else if (command == R.id.PRINT_COMMAND || command == R.id.PRINT_PER_ACCOUNT_COMMAND) {
       MyExpenses ctx = (MyExpenses) getActivity();
       Result appDirStatus = AppDirHelper.checkAppDir(ctx);
       if (hasItems) {
         if (appDirStatus.isSuccess()) {
-          ctx.contribFeatureRequested(ContribFeature.PRINT, null);
+          ctx.contribFeatureRequested(ContribFeature.PRINT, command == R.id.PRINT_PER_ACCOUNT_COMMAND);
         } else {
           ctx.showDismissibleSnackbar(appDirStatus.print(ctx));
         }
@@ -1456,6 +1475,14 @@ public abstract class BaseTransactionList extends ContextualActionBarFragment im
         }
         return true;
       }
+      if (BaseTransactionList.FILTER_SEARCH_DIALOG.equals(dialogTag)) {
+        final String textResult = extras.getString(SimpleInputDialog.TEXT);
+        if (textResult != null) {
+          addFilterCriteria(
+              new SearchCriteria(textResult.trim()));
+        }
+        return true;
+      }
       return true;
     }
     return false;
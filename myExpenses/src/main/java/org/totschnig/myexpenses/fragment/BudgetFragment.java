@@ -39,6 +39,7 @@ import org.totschnig.myexpenses.viewmodel.data.Category;
 
 import java.math.BigDecimal;
 import java.util.ArrayList;
+import java.util.Comparator;
 import java.util.Locale;
 
 import androidx.annotation.NonNull;
@@ -84,9 +85,26 @@ public class BudgetFragment extends DistributionBaseFragment<BudgetRowBinding> i
     return true;
   }
 
+  private boolean isSortedBySpent() {
+    return Sort.Companion.preferredSortForBudgets(getSortOrderPrefKey(), prefHandler, getDefaultSortOrder()) == Sort.SPENT;
+  }
+
   @Override
   protected Object getSecondarySort() {
-    return Sort.Companion.preferredOrderByForBudgets(getSortOrderPrefKey(), prefHandler, getDefaultSortOrder());
+    //spent is applied in memory by getSumComparator, with the default order as tie breaker
+    return isSortedBySpent() ? getDefaultSortOrder().toOrderBy() :
+        Sort.Companion.preferredOrderByForBudgets(getSortOrderPrefKey(), prefHandler, getDefaultSortOrder());
+  }
+
+  @Nullable
+  @Override
+  protected Comparator<Category> getSumComparator() {
+    //equivalent to ordering by -sum DESC
+    return isSortedBySpent() ? (c1, c2) -> Long.compare(sumOrZero(c1), sumOrZero(c2)) : null;
+  }
+
+  private static long sumOrZero(Category category) {
+    return category.getSum() == null ? 0L : category.getSum();
   }
 
   @Override
@@ -11,24 +11,27 @@ import android.widget.ExpandableListView
 import android.widget.ExpandableListView.ExpandableListContextMenuInfo
 import androidx.viewbinding.ViewBinding
 import com.squareup.sqlbrite3.QueryObservable
+import io.reactivex.Observable
 import io.reactivex.android.schedulers.AndroidSchedulers
 import io.reactivex.disposables.Disposable
+import io.reactivex.functions.BiFunction
 import org.totschnig.myexpenses.R
 import org.totschnig.myexpenses.activity.ProtectedFragmentActivity
+import org.totschnig.myexpenses.adapter.CategoryTreeBaseAdapter
 import org.totschnig.myexpenses.dialog.TransactionListDialogFragment
 import org.totschnig.myexpenses.dialog.TransactionListDialogFragment.Companion.newInstance
 import org.totschnig.myexpenses.model.Account
 import org.totschnig.myexpenses.model.Grouping
 import org.totschnig.myexpenses.preference.PrefKey
-import org.totschnig.myexpenses.provider.DatabaseConstants.DAY
 import org.totschnig.myexpenses.provider.DatabaseConstants.KEY_ACCOUNTID
 import org.totschnig.myexpenses.provider.DatabaseConstants.KEY_AMOUNT
 import org.totschnig.myexpenses.provider.DatabaseConstants.KEY_COLOR
 import org.totschnig.myexpenses.provider.DatabaseConstants.KEY_CURRENCY
-import org.totschnig.myexpenses.provider.DatabaseConstants.KEY_EXCLUDE_FROM_TOTALS
+import org.totschnig.myexpenses.provider.DatabaseConstants.KEY_DAY
 import org.totschnig.myexpenses.provider.DatabaseConstants.KEY_ICON
 import org.totschnig.myexpenses.provider.DatabaseConstants.KEY_LABEL
 import org.totschnig.myexpenses.provider.DatabaseConstants.KEY_MAX_VALUE
+import org.totschnig.myexpenses.provider.DatabaseConstants.KEY_MONTH
 import org.totschnig.myexpenses.provider.DatabaseConstants.KEY_PARENTID
 import org.totschnig.myexpenses.provider.DatabaseConstants.KEY_ROWID
 import org.totschnig.myexpenses.provider.DatabaseConstants.KEY_SUM
@@ -38,28 +41,28 @@ import org.totschnig.myexpenses.provider.DatabaseConstants.KEY_THIS_WEEK
 import org.totschnig.myexpenses.provider.DatabaseConstants.KEY_THIS_YEAR
 import org.totschnig.myexpenses.provider.DatabaseConstants.KEY_THIS_YEAR_OF_MONTH_START
 import org.totschnig.myexpenses.provider.DatabaseConstants.KEY_THIS_YEAR_OF_WEEK_START
+import org.totschnig.myexpenses.provider.DatabaseConstants.KEY_TRANSACTIONID
 import org.totschnig.myexpenses.provider.DatabaseConstants.KEY_TYPE
-import org.totschnig.myexpenses.provider.DatabaseConstants.TABLE_ACCOUNTS
+import org.totschnig.myexpenses.provider.DatabaseConstants.KEY_WEEK
+import org.totschnig.myexpenses.provider.DatabaseConstants.KEY_YEAR
+import org.totschnig.myexpenses.provider.DatabaseConstants.KEY_YEAR_OF_MONTH_START
+import org.totschnig.myexpenses.provider.DatabaseConstants.KEY_YEAR_OF_WEEK_START
+import org.totschnig.myexpenses.provider.DatabaseConstants.TABLE_DATE_BUCKETS
 import org.totschnig.myexpenses.provider.DatabaseConstants.THIS_DAY
 import org.totschnig.myexpenses.provider.DatabaseConstants.THIS_YEAR
 import org.totschnig.myexpenses.provider.DatabaseConstants.VIEW_COMMITTED
 import org.totschnig.myexpenses.provider.DatabaseConstants.VIEW_EXTENDED
 import org.totschnig.myexpenses.provider.DatabaseConstants.VIEW_WITH_ACCOUNT
-import org.totschnig.myexpenses.provider.DatabaseConstants.WHERE_NOT_VOID
-import org.totschnig.myexpenses.provider.DatabaseConstants.YEAR
-import org.totschnig.myexpenses.provider.DatabaseConstants.getAmountHomeEquivalent
-import org.totschnig.myexpenses.provider.DatabaseConstants.getMonth
 import org.totschnig.myexpenses.provider.DatabaseConstants.getThisMonth
 import org.totschnig.myexpenses.provider.DatabaseConstants.getThisWeek
 import org.totschnig.myexpenses.provider.DatabaseConstants.getThisYearOfMonthStart
 import org.totschnig.myexpenses.provider.DatabaseConstants.getThisYearOfWeekStart
-import org.totschnig.myexpenses.provider.DatabaseConstants.getWeek
-import org.totschnig.myexpenses.provider.DatabaseConstants.getYearOfMonthStart
-import org.totschnig.myexpenses.provider.DatabaseConstants.getYearOfWeekStart
+import org.totschnig.myexpenses.provider.CategoryDistribution
 import org.totschnig.myexpenses.provider.DbUtils
 import org.totschnig.myexpenses.provider.TransactionProvider
 import org.totschnig.myexpenses.util.Utils
 import org.totschnig.myexpenses.util.locale.UserLocaleProvider
+import org.totschnig.myexpenses.viewmodel.data.Category
 import org.totschnig.myexpenses.viewmodel.data.DateInfo
 import org.totschnig.myexpenses.viewmodel.data.DistributionAccountInfo
 import java.util.*
@@ -189,14 +192,19 @@ abstract class DistributionBaseFragment<ROW_BINDING : ViewBinding?> :
     }
 
     protected open fun buildFilterClause(tableName: String?): String? {
-        val year = "$YEAR = $groupingYear"
-        return when (grouping) {
+        val year = "$KEY_YEAR = $groupingYear"
+        val bucketFilter = when (grouping) {
             Grouping.YEAR -> year
-            Grouping.DAY -> "$year AND $DAY = $groupingSecond"
-            Grouping.WEEK -> "${getYearOfWeekStart()} = $groupingYear AND ${getWeek()} = $groupingSecond"
-            Grouping.MONTH -> "${getYearOfMonthStart()} = $groupingYear AND ${getMonth()} = $groupingSecond"
-            else -> null
+            Grouping.DAY -> "$year AND $KEY_DAY = $groupingSecond"
+            Grouping.WEEK -> "$KEY_YEAR_OF_WEEK_START = $groupingYear AND $KEY_WEEK = $groupingSecond"
+            Grouping.MONTH -> "$KEY_YEAR_OF_MONTH_START = $groupingYear AND $KEY_MONTH = $groupingSecond"
+            else -> return null
+        }.let { filter ->
+            //aggregate accounts have negative ids
+            accountInfo.id.takeIf { it > 0 }?.let { "$filter AND $KEY_ACCOUNTID = $it" } ?: filter
         }
+        val rowId = tableName?.let { "$it.$KEY_ROWID" } ?: KEY_ROWID
+        return "$rowId IN (SELECT $KEY_TRANSACTIONID FROM $TABLE_DATE_BUCKETS WHERE $bucketFilter)"
     }
 
     private fun disposeSum() {
@@ -349,65 +357,69 @@ abstract class DistributionBaseFragment<ROW_BINDING : ViewBinding?> :
     }
 
     override fun createQuery(): QueryObservable {
-        var accountSelector: String? = null
-        val selectionArgs: Array<String>?
-        var catFilter: String
-        val accountSelection: String?
-        var amountCalculation = KEY_AMOUNT
-        var table = VIEW_COMMITTED
+        val projection = mutableListOf(KEY_ROWID, KEY_PARENTID, KEY_LABEL, KEY_COLOR, KEY_ICON)
+        extraColumn?.let { projection.add(it) }
+        return briteContentResolver.createQuery(
+            categoriesUri,
+            projection.toTypedArray(),
+            null,
+            null,
+            sortExpression,
+            true
+        )
+    }
+
+    /**
+     * Sums per category are computed by one grouped scan over the transactions and rolled up to main
+     * categories by [CategoryDistribution], instead of a correlated sub query for each category.
+     */
+    override fun loadCategoryTree(): Observable<List<Category>> {
+        val showAllCategories = showAllCategories()
+        val sumComparator = sumComparator
+        return Observable.combineLatest(
+            createQuery().mapToList(CategoryTreeBaseAdapter::readCategory),
+            createSumQuery().map { query ->
+                query.run()?.use { CategoryDistribution.fromCursor(it) } ?: CategoryDistribution.EMPTY
+            },
+            BiFunction { categories: List<Category>, distribution: CategoryDistribution ->
+                distribution.tree(categories, showAllCategories, sumComparator)
+            })
+    }
+
+    private fun createSumQuery(): QueryObservable {
+        val builder = TransactionProvider.TRANSACTIONS_CATEGORY_SUMS_URI.buildUpon()
         val id = accountInfo.id
-        when {
-            id == Account.HOME_AGGREGATE_ID -> {
-                accountSelection = null
-                amountCalculation = getAmountHomeEquivalent(VIEW_WITH_ACCOUNT)
-                table = VIEW_WITH_ACCOUNT
-            }
+        val table = when {
+            id == Account.HOME_AGGREGATE_ID -> VIEW_WITH_ACCOUNT
             id < 0 -> {
-                accountSelection = " IN " +
-                        "(SELECT " + KEY_ROWID + " from " + TABLE_ACCOUNTS + " WHERE " + KEY_CURRENCY + " = ? AND " +
-                        KEY_EXCLUDE_FROM_TOTALS + " = 0 )"
-                accountSelector = accountInfo.currency.code
+                builder.appendQueryParameter(KEY_CURRENCY, accountInfo.currency.code)
+                VIEW_COMMITTED
             }
             else -> {
-                accountSelection = " = $id"
+                builder.appendQueryParameter(KEY_ACCOUNTID, id.toString())
+                VIEW_COMMITTED
             }
         }
-        catFilter =
-            "FROM $table WHERE $WHERE_NOT_VOID${if (accountSelection == null) "" else " AND +$KEY_ACCOUNTID$accountSelection"}"
-        if (!aggregateTypes) {
-            catFilter += " AND " + KEY_AMOUNT + (if (isIncome) ">" else "<") + "0"
-        }
-        val dateFilter = buildFilterClause(table)
-        if (dateFilter != null) {
-            catFilter += " AND $dateFilter"
-        }
-        //we need to include transactions mapped to children for main categories
-        catFilter += " AND $CAT_TREE_WHERE_CLAUSE"
-        val extraColumn = extraColumn
-        val projection = mutableListOf(
-            KEY_ROWID, KEY_PARENTID, KEY_LABEL, KEY_COLOR,
-            "(SELECT sum($amountCalculation) $catFilter) AS $KEY_SUM", KEY_ICON
-        )
-        if (extraColumn != null) {
-            projection.add(extraColumn)
-        }
-        val showAllCategories = showAllCategories()
-        selectionArgs = Utils.joinArrays(
-            if (accountSelector != null) if (showAllCategories) arrayOf(accountSelector) else arrayOf(
-                accountSelector,
-                accountSelector
-            ) else null, filterSelectionArgs()
-        )
+        val selection = listOfNotNull(
+            if (aggregateTypes) null else KEY_AMOUNT + (if (isIncome) ">" else "<") + "0",
+            buildFilterClause(table)
+        ).takeIf { it.isNotEmpty() }?.joinToString(" AND ")
         return briteContentResolver.createQuery(
-            categoriesUri,
-            projection.toTypedArray(),
-            if (showAllCategories) null else " exists (SELECT 1 $catFilter)",
-            selectionArgs,
-            sortExpression,
+            builder.build(),
+            null,
+            selection,
+            filterSelectionArgs(),
+            null,
             true
         )
     }
 
+    /**
+     * Orderings by sum are applied in memory, since the sums are not part of the categories query.
+     */
+    protected open val sumComparator: Comparator<Category>?
+        get() = null
+
     protected open val categoriesUri: Uri
         get() = TransactionProvider.CATEGORIES_URI
 
@@ -230,9 +230,12 @@ class DistributionFragment : DistributionBaseFragment<CategoryRowBinding?>() {
     }
 
     override fun getSecondarySort(): Any {
-        return "abs(" + DatabaseConstants.KEY_SUM + ") DESC"
+        return DatabaseConstants.KEY_LABEL
     }
 
+    override val sumComparator: Comparator<Category>
+        get() = compareByDescending { abs(it.sum ?: 0L) }
+
     override fun onLoadFinished() {
         super.onLoadFinished()
         if (mAdapter.groupCount > 0) {
@@ -41,6 +41,7 @@ import org.totschnig.myexpenses.activity.ProtectedFragmentActivity;
 import org.totschnig.myexpenses.di.AppComponent;
 import org.totschnig.myexpenses.provider.DatabaseConstants;
 import org.totschnig.myexpenses.provider.TransactionProvider;
+import org.totschnig.myexpenses.util.ThumbnailCache;
 import org.totschnig.myexpenses.util.io.FileUtils;
 import org.totschnig.myexpenses.viewmodel.StaleImagesViewModel;
 
@@ -140,7 +141,7 @@ public class StaleImagesList extends ContextualActionBarFragment implements Load
           //already dealing with value; nothing to do
           return;
         }
-        picasso.load(value).placeholder(R.drawable.empty_photo).fit().into(v);
+        picasso.load(ThumbnailCache.thumbnailUri(value)).placeholder(R.drawable.empty_photo).fit().into(v);
         v.setTag(value);
         v.setContentDescription(value);
       }
@@ -60,11 +60,13 @@ import static org.totschnig.myexpenses.provider.DatabaseConstants.KEY_ACCOUNTID;
 import static org.totschnig.myexpenses.provider.DatabaseConstants.KEY_AMOUNT;
 import static org.totschnig.myexpenses.provider.DatabaseConstants.KEY_CLEARED_TOTAL;
 import static org.totschnig.myexpenses.provider.DatabaseConstants.KEY_CODE;
+import static org.totschnig.myexpenses.provider.DatabaseConstants.KEY_COMMENT;
 import static org.totschnig.myexpenses.provider.DatabaseConstants.KEY_COLOR;
 import static org.totschnig.myexpenses.provider.DatabaseConstants.KEY_CRITERION;
 import static org.totschnig.myexpenses.provider.DatabaseConstants.KEY_CR_STATUS;
 import static org.totschnig.myexpenses.provider.DatabaseConstants.KEY_CURRENCY;
 import static org.totschnig.myexpenses.provider.DatabaseConstants.KEY_CURRENT_BALANCE;
+import static org.totschnig.myexpenses.provider.DatabaseConstants.KEY_DATE;
 import static org.totschnig.myexpenses.provider.DatabaseConstants.KEY_DESCRIPTION;
 import static org.totschnig.myexpenses.provider.DatabaseConstants.KEY_EXCHANGE_RATE;
 import static org.totschnig.myexpenses.provider.DatabaseConstants.KEY_EXCLUDE_FROM_TOTALS;
@@ -90,15 +92,12 @@ import static org.totschnig.myexpenses.provider.DatabaseConstants.KEY_TRANSFER_P
 import static org.totschnig.myexpenses.provider.DatabaseConstants.KEY_TYPE;
 import static org.totschnig.myexpenses.provider.DatabaseConstants.KEY_USAGES;
 import static org.totschnig.myexpenses.provider.DatabaseConstants.KEY_UUID;
-import static org.totschnig.myexpenses.provider.DatabaseConstants.SELECT_AMOUNT_SUM;
 import static org.totschnig.myexpenses.provider.DatabaseConstants.STATUS_EXPORTED;
 import static org.totschnig.myexpenses.provider.DatabaseConstants.STATUS_HELPER;
 import static org.totschnig.myexpenses.provider.DatabaseConstants.TABLE_ACCOUNTS;
+import static org.totschnig.myexpenses.provider.DatabaseConstants.TABLE_ACCOUNT_TOTALS;
 import static org.totschnig.myexpenses.provider.DatabaseConstants.TABLE_TRANSACTIONS;
-import static org.totschnig.myexpenses.provider.DatabaseConstants.WHERE_EXPENSE;
-import static org.totschnig.myexpenses.provider.DatabaseConstants.WHERE_INCOME;
 import static org.totschnig.myexpenses.provider.DatabaseConstants.WHERE_NOT_SPLIT_PART;
-import static org.totschnig.myexpenses.provider.DatabaseConstants.WHERE_TRANSFER;
 import static org.totschnig.myexpenses.provider.TransactionProvider.ACCOUNTS_TAGS_URI;
 
 /**
@@ -169,8 +168,8 @@ public class Account extends Model {
   }
 
   public static void buildProjection() {
-    CURRENT_BALANCE_EXPR = KEY_OPENING_BALANCE + " + (" + SELECT_AMOUNT_SUM + " AND " + WHERE_NOT_SPLIT_PART
-        + " AND " + DatabaseConstants.getWhereInPast() + " )";
+    CURRENT_BALANCE_EXPR = KEY_OPENING_BALANCE + " + " + TABLE_ACCOUNT_TOTALS + "." + KEY_TOTAL
+        + " - (" + DatabaseConstants.getSelectFutureAmountSum() + ")";
     PROJECTION_BASE = new String[]{
         TABLE_ACCOUNTS + "." + KEY_ROWID + " AS " + KEY_ROWID,
         KEY_LABEL,
@@ -193,23 +192,15 @@ public class Account extends Model {
     PROJECTION_FULL = new String[baseLength + 13];
     System.arraycopy(PROJECTION_BASE, 0, PROJECTION_FULL, 0, baseLength);
     PROJECTION_FULL[baseLength] = CURRENT_BALANCE_EXPR + " AS " + KEY_CURRENT_BALANCE;
-    PROJECTION_FULL[baseLength + 1] = "(" + SELECT_AMOUNT_SUM +
-        " AND " + WHERE_INCOME + ") AS " + KEY_SUM_INCOME;
-    PROJECTION_FULL[baseLength + 2] = "(" + SELECT_AMOUNT_SUM +
-        " AND " + WHERE_EXPENSE + ") AS " + KEY_SUM_EXPENSES;
-    PROJECTION_FULL[baseLength + 3] = "(" + SELECT_AMOUNT_SUM +
-        " AND " + WHERE_TRANSFER + ") AS " + KEY_SUM_TRANSFERS;
+    PROJECTION_FULL[baseLength + 1] = TABLE_ACCOUNT_TOTALS + "." + KEY_SUM_INCOME + " AS " + KEY_SUM_INCOME;
+    PROJECTION_FULL[baseLength + 2] = TABLE_ACCOUNT_TOTALS + "." + KEY_SUM_EXPENSES + " AS " + KEY_SUM_EXPENSES;
+    PROJECTION_FULL[baseLength + 3] = TABLE_ACCOUNT_TOTALS + "." + KEY_SUM_TRANSFERS + " AS " + KEY_SUM_TRANSFERS;
     PROJECTION_FULL[baseLength + 4] =
-        KEY_OPENING_BALANCE + " + (" + SELECT_AMOUNT_SUM + " AND " + WHERE_NOT_SPLIT_PART +
-            " ) AS " + KEY_TOTAL;
+        KEY_OPENING_BALANCE + " + " + TABLE_ACCOUNT_TOTALS + "." + KEY_TOTAL + " AS " + KEY_TOTAL;
     PROJECTION_FULL[baseLength + 5] =
-        KEY_OPENING_BALANCE + " + (" + SELECT_AMOUNT_SUM + " AND " + WHERE_NOT_SPLIT_PART +
-            " AND " + KEY_CR_STATUS + " IN " +
-            "('" + CrStatus.RECONCILED.name() + "','" + CrStatus.CLEARED.name() + "')" +
-            " ) AS " + KEY_CLEARED_TOTAL;
+        KEY_OPENING_BALANCE + " + " + TABLE_ACCOUNT_TOTALS + "." + KEY_CLEARED_TOTAL + " AS " + KEY_CLEARED_TOTAL;
     PROJECTION_FULL[baseLength + 6] =
-        KEY_OPENING_BALANCE + " + (" + SELECT_AMOUNT_SUM + " AND " + WHERE_NOT_SPLIT_PART +
-            " AND " + KEY_CR_STATUS + " = '" + CrStatus.RECONCILED.name() + "'  ) AS " + KEY_RECONCILED_TOTAL;
+        KEY_OPENING_BALANCE + " + " + TABLE_ACCOUNT_TOTALS + "." + KEY_RECONCILED_TOTAL + " AS " + KEY_RECONCILED_TOTAL;
     PROJECTION_FULL[baseLength + 7] = KEY_USAGES;
     PROJECTION_FULL[baseLength + 8] = "0 AS " + KEY_IS_AGGREGATE;//this is needed in the union with the aggregates to sort real accounts first
     PROJECTION_FULL[baseLength + 9] = DatabaseConstants.getHasFuture();
@@ -554,6 +545,23 @@ public class Account extends Model {
     cr().applyBatch(TransactionProvider.AUTHORITY, ops);
   }
 
+  /**
+   * moves transactions dated before cutoff into the archive, see Archive.kt
+   *
+   * @param cutoff         in seconds since epoch
+   * @param summaryComment comment of the transactions summarizing the archived ones
+   * @return the number of archived transactions
+   * @throws IllegalStateException if the account, or the transfer account of an archived transfer, is synchronized
+   */
+  public int archive(long cutoff, String summaryComment) {
+    Bundle extras = new Bundle(3);
+    extras.putLong(KEY_ACCOUNTID, getId());
+    extras.putLong(KEY_DATE, cutoff);
+    extras.putString(KEY_COMMENT, summaryComment);
+    Bundle result = cr().call(TransactionProvider.DUAL_URI, TransactionProvider.METHOD_ARCHIVE, null, extras);
+    return result == null ? 0 : result.getInt(TransactionProvider.KEY_RESULT);
+  }
+
   public void markAsExported(WhereFilter filter) throws OperationApplicationException, RemoteException {
     ArrayList<ContentProviderOperation> ops = new ArrayList<>();
     Uri accountUri = ContentUris.withAppendedId(Account.CONTENT_URI, getId());
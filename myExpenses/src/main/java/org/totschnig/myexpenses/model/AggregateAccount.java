@@ -95,6 +95,30 @@ public class AggregateAccount extends Account {
     }
   }
 
+  /**
+   * @return the ids of the accounts included in this aggregate, in the sort order of the account list
+   */
+  @NonNull
+  public long[] getAggregatedAccountIds() {
+    String selection = KEY_EXCLUDE_FROM_TOTALS + " = 0";
+    String[] selectionArgs = null;
+    if (!isHomeAggregate()) {
+      selection += " AND " + KEY_CURRENCY + " = ?";
+      selectionArgs = new String[]{getCurrencyUnit().getCode()};
+    }
+    Cursor c = cr().query(TransactionProvider.ACCOUNTS_BASE_URI, new String[]{KEY_ROWID},
+        selection, selectionArgs, null);
+    if (c == null) {
+      return new long[0];
+    }
+    long[] result = new long[c.getCount()];
+    while (c.moveToNext()) {
+      result[c.getPosition()] = c.getLong(0);
+    }
+    c.close();
+    return result;
+  }
+
   @Override
   public String[] getSelectionArgsForTransactionList() {
     if (isHomeAggregate()) {
@@ -0,0 +1,111 @@
+package org.totschnig.myexpenses.model
+
+import android.content.ContentResolver
+import android.database.Cursor
+import com.android.calendar.CalendarContractCompat
+import org.totschnig.myexpenses.provider.CalendarProviderProxy
+import org.totschnig.myexpenses.provider.DatabaseConstants.KEY_ACCOUNT_LABEL
+import org.totschnig.myexpenses.provider.DatabaseConstants.KEY_COLOR
+import org.totschnig.myexpenses.provider.DatabaseConstants.KEY_INSTANCEID
+import org.totschnig.myexpenses.provider.DatabaseConstants.KEY_INSTANCE_AMOUNT
+import org.totschnig.myexpenses.provider.DatabaseConstants.KEY_PLANID
+import org.totschnig.myexpenses.provider.DatabaseConstants.KEY_ROWID
+import org.totschnig.myexpenses.provider.DatabaseConstants.KEY_TRANSACTIONID
+import org.totschnig.myexpenses.provider.DbUtils
+import org.totschnig.myexpenses.provider.TransactionProvider
+import org.totschnig.myexpenses.viewmodel.data.PlanInstance
+
+/**
+ * Resolves the instances of plans found in the calendar to the templates linked to the plans and
+ * to the state of each instance. Instead of querying the template for each instance, the
+ * templates of all plans are loaded together with their account and the status of the instances
+ * in the range, so that resolving any number of instances costs a constant number of queries.
+ */
+class PlanInstanceResolver(private val contentResolver: ContentResolver) {
+    /**
+     * an instance of a plan, as found in [CalendarProviderProxy.INSTANCES_URI]
+     */
+    data class Event(val planId: Long, val date: Long) {
+        val instanceId: Long
+            get() = CalendarProviderProxy.calculateId(date)
+
+        companion object {
+            @JvmStatic
+            fun fromEventCursor(cursor: Cursor) = Event(
+                cursor.getLong(cursor.getColumnIndexOrThrow(CalendarContractCompat.Instances.EVENT_ID)),
+                cursor.getLong(cursor.getColumnIndexOrThrow(CalendarContractCompat.Instances.BEGIN))
+            )
+        }
+    }
+
+    internal class Status(val transactionId: Long?, val amount: Long?)
+
+    internal class Row(val template: Template, val color: Int, val accountLabel: String?) {
+        val statusByInstance = mutableMapOf<Long, Status>()
+    }
+
+    class Resolution internal constructor(private val rows: Map<Long, Row>) {
+        fun template(event: Event): Template? = rows[event.planId]?.template
+
+        fun accountLabel(event: Event): String? = rows[event.planId]?.accountLabel
+
+        /**
+         * @return the template linked to the plan of [event], if the instance has not yet been
+         * applied or cancelled
+         */
+        fun openTemplate(event: Event): Template? = rows[event.planId]
+            ?.takeIf { !it.statusByInstance.containsKey(event.instanceId) }?.template
+
+        fun planInstance(event: Event): PlanInstance? = rows[event.planId]?.let { row ->
+            val status = row.statusByInstance[event.instanceId]
+            val template = row.template
+            PlanInstance(
+                template.id, status?.let { event.instanceId }, status?.transactionId,
+                template.title, event.date, row.color,
+                status?.amount?.let { Money(template.amount.currencyUnit, it) } ?: template.amount,
+                template.isSealed
+            )
+        }
+
+        fun planInstances(events: List<Event>) = events.mapNotNull { planInstance(it) }
+    }
+
+    fun resolve(events: List<Event>): Resolution {
+        val planIds = events.map { it.planId }.distinct()
+        val rows = mutableMapOf<Long, Row>()
+        if (planIds.isEmpty()) return Resolution(rows)
+        val instanceIds = events.map { it.instanceId }
+        val uri = TransactionProvider.TEMPLATES_PLAN_INSTANCES_URI(instanceIds.minOrNull()!!, instanceIds.maxOrNull()!!)
+        //stay below SQLite's limit on the number of host parameters
+        planIds.chunked(MAX_PLANS_PER_QUERY).forEach { chunk ->
+            contentResolver.query(
+                uri, null, "$KEY_PLANID IN (${chunk.joinToString { "?" }})",
+                chunk.map { it.toString() }.toTypedArray(), null
+            )?.use { cursor ->
+                while (cursor.moveToNext()) {
+                    val planId = cursor.getLong(cursor.getColumnIndexOrThrow(KEY_PLANID))
+                    val row = rows.getOrPut(planId) {
+                        Row(
+                            Template(cursor),
+                            cursor.getInt(cursor.getColumnIndexOrThrow(KEY_COLOR)),
+                            DbUtils.getString(cursor, KEY_ACCOUNT_LABEL)
+                        )
+                    }
+                    //should a plan be linked to more than one template, the first one is used
+                    if (row.template.id != cursor.getLong(cursor.getColumnIndexOrThrow(KEY_ROWID))) continue
+                    DbUtils.getLongOrNull(cursor, KEY_INSTANCEID)?.let {
+                        row.statusByInstance[it] = Status(
+                            DbUtils.getLongOrNull(cursor, KEY_TRANSACTIONID),
+                            DbUtils.getLongOrNull(cursor, KEY_INSTANCE_AMOUNT)
+                        )
+                    }
+                }
+            }
+        }
+        return Resolution(rows)
+    }
+
+    companion object {
+        const val MAX_PLANS_PER_QUERY = 500
+    }
+}
@@ -43,6 +43,9 @@ enum class Sort(val commandId: Int, private val isDescending: Boolean = true) {
         fun preferredOrderByForBudgets(prefKey: PrefKey, prefHandler: PrefHandler, defaultSort: Sort) =
                 preferredOrderByRestricted(prefKey, prefHandler, defaultSort, budgetSort)
 
+        fun preferredSortForBudgets(prefKey: PrefKey, prefHandler: PrefHandler, defaultSort: Sort) =
+                preferredSortRestricted(prefKey, prefHandler, defaultSort, budgetSort)
+
         fun preferredOrderByForCategories(prefKey: PrefKey, prefHandler: PrefHandler, defaultSort: Sort) =
                 preferredOrderByRestricted(prefKey, prefHandler, defaultSort, categorySort)
 
@@ -57,18 +60,22 @@ enum class Sort(val commandId: Int, private val isDescending: Boolean = true) {
 
         //returns null if the preferred Sort has null toOrderBy, otherwise the preferred Sort (with defaultOrderBy as secondary sort), otherwise the defaultOrderBy
         private fun preferredOrderByRestricted(prefKey: PrefKey, prefHandler: PrefHandler, defaultSort: Sort, restrictedSet: Array<Sort>): String? {
+            val configuredOrDefault = preferredSortRestricted(prefKey, prefHandler, defaultSort, restrictedSet)
+            val orderBy = configuredOrDefault.toOrderBy()
+            return if (orderBy == null || configuredOrDefault == defaultSort) orderBy else
+                orderBy + ", " + defaultSort.toOrderBy()
+        }
+
+        private fun preferredSortRestricted(prefKey: PrefKey, prefHandler: PrefHandler, defaultSort: Sort, restrictedSet: Array<Sort>): Sort {
             if (!restrictedSet.contains(defaultSort)) throw java.lang.IllegalArgumentException(
                     "%s is not part of %s".format(defaultSort, restrictedSet))
-            val configuredOrDefault = prefHandler.requireString(prefKey, defaultSort.name).let { pref ->
+            return prefHandler.requireString(prefKey, defaultSort.name).let { pref ->
                 try {
                     valueOf(pref).takeIf { restrictedSet.contains(it) }
                 } catch (e: IllegalArgumentException) {
                     null
                 } ?: defaultSort
             }
-            val orderBy = configuredOrDefault.toOrderBy()
-            return if (orderBy == null || configuredOrDefault == defaultSort) orderBy else
-                orderBy + ", " + defaultSort.toOrderBy()
         }
     }
 }
@@ -36,7 +36,6 @@ import org.totschnig.myexpenses.provider.TransactionProvider;
 import org.totschnig.myexpenses.util.TextUtils;
 import org.totschnig.myexpenses.util.crashreporting.CrashHandler;
 import org.totschnig.myexpenses.util.licence.LicenceHandler;
-import org.totschnig.myexpenses.viewmodel.data.PlanInstance;
 import org.totschnig.myexpenses.viewmodel.data.Tag;
 
 import java.util.ArrayList;
@@ -396,53 +395,6 @@ public class Template extends Transaction implements ITransfer, ISplit {
     return save() != null;
   }
 
-  /**
-   * @return a template that is linked to the calendar event with id planId, but only if the instance instanceId
-   * has not yet been dealt with
-   */
-  public static Template getInstanceForPlanIfInstanceIsOpen(long planId, long instanceId) {
-    Cursor c = cr().query(
-        CONTENT_URI,
-        null,
-        KEY_PLANID + "= ? AND NOT exists(SELECT 1 from " + TABLE_PLAN_INSTANCE_STATUS
-            + " WHERE " + KEY_INSTANCEID + " = ? AND " + KEY_TEMPLATEID + " = " + KEY_ROWID + ")",
-        new String[]{String.valueOf(planId), String.valueOf(instanceId)},
-        null);
-    if (c == null) {
-      return null;
-    }
-    if (c.getCount() == 0) {
-      c.close();
-      return null;
-    }
-    c.moveToFirst();
-    Template t = new Template(c);
-    c.close();
-    return t;
-  }
-
-  @Nullable
-  public static PlanInstance getPlanInstance(long planId, long date) {
-    PlanInstance planInstance = null;
-    try (Cursor c = cr().query(
-        CONTENT_URI.buildUpon().appendQueryParameter(TransactionProvider.QUERY_PARAMETER_WITH_INSTANCE, String.valueOf(CalendarProviderProxy.calculateId(date))).build(),
-        null, KEY_PLANID + "= ?",
-        new String[]{String.valueOf(planId)},
-        null)) {
-      if (c != null && c.moveToFirst()) {
-        final Long instanceId = getLongOrNull(c, KEY_INSTANCEID);
-        final Long transactionId = getLongOrNull(c, KEY_TRANSACTIONID);
-        final long templateId = c.getLong(c.getColumnIndexOrThrow(KEY_ROWID));
-        final CurrencyContext currencyContext = MyApplication.getInstance().getAppComponent().currencyContext();
-        CurrencyUnit currency = currencyContext.get(c.getString(c.getColumnIndexOrThrow(KEY_CURRENCY)));
-        Money amount = new Money(currency, c.getLong(c.getColumnIndexOrThrow(KEY_AMOUNT)));
-        planInstance = new PlanInstance(templateId, instanceId, transactionId, c.getString(c.getColumnIndexOrThrow(KEY_TITLE)), date, c.getInt(c.getColumnIndexOrThrow(KEY_COLOR)), amount,
-            c.getInt(c.getColumnIndexOrThrow(KEY_SEALED)) == 1);
-      }
-    }
-    return planInstance;
-  }
-
   @Nullable
   public static kotlin.Pair<Transaction, List<Tag>> getInstanceFromDbWithTags(long id) {
     Template t = getInstanceFromDb(id);
@@ -30,6 +30,7 @@ import org.totschnig.myexpenses.MyApplication;
 import org.totschnig.myexpenses.R;
 import org.totschnig.myexpenses.exception.ExternalStorageNotAvailableException;
 import org.totschnig.myexpenses.exception.UnknownPictureSaveException;
+import org.totschnig.myexpenses.provider.AttachmentsKt;
 import org.totschnig.myexpenses.provider.DatabaseConstants;
 import org.totschnig.myexpenses.provider.DbUtils;
 import org.totschnig.myexpenses.provider.TransactionProvider;
@@ -43,6 +44,7 @@ import org.totschnig.myexpenses.viewmodel.data.Tag;
 
 import java.io.File;
 import java.io.IOException;
+import java.io.InputStream;
 import java.time.LocalDate;
 import java.time.ZonedDateTime;
 import java.util.ArrayList;
@@ -78,6 +80,7 @@ import static org.totschnig.myexpenses.provider.DatabaseConstants.KEY_DATE;
 import static org.totschnig.myexpenses.provider.DatabaseConstants.KEY_DAY;
 import static org.totschnig.myexpenses.provider.DatabaseConstants.KEY_DEBT_ID;
 import static org.totschnig.myexpenses.provider.DatabaseConstants.KEY_EQUIVALENT_AMOUNT;
+import static org.totschnig.myexpenses.provider.DatabaseConstants.KEY_HASH;
 import static org.totschnig.myexpenses.provider.DatabaseConstants.KEY_ICON;
 import static org.totschnig.myexpenses.provider.DatabaseConstants.KEY_INSTANCEID;
 import static org.totschnig.myexpenses.provider.DatabaseConstants.KEY_IS_SAME_CURRENCY;
@@ -117,6 +120,7 @@ import static org.totschnig.myexpenses.provider.DatabaseConstants.KEY_YEAR_OF_MO
 import static org.totschnig.myexpenses.provider.DatabaseConstants.KEY_YEAR_OF_WEEK_START;
 import static org.totschnig.myexpenses.provider.DatabaseConstants.LABEL_MAIN;
 import static org.totschnig.myexpenses.provider.DatabaseConstants.LABEL_SUB;
+import static org.totschnig.myexpenses.provider.DatabaseConstants.STATUS_ARCHIVE_SUMMARY;
 import static org.totschnig.myexpenses.provider.DatabaseConstants.STATUS_NONE;
 import static org.totschnig.myexpenses.provider.DatabaseConstants.STATUS_UNCOMMITTED;
 import static org.totschnig.myexpenses.provider.DatabaseConstants.TABLE_TRANSACTIONS;
@@ -414,6 +418,14 @@ public class Transaction extends Model implements ITransaction {
     isSealed = sealed;
   }
 
+  /**
+   * @return true for summaries standing in for archived transactions, and, see {@link Transfer},
+   * transfers whose peer has been archived. They can not be edited.
+   */
+  public boolean isArchived() {
+    return status == STATUS_ARCHIVE_SUMMARY;
+  }
+
   @Override
   public int getStatus() {
     return status;
@@ -465,6 +477,11 @@ public class Transaction extends Model implements ITransaction {
   @NonNull
   private CrStatus crStatus = CrStatus.UNRECONCILED;
   transient protected Uri pictureUri;
+  /**
+   * content hash of a picture saved by {@link #savePicture(ContentValues)}, registered with the
+   * attachment in the same batch as the transaction referencing it
+   */
+  transient private String pictureHash;
 
   /**
    * factory method for retrieving an instance from the db with the given id
@@ -782,6 +799,9 @@ public class Transaction extends Model implements ITransaction {
   }
 
   public Uri save(boolean withCommit) {
+    if (isArchived()) {
+      return null;
+    }
     Uri uri;
     try {
       ContentProviderResult[] result = cr().applyBatch(TransactionProvider.AUTHORITY,
@@ -943,6 +963,7 @@ public class Transaction extends Model implements ITransaction {
           .withValues(initialValues).build());
     }
     addOriginPlanInstance(ops);
+    addAttachmentHash(ops);
     return ops;
   }
 
@@ -952,6 +973,20 @@ public class Transaction extends Model implements ITransaction {
     return CONTENT_URI;
   }
 
+  /**
+   * appended after the operations saving the transaction, since the attachment row is created by
+   * the trigger on the transaction, and back references by position are not shifted
+   */
+  protected void addAttachmentHash(ArrayList<ContentProviderOperation> ops) {
+    if (pictureHash != null) {
+      ContentValues values = new ContentValues(2);
+      values.put(KEY_PICTURE_URI, pictureUri.toString());
+      values.put(KEY_HASH, pictureHash);
+      ops.add(ContentProviderOperation.newInsert(TransactionProvider.ATTACHMENTS_URI).withValues(values).build());
+      pictureHash = null;
+    }
+  }
+
   protected void addOriginPlanInstance(ArrayList<ContentProviderOperation> ops) {
     if (originPlanInstanceId != null) {
       if (originTemplateId != null) {
@@ -1043,6 +1078,7 @@ public class Transaction extends Model implements ITransaction {
         } catch (IOException e) {
           throw new UnknownPictureSaveException(pictureUri, homeUri, e);
         }
+        deduplicatePicture();
       }
       initialValues.put(KEY_PICTURE_URI, pictureUri.toString());
     } else {
@@ -1050,6 +1086,35 @@ public class Transaction extends Model implements ITransaction {
     }
   }
 
+  /**
+   * if a picture with the same content is already attached to another transaction, the file just
+   * saved is deleted, and the existing one is referenced instead, otherwise its hash is kept for
+   * {@link #addAttachmentHash(ArrayList)}
+   */
+  private void deduplicatePicture() {
+    String hash;
+    try (InputStream input = cr().openInputStream(pictureUri)) {
+      if (input == null) return;
+      hash = AttachmentsKt.contentHash(input);
+    } catch (IOException e) {
+      CrashHandler.report(e);
+      return;
+    }
+    Uri existing = AttachmentsKt.findAttachment(cr(), hash, pictureUri);
+    try {
+      if (existing != null && PictureDirHelper.doesPictureExist(existing)) {
+        if (PictureDirHelper.getFileForUri(pictureUri).delete()) {
+          Timber.d("%s is identical to %s", pictureUri, existing);
+          setPictureUri(existing);
+          return;
+        }
+      }
+    } catch (IllegalArgumentException e) {
+      CrashHandler.report(e);
+    }
+    pictureHash = hash;
+  }
+
   private void copyPictureHelper(boolean delete, Uri homeUri) throws IOException {
     FileCopyUtils.copy(pictureUri, homeUri);
     if (delete) {
@@ -29,27 +29,35 @@ data class TransactionDTO(
 ) {
 
     companion object {
+        /**
+         * @param splits for split transactions the already read parts, the category of the
+         * transaction is taken from the first one
+         */
         fun fromCursor(
             context: Context, cursor: Cursor, formatter: SimpleDateFormat,
-            currencyUnit: CurrencyUnit, splitCursor: Cursor?, tagList: String?,
+            currencyUnit: CurrencyUnit, splits: List<TransactionDTO>?, tagList: String?,
             isPart: Boolean = false
         ): TransactionDTO {
-            //split transactions take their full_label from the first split part
-            val readCat = splitCursor?.takeIf { it.moveToFirst() } ?: cursor
-            val transferPeer =
-                DbUtils.getLongOrNull(readCat, DatabaseConstants.KEY_TRANSFER_PEER)
-            var labelMain = DbUtils.getString(readCat, DatabaseConstants.KEY_LABEL_MAIN)
+            val firstPart = splits?.firstOrNull()
+            var labelMain: String
             var labelSub = ""
             var fullLabel = ""
-            if (labelMain.isNotEmpty()) {
-                if (transferPeer != null) {
-                    fullLabel = "[$labelMain]"
-                    labelMain = context.getString(R.string.transfer)
-                    labelSub = fullLabel
-                } else {
-                    labelSub =
-                        DbUtils.getString(readCat, DatabaseConstants.KEY_LABEL_SUB)
-                    fullLabel = TextUtils.formatQifCategory(labelMain, labelSub)!!
+            if (firstPart != null) {
+                labelMain = firstPart.labelMain
+                labelSub = firstPart.labelSub
+                fullLabel = firstPart.fullLabel
+            } else {
+                labelMain = DbUtils.getString(cursor, DatabaseConstants.KEY_LABEL_MAIN)
+                if (labelMain.isNotEmpty()) {
+                    if (DbUtils.getLongOrNull(cursor, DatabaseConstants.KEY_TRANSFER_PEER) != null) {
+                        fullLabel = "[$labelMain]"
+                        labelMain = context.getString(R.string.transfer)
+                        labelSub = fullLabel
+                    } else {
+                        labelSub =
+                            DbUtils.getString(cursor, DatabaseConstants.KEY_LABEL_SUB)
+                        fullLabel = TextUtils.formatQifCategory(labelMain, labelSub)!!
+                    }
                 }
             }
             return TransactionDTO(
@@ -91,14 +99,7 @@ data class TransactionDTO(
                     ), "/"
                 ),
                 tagList,
-                splitCursor?.let {
-                    sequence {
-                        while (!it.isAfterLast) {
-                            yield(fromCursor(context, it, formatter, currencyUnit, null, null, isPart = true))
-                            it.moveToNext()
-                        }
-                    }.toList()
-                }
+                splits
             )
         }
     }
@@ -62,6 +62,15 @@ public class Transfer extends Transaction implements ITransfer {
     this.transferPeer = transferPeer;
   }
 
+  /**
+   * the side of a transfer that is left when its peer is archived references itself as transfer peer,
+   * saving it would overwrite it with the values of the peer
+   */
+  @Override
+  public boolean isArchived() {
+    return super.isArchived() || (transferPeer != null && transferPeer == getId());
+  }
+
   public Long getTransferAccountId() {
     return transferAccountId;
   }
@@ -221,6 +230,7 @@ public class Transfer extends Transaction implements ITransfer {
           .withValues(transferValues).build());
     }
     addOriginPlanInstance(ops);
+    addAttachmentHash(ops);
     return ops;
   }
 
@@ -80,6 +80,7 @@ public enum PrefKey {
   AUTO_BACKUP_TIME(R.string.pref_auto_backup_time_key),
   AUTO_BACKUP_DIRTY("auto_backup_dirty"),
   AUTO_BACKUP_CLOUD(R.string.pref_auto_backup_cloud_key),
+  BACKUP_INCREMENTAL(R.string.pref_backup_incremental_key),
   AUTO_BACKUP_INFO(R.string.pref_auto_backup_info_key),
   UI_HOME_SCREEN_SHORTCUTS(R.string.pref_ui_home_screen_shortcuts_key),
   CALENDAR_PERMISSION_REQUESTED("calendar_permission_requested"),
@@ -127,6 +128,7 @@ public enum PrefKey {
   ACCOUNT_LIST_FAST_SCROLL(R.string.pref_account_list_fast_scroll_key),
   TRANSLATION(R.string.pref_translation_key),
   SYNC_CHANGES_IMMEDIATELY(R.string.pref_sync_changes_immediately_key),
+  SYNC_COMPRESSED_CHANGE_SETS(R.string.pref_sync_compressed_change_sets_key),
   EXCHANGE_RATE_PROVIDER(R.string.pref_exchange_rate_provider_key),
   OPEN_EXCHANGE_RATES_APP_ID(R.string.pref_openexchangerates_app_id_key),
   PLANNER_EXECUTION_TIME(R.string.pref_plan_executor_time_key),
@@ -0,0 +1,171 @@
+package org.totschnig.myexpenses.provider
+
+import android.database.sqlite.SQLiteDatabase
+import org.totschnig.myexpenses.provider.DatabaseConstants.KEY_ACCOUNTID
+import org.totschnig.myexpenses.provider.DatabaseConstants.KEY_AMOUNT
+import org.totschnig.myexpenses.provider.DatabaseConstants.KEY_CATID
+import org.totschnig.myexpenses.provider.DatabaseConstants.KEY_CLEARED_TOTAL
+import org.totschnig.myexpenses.provider.DatabaseConstants.KEY_CR_STATUS
+import org.totschnig.myexpenses.provider.DatabaseConstants.KEY_DATE
+import org.totschnig.myexpenses.provider.DatabaseConstants.KEY_PARENTID
+import org.totschnig.myexpenses.provider.DatabaseConstants.KEY_RECONCILED_TOTAL
+import org.totschnig.myexpenses.provider.DatabaseConstants.KEY_ROWID
+import org.totschnig.myexpenses.provider.DatabaseConstants.KEY_STATUS
+import org.totschnig.myexpenses.provider.DatabaseConstants.KEY_SUM_EXPENSES
+import org.totschnig.myexpenses.provider.DatabaseConstants.KEY_SUM_INCOME
+import org.totschnig.myexpenses.provider.DatabaseConstants.KEY_SUM_TRANSFERS
+import org.totschnig.myexpenses.provider.DatabaseConstants.KEY_TOTAL
+import org.totschnig.myexpenses.provider.DatabaseConstants.KEY_TRANSFER_PEER
+import org.totschnig.myexpenses.provider.DatabaseConstants.SPLIT_CATID
+import org.totschnig.myexpenses.provider.DatabaseConstants.STATUS_UNCOMMITTED
+import org.totschnig.myexpenses.provider.DatabaseConstants.TABLE_ACCOUNTS
+import org.totschnig.myexpenses.provider.DatabaseConstants.TABLE_ACCOUNT_TOTALS
+import org.totschnig.myexpenses.provider.DatabaseConstants.TABLE_TRANSACTIONS
+
+/**
+ * The totals stored in [TABLE_ACCOUNT_TOTALS] do not include the opening balance and cover all
+ * committed, non void transactions, regardless of their date. The balance up to now is derived
+ * by subtracting [DatabaseConstants.getSelectFutureAmountSum], which thanks to
+ * transactions_account_date_index only needs to look at future transactions.
+ */
+private const val ACCOUNT_TOTALS_CREATE = """
+CREATE TABLE $TABLE_ACCOUNT_TOTALS (
+$KEY_ACCOUNTID integer primary key references $TABLE_ACCOUNTS($KEY_ROWID) ON DELETE CASCADE,
+$KEY_TOTAL integer not null default 0,
+$KEY_CLEARED_TOTAL integer not null default 0,
+$KEY_RECONCILED_TOTAL integer not null default 0,
+$KEY_SUM_INCOME integer not null default 0,
+$KEY_SUM_EXPENSES integer not null default 0,
+$KEY_SUM_TRANSFERS integer not null default 0);
+"""
+
+private const val TRANSACTIONS_ACCOUNT_DATE_INDEX_CREATE =
+    "CREATE INDEX transactions_account_date_index on $TABLE_TRANSACTIONS($KEY_ACCOUNTID,$KEY_DATE)"
+
+private const val ACCOUNT_TOTALS_COLUMNS =
+    "$KEY_TOTAL, $KEY_CLEARED_TOTAL, $KEY_RECONCILED_TOTAL, $KEY_SUM_INCOME, $KEY_SUM_EXPENSES, $KEY_SUM_TRANSFERS"
+
+private fun contributes(ref: String) =
+    "$ref.$KEY_STATUS != $STATUS_UNCOMMITTED AND $ref.$KEY_CR_STATUS != 'VOID'"
+
+private fun notSplitParent(ref: String) = "($ref.$KEY_CATID IS null OR $ref.$KEY_CATID != $SPLIT_CATID)"
+
+/**
+ * one expression per column of [ACCOUNT_TOTALS_COLUMNS], yielding the amount of the transaction
+ * referenced by [ref] if it is counted for this column, 0 otherwise. The rules mirror the filters
+ * previously applied in [org.totschnig.myexpenses.model.Account.buildProjection]:
+ * totals are computed on the main transaction level (split parts excluded), while income, expense
+ * and transfer sums are computed on the category level (split parents excluded).
+ */
+private fun contributions(ref: String) = listOf(
+    "$ref.$KEY_PARENTID IS null",
+    "$ref.$KEY_PARENTID IS null AND $ref.$KEY_CR_STATUS IN ('RECONCILED','CLEARED')",
+    "$ref.$KEY_PARENTID IS null AND $ref.$KEY_CR_STATUS = 'RECONCILED'",
+    "$ref.$KEY_AMOUNT > 0 AND ${notSplitParent(ref)} AND $ref.$KEY_TRANSFER_PEER IS null",
+    "$ref.$KEY_AMOUNT < 0 AND ${notSplitParent(ref)} AND $ref.$KEY_TRANSFER_PEER IS null",
+    "${notSplitParent(ref)} AND $ref.$KEY_TRANSFER_PEER IS NOT null"
+).map { "CASE WHEN $it THEN $ref.$KEY_AMOUNT ELSE 0 END" }
+
+private fun applyDelta(ref: String, operator: Char) =
+    "UPDATE $TABLE_ACCOUNT_TOTALS SET " +
+            ACCOUNT_TOTALS_COLUMNS.split(", ").zip(contributions(ref))
+                .joinToString { (column, expression) -> "$column = $column $operator $expression" } +
+            " WHERE $KEY_ACCOUNTID = $ref.$KEY_ACCOUNTID AND ${contributes(ref)};"
+
+private val ACCOUNT_TOTALS_ACCOUNT_INSERT_TRIGGER_CREATE = """
+CREATE TRIGGER account_totals_account_insert AFTER INSERT ON $TABLE_ACCOUNTS
+BEGIN INSERT OR IGNORE INTO $TABLE_ACCOUNT_TOTALS ($KEY_ACCOUNTID) VALUES (new.$KEY_ROWID); END
+"""
+
+private val ACCOUNT_TOTALS_TRANSACTION_INSERT_TRIGGER_CREATE = """
+CREATE TRIGGER account_totals_transaction_insert AFTER INSERT ON $TABLE_TRANSACTIONS WHEN ${contributes("new")}
+BEGIN ${applyDelta("new", '+')} END
+"""
+
+private val ACCOUNT_TOTALS_TRANSACTION_DELETE_TRIGGER_CREATE = """
+CREATE TRIGGER account_totals_transaction_delete AFTER DELETE ON $TABLE_TRANSACTIONS WHEN ${contributes("old")}
+BEGIN ${applyDelta("old", '-')} END
+"""
+
+private val ACCOUNT_TOTALS_TRANSACTION_UPDATE_TRIGGER_CREATE = """
+CREATE TRIGGER account_totals_transaction_update
+AFTER UPDATE OF $KEY_ACCOUNTID,$KEY_AMOUNT,$KEY_CATID,$KEY_PARENTID,$KEY_CR_STATUS,$KEY_STATUS,$KEY_TRANSFER_PEER ON $TABLE_TRANSACTIONS
+BEGIN
+${applyDelta("old", '-')}
+${applyDelta("new", '+')}
+END
+"""
+
+/**
+ * computes the totals for all accounts in one grouped scan over transactions
+ */
+private val ACCOUNT_TOTALS_AGGREGATE = "SELECT $KEY_ACCOUNTID, " +
+        ACCOUNT_TOTALS_COLUMNS.split(", ").zip(contributions(TABLE_TRANSACTIONS))
+            .joinToString { (column, expression) -> "sum($expression) AS $column" } +
+        " FROM $TABLE_TRANSACTIONS WHERE ${contributes(TABLE_TRANSACTIONS)} GROUP BY $KEY_ACCOUNTID"
+
+fun createAccountTotals(db: SQLiteDatabase) {
+    with(db) {
+        execSQL(ACCOUNT_TOTALS_CREATE)
+        execSQL(TRANSACTIONS_ACCOUNT_DATE_INDEX_CREATE)
+    }
+    createOrRefreshAccountTotalsTriggers(db)
+    rebuildAccountTotals(db)
+}
+
+fun createOrRefreshAccountTotalsTriggers(db: SQLiteDatabase) {
+    with(db) {
+        execSQL("DROP TRIGGER IF EXISTS account_totals_account_insert")
+        execSQL("DROP TRIGGER IF EXISTS account_totals_transaction_insert")
+        execSQL("DROP TRIGGER IF EXISTS account_totals_transaction_delete")
+        execSQL("DROP TRIGGER IF EXISTS account_totals_transaction_update")
+        execSQL(ACCOUNT_TOTALS_ACCOUNT_INSERT_TRIGGER_CREATE)
+        execSQL(ACCOUNT_TOTALS_TRANSACTION_INSERT_TRIGGER_CREATE)
+        execSQL(ACCOUNT_TOTALS_TRANSACTION_DELETE_TRIGGER_CREATE)
+        execSQL(ACCOUNT_TOTALS_TRANSACTION_UPDATE_TRIGGER_CREATE)
+    }
+}
+
+/**
+ * recomputes [TABLE_ACCOUNT_TOTALS] from scratch
+ * @return number of accounts for which totals have been stored
+ */
+fun rebuildAccountTotals(db: SQLiteDatabase): Int {
+    db.beginTransaction()
+    try {
+        db.delete(TABLE_ACCOUNT_TOTALS, null, null)
+        db.execSQL(
+            "INSERT INTO $TABLE_ACCOUNT_TOTALS ($KEY_ACCOUNTID, $ACCOUNT_TOTALS_COLUMNS) SELECT $TABLE_ACCOUNTS.$KEY_ROWID, " +
+                    ACCOUNT_TOTALS_COLUMNS.split(", ").joinToString { "coalesce(t.$it, 0)" } +
+                    " FROM $TABLE_ACCOUNTS LEFT JOIN ($ACCOUNT_TOTALS_AGGREGATE) t ON t.$KEY_ACCOUNTID = $TABLE_ACCOUNTS.$KEY_ROWID"
+        )
+        val count = db.rawQuery("SELECT count(*) FROM $TABLE_ACCOUNT_TOTALS", null).use {
+            it.moveToFirst()
+            it.getInt(0)
+        }
+        db.setTransactionSuccessful()
+        return count
+    } finally {
+        db.endTransaction()
+    }
+}
+
+/**
+ * compares the materialized totals with a fresh aggregation
+ * @return ids of accounts whose stored totals are missing or out of date
+ */
+fun findInconsistentAccountTotals(db: SQLiteDatabase): LongArray =
+    db.rawQuery(
+        "SELECT $TABLE_ACCOUNTS.$KEY_ROWID FROM $TABLE_ACCOUNTS " +
+                "LEFT JOIN $TABLE_ACCOUNT_TOTALS ON $TABLE_ACCOUNT_TOTALS.$KEY_ACCOUNTID = $TABLE_ACCOUNTS.$KEY_ROWID " +
+                "LEFT JOIN ($ACCOUNT_TOTALS_AGGREGATE) t ON t.$KEY_ACCOUNTID = $TABLE_ACCOUNTS.$KEY_ROWID " +
+                "WHERE $TABLE_ACCOUNT_TOTALS.$KEY_ACCOUNTID IS null OR " +
+                ACCOUNT_TOTALS_COLUMNS.split(", ")
+                    .joinToString(" OR ") { "$TABLE_ACCOUNT_TOTALS.$it != coalesce(t.$it, 0)" },
+        null
+    ).use { cursor ->
+        LongArray(cursor.count) {
+            cursor.moveToPosition(it)
+            cursor.getLong(0)
+        }
+    }
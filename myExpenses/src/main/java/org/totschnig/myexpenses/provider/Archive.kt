@@ -0,0 +1,239 @@
+package org.totschnig.myexpenses.provider
+
+import android.database.sqlite.SQLiteDatabase
+import org.totschnig.myexpenses.provider.DatabaseConstants.KEY_ACCOUNTID
+import org.totschnig.myexpenses.provider.DatabaseConstants.KEY_ACCOUNT_LABEL
+import org.totschnig.myexpenses.provider.DatabaseConstants.KEY_ACCOUNT_TYPE
+import org.totschnig.myexpenses.provider.DatabaseConstants.KEY_AMOUNT
+import org.totschnig.myexpenses.provider.DatabaseConstants.KEY_CATID
+import org.totschnig.myexpenses.provider.DatabaseConstants.KEY_COLOR
+import org.totschnig.myexpenses.provider.DatabaseConstants.KEY_COMMENT
+import org.totschnig.myexpenses.provider.DatabaseConstants.KEY_CR_STATUS
+import org.totschnig.myexpenses.provider.DatabaseConstants.KEY_CURRENCY
+import org.totschnig.myexpenses.provider.DatabaseConstants.KEY_DATE
+import org.totschnig.myexpenses.provider.DatabaseConstants.KEY_DEBT_ID
+import org.totschnig.myexpenses.provider.DatabaseConstants.KEY_EQUIVALENT_AMOUNT
+import org.totschnig.myexpenses.provider.DatabaseConstants.KEY_EXCLUDE_FROM_TOTALS
+import org.totschnig.myexpenses.provider.DatabaseConstants.KEY_LABEL
+import org.totschnig.myexpenses.provider.DatabaseConstants.KEY_METHODID
+import org.totschnig.myexpenses.provider.DatabaseConstants.KEY_METHOD_LABEL
+import org.totschnig.myexpenses.provider.DatabaseConstants.KEY_PARENTID
+import org.totschnig.myexpenses.provider.DatabaseConstants.KEY_PAYEEID
+import org.totschnig.myexpenses.provider.DatabaseConstants.KEY_PAYEE_NAME
+import org.totschnig.myexpenses.provider.DatabaseConstants.KEY_PICTURE_URI
+import org.totschnig.myexpenses.provider.DatabaseConstants.KEY_ROWID
+import org.totschnig.myexpenses.provider.DatabaseConstants.KEY_SEALED
+import org.totschnig.myexpenses.provider.DatabaseConstants.KEY_STATUS
+import org.totschnig.myexpenses.provider.DatabaseConstants.KEY_SYNC_ACCOUNT_NAME
+import org.totschnig.myexpenses.provider.DatabaseConstants.KEY_TAGID
+import org.totschnig.myexpenses.provider.DatabaseConstants.KEY_TAGLIST
+import org.totschnig.myexpenses.provider.DatabaseConstants.KEY_TEMPLATEID
+import org.totschnig.myexpenses.provider.DatabaseConstants.KEY_TRANSACTIONID
+import org.totschnig.myexpenses.provider.DatabaseConstants.KEY_TRANSFER_ACCOUNT
+import org.totschnig.myexpenses.provider.DatabaseConstants.KEY_TRANSFER_PEER
+import org.totschnig.myexpenses.provider.DatabaseConstants.KEY_TYPE
+import org.totschnig.myexpenses.provider.DatabaseConstants.KEY_USAGES
+import org.totschnig.myexpenses.provider.DatabaseConstants.KEY_UUID
+import org.totschnig.myexpenses.provider.DatabaseConstants.KEY_VALUE_DATE
+import org.totschnig.myexpenses.provider.DatabaseConstants.SPLIT_CATID
+import org.totschnig.myexpenses.provider.DatabaseConstants.STATUS_ARCHIVE_SUMMARY
+import org.totschnig.myexpenses.provider.DatabaseConstants.STATUS_UNCOMMITTED
+import org.totschnig.myexpenses.provider.DatabaseConstants.TABLE_ACCOUNTS
+import org.totschnig.myexpenses.provider.DatabaseConstants.TABLE_ATTACHMENTS
+import org.totschnig.myexpenses.provider.DatabaseConstants.TABLE_METHODS
+import org.totschnig.myexpenses.provider.DatabaseConstants.TABLE_PAYEES
+import org.totschnig.myexpenses.provider.DatabaseConstants.TABLE_TAGS
+import org.totschnig.myexpenses.provider.DatabaseConstants.TABLE_TRANSACTIONS
+import org.totschnig.myexpenses.provider.DatabaseConstants.TABLE_TRANSACTIONS_ARCHIVE
+import org.totschnig.myexpenses.provider.DatabaseConstants.TABLE_TRANSACTIONS_ARCHIVE_TAGS
+import org.totschnig.myexpenses.provider.DatabaseConstants.TABLE_TRANSACTIONS_TAGS
+import org.totschnig.myexpenses.provider.DatabaseConstants.VIEW_COMMITTED
+import org.totschnig.myexpenses.provider.DatabaseConstants.VIEW_COMMITTED_WITH_ARCHIVE
+import org.totschnig.myexpenses.provider.DatabaseConstants.VIEW_EXTENDED
+import org.totschnig.myexpenses.provider.DatabaseConstants.VIEW_EXTENDED_WITH_ARCHIVE
+
+/**
+ * Transactions moved out of [TABLE_TRANSACTIONS] by [archive]. The table is created with the
+ * columns of [TABLE_TRANSACTIONS] in the same order, without constraints, so that rows can be
+ * copied with SELECT *, and the views in [createOrRefreshArchiveViews] can append it to the views
+ * on [TABLE_TRANSACTIONS]. Upgrades adding a column to [TABLE_TRANSACTIONS] must add it here too.
+ */
+private const val ARCHIVE_CREATE =
+    "CREATE TABLE $TABLE_TRANSACTIONS_ARCHIVE AS SELECT * FROM $TABLE_TRANSACTIONS WHERE 0"
+
+private const val ARCHIVE_ID_INDEX_CREATE =
+    "CREATE UNIQUE INDEX transactions_archive_id_index ON $TABLE_TRANSACTIONS_ARCHIVE ($KEY_ROWID)"
+
+private const val ARCHIVE_ACCOUNT_DATE_INDEX_CREATE =
+    "CREATE INDEX transactions_archive_account_date_index ON $TABLE_TRANSACTIONS_ARCHIVE ($KEY_ACCOUNTID, $KEY_DATE)"
+
+private const val ARCHIVE_TAGS_CREATE = """
+CREATE TABLE $TABLE_TRANSACTIONS_ARCHIVE_TAGS (
+$KEY_TRANSACTIONID integer not null,
+$KEY_TAGID integer not null references $TABLE_TAGS($KEY_ROWID) ON DELETE CASCADE,
+primary key ($KEY_TRANSACTIONID, $KEY_TAGID));
+"""
+
+/**
+ * Archived transactions of a deleted account are deleted with it, and their pictures become stale
+ */
+private val ARCHIVE_TRIGGERS = listOf(
+    "archive_account_delete" to """
+CREATE TRIGGER archive_account_delete AFTER DELETE ON $TABLE_ACCOUNTS
+BEGIN DELETE FROM $TABLE_TRANSACTIONS_ARCHIVE WHERE $KEY_ACCOUNTID = old.$KEY_ROWID; END
+""",
+    "archive_transaction_delete" to """
+CREATE TRIGGER archive_transaction_delete AFTER DELETE ON $TABLE_TRANSACTIONS_ARCHIVE
+BEGIN
+DELETE FROM $TABLE_TRANSACTIONS_ARCHIVE_TAGS WHERE $KEY_TRANSACTIONID = old.$KEY_ROWID;
+${releaseAttachment("old.$KEY_PICTURE_URI")}
+END
+"""
+)
+
+private const val ARCHIVE_BATCH = "temp.archive_batch"
+
+private const val IN_BATCH = "IN (SELECT $KEY_ROWID FROM $ARCHIVE_BATCH)"
+
+fun createArchive(db: SQLiteDatabase) {
+    with(db) {
+        execSQL(ARCHIVE_CREATE)
+        execSQL(ARCHIVE_ID_INDEX_CREATE)
+        execSQL(ARCHIVE_ACCOUNT_DATE_INDEX_CREATE)
+        execSQL(ARCHIVE_TAGS_CREATE)
+        ARCHIVE_TRIGGERS.forEach { (name, trigger) ->
+            execSQL("DROP TRIGGER IF EXISTS $name")
+            execSQL(trigger)
+        }
+    }
+}
+
+/**
+ * [VIEW_COMMITTED_WITH_ARCHIVE] and [VIEW_EXTENDED_WITH_ARCHIVE] yield the columns of
+ * [VIEW_COMMITTED] and [VIEW_EXTENDED] respectively, for the transactions in both tables, without
+ * the summaries that stand in for the archived transactions. Since they depend on these views, they
+ * are refreshed together with them, as soon as the archive table exists.
+ */
+fun createOrRefreshArchiveViews(db: SQLiteDatabase) {
+    with(db) {
+        execSQL("DROP VIEW IF EXISTS $VIEW_COMMITTED_WITH_ARCHIVE")
+        execSQL("DROP VIEW IF EXISTS $VIEW_EXTENDED_WITH_ARCHIVE")
+        val archiveExists = rawQuery(
+            "SELECT 1 FROM sqlite_master WHERE type = 'table' AND name = ?", arrayOf(TABLE_TRANSACTIONS_ARCHIVE)
+        ).use { it.moveToFirst() }
+        if (!archiveExists) return
+        val archiveJoin = "$TABLE_TRANSACTIONS_ARCHIVE archived " +
+                "LEFT JOIN $TABLE_PAYEES ON archived.$KEY_PAYEEID = $TABLE_PAYEES.$KEY_ROWID " +
+                "LEFT JOIN $TABLE_METHODS ON archived.$KEY_METHODID = $TABLE_METHODS.$KEY_ROWID"
+        execSQL(
+            "CREATE VIEW $VIEW_COMMITTED_WITH_ARCHIVE AS " +
+                    "SELECT * FROM $VIEW_COMMITTED WHERE $KEY_STATUS != $STATUS_ARCHIVE_SUMMARY UNION ALL " +
+                    "SELECT archived.*, $TABLE_PAYEES.$KEY_PAYEE_NAME, $TABLE_METHODS.$KEY_LABEL AS $KEY_METHOD_LABEL, " +
+                    "null AS $KEY_TEMPLATEID FROM $archiveJoin"
+        )
+        execSQL(
+            "CREATE VIEW $VIEW_EXTENDED_WITH_ARCHIVE AS " +
+                    "SELECT * FROM $VIEW_EXTENDED WHERE $KEY_STATUS != $STATUS_ARCHIVE_SUMMARY UNION ALL " +
+                    "SELECT archived.*, $TABLE_PAYEES.$KEY_PAYEE_NAME, $TABLE_METHODS.$KEY_LABEL AS $KEY_METHOD_LABEL, " +
+                    "$KEY_COLOR, $KEY_CURRENCY, $KEY_SEALED, $KEY_EXCLUDE_FROM_TOTALS, " +
+                    "$TABLE_ACCOUNTS.$KEY_TYPE AS $KEY_ACCOUNT_TYPE, $TABLE_ACCOUNTS.$KEY_LABEL AS $KEY_ACCOUNT_LABEL, " +
+                    "null AS $KEY_TEMPLATEID, " +
+                    "(SELECT group_concat($TABLE_TAGS.$KEY_LABEL, ', ') FROM $TABLE_TRANSACTIONS_ARCHIVE_TAGS " +
+                    "JOIN $TABLE_TAGS ON $KEY_TAGID = $TABLE_TAGS.$KEY_ROWID WHERE $KEY_TRANSACTIONID = archived.$KEY_ROWID) AS $KEY_TAGLIST " +
+                    "FROM $archiveJoin LEFT JOIN $TABLE_ACCOUNTS ON archived.$KEY_ACCOUNTID = $TABLE_ACCOUNTS.$KEY_ROWID"
+        )
+    }
+}
+
+private fun insertSummaries(db: SQLiteDatabase, selection: String, summaryComment: String?) {
+    db.execSQL(
+        "INSERT INTO $TABLE_TRANSACTIONS ($KEY_ACCOUNTID, $KEY_DATE, $KEY_VALUE_DATE, $KEY_AMOUNT, $KEY_EQUIVALENT_AMOUNT, " +
+                "$KEY_CATID, $KEY_TRANSFER_ACCOUNT, $KEY_DEBT_ID, $KEY_CR_STATUS, $KEY_COMMENT, $KEY_STATUS, $KEY_UUID) " +
+                "SELECT $KEY_ACCOUNTID, max($KEY_DATE), max($KEY_VALUE_DATE), sum($KEY_AMOUNT), sum($KEY_EQUIVALENT_AMOUNT), " +
+                "$KEY_CATID, $KEY_TRANSFER_ACCOUNT, $KEY_DEBT_ID, $KEY_CR_STATUS, ?, $STATUS_ARCHIVE_SUMMARY, lower(hex(randomblob(16))) " +
+                "FROM $TABLE_TRANSACTIONS WHERE $KEY_ROWID $IN_BATCH AND ($KEY_CATID IS null OR $KEY_CATID != $SPLIT_CATID) AND $selection " +
+                "GROUP BY ${DatabaseConstants.getYearOfMonthStart()}, ${DatabaseConstants.getMonth()}, $KEY_CATID, " +
+                "$KEY_TRANSFER_ACCOUNT, $KEY_DEBT_ID, $KEY_CR_STATUS, $KEY_AMOUNT > 0",
+        arrayOf(summaryComment)
+    )
+}
+
+/**
+ * Moves the transactions of the account dated before [cutoff] (split parts together with their
+ * parent) into [TABLE_TRANSACTIONS_ARCHIVE], and inserts in their place one summary per month
+ * (as grouped in the history at the time of archiving), category, transfer account, debt, cleared
+ * status and sign, with status [STATUS_ARCHIVE_SUMMARY] and [summaryComment]. Split parts are
+ * summarized instead of their parents, hence balances, account totals, distributions and the
+ * monthly history stay the same, while filters on payee, method, tags or comment no longer
+ * see the archived transactions. Transfer summaries, and transfers whose peer is archived, reference
+ * themselves as [KEY_TRANSFER_PEER], so that they are still counted as transfers. Like the other
+ * summaries, they can not be edited, see [org.totschnig.myexpenses.model.Transaction.isArchived].
+ *
+ * Changes can not be recorded for synchronization, since other devices keep the full history, and
+ * changes they record for archived transactions could not be applied. Hence accounts that are
+ * synchronized, or are the transfer account of transfers that would be archived, are refused.
+ *
+ * @return the number of archived transactions
+ * @throws IllegalStateException if a synchronized account is affected
+ */
+fun archive(db: SQLiteDatabase, accountId: Long, cutoff: Long, summaryComment: String?): Int {
+    db.beginTransaction()
+    try {
+        check(db.rawQuery(
+            "SELECT 1 FROM $TABLE_ACCOUNTS WHERE $KEY_SYNC_ACCOUNT_NAME IS NOT null AND ($KEY_ROWID = ? OR $KEY_ROWID IN " +
+                    "(SELECT $KEY_TRANSFER_ACCOUNT FROM $TABLE_TRANSACTIONS WHERE $KEY_ACCOUNTID = ? AND $KEY_DATE < ?))",
+            arrayOf(accountId.toString(), accountId.toString(), cutoff.toString())
+        ).use { !it.moveToFirst() }) { "Synchronized accounts can not be archived" }
+        TransactionProvider.pauseChangeTrigger(db)
+        db.execSQL("CREATE TEMP TABLE IF NOT EXISTS archive_batch ($KEY_ROWID integer primary key)")
+        db.execSQL("DELETE FROM $ARCHIVE_BATCH")
+        db.execSQL(
+            "INSERT INTO $ARCHIVE_BATCH SELECT $KEY_ROWID FROM $TABLE_TRANSACTIONS WHERE $KEY_ACCOUNTID = ? " +
+                    "AND $KEY_DATE < ? AND $KEY_PARENTID IS null AND $KEY_STATUS NOT IN ($STATUS_UNCOMMITTED, $STATUS_ARCHIVE_SUMMARY)",
+            arrayOf(accountId, cutoff)
+        )
+        db.execSQL(
+            "INSERT INTO $ARCHIVE_BATCH SELECT $KEY_ROWID FROM $TABLE_TRANSACTIONS WHERE $KEY_PARENTID $IN_BATCH"
+        )
+        val count = db.rawQuery("SELECT count(*) FROM $ARCHIVE_BATCH", null).use {
+            it.moveToFirst()
+            it.getInt(0)
+        }
+        if (count > 0) {
+            insertSummaries(db, "$KEY_TRANSFER_PEER IS null", summaryComment)
+            val maxId = db.rawQuery("SELECT max($KEY_ROWID) FROM $TABLE_TRANSACTIONS", null).use {
+                it.moveToFirst()
+                it.getLong(0)
+            }
+            insertSummaries(db, "$KEY_TRANSFER_PEER IS NOT null", summaryComment)
+            db.execSQL(
+                "UPDATE $TABLE_TRANSACTIONS SET $KEY_TRANSFER_PEER = $KEY_ROWID WHERE $KEY_ROWID > ?",
+                arrayOf(maxId)
+            )
+            db.execSQL("INSERT INTO $TABLE_TRANSACTIONS_ARCHIVE SELECT * FROM $TABLE_TRANSACTIONS WHERE $KEY_ROWID $IN_BATCH")
+            db.execSQL(
+                "INSERT INTO $TABLE_TRANSACTIONS_ARCHIVE_TAGS ($KEY_TRANSACTIONID, $KEY_TAGID) " +
+                        "SELECT $KEY_TRANSACTIONID, $KEY_TAGID FROM $TABLE_TRANSACTIONS_TAGS WHERE $KEY_TRANSACTIONID $IN_BATCH"
+            )
+            //archived transactions keep referencing their pictures, so deleting them must not make the pictures stale
+            db.execSQL(
+                "UPDATE $TABLE_ATTACHMENTS SET $KEY_USAGES = $KEY_USAGES + (SELECT count(*) FROM $TABLE_TRANSACTIONS " +
+                        "WHERE $KEY_ROWID $IN_BATCH AND $KEY_PICTURE_URI = $TABLE_ATTACHMENTS.$KEY_PICTURE_URI) " +
+                        "WHERE $KEY_PICTURE_URI IN (SELECT $KEY_PICTURE_URI FROM $TABLE_TRANSACTIONS WHERE $KEY_ROWID $IN_BATCH)"
+            )
+            //transfers are archived on one side only, if the other account is not archived up to the same date,
+            //the remaining side references itself, like the summaries
+            db.execSQL(
+                "UPDATE $TABLE_TRANSACTIONS SET $KEY_TRANSFER_PEER = $KEY_ROWID " +
+                        "WHERE $KEY_TRANSFER_PEER $IN_BATCH AND $KEY_ROWID NOT $IN_BATCH"
+            )
+            db.execSQL("DELETE FROM $TABLE_TRANSACTIONS WHERE $KEY_ROWID $IN_BATCH")
+        }
+        db.execSQL("DELETE FROM $ARCHIVE_BATCH")
+        TransactionProvider.resumeChangeTrigger(db)
+        db.setTransactionSuccessful()
+        return count
+    } finally {
+        db.endTransaction()
+    }
+}
@@ -0,0 +1,145 @@
+package org.totschnig.myexpenses.provider
+
+import android.content.ContentResolver
+import android.content.ContentValues
+import android.database.sqlite.SQLiteDatabase
+import android.net.Uri
+import org.totschnig.myexpenses.provider.DatabaseConstants.KEY_FILE_NAME
+import org.totschnig.myexpenses.provider.DatabaseConstants.KEY_HASH
+import org.totschnig.myexpenses.provider.DatabaseConstants.KEY_PICTURE_URI
+import org.totschnig.myexpenses.provider.DatabaseConstants.KEY_ROWID
+import org.totschnig.myexpenses.provider.DatabaseConstants.KEY_USAGES
+import org.totschnig.myexpenses.provider.DatabaseConstants.TABLE_ATTACHMENTS
+import org.totschnig.myexpenses.provider.DatabaseConstants.TABLE_STALE_URIS
+import org.totschnig.myexpenses.provider.DatabaseConstants.TABLE_TRANSACTIONS
+import java.io.InputStream
+import java.security.MessageDigest
+
+/**
+ * One row per picture uri referenced by transactions, with the number of transactions referencing
+ * it, so that triggers can tell in constant time when a picture becomes stale. [KEY_FILE_NAME] is
+ * the last path segment of the uri, which identifies the picture file independently of the uri
+ * scheme, [KEY_HASH] the SHA-256 of the content of pictures saved since this table exists, which
+ * lets identical pictures share one file.
+ */
+private const val ATTACHMENTS_CREATE = """
+CREATE TABLE $TABLE_ATTACHMENTS (
+$KEY_ROWID integer primary key autoincrement,
+$KEY_PICTURE_URI text not null unique,
+$KEY_FILE_NAME text not null,
+$KEY_HASH text,
+$KEY_USAGES integer not null default 0);
+"""
+
+private const val ATTACHMENTS_FILE_NAME_INDEX_CREATE =
+    "CREATE INDEX attachments_file_name_index ON $TABLE_ATTACHMENTS ($KEY_FILE_NAME)"
+
+private const val ATTACHMENTS_HASH_INDEX_CREATE =
+    "CREATE INDEX attachments_hash_index ON $TABLE_ATTACHMENTS ($KEY_HASH)"
+
+/**
+ * the part of [ref] after its last slash, since SQLite has no function for searching backwards,
+ * rtrim removes every trailing character that is not a slash
+ */
+private fun fileName(ref: String) = "substr($ref, length(rtrim($ref, replace($ref, '/', ''))) + 1)"
+
+private fun acquire(ref: String) =
+    "INSERT OR IGNORE INTO $TABLE_ATTACHMENTS ($KEY_PICTURE_URI, $KEY_FILE_NAME) SELECT $ref, ${fileName(ref)} WHERE $ref NOT NULL; " +
+            "UPDATE $TABLE_ATTACHMENTS SET $KEY_USAGES = $KEY_USAGES + 1 WHERE $KEY_PICTURE_URI = $ref;"
+
+/**
+ * a picture no longer referenced by any transaction is handed over to the stale images, where
+ * the user decides about keeping or deleting the file
+ */
+internal fun releaseAttachment(ref: String) =
+    "UPDATE $TABLE_ATTACHMENTS SET $KEY_USAGES = $KEY_USAGES - 1 WHERE $KEY_PICTURE_URI = $ref; " +
+            "INSERT INTO $TABLE_STALE_URIS ($KEY_PICTURE_URI) SELECT $KEY_PICTURE_URI FROM $TABLE_ATTACHMENTS WHERE $KEY_PICTURE_URI = $ref AND $KEY_USAGES <= 0; " +
+            "DELETE FROM $TABLE_ATTACHMENTS WHERE $KEY_PICTURE_URI = $ref AND $KEY_USAGES <= 0;"
+
+private val ATTACHMENT_TRIGGERS = listOf(
+    "attachment_insert" to """
+CREATE TRIGGER attachment_insert AFTER INSERT ON $TABLE_TRANSACTIONS WHEN new.$KEY_PICTURE_URI NOT NULL
+BEGIN
+${acquire("new.$KEY_PICTURE_URI")}
+END
+""",
+    "attachment_delete" to """
+CREATE TRIGGER attachment_delete AFTER DELETE ON $TABLE_TRANSACTIONS WHEN old.$KEY_PICTURE_URI NOT NULL
+BEGIN
+${releaseAttachment("old.$KEY_PICTURE_URI")}
+END
+""",
+    "attachment_update" to """
+CREATE TRIGGER attachment_update AFTER UPDATE OF $KEY_PICTURE_URI ON $TABLE_TRANSACTIONS
+WHEN old.$KEY_PICTURE_URI IS NOT new.$KEY_PICTURE_URI
+BEGIN
+${acquire("new.$KEY_PICTURE_URI")}
+${releaseAttachment("old.$KEY_PICTURE_URI")}
+END
+"""
+)
+
+fun createAttachments(db: SQLiteDatabase) {
+    with(db) {
+        execSQL(ATTACHMENTS_CREATE)
+        execSQL(ATTACHMENTS_FILE_NAME_INDEX_CREATE)
+        execSQL(ATTACHMENTS_HASH_INDEX_CREATE)
+        execSQL(
+            "INSERT INTO $TABLE_ATTACHMENTS ($KEY_PICTURE_URI, $KEY_FILE_NAME, $KEY_USAGES) " +
+                    "SELECT $KEY_PICTURE_URI, ${fileName(KEY_PICTURE_URI)}, count(*) FROM $TABLE_TRANSACTIONS " +
+                    "WHERE $KEY_PICTURE_URI NOT NULL GROUP BY $KEY_PICTURE_URI"
+        )
+    }
+    createOrRefreshAttachmentTriggers(db)
+}
+
+fun createOrRefreshAttachmentTriggers(db: SQLiteDatabase) {
+    //replaced by attachment_delete
+    db.execSQL("DROP TRIGGER IF EXISTS cache_stale_uri")
+    ATTACHMENT_TRIGGERS.forEach { (name, trigger) ->
+        db.execSQL("DROP TRIGGER IF EXISTS $name")
+        db.execSQL(trigger)
+    }
+}
+
+/**
+ * Stores the [hash] of the content of [uri], once the transaction referencing it has been saved in
+ * the same batch. The row itself is only ever created by the triggers, so that a failed save does
+ * not leave an attachment without usages behind.
+ */
+fun registerAttachmentHash(db: SQLiteDatabase, uri: String, hash: String?) {
+    if (hash != null) {
+        db.update(TABLE_ATTACHMENTS, ContentValues(1).apply { put(KEY_HASH, hash) }, "$KEY_PICTURE_URI = ?", arrayOf(uri))
+    }
+}
+
+fun contentHash(input: InputStream): String {
+    val digest = MessageDigest.getInstance("SHA-256")
+    val buffer = ByteArray(8192)
+    while (true) {
+        val read = input.read(buffer)
+        if (read == -1) break
+        digest.update(buffer, 0, read)
+    }
+    return digest.digest().joinToString("") { "%02x".format(it) }
+}
+
+/**
+ * @return the uri of an attachment with the given content [hash], other than [except]
+ */
+fun findAttachment(contentResolver: ContentResolver, hash: String, except: Uri): Uri? =
+    contentResolver.query(
+        TransactionProvider.ATTACHMENTS_URI, arrayOf(KEY_PICTURE_URI),
+        "$KEY_HASH = ? AND $KEY_PICTURE_URI != ?", arrayOf(hash, except.toString()), null
+    )?.use { cursor ->
+        if (cursor.moveToFirst()) Uri.parse(cursor.getString(0)) else null
+    }
+
+/**
+ * @return true if a transaction references a picture with the given [fileName], whatever the
+ * scheme of its uri
+ */
+fun isAttachmentInUse(contentResolver: ContentResolver, fileName: String) = contentResolver.query(
+    TransactionProvider.ATTACHMENTS_URI, arrayOf(KEY_ROWID),
+    "$KEY_FILE_NAME = ? AND $KEY_USAGES > 0", arrayOf(fileName), null
+)?.use { it.count > 0 } ?: true
@@ -0,0 +1,147 @@
+package org.totschnig.myexpenses.provider
+
+import android.content.ContentResolver
+import android.net.Uri
+import androidx.documentfile.provider.DocumentFile
+import com.google.gson.Gson
+import org.totschnig.myexpenses.util.crypt.EncryptionHelper
+import java.io.FileNotFoundException
+import java.io.IOException
+import java.io.InputStream
+import java.security.GeneralSecurityException
+import java.security.MessageDigest
+import javax.crypto.Mac
+import javax.crypto.spec.SecretKeySpec
+
+const val BACKUP_MANIFEST_FILE_NAME = "MANIFEST"
+const val BACKUP_PICTURE_STORE_DIR_NAME = "backup-pictures"
+const val BACKUP_MANIFEST_VERSION = 1
+
+/**
+ * Content of the [BACKUP_MANIFEST_FILE_NAME] entry of an incremental backup point
+ *
+ * @param pictures maps the picture uri found in the database snapshot to the name of its blob in
+ * the [BackupPictureStore]
+ */
+data class BackupManifest(val version: Int, val pictures: Map<String, String>) {
+    fun toJson(): String = Gson().toJson(this)
+
+    companion object {
+        @JvmStatic
+        fun fromJson(json: String): BackupManifest = Gson().fromJson(json, BackupManifest::class.java)
+    }
+}
+
+/**
+ * Content addressed store for the pictures of incremental backups. Each picture is stored once in
+ * [dir] under the hex encoded SHA-256 of its content, so that a backup point only needs to add the
+ * pictures that have been attached since the previous one. If a [password] is given, blobs are
+ * encrypted with [EncryptionHelper] and named by an HMAC of their content keyed with the password
+ * instead, so that neither the content hash leaks, nor a blob encrypted with a previous password
+ * is reused.
+ */
+class BackupPictureStore(
+    private val dir: DocumentFile,
+    private val contentResolver: ContentResolver,
+    private val password: String?
+) {
+    //listed once, since looking up a single file in a document tree is a query of its own
+    private val blobs: MutableMap<String, DocumentFile> by lazy {
+        dir.listFiles().filter { it.name != null }.associateByTo(HashMap()) { it.name!! }
+    }
+
+    var addedCount = 0
+        private set
+    var reusedCount = 0
+        private set
+
+    private val encrypted: Boolean
+        get() = !password.isNullOrEmpty()
+
+    /**
+     * @return the name of the blob holding the content of [uri], or null if the picture no longer
+     * exists
+     */
+    @Throws(IOException::class)
+    fun store(uri: Uri): String? {
+        val name = try {
+            contentResolver.openInputStream(uri)?.use { blobName(it) }
+        } catch (e: FileNotFoundException) {
+            null
+        } ?: return null
+        if (blobs.containsKey(name)) {
+            reusedCount++
+            return name
+        }
+        val blob = dir.createFile(MIME_TYPE, name)
+            ?: throw IOException("Unable to create $name in ${dir.uri}")
+        try {
+            val input = contentResolver.openInputStream(uri) ?: throw FileNotFoundException(uri.toString())
+            input.use {
+                val out = contentResolver.openOutputStream(blob.uri)
+                    ?: throw IOException("Unable to open ${blob.uri}")
+                (if (encrypted) EncryptionHelper.encrypt(out, password) else out).use { output ->
+                    it.copyTo(output)
+                }
+            }
+        } catch (e: Exception) {
+            //a partial blob must not be taken for the picture by later backups
+            blob.delete()
+            throw if (e is IOException) e else IOException(e)
+        }
+        blobs[name] = blob
+        addedCount++
+        return name
+    }
+
+    /**
+     * @return the decrypted content of the blob, or null if it is missing from the store
+     */
+    @Throws(IOException::class, GeneralSecurityException::class)
+    fun open(name: String): InputStream? {
+        val blob = blobs[name] ?: return null
+        if (!name.endsWith(ENCRYPTED_SUFFIX)) return contentResolver.openInputStream(blob.uri)
+        if (!encrypted) throw GeneralSecurityException("Picture $name is encrypted")
+        return contentResolver.openInputStream(blob.uri)?.let { EncryptionHelper.decrypt(it, password) }
+    }
+
+    /**
+     * deletes the blobs that are not in [referenced], i.e. belong to pictures no backup point
+     * refers to any longer
+     *
+     * @return the number of blobs deleted
+     */
+    fun collectGarbage(referenced: Set<String>): Int =
+        blobs.keys.filter { it !in referenced }.count { name ->
+            blobs.remove(name)?.delete() == true
+        }
+
+    private fun blobName(input: InputStream): String {
+        val mac = if (encrypted) Mac.getInstance(HMAC_ALGORITHM).apply {
+            init(SecretKeySpec(EncryptionHelper.generateSymmetricKeyFromPassword(password).encoded, HMAC_ALGORITHM))
+        } else null
+        val digest = MessageDigest.getInstance("SHA-256")
+        val buffer = ByteArray(8192)
+        while (true) {
+            val read = input.read(buffer)
+            if (read == -1) break
+            if (mac != null) mac.update(buffer, 0, read) else digest.update(buffer, 0, read)
+        }
+        return mac?.let { it.doFinal().toHex() + ENCRYPTED_SUFFIX } ?: digest.digest().toHex()
+    }
+
+    private fun ByteArray.toHex() = joinToString("") { "%02x".format(it) }
+
+    override fun toString() = "BackupPictureStore(added: $addedCount, reused: $reusedCount)"
+
+    companion object {
+        private const val MIME_TYPE = "application/octet-stream"
+        private const val HMAC_ALGORITHM = "HmacSHA256"
+        private const val ENCRYPTED_SUFFIX = ".enc"
+
+        @JvmStatic
+        fun findOrCreateDir(appDir: DocumentFile): DocumentFile? =
+            appDir.findFile(BACKUP_PICTURE_STORE_DIR_NAME)?.takeIf { it.isDirectory }
+                ?: appDir.createDirectory(BACKUP_PICTURE_STORE_DIR_NAME)
+    }
+}
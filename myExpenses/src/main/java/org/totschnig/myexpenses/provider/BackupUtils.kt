@@ -2,6 +2,8 @@ package org.totschnig.myexpenses.provider
 
 import android.content.ContentResolver
 import android.content.Context
+import android.database.sqlite.SQLiteDatabase
+import android.net.Uri
 import android.os.Bundle
 import android.text.TextUtils
 import androidx.annotation.StringRes
@@ -14,7 +16,9 @@ import org.totschnig.myexpenses.util.AppDirHelper
 import org.totschnig.myexpenses.util.ZipUtils
 import org.totschnig.myexpenses.util.crashreporting.CrashHandler
 import org.totschnig.myexpenses.util.io.FileUtils
+import timber.log.Timber
 import java.io.File
+import java.io.FileNotFoundException
 import java.io.IOException
 import java.security.GeneralSecurityException
 import java.text.SimpleDateFormat
@@ -23,7 +27,18 @@ import java.util.*
 const val BACKUP_DB_FILE_NAME = "BACKUP"
 const val BACKUP_PREF_FILE_NAME = "BACKUP_PREF"
 
-fun doBackup(context: Context, password: String?, withSync: String?): Result<DocumentFile> {
+/**
+ * @param incremental if true, the backup only holds the database snapshot and the preferences,
+ * while pictures are added to the [BackupPictureStore] next to it, see [ZipUtils.zipIncrementalBackup].
+ * Backups that are uploaded to [withSync] are always written in the full format, since the store
+ * is not available where they are restored.
+ */
+fun doBackup(
+    context: Context,
+    password: String?,
+    withSync: String?,
+    incremental: Boolean = false
+): Result<DocumentFile> {
     if (!AppDirHelper.isExternalStorageAvailable()) {
         return failure(context, R.string.external_storage_unavailable)
     }
@@ -45,10 +60,19 @@ fun doBackup(context: Context, password: String?, withSync: String?): Result<Doc
     val failure: Throwable
     if (result.isSuccess) {
         try {
-            ZipUtils.zipBackup(
-                cacheDir,
-                backupFile, password
-            )
+            if (incremental && (withSync == null || withSync == AccountPreference.SYNCHRONIZATION_NONE)) {
+                val pictureStoreDir = BackupPictureStore.findOrCreateDir(appDir)
+                    ?: throw IOException("Unable to create $BACKUP_PICTURE_STORE_DIR_NAME")
+                compactSnapshot(getBackupDbFile(cacheDir))
+                val pictureStore = BackupPictureStore(pictureStoreDir, context.contentResolver, password)
+                ZipUtils.zipIncrementalBackup(cacheDir, backupFile, password, pictureStore)
+                collectBackupPictureGarbage(context, appDir, pictureStore, password)
+            } else {
+                ZipUtils.zipBackup(
+                    cacheDir,
+                    backupFile, password
+                )
+            }
             sync(context.contentResolver, withSync, backupFile)
             return Result.success(backupFile)
         } catch (e: IOException) {
@@ -67,6 +91,79 @@ fun doBackup(context: Context, password: String?, withSync: String?): Result<Doc
     return Result.failure(failure)
 }
 
+/**
+ * Deletes the blobs of [store] that none of the backup points in [appDir] refers to any longer.
+ * Nothing is deleted if one of them can not be read, e.g. since it has been encrypted with another
+ * password, because the blobs it refers to are unknown.
+ */
+private fun collectBackupPictureGarbage(
+    context: Context,
+    appDir: DocumentFile,
+    store: BackupPictureStore,
+    password: String?
+) {
+    val referenced = HashSet<String>()
+    for (file in appDir.listFiles()) {
+        val name = file.name?.takeIf { file.isFile && it.startsWith("backup-") } ?: continue
+        val encrypted = when (name.substringAfterLast('.')) {
+            "enc" -> true
+            "zip" -> false
+            else -> continue
+        }
+        try {
+            if (encrypted && password.isNullOrEmpty()) throw GeneralSecurityException("$name is encrypted")
+            (context.contentResolver.openInputStream(file.uri) ?: throw FileNotFoundException(name)).use {
+                ZipUtils.readManifest(it, if (encrypted) password else null)
+            }?.let { referenced.addAll(it.pictures.values) }
+        } catch (e: Exception) {
+            Timber.w(e, "Keeping backup pictures, since %s can not be read", name)
+            return
+        }
+    }
+    Timber.i("Deleted %d unreferenced backup pictures", store.collectGarbage(referenced))
+}
+
+/**
+ * the snapshot is a copy of the database file, which still holds the pages freed since the
+ * database was last vacuumed
+ */
+private fun compactSnapshot(snapshot: File) {
+    SQLiteDatabase.openDatabase(snapshot.path, null, SQLiteDatabase.OPEN_READWRITE).use {
+        it.execSQL("VACUUM")
+    }
+}
+
+/**
+ * Copies the pictures referenced by the manifest of an incremental backup point from the
+ * [BackupPictureStore] in the app directory into [pictureDir], under the name the full backup
+ * format gives them, so that they are restored the same way.
+ *
+ * @return false if the store could not be found
+ */
+fun materializeBackupPictures(
+    context: Context,
+    manifestFile: File,
+    pictureDir: File,
+    password: String?
+): Boolean {
+    val storeDir = AppDirHelper.getAppDir(context)?.findFile(BACKUP_PICTURE_STORE_DIR_NAME)
+        ?: return false
+    val store = BackupPictureStore(storeDir, context.contentResolver, password)
+    val manifest = BackupManifest.fromJson(manifestFile.readText())
+    pictureDir.mkdirs()
+    for ((uri, blob) in manifest.pictures) {
+        val fileName = Uri.parse(uri).lastPathSegment ?: continue
+        try {
+            store.open(blob)?.use { input ->
+                File(pictureDir, fileName).outputStream().use { input.copyTo(it) }
+            } ?: CrashHandler.report("Picture $blob is missing from backup picture store")
+        } catch (e: Exception) {
+            CrashHandler.report(e)
+        }
+    }
+    return true
+}
+
 private fun sync(contentResolver: ContentResolver, backend: String?, backupFile: DocumentFile) {
     backend?.takeIf { it != AccountPreference.SYNCHRONIZATION_NONE }?.let {
         val bundle = Bundle()
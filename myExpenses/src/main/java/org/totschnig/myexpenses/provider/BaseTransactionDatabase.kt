@@ -19,7 +19,7 @@ import org.totschnig.myexpenses.provider.DatabaseConstants.TABLE_DEBTS
 import org.totschnig.myexpenses.provider.DatabaseConstants.TABLE_TRANSACTIONS
 import timber.log.Timber
 
-const val DATABASE_VERSION = 120
+const val DATABASE_VERSION = 127
 const val RAISE_UPDATE_SEALED_DEBT = "SELECT RAISE (FAIL, 'attempt to update sealed debt');"
 
 private const val DEBTS_SEALED_TRIGGER_CREATE = """
@@ -89,6 +89,35 @@ abstract class BaseTransactionDatabase(context: Context, databaseName: String) :
         }
     }
 
+    fun upgradeTo121(db: SQLiteDatabase) {
+        createAccountTotals(db)
+    }
+
+    fun upgradeTo122(db: SQLiteDatabase) {
+        createDateBuckets(db)
+    }
+
+    fun upgradeTo123(db: SQLiteDatabase) {
+        createTransactionSearch(db)
+    }
+
+    fun upgradeTo124(db: SQLiteDatabase) {
+        createPayeeAutofill(db)
+    }
+
+    fun upgradeTo125(db: SQLiteDatabase) {
+        createAttachments(db)
+    }
+
+    fun upgradeTo126(db: SQLiteDatabase) {
+        createArchive(db)
+        createOrRefreshArchiveViews(db)
+    }
+
+    fun upgradeTo127(db: SQLiteDatabase) {
+        recreateDateBuckets(db)
+    }
+
     override fun onCreate(db: SQLiteDatabase?) {
         PrefKey.FIRST_INSTALL_DB_SCHEMA_VERSION.putInt(DATABASE_VERSION)
     }
@@ -4,14 +4,22 @@ import android.content.ContentProvider;
 import android.content.ContentValues;
 import android.content.UriMatcher;
 import android.database.Cursor;
+import android.database.MatrixCursor;
+import android.database.sqlite.SQLiteException;
 import android.net.Uri;
+import android.provider.CalendarContract;
+import android.text.TextUtils;
 
 import com.android.calendar.CalendarContractCompat;
 import com.android.calendarcommon2.EventRecurrence;
 
 import org.totschnig.myexpenses.BuildConfig;
 
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
 import java.util.TimeZone;
+import java.util.regex.Pattern;
 
 import androidx.annotation.NonNull;
 import hirondelle.date4j.DateTime;
@@ -29,8 +37,32 @@ public class CalendarProviderProxy extends ContentProvider {
       CalendarContractCompat.Instances.TITLE
   };
 
+  private static final String[] EVENT_PROJECTION = new String[]{
+      CalendarContractCompat.Events._ID,
+      CalendarContractCompat.Events.DTSTART,
+      CalendarContractCompat.Events.RRULE,
+      CalendarContractCompat.Events.EVENT_TIMEZONE,
+      CalendarContractCompat.Events.ALL_DAY,
+      CalendarContractCompat.Events.TITLE,
+      CalendarContract.Events.RDATE,
+      CalendarContract.Events.EXDATE,
+      CalendarContract.Events.EXRULE,
+      CalendarContract.Events.ORIGINAL_ID
+  };
+
+  /**
+   * selections on instances that can be run against events once {@link CalendarContractCompat.Instances#EVENT_ID}
+   * is replaced with {@link CalendarContractCompat.Events#_ID}: only the event id, literals, placeholders and
+   * comparison and boolean operators
+   */
+  private static final Pattern TRANSLATABLE_SELECTION = Pattern.compile(
+      "(?i)(\\s|\\b" + CalendarContractCompat.Instances.EVENT_ID + "\\b|\\d+|\\?|[=<>!(),]|\\bAND\\b|\\bOR\\b|\\bNOT\\b|\\bIN\\b)*");
+  private static final Pattern EVENT_ID_COLUMN = Pattern.compile("\\b" + CalendarContractCompat.Instances.EVENT_ID + "\\b");
+
   private static final UriMatcher URI_MATCHER;
 
+  private final RecurrenceExpander recurrenceExpander = new RecurrenceExpander();
+
   private static final int INSTANCES_WHEN = 1;
   private static final int EVENTS = 2; //currently not used, but possibly in the future we provide
   //an implementation that does not need the platform calendar
@@ -57,6 +89,12 @@ public class CalendarProviderProxy extends ContentProvider {
         }
         long startMilliseconds = Long.parseLong(uri.getPathSegments().get(2));
         long endMilliseconds = Long.parseLong(uri.getPathSegments().get(3));
+        if (sortOrder == null || sortOrder.equals(CalendarContractCompat.Instances.BEGIN + " ASC")) {
+          Cursor expanded = expandInstances(selection, selectionArgs, startMilliseconds, endMilliseconds);
+          if (expanded != null) {
+            return expanded;
+          }
+        }
         //Instances.Content_URI returns events that fall totally or partially in a given range
         //we additionally select only instances where the begin is inside the range
         //because we want to deal with each instance only once
@@ -78,6 +116,77 @@ public class CalendarProviderProxy extends ContentProvider {
     }
   }
 
+  /**
+   * Expands the instances of the events matched by selection with {@link RecurrenceExpander}, which
+   * saves the calendar provider from expanding them into its Instances table.
+   *
+   * @return instances ordered by begin, or null if the selection can not be translated from instances
+   * to events, any of the events has exceptions or a recurrence rule that {@link RecurrenceExpander}
+   * does not handle, then the Instances table has to be queried
+   */
+  private Cursor expandInstances(String selection, String[] selectionArgs, long startMilliseconds, long endMilliseconds) {
+    String eventSelection = CalendarContract.Events.DELETED + " = 0";
+    if (selection != null) {
+      if (!TRANSLATABLE_SELECTION.matcher(selection).matches()) {
+        return null;
+      }
+      eventSelection += " AND (" + EVENT_ID_COLUMN.matcher(selection).replaceAll(CalendarContractCompat.Events._ID) + ")";
+    }
+    List<Object[]> instances = new ArrayList<>();
+    List<String> eventIds = new ArrayList<>();
+    try (Cursor events = getContext().getContentResolver().query(CalendarContractCompat.Events.CONTENT_URI,
+        EVENT_PROJECTION, eventSelection, selectionArgs, null)) {
+      if (events == null) {
+        return null;
+      }
+      while (events.moveToNext()) {
+        if (!TextUtils.isEmpty(events.getString(6)) || !TextUtils.isEmpty(events.getString(7)) ||
+            !TextUtils.isEmpty(events.getString(8)) || !events.isNull(9)) {
+          return null;
+        }
+        long eventId = events.getLong(0);
+        eventIds.add(String.valueOf(eventId));
+        long[] begins = recurrenceExpander.expand(new RecurrenceExpander.PlanDefinition(eventId, events.getLong(1),
+            events.getString(2), events.getString(3), events.getInt(4) == 1), startMilliseconds, endMilliseconds);
+        if (begins == null) {
+          return null;
+        }
+        String title = events.getString(5);
+        for (long begin : begins) {
+          instances.add(new Object[]{eventId, begin, title});
+        }
+      }
+    } catch (SQLiteException | IllegalArgumentException e) {
+      return null;
+    }
+    if (hasExceptions(eventIds)) {
+      return null;
+    }
+    Collections.sort(instances, (o1, o2) -> Long.compare((long) o1[1], (long) o2[1]));
+    MatrixCursor cursor = new MatrixCursor(INSTANCE_PROJECTION, instances.size());
+    for (Object[] instance : instances) {
+      cursor.addRow(instance);
+    }
+    return cursor;
+  }
+
+  /**
+   * modified or cancelled instances of a recurring event are stored as events referencing it with
+   * {@link CalendarContract.Events#ORIGINAL_ID}, which {@link RecurrenceExpander} does not apply
+   */
+  private boolean hasExceptions(List<String> eventIds) {
+    if (eventIds.isEmpty()) {
+      return false;
+    }
+    try (Cursor exceptions = getContext().getContentResolver().query(CalendarContractCompat.Events.CONTENT_URI,
+        new String[]{CalendarContractCompat.Events._ID},
+        CalendarContract.Events.ORIGINAL_ID + " IN (" + TextUtils.join(",", eventIds) + ")", null, null)) {
+      return exceptions == null || exceptions.getCount() > 0;
+    } catch (SQLiteException | IllegalArgumentException e) {
+      return true;
+    }
+  }
+
   private boolean isInstanceOfPlan(DateTime dayToCheck, long dtstart, EventRecurrence recurrence) {
     DateTime startDate = DateTime.forInstant(dtstart, TimeZone.getDefault());
     if (recurrence == null) {
@@ -0,0 +1,104 @@
+package org.totschnig.myexpenses.provider
+
+import android.database.Cursor
+import org.totschnig.myexpenses.adapter.CategoryTreeBaseAdapter
+import org.totschnig.myexpenses.provider.DatabaseConstants.KEY_CATID
+import org.totschnig.myexpenses.provider.DatabaseConstants.KEY_COUNT
+import org.totschnig.myexpenses.provider.DatabaseConstants.KEY_SUM
+import org.totschnig.myexpenses.viewmodel.data.Category
+import java.util.*
+
+/**
+ * Sum and count of transactions per category, as returned by a single grouped scan over
+ * [TransactionProvider.TRANSACTIONS_CATEGORY_SUMS_URI], held in parallel arrays sorted by category
+ * id. [tree] rolls up the sums of sub categories to their main category in memory, which replaces
+ * a correlated sub query over the transactions for every category.
+ */
+class CategoryDistribution(
+    private val ids: LongArray,
+    private val sums: LongArray,
+    private val counts: IntArray
+) {
+    init {
+        require(ids.size == sums.size && ids.size == counts.size)
+    }
+
+    val size: Int
+        get() = ids.size
+
+    /**
+     * @return the sum of the transactions mapped to the category itself, 0 if there are none
+     */
+    fun ownSum(catId: Long) = indexOf(catId).let { if (it < 0) 0L else sums[it] }
+
+    fun ownCount(catId: Long) = indexOf(catId).let { if (it < 0) 0 else counts[it] }
+
+    private fun indexOf(catId: Long) = Arrays.binarySearch(ids, catId)
+
+    /**
+     * @param categories main categories followed by sub categories, as read from the categories
+     * query
+     * @param showAllCategories if false, categories without transactions in their subtree are
+     * left out
+     * @param sumComparator if not null, main categories and the sub categories of each main
+     * category are (stably) sorted with it, after their sums have been set
+     * @return the main categories, each holding its sub categories, with [Category.sum] holding
+     * the sum of the subtree
+     */
+    fun tree(
+        categories: List<Category>,
+        showAllCategories: Boolean,
+        sumComparator: Comparator<Category>?
+    ): List<Category> {
+        val childSums = HashMap<Long, Long>()
+        val childCounts = HashMap<Long, Int>()
+        for (category in categories) {
+            category.parentId?.let { parentId ->
+                childSums[parentId] = (childSums[parentId] ?: 0L) + ownSum(category.id)
+                childCounts[parentId] = (childCounts[parentId] ?: 0) + ownCount(category.id)
+            }
+        }
+        val withSums = categories.mapNotNull { category ->
+            val count = ownCount(category.id) + (childCounts[category.id] ?: 0)
+            if (showAllCategories || count > 0)
+                category.copy(sum = ownSum(category.id) + (childSums[category.id] ?: 0L))
+            else null
+        }
+        return CategoryTreeBaseAdapter.buildTree(
+            if (sumComparator == null) withSums else withSums.sortedWith(
+                //main categories need to stay in front of sub categories
+                compareBy<Category> { it.parentId != null }.then(sumComparator)
+            )
+        )
+    }
+
+    override fun toString() = "CategoryDistribution(size: $size)"
+
+    companion object {
+        @JvmField
+        val EMPTY = CategoryDistribution(LongArray(0), LongArray(0), IntArray(0))
+
+        /**
+         * @param cursor the result of a query on [TransactionProvider.TRANSACTIONS_CATEGORY_SUMS_URI],
+         * which is sorted by category id
+         */
+        @JvmStatic
+        fun fromCursor(cursor: Cursor): CategoryDistribution {
+            val size = cursor.count
+            val ids = LongArray(size)
+            val sums = LongArray(size)
+            val counts = IntArray(size)
+            val columnIndexCatId = cursor.getColumnIndexOrThrow(KEY_CATID)
+            val columnIndexSum = cursor.getColumnIndexOrThrow(KEY_SUM)
+            val columnIndexCount = cursor.getColumnIndexOrThrow(KEY_COUNT)
+            var index = 0
+            while (cursor.moveToNext()) {
+                ids[index] = cursor.getLong(columnIndexCatId)
+                sums[index] = cursor.getLong(columnIndexSum)
+                counts[index] = cursor.getInt(columnIndexCount)
+                index++
+            }
+            return CategoryDistribution(ids, sums, counts)
+        }
+    }
+}
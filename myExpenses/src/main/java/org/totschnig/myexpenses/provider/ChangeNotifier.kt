@@ -0,0 +1,125 @@
+package org.totschnig.myexpenses.provider
+
+import android.net.Uri
+import java.util.concurrent.ConcurrentHashMap
+import java.util.concurrent.atomic.AtomicInteger
+import java.util.concurrent.atomic.AtomicLong
+
+/**
+ * Collects the change notifications of [TransactionProvider] while a provider transaction (an
+ * [android.content.ContentProvider.applyBatch] or a bulk operation started with
+ * [TransactionProvider.METHOD_BULK_START]) is in progress on the calling thread, and dispatches each
+ * uri once when the outermost one ends. Notifications requested by other threads in the meantime
+ * are dispatched immediately. Uris that are descendants of another pending uri are still dispatched,
+ * since observers may tell changes apart by the uri they are notified with, e.g. the categories
+ * observer of [KeysetPagingLoader].
+ *
+ * It also counts the dispatched notifications per first path segment of their uri, which
+ * gives clients a data version for each kind of data (e.g. payees), see [dataVersion].
+ */
+class ChangeNotifier(private val dispatcher: Dispatcher) {
+    fun interface Dispatcher {
+        fun dispatch(uri: Uri, syncToNetwork: Boolean)
+    }
+
+    private class Batch {
+        var depth = 0
+        var bulk = false
+        var requested = 0
+        var queries = 0
+        val pending = LinkedHashMap<Uri, Boolean>()
+    }
+
+    private val batch = ThreadLocal<Batch>()
+
+    private val requested = AtomicInteger()
+    private val dispatched = AtomicInteger()
+    private val queries = AtomicInteger()
+
+    private val epoch = System.currentTimeMillis()
+    private val rootVersion = AtomicLong()
+    private val versions = ConcurrentHashMap<String, AtomicLong>()
+
+    fun begin() {
+        (batch.get() ?: Batch().also { batch.set(it) }).depth++
+    }
+
+    /**
+     * @return the notifications requested and dispatched, and the queries run by the provider
+     * transaction, if it is the outermost one on the calling thread
+     */
+    fun end(): Stats? {
+        val current = checkNotNull(batch.get()) { "end without begin" }
+        if (--current.depth > 0) return null
+        batch.remove()
+        current.pending.forEach { (uri, syncToNetwork) -> dispatchNow(uri, syncToNetwork) }
+        return Stats(current.requested, current.pending.size, current.queries)
+    }
+
+    /**
+     * begins a bulk operation on the calling thread, unless one is already in progress
+     */
+    fun beginBulk() {
+        if (batch.get()?.bulk != true) {
+            begin()
+            batch.get().bulk = true
+        }
+    }
+
+    /**
+     * ends the bulk operation in progress on the calling thread, see [end]
+     */
+    fun endBulk(): Stats? = batch.get()?.takeIf { it.bulk }?.let {
+        it.bulk = false
+        end()
+    }
+
+    fun notifyChange(uri: Uri, syncToNetwork: Boolean) {
+        requested.incrementAndGet()
+        batch.get()?.let {
+            it.requested++
+            it.pending[uri] = (it.pending[uri] ?: false) || syncToNetwork
+            return
+        }
+        dispatchNow(uri, syncToNetwork)
+    }
+
+    private fun dispatchNow(uri: Uri, syncToNetwork: Boolean) {
+        dispatched.incrementAndGet()
+        //counted before observers are notified, and after the change has been committed
+        uri.pathSegments.firstOrNull()?.let { versions.getOrPut(it) { AtomicLong() }.incrementAndGet() }
+            ?: rootVersion.incrementAndGet()
+        dispatcher.dispatch(uri, syncToNetwork)
+    }
+
+    /**
+     * @return an opaque token, which changes whenever a change of the data below uris starting
+     * with [segment] has been dispatched, and is not reused by another provider instance
+     */
+    fun dataVersion(segment: String) =
+        "$epoch-${rootVersion.get()}-${versions[segment]?.get() ?: 0}"
+
+    fun countQuery() {
+        queries.incrementAndGet()
+        batch.get()?.let { it.queries++ }
+    }
+
+    /**
+     * counters since the provider has been created, subtract two snapshots to get the
+     * counts of an operation
+     */
+    val stats: Stats
+        get() = Stats(requested.get(), dispatched.get(), queries.get())
+
+    /**
+     * @param requested number of notifications requested by write operations
+     * @param dispatched number of notifications delivered to the ContentResolver
+     * @param queries number of queries run by the provider, after a write most of them are
+     * re-queries of observers. For a provider transaction, the queries run by its thread while
+     * it was in progress.
+     */
+    data class Stats(val requested: Int, val dispatched: Int, val queries: Int) {
+        operator fun minus(other: Stats) =
+            Stats(requested - other.requested, dispatched - other.dispatched, queries - other.queries)
+    }
+}
@@ -23,6 +23,7 @@ import org.totschnig.myexpenses.util.Utils;
 
 import java.util.Calendar;
 import java.util.Locale;
+import java.util.TimeZone;
 
 /**
  * @author Michael Totschnig
@@ -45,6 +46,7 @@ public class DatabaseConstants {
   private static String WEEK_MAX;
   private static String WHERE_IN_PAST;
   private static String HAS_FUTURE;
+  private static String SELECT_FUTURE_AMOUNT_SUM;
 
   //in sqlite julian days are calculated from noon, in order to make sure that the returned julian day matches the day we need, we set the time to noon.
   private static final String JULIAN_DAY_OFFSET = "'start of day','+12 hours'";
@@ -58,6 +60,9 @@ public class DatabaseConstants {
     WHERE_IN_PAST = KEY_DATE + " <= " + futureCriterion;
     HAS_FUTURE = "(SELECT EXISTS(SELECT 1 FROM " + TABLE_TRANSACTIONS + " WHERE "
             + KEY_ACCOUNTID + " = " + TABLE_ACCOUNTS + "." + KEY_ROWID + " AND " + KEY_DATE + " > " + futureCriterion + "  LIMIT 1)) AS " + KEY_HAS_FUTURE;
+    SELECT_FUTURE_AMOUNT_SUM = "SELECT coalesce(sum(" + KEY_AMOUNT + "),0) FROM " + TABLE_TRANSACTIONS + " WHERE "
+        + KEY_ACCOUNTID + " = " + TABLE_ACCOUNTS + "." + KEY_ROWID + " AND " + KEY_PARENTID + " IS null AND "
+        + KEY_STATUS + " != " + STATUS_UNCOMMITTED + " AND " + WHERE_NOT_VOID + " AND " + KEY_DATE + " > " + futureCriterion;
     weekStartsOn = Utils.getFirstDayOfWeekFromPreferenceWithFallbackToLocale(locale);
     monthStartsOn = Integer.parseInt(PrefKey.GROUP_MONTH_STARTS.getString("1"));
     int monthDelta = monthStartsOn - 1;
@@ -138,6 +143,10 @@ public class DatabaseConstants {
   public static final String KEY_DEFAULT_ACTION = "default_action";
   public static final String KEY_TEMPLATEID = "template_id";
   public static final String KEY_INSTANCEID = "instance_id";
+  /**
+   * amount of the transaction a plan instance has been applied to
+   */
+  public static final String KEY_INSTANCE_AMOUNT = "instance_amount";
   public static final String KEY_CODE = "code";
   public static final String KEY_WEEK_START = "week_start";
   public static final String KEY_GROUP_START = "group_start";
@@ -178,6 +187,8 @@ public class DatabaseConstants {
   public static final String KEY_PREDEFINED_METHOD_NAME = "predefined";
   public static final String KEY_UUID = "uuid";
   public static final String KEY_PICTURE_URI = "picture_id";//historical reasons
+  public static final String KEY_FILE_NAME = "file_name";
+  public static final String KEY_HASH = "hash";
   public static final String KEY_SYNC_ACCOUNT_NAME = "sync_account_name";
   public static final String KEY_TRANSFER_AMOUNT = "transfer_amount";
   public static final String KEY_LABEL_NORMALIZED = "label_normalized";
@@ -272,6 +283,12 @@ public class DatabaseConstants {
    */
   public static final int STATUS_HELPER = 3;
 
+  /**
+   * a transaction that stands in for archived transactions in the transactions table,
+   * see Archive.kt
+   */
+  public static final int STATUS_ARCHIVE_SUMMARY = 4;
+
   public static final String TABLE_TRANSACTIONS = "transactions";
   public static final String TABLE_ACCOUNTS = "accounts";
   static final String TABLE_SYNC_STATE = "_sync_state";
@@ -295,6 +312,39 @@ public class DatabaseConstants {
   static final String TABLE_CHANGES = "changes";
   static final String TABLE_SETTINGS = "settings";
   static final String TABLE_ACCOUNT_EXCHANGE_RATES = "account_exchangerates";
+  public static final String TABLE_ACCOUNT_TOTALS = "account_totals";
+  /**
+   * local calendar buckets of each transaction, maintained by triggers (see DateBuckets.kt)
+   */
+  public static final String TABLE_DATE_BUCKETS = "date_buckets";
+  /**
+   * full text index of transactions, maintained by triggers (see TransactionSearch.kt)
+   */
+  public static final String TABLE_TRANSACTIONS_SEARCH = "transactions_search";
+  /**
+   * last transaction of each payee, maintained by triggers (see PayeeAutofill.kt)
+   */
+  public static final String TABLE_PAYEE_AUTOFILL = "payee_autofill";
+  /**
+   * number of transactions per payee and category, maintained by triggers (see PayeeAutofill.kt)
+   */
+  public static final String TABLE_PAYEE_CATEGORIES = "payee_categories";
+  /**
+   * picture uris referenced by transactions with their reference count, maintained by triggers (see Attachments.kt)
+   */
+  public static final String TABLE_ATTACHMENTS = "attachments";
+  /**
+   * transactions moved out of the transactions table, see Archive.kt
+   */
+  public static final String TABLE_TRANSACTIONS_ARCHIVE = "transactions_archive";
+  public static final String TABLE_TRANSACTIONS_ARCHIVE_TAGS = "transactions_archive_tags";
+  public static final String VIEW_COMMITTED_WITH_ARCHIVE = "transactions_committed_with_archive";
+  public static final String VIEW_EXTENDED_WITH_ARCHIVE = "transactions_extended_with_archive";
+  /**
+   * accounts joined with their materialized totals, maintained by triggers (see AccountTotals.kt)
+   */
+  public static final String ACCOUNTS_WITH_TOTALS = TABLE_ACCOUNTS + " LEFT JOIN " + TABLE_ACCOUNT_TOTALS + " ON "
+      + TABLE_ACCOUNT_TOTALS + "." + KEY_ACCOUNTID + " = " + TABLE_ACCOUNTS + "." + KEY_ROWID;
   static final String TABLE_TAGS = "tags";
   public static final String TABLE_TRANSACTIONS_TAGS = "transactions_tags";
   public static final String TABLE_ACCOUNTS_TAGS = "accounts_tags";
@@ -478,6 +528,22 @@ public class DatabaseConstants {
     return HAS_FUTURE;
   }
 
+  /**
+   * sum of committed, non void transactions of the account referenced as accounts._id dated after the future criterion
+   */
+  public static String getSelectFutureAmountSum() {
+    ensureLocalized();
+    return SELECT_FUTURE_AMOUNT_SUM;
+  }
+
+  /**
+   * identifies the configuration the values stored in {@link #TABLE_DATE_BUCKETS} have been computed for
+   */
+  public static String getDateBucketsSignature() {
+    ensureLocalized();
+    return TimeZone.getDefault().getID() + ";" + weekStartsOn + ";" + monthStartsOn;
+  }
+
   public static String getYearOfMonthStart() {
     ensureLocalized();
     return YEAR_OF_MONTH_START;
@@ -0,0 +1,133 @@
+package org.totschnig.myexpenses.provider
+
+import android.content.ContentValues
+import android.database.sqlite.SQLiteDatabase
+import org.totschnig.myexpenses.provider.DatabaseConstants.DAY
+import org.totschnig.myexpenses.provider.DatabaseConstants.KEY_ACCOUNTID
+import org.totschnig.myexpenses.provider.DatabaseConstants.KEY_DATE
+import org.totschnig.myexpenses.provider.DatabaseConstants.KEY_DAY
+import org.totschnig.myexpenses.provider.DatabaseConstants.KEY_KEY
+import org.totschnig.myexpenses.provider.DatabaseConstants.KEY_MONTH
+import org.totschnig.myexpenses.provider.DatabaseConstants.KEY_ROWID
+import org.totschnig.myexpenses.provider.DatabaseConstants.KEY_TRANSACTIONID
+import org.totschnig.myexpenses.provider.DatabaseConstants.KEY_VALUE
+import org.totschnig.myexpenses.provider.DatabaseConstants.KEY_WEEK
+import org.totschnig.myexpenses.provider.DatabaseConstants.KEY_YEAR
+import org.totschnig.myexpenses.provider.DatabaseConstants.KEY_YEAR_OF_MONTH_START
+import org.totschnig.myexpenses.provider.DatabaseConstants.KEY_YEAR_OF_WEEK_START
+import org.totschnig.myexpenses.provider.DatabaseConstants.TABLE_DATE_BUCKETS
+import org.totschnig.myexpenses.provider.DatabaseConstants.TABLE_SETTINGS
+import org.totschnig.myexpenses.provider.DatabaseConstants.TABLE_TRANSACTIONS
+import org.totschnig.myexpenses.provider.DatabaseConstants.YEAR
+import org.totschnig.myexpenses.provider.DatabaseConstants.getDateBucketsSignature
+import org.totschnig.myexpenses.provider.DatabaseConstants.getMonth
+import org.totschnig.myexpenses.provider.DatabaseConstants.getWeek
+import org.totschnig.myexpenses.provider.DatabaseConstants.getYearOfMonthStart
+import org.totschnig.myexpenses.provider.DatabaseConstants.getYearOfWeekStart
+import timber.log.Timber
+
+private const val DATE_BUCKETS_SIGNATURE_KEY = "date_buckets_signature"
+
+/**
+ * Stores for each transaction the local calendar buckets it falls into, so that grouping and
+ * filtering by period does not need to evaluate strftime on every row. The values depend on the
+ * timezone and on the week and month start preferences, and are recomputed by [ensureDateBuckets]
+ * whenever one of them has changed, which is checked when the database is opened and when one of
+ * the preferences is changed. The account is stored too, so that filters of a single account are
+ * resolved from the indexes.
+ */
+private const val DATE_BUCKETS_CREATE = """
+CREATE TABLE $TABLE_DATE_BUCKETS (
+$KEY_TRANSACTIONID integer primary key references $TABLE_TRANSACTIONS($KEY_ROWID) ON DELETE CASCADE,
+$KEY_ACCOUNTID integer,
+$KEY_YEAR integer,
+$KEY_MONTH integer,
+$KEY_WEEK integer,
+$KEY_DAY integer,
+$KEY_YEAR_OF_WEEK_START integer,
+$KEY_YEAR_OF_MONTH_START integer);
+"""
+
+private const val DATE_BUCKETS_COLUMNS =
+    "$KEY_TRANSACTIONID, $KEY_ACCOUNTID, $KEY_YEAR, $KEY_MONTH, $KEY_WEEK, $KEY_DAY, $KEY_YEAR_OF_WEEK_START, $KEY_YEAR_OF_MONTH_START"
+
+/**
+ * [TABLE_DATE_BUCKETS] without [KEY_ACCOUNTID], for joining it with views on transactions, whose
+ * selections reference [KEY_ACCOUNTID] unqualified
+ */
+const val DATE_BUCKETS_JOIN = "(SELECT $KEY_TRANSACTIONID, $KEY_YEAR, $KEY_MONTH, $KEY_WEEK, $KEY_DAY, " +
+        "$KEY_YEAR_OF_WEEK_START, $KEY_YEAR_OF_MONTH_START FROM $TABLE_DATE_BUCKETS) AS $TABLE_DATE_BUCKETS"
+
+private fun selectDateBuckets() =
+    "SELECT $KEY_ROWID, $KEY_ACCOUNTID, $YEAR, ${getMonth()}, ${getWeek()}, $DAY, ${getYearOfWeekStart()}, ${getYearOfMonthStart()} FROM $TABLE_TRANSACTIONS"
+
+private fun dateBucketsTrigger(name: String, event: String) = """
+CREATE TRIGGER $name AFTER $event ON $TABLE_TRANSACTIONS
+BEGIN INSERT OR REPLACE INTO $TABLE_DATE_BUCKETS ($DATE_BUCKETS_COLUMNS) ${selectDateBuckets()} WHERE $KEY_ROWID = new.$KEY_ROWID; END
+"""
+
+fun createDateBuckets(db: SQLiteDatabase) {
+    with(db) {
+        execSQL(DATE_BUCKETS_CREATE)
+        //the account comes last, so that the indexes also serve the filters of aggregate accounts
+        execSQL("CREATE INDEX date_buckets_month_index ON $TABLE_DATE_BUCKETS ($KEY_YEAR_OF_MONTH_START, $KEY_MONTH, $KEY_ACCOUNTID)")
+        execSQL("CREATE INDEX date_buckets_week_index ON $TABLE_DATE_BUCKETS ($KEY_YEAR_OF_WEEK_START, $KEY_WEEK, $KEY_ACCOUNTID)")
+        execSQL("CREATE INDEX date_buckets_day_index ON $TABLE_DATE_BUCKETS ($KEY_YEAR, $KEY_DAY, $KEY_ACCOUNTID)")
+    }
+}
+
+/**
+ * Recreates the table with the current schema. The buckets are recomputed by [ensureDateBuckets]
+ * when the database is opened.
+ */
+fun recreateDateBuckets(db: SQLiteDatabase) {
+    with(db) {
+        execSQL("DROP TRIGGER IF EXISTS date_buckets_insert")
+        execSQL("DROP TRIGGER IF EXISTS date_buckets_update")
+        execSQL("DROP TABLE IF EXISTS $TABLE_DATE_BUCKETS")
+        delete(TABLE_SETTINGS, "$KEY_KEY = ?", arrayOf(DATE_BUCKETS_SIGNATURE_KEY))
+    }
+    createDateBuckets(db)
+}
+
+/**
+ * Since the triggers embed the localized date expressions, they are only created here, once
+ * [DatabaseConstants.buildLocalized] has been called. Writes to the database, hence must not be
+ * called from query paths.
+ *
+ * @return true if the buckets have been recomputed
+ */
+fun ensureDateBuckets(db: SQLiteDatabase): Boolean {
+    val signature = getDateBucketsSignature()
+    val stored = db.query(
+        TABLE_SETTINGS, arrayOf(KEY_VALUE), "$KEY_KEY = ?", arrayOf(DATE_BUCKETS_SIGNATURE_KEY),
+        null, null, null
+    ).use {
+        if (it.moveToFirst()) it.getString(0) else null
+    }
+    if (signature == stored) return false
+    Timber.i("Recomputing date buckets for %s (was %s)", signature, stored)
+    refreshDateBuckets(db, signature)
+    return true
+}
+
+private fun refreshDateBuckets(db: SQLiteDatabase, signature: String) {
+    db.beginTransaction()
+    try {
+        with(db) {
+            execSQL("DROP TRIGGER IF EXISTS date_buckets_insert")
+            execSQL("DROP TRIGGER IF EXISTS date_buckets_update")
+            execSQL(dateBucketsTrigger("date_buckets_insert", "INSERT"))
+            execSQL(dateBucketsTrigger("date_buckets_update", "UPDATE OF $KEY_DATE, $KEY_ACCOUNTID"))
+            delete(TABLE_DATE_BUCKETS, null, null)
+            execSQL("INSERT INTO $TABLE_DATE_BUCKETS ($DATE_BUCKETS_COLUMNS) ${selectDateBuckets()}")
+            replace(TABLE_SETTINGS, null, ContentValues(2).apply {
+                put(KEY_KEY, DATE_BUCKETS_SIGNATURE_KEY)
+                put(KEY_VALUE, signature)
+            })
+        }
+        db.setTransactionSuccessful()
+    } finally {
+        db.endTransaction()
+    }
+}
@@ -0,0 +1,91 @@
+package org.totschnig.myexpenses.provider
+
+import java.time.LocalDate
+import java.util.TreeMap
+
+/**
+ * Number of days a lookup may go back, in order to find the rate for a day without a published
+ * rate, e.g. a weekend or a bank holiday
+ */
+const val MAX_FALLBACK_DAYS = 7L
+
+/**
+ * In-memory cache of exchange rates. Besides the rates, it keeps track of the date ranges that
+ * have been loaded completely for a currency pair, so that a day without a rate inside these
+ * ranges can be served from the nearest previous day.
+ */
+class ExchangeRateCache {
+    data class Key(val base: String, val other: String, val source: String)
+
+    private class Entry {
+        val rates = TreeMap<LocalDate, Float>()
+
+        /**
+         * maps the start of each loaded range to its end, ranges are disjoint and not adjacent
+         */
+        val loaded = TreeMap<LocalDate, LocalDate>()
+    }
+
+    private val entries = HashMap<Key, Entry>()
+
+    /**
+     * stores [rates] and marks the range from [start] to [end] as loaded
+     */
+    @Synchronized
+    fun put(key: Key, start: LocalDate, end: LocalDate, rates: Map<LocalDate, Float>) {
+        val entry = entries.getOrPut(key) { Entry() }
+        entry.rates.putAll(rates)
+        var newStart = start
+        var newEnd = end
+        entry.loaded.floorEntry(start)?.let {
+            if (it.value >= start.minusDays(1)) {
+                newStart = it.key
+                newEnd = maxOf(newEnd, it.value)
+            }
+        }
+        val merged = entry.loaded.subMap(newStart, true, newEnd.plusDays(1), true)
+        merged.values.maxOrNull()?.let { newEnd = maxOf(newEnd, it) }
+        merged.clear()
+        entry.loaded[newStart] = newEnd
+    }
+
+    /**
+     * @return the rate for [date], or the rate of the nearest previous day in the same loaded
+     * range, null if [date] has not been loaded
+     */
+    @Synchronized
+    fun getRate(key: Key, date: LocalDate): Float? {
+        val entry = entries[key] ?: return null
+        entry.rates[date]?.let { return it }
+        val range = entry.loaded.floorEntry(date)?.takeIf { it.value >= date } ?: return null
+        return entry.rates.floorEntry(date)
+            ?.takeIf { it.key >= range.key && it.key >= date.minusDays(MAX_FALLBACK_DAYS) }?.value
+    }
+
+    /**
+     * @return the parts of the range from [start] to [end] that have not yet been loaded
+     */
+    @Synchronized
+    fun missingRanges(key: Key, start: LocalDate, end: LocalDate): List<ClosedRange<LocalDate>> {
+        val loaded = entries[key]?.loaded ?: return if (start <= end) listOf(start..end) else emptyList()
+        val result = mutableListOf<ClosedRange<LocalDate>>()
+        var cursor = start
+        while (cursor <= end) {
+            val floor = loaded.floorEntry(cursor)
+            if (floor != null && floor.value >= cursor) {
+                cursor = floor.value.plusDays(1)
+                continue
+            }
+            val next = loaded.higherKey(cursor)
+            val gapEnd = if (next == null || next > end) end else next.minusDays(1)
+            result.add(cursor..gapEnd)
+            cursor = gapEnd.plusDays(1)
+        }
+        return result
+    }
+
+    @Synchronized
+    fun clear() {
+        entries.clear()
+    }
+}
@@ -4,19 +4,116 @@ import org.jetbrains.annotations.NotNull
 import java.time.LocalDate
 import org.totschnig.myexpenses.preference.PrefHandler
 import org.totschnig.myexpenses.retrofit.ExchangeRateService
+import org.totschnig.myexpenses.retrofit.ExchangeRateSource
 import org.totschnig.myexpenses.room.ExchangeRate
 import org.totschnig.myexpenses.room.ExchangeRateDao
+import timber.log.Timber
 import java.io.IOException
 
+/**
+ * Gaps between two stored rates of up to this number of days are taken to be weekends or bank
+ * holidays, for which no rate is published
+ */
+const val MAX_NON_TRADING_DAYS = 4
+
+/**
+ * The longest range requested with one time series request
+ */
+const val MAX_TIME_SERIES_DAYS = 365L
+
+/**
+ * Number of days before and after a requested date that are prefetched by [ExchangeRateRepository.prefetchAround]
+ */
+const val PREFETCH_DAYS = 90L
+
 class ExchangeRateRepository(private val dao: @NotNull ExchangeRateDao, val prefHandler: @NotNull PrefHandler,
                              val service: @NotNull ExchangeRateService) {
+    private val cache = ExchangeRateCache()
+
     @Throws(IOException::class)
     suspend fun loadExchangeRate(other: String, base: String, date: LocalDate): Float {
         val configuration = service.configuration(prefHandler)
-        return dao.getRate(base, other, date, configuration.source.name)
+        val key = ExchangeRateCache.Key(base, other, configuration.source.name)
+        return cache.getRate(key, date)
+                ?: dao.getRate(base, other, date, configuration.source.name)
                 ?: service.getRate(configuration, date, other, base).let {
                     dao.insert(ExchangeRate(base, other, it.first, it.second, configuration.source.name))
                     it.second
                 }
     }
-}
\ No newline at end of file
+
+    /**
+     * Loads the rates for all days from [start] to [end] (or yesterday, if [end] is later), so
+     * that subsequent calls to [loadExchangeRate] for these days are served from memory. Only
+     * the ranges that are neither loaded nor stored in the database are requested from the
+     * exchange rate source, with one time series request per range.
+     *
+     * @return the number of time series requests sent to the exchange rate source
+     */
+    @Throws(IOException::class)
+    suspend fun prefetch(other: String, base: String, start: LocalDate, end: LocalDate): Int {
+        val configuration = service.configuration(prefHandler)
+        val source = configuration.source.name
+        val key = ExchangeRateCache.Key(base, other, source)
+        var requests = 0
+        for (range in cache.missingRanges(key, start, minOf(end, LocalDate.now().minusDays(1)))) {
+            val stored = dao.getRates(base, other, range.start, range.endInclusive, source)
+                .associate { it.date to it.rate }
+            for (missing in unstoredRanges(range, stored.keys)) {
+                var chunkStart = missing.start
+                while (chunkStart <= missing.endInclusive) {
+                    val chunkEnd = minOf(missing.endInclusive, chunkStart.plusDays(MAX_TIME_SERIES_DAYS - 1))
+                    val fetched = service.getTimeSeries(configuration, chunkStart, chunkEnd, other, base)
+                    requests++
+                    dao.insert(fetched.map { ExchangeRate(base, other, it.key, it.value, source) })
+                    cache.put(key, chunkStart, chunkEnd, fetched)
+                    chunkStart = chunkEnd.plusDays(1)
+                }
+            }
+            cache.put(key, range.start, range.endInclusive, stored)
+        }
+        return requests
+    }
+
+    /**
+     * Prefetches [PREFETCH_DAYS] days before and after [date], so that the rates for transactions
+     * entered one after the other are retrieved with one request. Only done for past dates and
+     * sources providing time series, a failed prefetch is ignored, since the rate for [date] is
+     * then requested on its own.
+     */
+    suspend fun prefetchAround(other: String, base: String, date: LocalDate) {
+        if (service.configuration(prefHandler).source != ExchangeRateSource.EXCHANGE_RATE_HOST ||
+            date >= LocalDate.now()) return
+        try {
+            prefetch(other, base, date.minusDays(PREFETCH_DAYS), date.plusDays(PREFETCH_DAYS))
+        } catch (e: IOException) {
+            Timber.w(e)
+        }
+    }
+}
+
+/**
+ * @return the stretches of [range] without a rate in [stored], gaps of up to
+ * [MAX_NON_TRADING_DAYS] days between two stored rates are not considered missing
+ */
+fun unstoredRanges(range: ClosedRange<LocalDate>, stored: Set<LocalDate>): List<ClosedRange<LocalDate>> {
+    val result = mutableListOf<ClosedRange<LocalDate>>()
+    var gapStart: LocalDate? = null
+    var date = range.start
+    while (date <= range.endInclusive) {
+        if (date in stored) {
+            gapStart?.let { start ->
+                val boundedBefore = start > range.start
+                if (!boundedBefore || start.plusDays(MAX_NON_TRADING_DAYS.toLong()) < date) {
+                    result.add(start..date.minusDays(1))
+                }
+            }
+            gapStart = null
+        } else if (gapStart == null) {
+            gapStart = date
+        }
+        date = date.plusDays(1)
+    }
+    gapStart?.let { result.add(it..range.endInclusive) }
+    return result
+}
@@ -0,0 +1,359 @@
+package org.totschnig.myexpenses.provider
+
+import android.content.ContentResolver
+import android.database.AbstractCursor
+import android.database.Cursor
+import android.net.Uri
+import org.totschnig.myexpenses.provider.DatabaseConstants.KEY_ACCOUNT_LABEL
+import org.totschnig.myexpenses.provider.DatabaseConstants.KEY_AMOUNT
+import org.totschnig.myexpenses.provider.DatabaseConstants.KEY_CATID
+import org.totschnig.myexpenses.provider.DatabaseConstants.KEY_COLOR
+import org.totschnig.myexpenses.provider.DatabaseConstants.KEY_COMMENT
+import org.totschnig.myexpenses.provider.DatabaseConstants.KEY_CR_STATUS
+import org.totschnig.myexpenses.provider.DatabaseConstants.KEY_DATE
+import org.totschnig.myexpenses.provider.DatabaseConstants.KEY_LABEL
+import org.totschnig.myexpenses.provider.DatabaseConstants.KEY_METHOD_LABEL
+import org.totschnig.myexpenses.provider.DatabaseConstants.KEY_METHODID
+import org.totschnig.myexpenses.provider.DatabaseConstants.KEY_PAYEE_NAME
+import org.totschnig.myexpenses.provider.DatabaseConstants.KEY_PICTURE_URI
+import org.totschnig.myexpenses.provider.DatabaseConstants.KEY_REFERENCE_NUMBER
+import org.totschnig.myexpenses.provider.DatabaseConstants.KEY_ROWID
+import org.totschnig.myexpenses.provider.DatabaseConstants.KEY_STATUS
+import org.totschnig.myexpenses.provider.DatabaseConstants.KEY_TAGLIST
+import org.totschnig.myexpenses.provider.DatabaseConstants.KEY_TRANSFER_ACCOUNT
+import org.totschnig.myexpenses.provider.DatabaseConstants.KEY_TRANSFER_PEER
+import org.totschnig.myexpenses.provider.DatabaseConstants.KEY_VALUE_DATE
+import org.totschnig.myexpenses.provider.DatabaseConstants.TABLE_ACCOUNTS
+import kotlin.math.abs
+
+const val KEYSET_PAGE_SIZE = 100
+const val KEYSET_MAX_LOADED_PAGES = 10
+
+/**
+ * columns of the extended transaction view, that are cheap to read for every row, and change when
+ * a transaction is edited, or an account or method it displays is renamed. The label of the
+ * transfer account is a primary key lookup only evaluated for transfers. The labels of categories
+ * and the transfer peer parent are left out, since they are computed by nested sub queries.
+ */
+private val FINGERPRINT_COLUMNS = arrayOf(
+    KEY_AMOUNT, KEY_VALUE_DATE, KEY_COMMENT, KEY_CATID, KEY_PAYEE_NAME, KEY_TRANSFER_PEER,
+    KEY_TRANSFER_ACCOUNT, KEY_METHODID, KEY_METHOD_LABEL, KEY_CR_STATUS, KEY_REFERENCE_NUMBER,
+    KEY_PICTURE_URI, KEY_STATUS, KEY_TAGLIST, KEY_COLOR, KEY_ACCOUNT_LABEL,
+    "CASE WHEN $KEY_TRANSFER_ACCOUNT THEN (SELECT $KEY_LABEL FROM $TABLE_ACCOUNTS WHERE $KEY_ROWID = $KEY_TRANSFER_ACCOUNT) END"
+)
+
+/**
+ * The keys of all rows of a transaction list in list order, together with a fingerprint of each
+ * row, that allows to tell if a page loaded for a previous version of the list can be reused.
+ */
+class KeysetIndex(val ids: LongArray, val dates: LongArray, val fingerprints: LongArray) {
+    init {
+        require(ids.size == dates.size && ids.size == fingerprints.size)
+    }
+
+    val size: Int
+        get() = ids.size
+
+    companion object {
+        @JvmStatic
+        fun query(
+            contentResolver: ContentResolver, uri: Uri, selection: String?,
+            selectionArgs: Array<String>?, descending: Boolean
+        ): KeysetIndex? = contentResolver.query(
+            uri, arrayOf(KEY_ROWID, KEY_DATE, *FINGERPRINT_COLUMNS), selection, selectionArgs,
+            keysetSortOrder(descending)
+        )?.use { fromCursor(it) }
+
+        /**
+         * @param cursor holds [KEY_ROWID] and [KEY_DATE] in its first two columns, every further
+         * column is folded into the fingerprint
+         */
+        @JvmStatic
+        fun fromCursor(cursor: Cursor): KeysetIndex {
+            val size = cursor.count
+            val ids = LongArray(size)
+            val dates = LongArray(size)
+            val fingerprints = LongArray(size)
+            var index = 0
+            while (cursor.moveToNext()) {
+                ids[index] = cursor.getLong(0)
+                dates[index] = cursor.getLong(1)
+                var fingerprint = 1L
+                for (column in 2 until cursor.columnCount) {
+                    val hash = when (cursor.getType(column)) {
+                        Cursor.FIELD_TYPE_NULL -> 0L
+                        Cursor.FIELD_TYPE_INTEGER -> cursor.getLong(column)
+                        Cursor.FIELD_TYPE_FLOAT -> cursor.getDouble(column).toRawBits()
+                        else -> cursor.getString(column).hashCode().toLong()
+                    }
+                    fingerprint = 1000003L * fingerprint + hash
+                }
+                fingerprints[index] = fingerprint
+                index++
+            }
+            return KeysetIndex(ids, dates, fingerprints)
+        }
+    }
+}
+
+/**
+ * A window of consecutive rows of a transaction list, identified by the keys and fingerprints of
+ * its rows. [rows] are loaded on demand, and dropped again by [KeysetPageCache], while the page
+ * itself can be carried over to the next version of the list, as long as none of its rows have
+ * changed.
+ */
+class KeysetPage(val ids: LongArray, val fingerprints: LongArray) {
+    @Volatile
+    var rows: Array<Array<Any?>>? = null
+
+    /**
+     * set if the loaded rows did not match the keys of the page, i.e. the database has changed
+     * in between, and a reload of the list is pending
+     */
+    @Volatile
+    var stale = false
+
+    val size: Int
+        get() = ids.size
+
+    fun matches(index: KeysetIndex, start: Int): Boolean {
+        if (stale || start + size > index.size) return false
+        for (i in 0 until size) {
+            if (ids[i] != index.ids[start + i] || fingerprints[i] != index.fingerprints[start + i]) return false
+        }
+        return true
+    }
+}
+
+/**
+ * Keeps the rows of at most [maxLoadedPages] pages in memory, shared by the cursors of
+ * consecutive loads of the same list.
+ */
+class KeysetPageCache(private val maxLoadedPages: Int = KEYSET_MAX_LOADED_PAGES) {
+    private val loaded = LinkedHashMap<KeysetPage, Unit>(maxLoadedPages + 1, 0.75f, true)
+
+    @Synchronized
+    fun touch(page: KeysetPage) {
+        loaded[page] = Unit
+        if (loaded.size > maxLoadedPages) {
+            val eldest = loaded.keys.first()
+            loaded.remove(eldest)
+            eldest.rows = null
+        }
+    }
+
+    /**
+     * stops tracking pages that have not been carried over to the next load. Their rows are left
+     * to the cursor that still displays them, until it is closed.
+     */
+    @Synchronized
+    fun retainAll(pages: Collection<KeysetPage>) {
+        loaded.keys.retainAll(pages.toHashSet())
+    }
+
+    val loadedCount: Int
+        @Synchronized get() = loaded.size
+}
+
+/**
+ * Splits [index] into pages of at most [pageSize] rows. Pages of [previous] whose rows are
+ * unchanged, and still follow each other in the same order, are reused with their loaded rows,
+ * so that editing, inserting or deleting a transaction only invalidates the page it belongs to.
+ */
+fun reconcilePages(index: KeysetIndex, previous: List<KeysetPage>, pageSize: Int = KEYSET_PAGE_SIZE): List<KeysetPage> {
+    val byFirstId = previous.filter { it.size > 0 }.associateBy { it.ids[0] }
+    val result = ArrayList<KeysetPage>(index.size / pageSize + 1)
+    fun addNewPages(from: Int, to: Int) {
+        var start = from
+        while (start < to) {
+            val end = minOf(start + pageSize, to)
+            result.add(KeysetPage(index.ids.copyOfRange(start, end), index.fingerprints.copyOfRange(start, end)))
+            start = end
+        }
+    }
+    var pending = 0
+    var position = 0
+    while (position < index.size) {
+        val candidate = byFirstId[index.ids[position]]
+        if (candidate != null && candidate.matches(index, position)) {
+            addNewPages(pending, position)
+            result.add(candidate)
+            position += candidate.size
+            pending = position
+        } else {
+            position++
+        }
+    }
+    addNewPages(pending, index.size)
+    return result
+}
+
+fun keysetSortOrder(descending: Boolean) = (if (descending) "DESC" else "ASC").let {
+    "$KEY_DATE $it, $KEY_ROWID $it"
+}
+
+/**
+ * Selects the rows between the keys (date, _id) of the first and the last row of a page, in list
+ * order. Takes six arguments: date and id of the first row, followed by date and id of the last row.
+ */
+fun keysetPageSelection(descending: Boolean): String {
+    val (before, after) = if (descending) "<" to ">" else ">" to "<"
+    return "($KEY_DATE $before ? OR ($KEY_DATE = ? AND $KEY_ROWID $before= ?)) AND " +
+            "($KEY_DATE $after ? OR ($KEY_DATE = ? AND $KEY_ROWID $after= ?))"
+}
+
+/**
+ * Cursor over a transaction list, that only holds the [KeysetIndex] of the list, and loads the
+ * rows of a page with [fetch] when the cursor is moved onto it. In contrast to a cursor over the
+ * whole list, opening the list does not need to compute the extended projection for every row,
+ * and memory is bounded by [KeysetPageCache].
+ *
+ * @param fetch loads the rows between the keys at the two given positions
+ * @param fetchIds loads the rows with the given ids, used for rows that are no longer found
+ * between the keys of their page
+ */
+class KeysetPagingCursor(
+    private val names: Array<String>,
+    private val index: KeysetIndex,
+    val pages: List<KeysetPage>,
+    private val cache: KeysetPageCache,
+    private val fetchIds: (ids: List<Long>) -> Cursor? = { null },
+    private val fetch: (firstPosition: Int, lastPosition: Int) -> Cursor?
+) : AbstractCursor() {
+    private val pageStarts = IntArray(pages.size).also {
+        var start = 0
+        pages.forEachIndexed { i, page ->
+            it[i] = start
+            start += page.size
+        }
+        require(start == index.size)
+    }
+    private var currentRow: Array<Any?>? = null
+
+    override fun getCount() = index.size
+
+    override fun getColumnNames() = names
+
+    /**
+     * @return the date of the row at [position], without loading its page
+     */
+    fun getKeyDate(position: Int) = index.dates[position]
+
+    fun pageIndexOf(position: Int) = pageStarts.binarySearch(position).let { if (it < 0) -it - 2 else it }
+
+    override fun onMove(oldPosition: Int, newPosition: Int): Boolean {
+        val pageIndex = pageIndexOf(newPosition)
+        val page = pages[pageIndex]
+        val rows = page.rows ?: load(pageIndex) ?: return false
+        cache.touch(page)
+        currentRow = rows[newPosition - pageStarts[pageIndex]]
+        return true
+    }
+
+    private fun Cursor.readRows(into: MutableMap<Long, Array<Any?>>) {
+        val idColumn = getColumnIndexOrThrow(KEY_ROWID)
+        while (moveToNext()) {
+            into[getLong(idColumn)] = Array(columnCount) { column ->
+                when (getType(column)) {
+                    Cursor.FIELD_TYPE_NULL -> null
+                    Cursor.FIELD_TYPE_INTEGER -> getLong(column)
+                    Cursor.FIELD_TYPE_FLOAT -> getDouble(column)
+                    Cursor.FIELD_TYPE_BLOB -> getBlob(column)
+                    else -> getString(column)
+                }
+            }
+        }
+    }
+
+    /**
+     * @return the rows of the page at [pageIndex] that are still found, by their id
+     */
+    private fun fetchRows(pageIndex: Int): Map<Long, Array<Any?>>? {
+        val page = pages[pageIndex]
+        val start = pageStarts[pageIndex]
+        val byId = LinkedHashMap<Long, Array<Any?>>(page.size)
+        fetch(start, start + page.size - 1)?.use { it.readRows(byId) } ?: return null
+        if (byId.keys.toList() != page.ids.asList()) {
+            //rows that have been moved out of the page, e.g. since their date was edited
+            val missing = page.ids.filter { it !in byId }
+            if (missing.isNotEmpty()) fetchIds(missing)?.use { it.readRows(byId) }
+        }
+        return byId
+    }
+
+    private fun load(pageIndex: Int): Array<Array<Any?>>? {
+        val page = pages[pageIndex]
+        val byId = fetchRows(pageIndex) ?: return null
+        val loaded = if (byId.keys.toList() == page.ids.asList()) byId.values.toTypedArray() else {
+            //the list has changed since the index was loaded, and is about to be reloaded. The
+            //count of the cursor can not change, and the adapter can not bind a row without data,
+            //so until then rows deleted in between show the row closest to them
+            page.stale = true
+            val found = page.ids.indices.filter { byId.containsKey(page.ids[it]) }
+            if (found.isEmpty()) {
+                val neighbour = neighbourRow(pageIndex) ?: return null
+                Array(page.size) { neighbour }
+            } else Array(page.size) { i ->
+                byId[page.ids[i]] ?: byId.getValue(page.ids[found.minByOrNull { abs(it - i) }!!])
+            }
+        }
+        page.rows = loaded
+        return loaded
+    }
+
+    /**
+     * @return the row closest to the page at [pageIndex] whose rows have all been deleted
+     */
+    private fun neighbourRow(pageIndex: Int): Array<Any?>? {
+        for (distance in 1 until pages.size) {
+            if (pageIndex - distance >= 0) {
+                (pages[pageIndex - distance].rows?.asList() ?: fetchRows(pageIndex - distance)?.values)
+                    ?.lastOrNull()?.let { return it }
+            }
+            if (pageIndex + distance < pages.size) {
+                (pages[pageIndex + distance].rows?.asList() ?: fetchRows(pageIndex + distance)?.values)
+                    ?.firstOrNull()?.let { return it }
+            }
+        }
+        return null
+    }
+
+    private fun value(column: Int): Any? {
+        checkPosition()
+        return currentRow!![column]
+    }
+
+    override fun getType(column: Int) = when (value(column)) {
+        null -> Cursor.FIELD_TYPE_NULL
+        is Long -> Cursor.FIELD_TYPE_INTEGER
+        is Double -> Cursor.FIELD_TYPE_FLOAT
+        is ByteArray -> Cursor.FIELD_TYPE_BLOB
+        else -> Cursor.FIELD_TYPE_STRING
+    }
+
+    override fun getString(column: Int) = value(column)?.toString()
+
+    override fun getLong(column: Int) = when (val value = value(column)) {
+        null -> 0L
+        is Long -> value
+        is Double -> value.toLong()
+        else -> value.toString().toLongOrNull() ?: 0L
+    }
+
+    override fun getInt(column: Int) = getLong(column).toInt()
+
+    override fun getShort(column: Int) = getLong(column).toShort()
+
+    override fun getDouble(column: Int) = when (val value = value(column)) {
+        null -> 0.0
+        is Double -> value
+        is Long -> value.toDouble()
+        else -> value.toString().toDoubleOrNull() ?: 0.0
+    }
+
+    override fun getFloat(column: Int) = getDouble(column).toFloat()
+
+    override fun getBlob(column: Int) = value(column) as? ByteArray
+
+    override fun isNull(column: Int) = value(column) == null
+}
@@ -0,0 +1,104 @@
+package org.totschnig.myexpenses.provider
+
+import android.content.Context
+import android.database.ContentObserver
+import android.database.Cursor
+import android.net.Uri
+import android.os.Handler
+import android.os.Looper
+import androidx.loader.content.CursorLoader
+import org.totschnig.myexpenses.provider.DatabaseConstants.KEY_ROWID
+import org.totschnig.myexpenses.util.Utils
+import timber.log.Timber
+
+/**
+ * Loads a transaction list as [KeysetPagingCursor]. Each load only queries the [KeysetIndex] of the
+ * list, and carries over the pages of the previous load whose rows are unchanged, so that after a
+ * change notification only the pages holding changed transactions are queried again, once they
+ * are displayed.
+ *
+ * @param notificationUri the uri that is observed for changes, typically the
+ * [TransactionProvider.accountChangesUri] of the account whose transactions are listed
+ */
+class KeysetPagingLoader(
+    context: Context,
+    uri: Uri,
+    projection: Array<String>,
+    selection: String?,
+    selectionArgs: Array<String>?,
+    private val descending: Boolean,
+    private val notificationUri: Uri
+) : CursorLoader(context, uri, projection, selection, selectionArgs, keysetSortOrder(descending)) {
+    private val cache = KeysetPageCache()
+    private val observer = ForceLoadContentObserver()
+
+    @Volatile
+    private var pages: List<KeysetPage> = emptyList()
+
+    /**
+     * category labels are not part of the fingerprint, renaming or deleting a category
+     * (notified on a descendant of [TransactionProvider.CATEGORIES_URI]) drops all pages
+     */
+    private val categoriesObserver = object : ContentObserver(Handler(Looper.getMainLooper())) {
+        override fun onChange(selfChange: Boolean, uri: Uri?) {
+            if (uri != null && uri != TransactionProvider.CATEGORIES_URI) {
+                pages = emptyList()
+                onContentChanged()
+            }
+        }
+    }
+    private var categoriesObserverRegistered = false
+
+    override fun loadInBackground(): Cursor? {
+        val index = KeysetIndex.query(context.contentResolver, uri, selection, selectionArgs, descending)
+            ?: return null
+        val current = reconcilePages(index, pages)
+        cache.retainAll(current)
+        pages = current
+        Timber.d("Loaded index of %d rows, carried over %d loaded pages out of %d",
+            index.size, current.count { it.rows != null }, current.size)
+        //projection holds expressions, the names of the result columns are only known to SQLite
+        val columnNames = context.contentResolver.query(uri, projection, "0", null, null)
+            ?.use { it.columnNames } ?: return null
+        val cursor = KeysetPagingCursor(columnNames, index, current, cache, { ids ->
+            context.contentResolver.query(
+                uri, projection,
+                (selection?.let { "($it) AND " } ?: "") + "$KEY_ROWID IN (${ids.joinToString()})",
+                selectionArgs, sortOrder
+            )
+        }) { first, last ->
+            context.contentResolver.query(
+                uri, projection,
+                (selection?.let { "($it) AND " } ?: "") + keysetPageSelection(descending),
+                Utils.joinArrays(selectionArgs, arrayOf(
+                    index.dates[first].toString(), index.dates[first].toString(), index.ids[first].toString(),
+                    index.dates[last].toString(), index.dates[last].toString(), index.ids[last].toString()
+                )),
+                sortOrder
+            )
+        }
+        //the first page is loaded in the background, most of the time it is the one displayed first
+        if (cursor.count > 0) cursor.moveToFirst()
+        cursor.setNotificationUri(context.contentResolver, notificationUri)
+        cursor.registerContentObserver(observer)
+        return cursor
+    }
+
+    override fun onStartLoading() {
+        if (!categoriesObserverRegistered) {
+            context.contentResolver.registerContentObserver(TransactionProvider.CATEGORIES_URI, true, categoriesObserver)
+            categoriesObserverRegistered = true
+        }
+        super.onStartLoading()
+    }
+
+    override fun onReset() {
+        super.onReset()
+        if (categoriesObserverRegistered) {
+            context.contentResolver.unregisterContentObserver(categoriesObserver)
+            categoriesObserverRegistered = false
+        }
+        pages = emptyList()
+        cache.retainAll(emptyList())
+    }
+}
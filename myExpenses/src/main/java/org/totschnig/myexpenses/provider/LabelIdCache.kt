@@ -0,0 +1,58 @@
+package org.totschnig.myexpenses.provider
+
+import java.util.*
+import java.util.concurrent.atomic.AtomicLong
+
+const val DEFAULT_LABEL_CACHE_SIZE = 2000
+
+/**
+ * Process wide cache of the ids for category paths (main and sub category separated by ':'),
+ * payee names, payment method labels and tag labels. It is shared by sync and the CSV and QIF
+ * imports, which can pass its stores wherever a label to id map is expected. Each store holds at
+ * most [maxSize] entries, evicted in least recently used order. [TransactionProvider] clears a
+ * store within each update or delete of the table behind it, since rows might have been renamed or
+ * deleted. Inserts, which is what the imports and sync write, leave cached ids valid.
+ */
+class LabelIdCache(maxSize: Int = DEFAULT_LABEL_CACHE_SIZE) {
+    val categories = Store(maxSize)
+    val payees = Store(maxSize)
+    val methods = Store(maxSize)
+    val tags = Store(maxSize)
+
+    fun clear() {
+        categories.clear()
+        payees.clear()
+        methods.clear()
+        tags.clear()
+    }
+
+    override fun toString() =
+        "LabelIdCache(categories: $categories, payees: $payees, methods: $methods, tags: $tags)"
+
+    /**
+     * Thread safe, size bounded map counting hits and misses of [get]
+     */
+    class Store private constructor(private val delegate: MutableMap<String, Long>) :
+        MutableMap<String, Long> by delegate {
+        private val hits = AtomicLong()
+        private val misses = AtomicLong()
+
+        constructor(maxSize: Int) : this(Collections.synchronizedMap(
+            object : LinkedHashMap<String, Long>(16, 0.75f, true) {
+                override fun removeEldestEntry(eldest: MutableMap.MutableEntry<String, Long>?) =
+                    size > maxSize
+            }))
+
+        val hitCount: Long
+            get() = hits.get()
+
+        val missCount: Long
+            get() = misses.get()
+
+        override fun get(key: String): Long? = delegate[key].also {
+            (if (it == null) misses else hits).incrementAndGet()
+        }
+
+        override fun toString() = "size $size, hits $hitCount, misses $missCount"
+    }
+}
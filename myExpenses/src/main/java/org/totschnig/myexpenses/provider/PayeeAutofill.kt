@@ -0,0 +1,174 @@
+package org.totschnig.myexpenses.provider
+
+import android.database.sqlite.SQLiteDatabase
+import org.totschnig.myexpenses.provider.DatabaseConstants.KEY_ACCOUNTID
+import org.totschnig.myexpenses.provider.DatabaseConstants.KEY_AMOUNT
+import org.totschnig.myexpenses.provider.DatabaseConstants.KEY_CATID
+import org.totschnig.myexpenses.provider.DatabaseConstants.KEY_COMMENT
+import org.totschnig.myexpenses.provider.DatabaseConstants.KEY_METHODID
+import org.totschnig.myexpenses.provider.DatabaseConstants.KEY_PAYEEID
+import org.totschnig.myexpenses.provider.DatabaseConstants.KEY_ROWID
+import org.totschnig.myexpenses.provider.DatabaseConstants.KEY_STATUS
+import org.totschnig.myexpenses.provider.DatabaseConstants.KEY_TRANSACTIONID
+import org.totschnig.myexpenses.provider.DatabaseConstants.KEY_USAGES
+import org.totschnig.myexpenses.provider.DatabaseConstants.SPLIT_CATID
+import org.totschnig.myexpenses.provider.DatabaseConstants.STATUS_UNCOMMITTED
+import org.totschnig.myexpenses.provider.DatabaseConstants.TABLE_CATEGORIES
+import org.totschnig.myexpenses.provider.DatabaseConstants.TABLE_PAYEES
+import org.totschnig.myexpenses.provider.DatabaseConstants.TABLE_PAYEE_AUTOFILL
+import org.totschnig.myexpenses.provider.DatabaseConstants.TABLE_PAYEE_CATEGORIES
+import org.totschnig.myexpenses.provider.DatabaseConstants.TABLE_TRANSACTIONS
+
+/**
+ * Holds for each payee the data of its last committed transaction (split transactions excluded),
+ * which replaces the lookup of max(_id) in the extended view for autofill.
+ */
+private const val PAYEE_AUTOFILL_CREATE = """
+CREATE TABLE $TABLE_PAYEE_AUTOFILL (
+$KEY_PAYEEID integer primary key references $TABLE_PAYEES($KEY_ROWID) ON DELETE CASCADE,
+$KEY_TRANSACTIONID integer not null,
+$KEY_ACCOUNTID integer,
+$KEY_CATID integer,
+$KEY_METHODID integer,
+$KEY_AMOUNT integer,
+$KEY_COMMENT text);
+"""
+
+/**
+ * Number of transactions per payee and category. [KEY_TRANSACTIONID] is the most recent
+ * transaction that used the category, it only breaks ties between categories used equally often,
+ * and is not lowered when transactions are deleted.
+ */
+private const val PAYEE_CATEGORIES_CREATE = """
+CREATE TABLE $TABLE_PAYEE_CATEGORIES (
+$KEY_PAYEEID integer references $TABLE_PAYEES($KEY_ROWID) ON DELETE CASCADE,
+$KEY_CATID integer references $TABLE_CATEGORIES($KEY_ROWID) ON DELETE CASCADE,
+$KEY_USAGES integer not null,
+$KEY_TRANSACTIONID integer not null,
+primary key ($KEY_PAYEEID, $KEY_CATID));
+"""
+
+/**
+ * category suggestions for a payee are read in order from this index
+ */
+private const val PAYEE_CATEGORIES_RANK_INDEX_CREATE =
+    "CREATE INDEX payee_categories_rank_index ON $TABLE_PAYEE_CATEGORIES ($KEY_PAYEEID, $KEY_USAGES, $KEY_TRANSACTIONID)"
+
+/**
+ * ranks categories by usage, most recently used first among those used equally often
+ */
+const val PAYEE_CATEGORIES_RANK = "$KEY_USAGES DESC, $KEY_TRANSACTIONID DESC"
+
+private const val AUTOFILL_COLUMNS =
+    "$KEY_PAYEEID, $KEY_TRANSACTIONID, $KEY_ACCOUNTID, $KEY_CATID, $KEY_METHODID, $KEY_AMOUNT, $KEY_COMMENT"
+
+private fun autofillValues(ref: String) =
+    "$ref.$KEY_PAYEEID, $ref.$KEY_ROWID, $ref.$KEY_ACCOUNTID, $ref.$KEY_CATID, $ref.$KEY_METHODID, $ref.$KEY_AMOUNT, $ref.$KEY_COMMENT"
+
+private fun isAutofillSource(ref: String) =
+    "$ref.$KEY_PAYEEID IS NOT null AND ($ref.$KEY_CATID IS null OR $ref.$KEY_CATID != $SPLIT_CATID) AND $ref.$KEY_STATUS != $STATUS_UNCOMMITTED"
+
+private fun storeIfLatest(ref: String) =
+    "INSERT OR REPLACE INTO $TABLE_PAYEE_AUTOFILL ($AUTOFILL_COLUMNS) SELECT ${autofillValues(ref)} " +
+            "WHERE ${isAutofillSource(ref)} AND $ref.$KEY_ROWID >= " +
+            "coalesce((SELECT $KEY_TRANSACTIONID FROM $TABLE_PAYEE_AUTOFILL WHERE $KEY_PAYEEID = $ref.$KEY_PAYEEID), 0);"
+
+/**
+ * Looks up the last transaction of [payee] only if there is no row for it, the check does not
+ * depend on the transactions table, so that SQLite evaluates it once before the lookup.
+ */
+private fun fillIfMissing(payee: String) =
+    "INSERT INTO $TABLE_PAYEE_AUTOFILL ($AUTOFILL_COLUMNS) SELECT ${autofillValues(TABLE_TRANSACTIONS)} FROM $TABLE_TRANSACTIONS " +
+            "WHERE $KEY_ROWID = (SELECT max($KEY_ROWID) FROM $TABLE_TRANSACTIONS WHERE $KEY_PAYEEID = $payee " +
+            "AND ${isAutofillSource(TABLE_TRANSACTIONS)} " +
+            "AND NOT EXISTS (SELECT 1 FROM $TABLE_PAYEE_AUTOFILL WHERE $KEY_PAYEEID = $payee));"
+
+private fun countUsage(ref: String) =
+    "INSERT OR IGNORE INTO $TABLE_PAYEE_CATEGORIES ($KEY_PAYEEID, $KEY_CATID, $KEY_USAGES, $KEY_TRANSACTIONID) " +
+            "SELECT $ref.$KEY_PAYEEID, $ref.$KEY_CATID, 0, $ref.$KEY_ROWID WHERE ${isAutofillSource(ref)} AND $ref.$KEY_CATID IS NOT null; " +
+            "UPDATE $TABLE_PAYEE_CATEGORIES SET $KEY_USAGES = $KEY_USAGES + 1, $KEY_TRANSACTIONID = max($KEY_TRANSACTIONID, $ref.$KEY_ROWID) " +
+            "WHERE $KEY_PAYEEID = $ref.$KEY_PAYEEID AND $KEY_CATID = $ref.$KEY_CATID AND ${isAutofillSource(ref)};"
+
+private fun discountUsage(ref: String) =
+    "UPDATE $TABLE_PAYEE_CATEGORIES SET $KEY_USAGES = $KEY_USAGES - 1 " +
+            "WHERE $KEY_PAYEEID = $ref.$KEY_PAYEEID AND $KEY_CATID = $ref.$KEY_CATID AND ${isAutofillSource(ref)}; " +
+            "DELETE FROM $TABLE_PAYEE_CATEGORIES WHERE $KEY_PAYEEID = $ref.$KEY_PAYEEID AND $KEY_CATID = $ref.$KEY_CATID AND $KEY_USAGES <= 0;"
+
+private val PAYEE_AUTOFILL_INSERT_TRIGGER_CREATE = """
+CREATE TRIGGER payee_autofill_insert AFTER INSERT ON $TABLE_TRANSACTIONS WHEN ${isAutofillSource("new")}
+BEGIN
+${storeIfLatest("new")}
+${countUsage("new")}
+END
+"""
+
+private val PAYEE_AUTOFILL_DELETE_TRIGGER_CREATE = """
+CREATE TRIGGER payee_autofill_delete AFTER DELETE ON $TABLE_TRANSACTIONS WHEN old.$KEY_PAYEEID IS NOT null
+BEGIN
+DELETE FROM $TABLE_PAYEE_AUTOFILL WHERE $KEY_PAYEEID = old.$KEY_PAYEEID AND $KEY_TRANSACTIONID = old.$KEY_ROWID;
+${fillIfMissing("old.$KEY_PAYEEID")}
+${discountUsage("old")}
+END
+"""
+
+private val PAYEE_AUTOFILL_UPDATE_TRIGGER_CREATE = """
+CREATE TRIGGER payee_autofill_update
+AFTER UPDATE OF $KEY_PAYEEID,$KEY_ACCOUNTID,$KEY_CATID,$KEY_METHODID,$KEY_AMOUNT,$KEY_COMMENT,$KEY_STATUS ON $TABLE_TRANSACTIONS
+BEGIN
+DELETE FROM $TABLE_PAYEE_AUTOFILL WHERE $KEY_PAYEEID IN (old.$KEY_PAYEEID, new.$KEY_PAYEEID) AND $KEY_TRANSACTIONID = old.$KEY_ROWID;
+${storeIfLatest("new")}
+${fillIfMissing("old.$KEY_PAYEEID")}
+${fillIfMissing("new.$KEY_PAYEEID")}
+END
+"""
+
+private val PAYEE_CATEGORIES_UPDATE_TRIGGER_CREATE = """
+CREATE TRIGGER payee_categories_update AFTER UPDATE OF $KEY_PAYEEID,$KEY_CATID,$KEY_STATUS ON $TABLE_TRANSACTIONS
+WHEN old.$KEY_PAYEEID IS NOT new.$KEY_PAYEEID OR old.$KEY_CATID IS NOT new.$KEY_CATID OR old.$KEY_STATUS IS NOT new.$KEY_STATUS
+BEGIN
+${discountUsage("old")}
+${countUsage("new")}
+END
+"""
+
+fun createPayeeAutofill(db: SQLiteDatabase) {
+    with(db) {
+        execSQL(PAYEE_AUTOFILL_CREATE)
+        execSQL(PAYEE_CATEGORIES_CREATE)
+        execSQL(PAYEE_CATEGORIES_RANK_INDEX_CREATE)
+    }
+    createOrRefreshPayeeAutofillTriggers(db)
+    rebuildPayeeAutofill(db)
+}
+
+fun createOrRefreshPayeeAutofillTriggers(db: SQLiteDatabase) {
+    with(db) {
+        execSQL("DROP TRIGGER IF EXISTS payee_autofill_insert")
+        execSQL("DROP TRIGGER IF EXISTS payee_autofill_delete")
+        execSQL("DROP TRIGGER IF EXISTS payee_autofill_update")
+        execSQL("DROP TRIGGER IF EXISTS payee_categories_update")
+        execSQL(PAYEE_AUTOFILL_INSERT_TRIGGER_CREATE)
+        execSQL(PAYEE_AUTOFILL_DELETE_TRIGGER_CREATE)
+        execSQL(PAYEE_AUTOFILL_UPDATE_TRIGGER_CREATE)
+        execSQL(PAYEE_CATEGORIES_UPDATE_TRIGGER_CREATE)
+    }
+}
+
+/**
+ * recomputes both tables from transactions, in one grouped scan each
+ */
+fun rebuildPayeeAutofill(db: SQLiteDatabase) {
+    with(db) {
+        execSQL("DELETE FROM $TABLE_PAYEE_AUTOFILL")
+        execSQL(
+            "INSERT INTO $TABLE_PAYEE_AUTOFILL ($AUTOFILL_COLUMNS) SELECT ${autofillValues(TABLE_TRANSACTIONS)} FROM $TABLE_TRANSACTIONS " +
+                    "WHERE $KEY_ROWID IN (SELECT max($KEY_ROWID) FROM $TABLE_TRANSACTIONS WHERE ${isAutofillSource(TABLE_TRANSACTIONS)} GROUP BY $KEY_PAYEEID)"
+        )
+        execSQL("DELETE FROM $TABLE_PAYEE_CATEGORIES")
+        execSQL(
+            "INSERT INTO $TABLE_PAYEE_CATEGORIES ($KEY_PAYEEID, $KEY_CATID, $KEY_USAGES, $KEY_TRANSACTIONID) " +
+                    "SELECT $KEY_PAYEEID, $KEY_CATID, count(*), max($KEY_ROWID) FROM $TABLE_TRANSACTIONS " +
+                    "WHERE ${isAutofillSource(TABLE_TRANSACTIONS)} AND $KEY_CATID IS NOT null GROUP BY $KEY_PAYEEID, $KEY_CATID"
+        )
+    }
+}
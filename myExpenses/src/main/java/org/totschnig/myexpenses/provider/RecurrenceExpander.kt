@@ -0,0 +1,257 @@
+package org.totschnig.myexpenses.provider
+
+import com.android.calendarcommon2.EventRecurrence
+import java.time.DayOfWeek
+import java.time.Instant
+import java.time.LocalDate
+import java.time.LocalDateTime
+import java.time.LocalTime
+import java.time.YearMonth
+import java.time.ZoneId
+import java.time.ZoneOffset
+import java.time.ZonedDateTime
+import java.time.format.DateTimeFormatter
+import java.time.format.DateTimeParseException
+import java.time.temporal.ChronoUnit
+import java.time.temporal.TemporalAdjusters
+import java.util.concurrent.atomic.AtomicInteger
+
+const val MAX_CACHED_WINDOWS = 512
+
+/**
+ * Expands the recurrence rules of plans into instances in process, without a round-trip to the
+ * Instances table of the calendar provider. Covers the part of RFC 5545 that plans make use of:
+ * FREQ=DAILY to YEARLY with INTERVAL, COUNT, UNTIL, WKST, BYDAY, BYMONTHDAY, BYMONTH and BYSETPOS.
+ * For rules with other parts [expand] returns null, and the caller has to fall back to the
+ * calendar provider.
+ *
+ * Expanded windows are kept in an LRU cache. Since the key holds the complete definition of the
+ * plan, an edited plan is expanded again.
+ */
+class RecurrenceExpander(private val maxCachedWindows: Int = MAX_CACHED_WINDOWS) {
+    /**
+     * the columns of a calendar event that determine its instances
+     */
+    data class PlanDefinition(
+        val planId: Long,
+        val dtStart: Long,
+        val rRule: String?,
+        val timeZone: String?,
+        val allDay: Boolean = false
+    )
+
+    private data class Window(val plan: PlanDefinition, val from: Long, val to: Long)
+
+    private val cache = object : LinkedHashMap<Window, LongArray>(16, 0.75f, true) {
+        override fun removeEldestEntry(eldest: MutableMap.MutableEntry<Window, LongArray>?) =
+            size > maxCachedWindows
+    }
+
+    private val hits = AtomicInteger()
+    private val misses = AtomicInteger()
+
+    val hitCount: Int
+        get() = hits.get()
+
+    val missCount: Int
+        get() = misses.get()
+
+    /**
+     * @return the begin of the instances of [plan] that lie between [from] and [to] (inclusive,
+     * like the BEGIN BETWEEN selection of [CalendarProviderProxy]) in ascending order, or null if
+     * the rule of the plan can not be expanded in process
+     */
+    fun expand(plan: PlanDefinition, from: Long, to: Long): LongArray? {
+        val window = Window(plan, from, to)
+        synchronized(cache) { cache[window] }?.let {
+            hits.incrementAndGet()
+            return it
+        }
+        misses.incrementAndGet()
+        return expandUncached(plan, from, to)?.also {
+            synchronized(cache) { cache[window] = it }
+        }
+    }
+
+    fun clear() {
+        synchronized(cache) { cache.clear() }
+    }
+
+    companion object {
+        private val UNTIL_UTC = DateTimeFormatter.ofPattern("yyyyMMdd'T'HHmmss'Z'")
+        private val UNTIL_LOCAL = DateTimeFormatter.ofPattern("yyyyMMdd'T'HHmmss")
+        private val UNTIL_DATE = DateTimeFormatter.ofPattern("yyyyMMdd")
+
+        fun isSupported(recurrence: EventRecurrence) =
+            recurrence.freq in EventRecurrence.DAILY..EventRecurrence.YEARLY &&
+                    recurrence.bysecondCount == 0 && recurrence.byminuteCount == 0 &&
+                    recurrence.byhourCount == 0 && recurrence.byyeardayCount == 0 &&
+                    recurrence.byweeknoCount == 0 &&
+                    //ordinal weekdays are only defined for monthly and yearly rules
+                    (recurrence.freq >= EventRecurrence.MONTHLY ||
+                            (0 until recurrence.bydayCount).all { recurrence.bydayNum[it] == 0 })
+
+        fun expandUncached(plan: PlanDefinition, from: Long, to: Long): LongArray? {
+            val zone = if (plan.allDay) ZoneOffset.UTC else zoneOf(plan.timeZone)
+            if (plan.rRule.isNullOrEmpty()) {
+                return if (plan.dtStart in from..to) longArrayOf(plan.dtStart) else LongArray(0)
+            }
+            val recurrence = try {
+                EventRecurrence().apply { parse(plan.rRule) }
+            } catch (e: EventRecurrence.InvalidFormatException) {
+                return null
+            }
+            if (!isSupported(recurrence)) return null
+            val until = recurrence.until?.let { parseUntil(it, zone) ?: return null }
+            val end = if (until == null) to else minOf(to, until)
+            val start = Instant.ofEpochMilli(plan.dtStart).atZone(zone)
+            val startDate = start.toLocalDate()
+            val time = start.toLocalTime()
+            val interval = maxOf(1, recurrence.interval).toLong()
+            val firstPeriodStart = periodStart(recurrence, startDate)
+            //without COUNT, the periods before the window need not be looked at
+            var period = if (recurrence.count > 0 || from <= plan.dtStart) 0L else {
+                val fromDate = Instant.ofEpochMilli(from).atZone(zone).toLocalDate()
+                val skipped = unit(recurrence).between(firstPeriodStart, periodStart(recurrence, fromDate))
+                maxOf(0L, skipped - skipped % interval)
+            }
+            val result = ArrayList<Long>()
+            var emitted = 0
+            while (true) {
+                val periodStart = firstPeriodStart.plus(period, unit(recurrence))
+                if (millisOf(periodStart, LocalTime.MIN, zone) > end) break
+                for (date in candidates(recurrence, periodStart, startDate)) {
+                    if (date < startDate) continue
+                    val millis = millisOf(date, time, zone)
+                    if (millis > end || (recurrence.count in 1..emitted)) {
+                        return result.toLongArray()
+                    }
+                    emitted++
+                    if (millis >= from) result.add(millis)
+                }
+                period += interval
+            }
+            return result.toLongArray()
+        }
+
+        private fun zoneOf(timeZone: String?) = timeZone?.let {
+            try {
+                ZoneId.of(it)
+            } catch (e: Exception) {
+                null
+            }
+        } ?: ZoneId.systemDefault()
+
+        private fun millisOf(date: LocalDate, time: LocalTime, zone: ZoneId) =
+            ZonedDateTime.of(date, time, zone).toInstant().toEpochMilli()
+
+        private fun parseUntil(until: String, zone: ZoneId) = try {
+            when (until.length) {
+                16 -> LocalDateTime.parse(until, UNTIL_UTC).toInstant(ZoneOffset.UTC).toEpochMilli()
+                15 -> ZonedDateTime.of(LocalDateTime.parse(until, UNTIL_LOCAL), zone).toInstant().toEpochMilli()
+                8 -> millisOf(LocalDate.parse(until, UNTIL_DATE), LocalTime.MAX, zone)
+                else -> null
+            }
+        } catch (e: DateTimeParseException) {
+            null
+        }
+
+        private fun unit(recurrence: EventRecurrence) = when (recurrence.freq) {
+            EventRecurrence.DAILY -> ChronoUnit.DAYS
+            EventRecurrence.WEEKLY -> ChronoUnit.WEEKS
+            EventRecurrence.MONTHLY -> ChronoUnit.MONTHS
+            else -> ChronoUnit.YEARS
+        }
+
+        private fun periodStart(recurrence: EventRecurrence, date: LocalDate): LocalDate = when (recurrence.freq) {
+            EventRecurrence.DAILY -> date
+            EventRecurrence.WEEKLY -> date.with(TemporalAdjusters.previousOrSame(dayOfWeek(recurrence.wkst)))
+            EventRecurrence.MONTHLY -> date.withDayOfMonth(1)
+            else -> date.withDayOfYear(1)
+        }
+
+        private fun dayOfWeek(day: Int) = when (day) {
+            EventRecurrence.SU -> DayOfWeek.SUNDAY
+            EventRecurrence.MO -> DayOfWeek.MONDAY
+            EventRecurrence.TU -> DayOfWeek.TUESDAY
+            EventRecurrence.WE -> DayOfWeek.WEDNESDAY
+            EventRecurrence.TH -> DayOfWeek.THURSDAY
+            EventRecurrence.FR -> DayOfWeek.FRIDAY
+            EventRecurrence.SA -> DayOfWeek.SATURDAY
+            else -> throw IllegalArgumentException("bad day argument: $day")
+        }
+
+        /**
+         * @return the dates of the period starting at [periodStart] matched by [recurrence],
+         * ascending and with BYSETPOS applied
+         */
+        private fun candidates(recurrence: EventRecurrence, periodStart: LocalDate, startDate: LocalDate): List<LocalDate> {
+            val dates: List<LocalDate> = when (recurrence.freq) {
+                EventRecurrence.DAILY -> listOf(periodStart).filter {
+                    matchesMonthDay(recurrence, it) && matchesWeekDay(recurrence, it)
+                }
+                EventRecurrence.WEEKLY -> if (recurrence.bydayCount > 0) {
+                    (0L until 7L).map { periodStart.plusDays(it) }.filter { matchesWeekDay(recurrence, it) }
+                } else {
+                    listOf(periodStart.with(TemporalAdjusters.nextOrSame(startDate.dayOfWeek)))
+                }
+                EventRecurrence.MONTHLY -> monthCandidates(recurrence, YearMonth.from(periodStart), startDate)
+                else -> when {
+                    recurrence.bymonthCount > 0 -> recurrence.bymonth.take(recurrence.bymonthCount)
+                        .sorted().flatMap { monthCandidates(recurrence, YearMonth.of(periodStart.year, it), startDate) }
+                    recurrence.bymonthdayCount > 0 -> (1..12)
+                        .flatMap { monthCandidates(recurrence, YearMonth.of(periodStart.year, it), startDate) }
+                    recurrence.bydayCount > 0 -> weekDaysInRange(recurrence, periodStart, periodStart.lengthOfYear())
+                    else -> listOfNotNull(validDate(YearMonth.of(periodStart.year, startDate.month), startDate.dayOfMonth))
+                }
+            }.filter { matchesMonth(recurrence, it) }
+            return applySetPos(recurrence, dates)
+        }
+
+        private fun monthCandidates(recurrence: EventRecurrence, month: YearMonth, startDate: LocalDate) = when {
+            recurrence.bymonthdayCount > 0 -> recurrence.bymonthday.take(recurrence.bymonthdayCount)
+                .mapNotNull { validDate(month, if (it < 0) month.lengthOfMonth() + 1 + it else it) }
+                .filter { recurrence.bydayCount == 0 || it in weekDaysInRange(recurrence, month.atDay(1), month.lengthOfMonth()) }
+                .sorted().distinct()
+            recurrence.bydayCount > 0 -> weekDaysInRange(recurrence, month.atDay(1), month.lengthOfMonth())
+            else -> listOfNotNull(validDate(month, startDate.dayOfMonth))
+        }
+
+        /**
+         * @return the days from [first] on, in a range of [length] days, matching BYDAY, where
+         * an ordinal weekday (e.g. -1FR) counts within the range
+         */
+        private fun weekDaysInRange(recurrence: EventRecurrence, first: LocalDate, length: Int): List<LocalDate> {
+            val last = first.plusDays(length - 1L)
+            return (0 until recurrence.bydayCount).flatMap { index ->
+                val dayOfWeek = dayOfWeek(recurrence.byday[index])
+                val all = generateSequence(first.with(TemporalAdjusters.nextOrSame(dayOfWeek))) { it.plusWeeks(1) }
+                    .takeWhile { it <= last }.toList()
+                when (val num = recurrence.bydayNum[index]) {
+                    0 -> all
+                    else -> listOfNotNull(all.getOrNull(if (num > 0) num - 1 else all.size + num))
+                }
+            }.sorted().distinct()
+        }
+
+        private fun validDate(month: YearMonth, day: Int) =
+            if (day in 1..month.lengthOfMonth()) month.atDay(day) else null
+
+        private fun matchesMonth(recurrence: EventRecurrence, date: LocalDate) =
+            recurrence.bymonthCount == 0 || recurrence.bymonth.take(recurrence.bymonthCount).contains(date.monthValue)
+
+        private fun matchesMonthDay(recurrence: EventRecurrence, date: LocalDate) =
+            recurrence.bymonthdayCount == 0 || recurrence.bymonthday.take(recurrence.bymonthdayCount).any {
+                it == date.dayOfMonth || it == date.dayOfMonth - date.lengthOfMonth() - 1
+            }
+
+        private fun matchesWeekDay(recurrence: EventRecurrence, date: LocalDate) =
+            recurrence.bydayCount == 0 ||
+                    (0 until recurrence.bydayCount).any { dayOfWeek(recurrence.byday[it]) == date.dayOfWeek }
+
+        private fun applySetPos(recurrence: EventRecurrence, dates: List<LocalDate>) =
+            if (recurrence.bysetposCount == 0) dates else recurrence.bysetpos.take(recurrence.bysetposCount)
+                .mapNotNull { dates.getOrNull(if (it > 0) it - 1 else dates.size + it) }
+                .sorted().distinct()
+    }
+}
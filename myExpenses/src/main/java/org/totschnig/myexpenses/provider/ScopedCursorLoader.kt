@@ -0,0 +1,24 @@
+package org.totschnig.myexpenses.provider
+
+import android.content.Context
+import android.database.Cursor
+import android.net.Uri
+import androidx.loader.content.CursorLoader
+
+/**
+ * CursorLoader that observes [notificationUri] instead of the uri it queries, typically the
+ * [TransactionProvider.accountChangesUri] of the account the query depends on.
+ */
+class ScopedCursorLoader(
+    context: Context,
+    uri: Uri,
+    projection: Array<String>?,
+    selection: String?,
+    selectionArgs: Array<String>?,
+    sortOrder: String?,
+    private val notificationUri: Uri
+) : CursorLoader(context, uri, projection, selection, selectionArgs, sortOrder) {
+    override fun loadInBackground(): Cursor? = super.loadInBackground()?.apply {
+        setNotificationUri(context.contentResolver, notificationUri)
+    }
+}
@@ -333,15 +333,6 @@ public class TransactionDatabase extends BaseTransactionDatabase {
       "CREATE TABLE " + TABLE_STALE_URIS
           + " ( " + KEY_PICTURE_URI + " text);";
 
-  private static final String STALE_URI_TRIGGER_CREATE =
-      "CREATE TRIGGER cache_stale_uri " +
-          "AFTER DELETE ON " + TABLE_TRANSACTIONS + " " +
-          "WHEN old." + KEY_PICTURE_URI + " NOT NULL " +
-          "AND NOT EXISTS " +
-          "(SELECT 1 FROM " + TABLE_TRANSACTIONS + " " +
-          "WHERE " + KEY_PICTURE_URI + " = old." + KEY_PICTURE_URI + ") " +
-          "BEGIN INSERT INTO " + TABLE_STALE_URIS + " VALUES (old." + KEY_PICTURE_URI + "); END";
-
   private static final String ACCOUNTS_TRIGGER_CREATE =
       "CREATE TRIGGER sort_key_default " +
           "AFTER INSERT ON " + TABLE_ACCOUNTS + " " +
@@ -690,6 +681,9 @@ public class TransactionDatabase extends BaseTransactionDatabase {
     //to take care of ensuring consistency during upgrades
     if (!db.isReadOnly()) {
       db.execSQL("PRAGMA foreign_keys=ON;");
+      //date buckets are computed here rather than in onCreate and onUpgrade, since they depend on
+      //the timezone and preferences, which might have changed while the database was closed
+      DateBucketsKt.ensureDateBuckets(db);
     }
     try {
       String uncommitedSelect = String.format(Locale.ROOT, "(SELECT %s from %s where %s = %d)",
@@ -729,7 +723,6 @@ public class TransactionDatabase extends BaseTransactionDatabase {
     insertCurrencies(db);
     db.execSQL(EVENT_CACHE_CREATE);
     db.execSQL(STALE_URIS_CREATE);
-    db.execSQL(STALE_URI_TRIGGER_CREATE);
     db.execSQL(CHANGES_CREATE);
 
     //Index
@@ -769,6 +762,13 @@ public class TransactionDatabase extends BaseTransactionDatabase {
     db.execSQL(DEBT_CREATE);
     createOrRefreshTransactionDebtTriggers(db);
 
+    AccountTotalsKt.createAccountTotals(db);
+    DateBucketsKt.createDateBuckets(db);
+    TransactionSearchKt.createTransactionSearch(db);
+    PayeeAutofillKt.createPayeeAutofill(db);
+    AttachmentsKt.createAttachments(db);
+    ArchiveKt.createArchive(db);
+
     //Views
     createOrRefreshViews(db);
     //insertTestData(db, 50, 50);
@@ -2169,6 +2169,27 @@ public class TransactionDatabase extends BaseTransactionDatabase {
       if (oldVersion < 120) {
         upgradeTo120(db);
       }
+      if (oldVersion < 121) {
+        upgradeTo121(db);
+      }
+      if (oldVersion < 122) {
+        upgradeTo122(db);
+      }
+      if (oldVersion < 123) {
+        upgradeTo123(db);
+      }
+      if (oldVersion < 124) {
+        upgradeTo124(db);
+      }
+      if (oldVersion < 125) {
+        upgradeTo125(db);
+      }
+      if (oldVersion < 126) {
+        upgradeTo126(db);
+      }
+      if (oldVersion < 127) {
+        upgradeTo127(db);
+      }
       TransactionProvider.resumeChangeTrigger(db);
     } catch (SQLException e) {
       throw new SQLiteUpgradeFailedException(oldVersion, newVersion, e);
@@ -2261,6 +2282,7 @@ public class TransactionDatabase extends BaseTransactionDatabase {
 
     db.execSQL("CREATE VIEW " + VIEW_CHANGES_EXTENDED + buildViewDefinitionExtended(TABLE_CHANGES));
     db.execSQL("CREATE VIEW " + VIEW_WITH_ACCOUNT + buildViewWithAccount() + " WHERE " + KEY_STATUS + " != " + STATUS_UNCOMMITTED + ";");
+    ArchiveKt.createOrRefreshArchiveViews(db);
 
     createOrRefreshTemplateViews(db);
   }
@@ -61,9 +61,11 @@ import java.io.File;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
 import java.util.Locale;
 import java.util.Map;
+import java.util.Set;
 
 import javax.inject.Inject;
 import javax.inject.Named;
@@ -109,6 +111,18 @@ public class TransactionProvider extends BaseTransactionProvider {
       Uri.parse("content://" + AUTHORITY + "/templates");
   public static final Uri TEMPLATES_UNCOMMITTED_URI =
       Uri.parse("content://" + AUTHORITY + "/templates/uncommitted");
+  public static final Uri TEMPLATES_PLAN_INSTANCES_URI =
+      Uri.parse("content://" + AUTHORITY + "/templates/planInstances");
+
+  /**
+   * @return uri for the templates linked to plans, joined with the status of their instances
+   * from firstInstanceId to lastInstanceId (ids as calculated by {@link CalendarProviderProxy#calculateId(long)})
+   */
+  public static Uri TEMPLATES_PLAN_INSTANCES_URI(long firstInstanceId, long lastInstanceId) {
+    return ContentUris.appendId(ContentUris.appendId(
+        TEMPLATES_PLAN_INSTANCES_URI.buildUpon(), firstInstanceId), lastInstanceId)
+        .build();
+  }
   public static final Uri CATEGORIES_URI =
       Uri.parse("content://" + AUTHORITY + "/categories");
   public static final Uri AGGREGATES_COUNT_URI =
@@ -136,6 +150,11 @@ public class TransactionProvider extends BaseTransactionProvider {
       Uri.parse("content://" + AUTHORITY + "/currencies");
   public static final Uri TRANSACTIONS_SUM_URI =
       Uri.parse("content://" + AUTHORITY + "/transactions/sumsForAccounts");
+  /**
+   * sum and count of transactions per category, see {@link CategoryDistribution}
+   */
+  public static final Uri TRANSACTIONS_CATEGORY_SUMS_URI =
+      Uri.parse("content://" + AUTHORITY + "/transactions/sumsForCategories");
   public static final Uri EVENT_CACHE_URI =
       Uri.parse("content://" + AUTHORITY + "/eventcache");
   public static final Uri DEBUG_SCHEMA_URI =
@@ -148,7 +167,17 @@ public class TransactionProvider extends BaseTransactionProvider {
 
   public static final Uri SETTINGS_URI = Uri.parse("content://" + AUTHORITY + "/settings");
 
+  /**
+   * picture uris referenced by transactions, see Attachments.kt
+   */
+  public static final Uri ATTACHMENTS_URI = Uri.parse("content://" + AUTHORITY + "/attachments");
+
   public static final Uri AUTOFILL_URI = Uri.parse("content://" + AUTHORITY + "/autofill");
+  /**
+   * categories used with a payee, most frequently used first, append payee id and
+   * {@link #URI_SEGMENT_CATEGORIES}, limit with {@link #QUERY_PARAMETER_LIMIT}
+   */
+  public static final String URI_SEGMENT_CATEGORIES = "categories";
   /**
    * select info from DB without table, e.g. CategoryList#DATEINFO_CURSOR
    * or set control flags like sync_state
@@ -174,6 +203,23 @@ public class TransactionProvider extends BaseTransactionProvider {
 
   public static final Uri DEBTS_URI = Uri.parse("content://" + AUTHORITY + "/debts");
 
+  /**
+   * Only used for notifications, which are scoped to the accounts a write to transactions affects,
+   * see {@link #accountChangesUri(long)}. Writes whose accounts are not known are notified on this
+   * uri, and thus reach the observers of all accounts.
+   */
+  public static final Uri ACCOUNT_CHANGES_URI = Uri.parse("content://" + AUTHORITY + "/accountChanges");
+
+  /**
+   * @return the uri on which changes to the transactions of an account are notified. Cursors that
+   * only depend on one account, can use it as notification uri instead of {@link #TRANSACTIONS_URI},
+   * so that they are not requeried for writes to other accounts. Aggregate accounts use
+   * {@link #ACCOUNT_CHANGES_URI}.
+   */
+  public static Uri accountChangesUri(long accountId) {
+    return accountId < 0 ? ACCOUNT_CHANGES_URI : ContentUris.withAppendedId(ACCOUNT_CHANGES_URI, accountId);
+  }
+
   public static final String URI_SEGMENT_MOVE = "move";
   public static final String URI_SEGMENT_TOGGLE_CRSTATUS = "toggleCrStatus";
   public static final String URI_SEGMENT_UNDELETE = "undelete";
@@ -198,6 +244,11 @@ public class TransactionProvider extends BaseTransactionProvider {
   public static final String QUERY_PARAMETER_INIT = "init";
   public static final String QUERY_PARAMETER_CALLER_IS_SYNCADAPTER = "caller_is_syncadapter";
   public static final String QUERY_PARAMETER_MERGE_TRANSFERS = "mergeTransfers";
+  /**
+   * transactions and transaction_id return archived transactions instead of the summaries
+   * standing in for them, see Archive.kt
+   */
+  public static final String QUERY_PARAMETER_INCLUDE_ARCHIVE = "includeArchive";
   private static final String QUERY_PARAMETER_SYNC_BEGIN = "syncBegin";
   private static final String QUERY_PARAMETER_SYNC_END = "syncEnd";
   public static final String QUERY_PARAMETER_WITH_START = "withStart";
@@ -206,7 +257,7 @@ public class TransactionProvider extends BaseTransactionProvider {
   public static final String QUERY_PARAMETER_AGGREGATE_TYPES = "aggregateTypes";
   public static final String QUERY_PARAMETER_ALLOCATED_ONLY = "allocatedOnly";
   public static final String QUERY_PARAMETER_WITH_COUNT = "count";
-  public static final String QUERY_PARAMETER_WITH_INSTANCE = "withInstance";
+  public static final String QUERY_PARAMETER_LIMIT = "limit";
 
   /**
    * Transfers are included into in and out sums, instead of reported in extra field
@@ -223,6 +274,23 @@ public class TransactionProvider extends BaseTransactionProvider {
   public static final String METHOD_SORT_ACCOUNTS = "sort_accounts";
   public static final String METHOD_SETUP_CATEGORIES = "setup_categories";
   public static final String METHOD_RESET_EQUIVALENT_AMOUNTS = "reset_equivalent_amounts";
+  public static final String METHOD_CHECK_ACCOUNT_TOTALS = "check_account_totals";
+  public static final String METHOD_REBUILD_ACCOUNT_TOTALS = "rebuild_account_totals";
+  /**
+   * archives the transactions of the account passed with {@link DatabaseConstants#KEY_ACCOUNTID}
+   * dated before {@link DatabaseConstants#KEY_DATE}, returns with {@link #KEY_RESULT} their number
+   */
+  public static final String METHOD_ARCHIVE = "archive";
+  /**
+   * returns with {@link #KEY_RESULT} a token that changes whenever the data below the uris
+   * starting with the path segment passed as arg, e.g. "payees", has changed
+   */
+  public static final String METHOD_DATA_VERSION = "data_version";
+  /**
+   * recomputes the date buckets, if the timezone or the week or month start preferences have
+   * changed since they were computed
+   */
+  public static final String METHOD_REFRESH_DATE_BUCKETS = "refresh_date_buckets";
 
   public static final String KEY_RESULT = "result";
 
@@ -288,8 +356,16 @@ public class TransactionProvider extends BaseTransactionProvider {
   private static final int ACCOUNTS_TAGS = 62;
   private static final int DEBTS = 63;
   private static final int DEBT_ID = 64;
+  private static final int TRANSACTIONS_CATEGORY_SUMS = 65;
+  private static final int TEMPLATES_PLAN_INSTANCES = 66;
+  private static final int AUTOFILL_CATEGORIES = 67;
+  private static final int ATTACHMENTS = 68;
 
-  private boolean bulkInProgress = false;
+  private final ChangeNotifier changeNotifier = new ChangeNotifier((uri, syncToNetwork) -> {
+    log("Notifying %s  syncToNetwork %s", uri.toString(), syncToNetwork ? "true" : "false");
+    getContext().getContentResolver().notifyChange(uri, null,
+        syncToNetwork && prefHandler.getBoolean(PrefKey.SYNC_CHANGES_IMMEDIATELY, true));
+  });
 
   @Inject
   CurrencyContext currencyContext;
@@ -301,6 +377,8 @@ public class TransactionProvider extends BaseTransactionProvider {
   @Inject
   @Named(AppComponent.DATABASE_NAME)
   String databaseName;
+  @Inject
+  LabelIdCache labelIdCache;
 
   @Override
   public boolean onCreate() {
@@ -323,6 +401,7 @@ public class TransactionProvider extends BaseTransactionProvider {
     Cursor c;
 
     log("Query for URL: %s", uri);
+    changeNotifier.countQuery();
     String groupBy = uri.getQueryParameter(QUERY_PARAMETER_GROUP_BY);
     String having = null;
     String limit = null;
@@ -333,7 +412,13 @@ public class TransactionProvider extends BaseTransactionProvider {
     switch (uriMatch) {
       case TRANSACTIONS:
         boolean extended = uri.getQueryParameter(QUERY_PARAMETER_EXTENDED) != null;
-        qb.setTables(extended ? VIEW_EXTENDED : VIEW_COMMITTED);
+        if (uri.getQueryParameter(QUERY_PARAMETER_INCLUDE_ARCHIVE) != null) {
+          //aliased, since projections qualify columns with the view name
+          qb.setTables(extended ? VIEW_EXTENDED_WITH_ARCHIVE + " AS " + VIEW_EXTENDED :
+              VIEW_COMMITTED_WITH_ARCHIVE + " AS " + VIEW_COMMITTED);
+        } else {
+          qb.setTables(extended ? VIEW_EXTENDED : VIEW_COMMITTED);
+        }
         if (uri.getQueryParameter(QUERY_PARAMETER_DISTINCT) != null) {
           qb.setDistinct(true);
         }
@@ -356,7 +441,8 @@ public class TransactionProvider extends BaseTransactionProvider {
           projection = Transaction.PROJECTION_BASE;
         break;
       case TRANSACTION_ID:
-        qb.setTables(VIEW_ALL);
+        qb.setTables(uri.getQueryParameter(QUERY_PARAMETER_INCLUDE_ARCHIVE) != null ?
+            VIEW_EXTENDED_WITH_ARCHIVE + " AS " + VIEW_ALL : VIEW_ALL);
         qb.appendWhere(KEY_ROWID + "=" + uri.getPathSegments().get(1));
         break;
       case TRANSACTIONS_SUMS: {
@@ -397,6 +483,36 @@ public class TransactionProvider extends BaseTransactionProvider {
         projection = groupByType ? new String[]{KEY_AMOUNT + " > 0 as " + KEY_TYPE, sumColumn} : new String[]{sumColumn};
         break;
       }
+      case TRANSACTIONS_CATEGORY_SUMS: {
+        //a single grouped scan, rolled up to main categories by CategoryDistribution
+        String accountSelectionQuery = null;
+        accountSelector = uri.getQueryParameter(KEY_ACCOUNTID);
+        if (accountSelector == null) {
+          accountSelector = uri.getQueryParameter(KEY_CURRENCY);
+          if (accountSelector != null) {
+            accountSelectionQuery = " IN " +
+                "(SELECT " + KEY_ROWID + " FROM " + TABLE_ACCOUNTS + " WHERE " + KEY_CURRENCY + " = ? AND " +
+                KEY_EXCLUDE_FROM_TOTALS + " = 0)";
+          }
+        } else {
+          accountSelectionQuery = " = ?";
+        }
+        final boolean forHome = accountSelector == null;
+        qb.setTables(forHome ? VIEW_WITH_ACCOUNT : VIEW_COMMITTED);
+        qb.appendWhere(WHERE_NOT_VOID + " AND " + KEY_CATID + " IS NOT NULL");
+        if (accountSelector != null) {
+          selectionArgs = Utils.joinArrays(new String[]{accountSelector}, selectionArgs);
+          qb.appendWhere(" AND +" + KEY_ACCOUNTID + accountSelectionQuery);
+        }
+        projection = new String[]{
+            KEY_CATID,
+            "sum(" + (forHome ? getAmountHomeEquivalent(VIEW_WITH_ACCOUNT) : KEY_AMOUNT) + ") AS " + KEY_SUM,
+            "count(*) AS " + KEY_COUNT
+        };
+        groupBy = KEY_CATID;
+        sortOrder = KEY_CATID;
+        break;
+      }
       case TRANSACTIONS_GROUPS: {
         String accountSelectionQuery = "";
         accountSelector = uri.getQueryParameter(KEY_ACCOUNTID);
@@ -424,13 +540,13 @@ public class TransactionProvider extends BaseTransactionProvider {
         String yearExpression;
         switch (group) {
           case WEEK:
-            yearExpression = getYearOfWeekStart();
+            yearExpression = TABLE_DATE_BUCKETS + "." + KEY_YEAR_OF_WEEK_START;
             break;
           case MONTH:
-            yearExpression = getYearOfMonthStart();
+            yearExpression = TABLE_DATE_BUCKETS + "." + KEY_YEAR_OF_MONTH_START;
             break;
           default:
-            yearExpression = YEAR;
+            yearExpression = TABLE_DATE_BUCKETS + "." + KEY_YEAR;
         }
         groupBy = KEY_YEAR + "," + KEY_SECOND_GROUP;
         String secondDef = "";
@@ -442,20 +558,25 @@ public class TransactionProvider extends BaseTransactionProvider {
             secondDef = "1";
             break;
           case DAY:
-            secondDef = DAY;
+            secondDef = TABLE_DATE_BUCKETS + "." + KEY_DAY;
             break;
           case WEEK:
-            secondDef = getWeek();
+            secondDef = TABLE_DATE_BUCKETS + "." + KEY_WEEK;
             break;
           case MONTH:
-            secondDef = sectionsOnly ? MONTH_PLAIN : getMonth();
+            secondDef = sectionsOnly ? MONTH_PLAIN : TABLE_DATE_BUCKETS + "." + KEY_MONTH;
             break;
           case YEAR:
             secondDef = "0";
             groupBy = KEY_YEAR;
             break;
         }
-        qb.setTables(VIEW_WITH_ACCOUNT);
+        if (group == Grouping.NONE) {
+          qb.setTables(VIEW_WITH_ACCOUNT);
+        } else {
+          qb.setTables(VIEW_WITH_ACCOUNT + " JOIN " + DateBucketsKt.DATE_BUCKETS_JOIN + " ON " + TABLE_DATE_BUCKETS + "."
+              + KEY_TRANSACTIONID + " = " + VIEW_WITH_ACCOUNT + "." + KEY_ROWID);
+        }
         int projectionSize;
         if (sectionsOnly) {
           projectionSize = 2;
@@ -513,8 +634,8 @@ public class TransactionProvider extends BaseTransactionProvider {
       case ACCOUNTS:
       case ACCOUNTS_BASE:
       case ACCOUNTS_MINIMAL:
-        qb.setTables(TABLE_ACCOUNTS);
         final boolean minimal = uriMatch == ACCOUNTS_MINIMAL;
+        qb.setTables(minimal ? TABLE_ACCOUNTS : ACCOUNTS_WITH_TOTALS);
         final String mergeAggregate = minimal ? "1" : uri.getQueryParameter(QUERY_PARAMETER_MERGE_CURRENCY_AGGREGATES);
         if (sortOrder == null) {
           sortOrder = minimal ? KEY_LABEL : Sort.Companion.preferredOrderByForAccounts(PrefKey.SORT_ORDER_ACCOUNTS, prefHandler, Sort.LABEL);
@@ -544,42 +665,19 @@ public class TransactionProvider extends BaseTransactionProvider {
                 .append(",")
                 .append(KEY_OPENING_BALANCE)
                 .append(",")
-                .append(KEY_OPENING_BALANCE)
-                .append(" + (")
-                .append(SELECT_AMOUNT_SUM)
-                .append(" AND ")
-                .append(WHERE_NOT_SPLIT)
-                .append(" AND ")
-                .append(DatabaseConstants.getWhereInPast())
-                .append(" ) AS ")
+                .append(Account.CURRENT_BALANCE_EXPR)
+                .append(" AS ")
                 .append(KEY_CURRENT_BALANCE)
                 .append(", ")
                 .append(KEY_OPENING_BALANCE)
-                .append(" + (")
-                .append(SELECT_AMOUNT_SUM)
-                .append(" AND ")
-                .append(WHERE_NOT_SPLIT)
-                .append(" ) AS ")
+                .append(" + ")
+                .append(TABLE_ACCOUNT_TOTALS).append(".").append(KEY_TOTAL)
+                .append(" AS ")
                 .append(KEY_TOTAL).append(", ")
-                .append("(")
-                .append(SELECT_AMOUNT_SUM)
-                .append(" AND ")
-                .append(WHERE_EXPENSE)
-                .append(") AS ")
                 .append(KEY_SUM_EXPENSES)
                 .append(",")
-                .append("(")
-                .append(SELECT_AMOUNT_SUM)
-                .append(" AND ")
-                .append(WHERE_INCOME)
-                .append(") AS ")
                 .append(KEY_SUM_INCOME)
                 .append(", ")
-                .append("(")
-                .append(SELECT_AMOUNT_SUM)
-                .append(" AND ")
-                .append(WHERE_TRANSFER)
-                .append(") AS ")
                 .append(KEY_SUM_TRANSFERS)
                 .append(", ")
                 .append(DatabaseConstants.getHasFuture())
@@ -605,7 +703,7 @@ public class TransactionProvider extends BaseTransactionProvider {
           }
           String inTables = stringBuilder
               .append(" FROM ")
-              .append(TABLE_ACCOUNTS).append(" WHERE ")
+              .append(minimal ? TABLE_ACCOUNTS : ACCOUNTS_WITH_TOTALS).append(" WHERE ")
               .append(KEY_EXCLUDE_FROM_TOTALS)
               .append(" = 0) as t")
               .append(currencyJoin).toString();
@@ -856,24 +954,24 @@ public class TransactionProvider extends BaseTransactionProvider {
         qb.setTables(TABLE_ACCOUNTTYES_METHODS);
         break;
       case TEMPLATES:
-        String instanceId = uri.getQueryParameter(QUERY_PARAMETER_WITH_INSTANCE);
-        if (instanceId == null) {
-          qb.setTables(VIEW_TEMPLATES_EXTENDED);
-          if (projection == null) {
-            projection = extendProjectionWithSealedCheck(Template.PROJECTION_EXTENDED, VIEW_TEMPLATES_EXTENDED);
-          }
-        } else {
-          qb.setTables(String.format(Locale.ROOT, "%1$s LEFT JOIN %2$s ON %1$s.%3$s = %4$s AND %5$s = %6$s LEFT JOIN %7$s ON %7$s.%3$s = %2$s.%8$s",
-              VIEW_TEMPLATES_EXTENDED, TABLE_PLAN_INSTANCE_STATUS, KEY_ROWID, KEY_TEMPLATEID, KEY_INSTANCEID, instanceId,
-              TABLE_TRANSACTIONS, KEY_TRANSACTIONID));
-          if (projection != null) {
-            CrashHandler.report("When calling templates cursor with QUERY_PARAMETER_WITH_INSTANCE, projection is ignored ");
-          }
-          projection = new String[]{KEY_TITLE, KEY_INSTANCEID, KEY_TRANSACTIONID, KEY_COLOR, KEY_CURRENCY,
-              String.format(Locale.ROOT, "coalesce(%1$s.%2$s, %3$s.%2$s) AS %2$s", TABLE_TRANSACTIONS, KEY_AMOUNT, VIEW_TEMPLATES_EXTENDED),
-              VIEW_TEMPLATES_EXTENDED + "." + KEY_ROWID + " AS " + KEY_ROWID, KEY_SEALED};
+        qb.setTables(VIEW_TEMPLATES_EXTENDED);
+        if (projection == null) {
+          projection = extendProjectionWithSealedCheck(Template.PROJECTION_EXTENDED, VIEW_TEMPLATES_EXTENDED);
+        }
+        break;
+      case TEMPLATES_PLAN_INSTANCES:
+        //one row for each template, and one for each instance in range that has already been dealt with
+        qb.setTables(String.format(Locale.ROOT, "%1$s LEFT JOIN %2$s ON %1$s.%3$s = %4$s AND %5$s BETWEEN %6$s AND %7$s",
+            VIEW_TEMPLATES_EXTENDED, TABLE_PLAN_INSTANCE_STATUS, KEY_ROWID, KEY_TEMPLATEID, KEY_INSTANCEID,
+            uri.getPathSegments().get(2), uri.getPathSegments().get(3)));
+        qb.appendWhere(KEY_PLANID + " IS NOT NULL");
+        if (projection == null) {
+          projection = Utils.joinArrays(
+              extendProjectionWithSealedCheck(Template.PROJECTION_EXTENDED, VIEW_TEMPLATES_EXTENDED),
+              new String[]{KEY_ACCOUNT_LABEL, KEY_INSTANCEID, KEY_TRANSACTIONID,
+                  String.format(Locale.ROOT, "(SELECT %1$s FROM %2$s WHERE %2$s.%3$s = %4$s.%5$s) AS %6$s",
+                      KEY_AMOUNT, TABLE_TRANSACTIONS, KEY_ROWID, TABLE_PLAN_INSTANCE_STATUS, KEY_TRANSACTIONID, KEY_INSTANCE_AMOUNT)});
         }
-
         break;
       case TEMPLATES_UNCOMMITTED:
         qb.setTables(VIEW_TEMPLATES_UNCOMMITTED);
@@ -937,6 +1035,9 @@ public class TransactionProvider extends BaseTransactionProvider {
         qb.appendWhere("rowid = " + uri.getPathSegments().get(1));
         projection = new String[]{KEY_PICTURE_URI};
         break;
+      case ATTACHMENTS:
+        qb.setTables(TABLE_ATTACHMENTS);
+        break;
       case TRANSACTIONS_LASTEXCHANGE:
         String currency1 = uri.getPathSegments().get(2);
         String currency2 = uri.getPathSegments().get(3);
@@ -970,10 +1071,20 @@ public class TransactionProvider extends BaseTransactionProvider {
         break;
       }
       case AUTOFILL:
-        qb.setTables(VIEW_EXTENDED);
-        selection = KEY_ROWID + "= (SELECT max(" + KEY_ROWID + ") FROM " + TABLE_TRANSACTIONS
-            + " WHERE " + WHERE_NOT_SPLIT + " AND " + KEY_PAYEEID + " = ?)";
+        qb.setTables(TABLE_PAYEE_AUTOFILL + " LEFT JOIN " + TABLE_ACCOUNTS + " ON " +
+            TABLE_ACCOUNTS + "." + KEY_ROWID + " = " + KEY_ACCOUNTID);
+        selection = KEY_PAYEEID + " = ?";
+        selectionArgs = new String[]{uri.getPathSegments().get(1)};
+        break;
+      case AUTOFILL_CATEGORIES:
+        qb.setTables(TABLE_PAYEE_CATEGORIES);
+        if (projection == null) {
+          projection = new String[]{KEY_CATID, CAT_AS_LABEL, CATEGORY_ICON, KEY_USAGES};
+        }
+        selection = KEY_PAYEEID + " = ?";
         selectionArgs = new String[]{uri.getPathSegments().get(1)};
+        sortOrder = PayeeAutofillKt.PAYEE_CATEGORIES_RANK;
+        limit = uri.getQueryParameter(QUERY_PARAMETER_LIMIT);
         break;
       case ACCOUNT_EXCHANGE_RATE:
         qb.setTables(TABLE_ACCOUNT_EXCHANGE_RATES);
@@ -1141,6 +1252,11 @@ public class TransactionProvider extends BaseTransactionProvider {
         id = db.insertOrThrow(TABLE_STALE_URIS, null, values);
         newUri = STALE_IMAGES_URI + "/" + id;
         break;
+      case ATTACHMENTS: {
+        AttachmentsKt.registerAttachmentHash(db, values.getAsString(KEY_PICTURE_URI), values.getAsString(KEY_HASH));
+        //the reference count is maintained by triggers, no need to notify
+        return ATTACHMENTS_URI;
+      }
       case ACCOUNT_EXCHANGE_RATE:
         values.put(KEY_ACCOUNTID, uri.getPathSegments().get(1));
         values.put(KEY_CURRENCY_SELF, uri.getPathSegments().get(2));
@@ -1207,7 +1323,11 @@ public class TransactionProvider extends BaseTransactionProvider {
       default:
         throw unknownUri(uri);
     }
-    notifyChange(uri, uriMatch == TRANSACTIONS && callerIsNotSyncAdatper(uri));
+    if (uriMatch == TRANSACTIONS) {
+      notifyTransactionsChange(callerIsNotSyncAdatper(uri), accountsOfValues(values, new HashSet<>()));
+    } else {
+      notifyChange(uri, false);
+    }
     //the accounts cursor contains aggregates about transactions
     //we need to notify it when transactions change
     if (uriMatch == TRANSACTIONS) {
@@ -1232,6 +1352,7 @@ public class TransactionProvider extends BaseTransactionProvider {
     log("Delete for URL: %s", uri);
     SQLiteDatabase db = mOpenHelper.getWritableDatabase();
     int count;
+    Set<Long> accountScope = null;
     String segment;
     int uriMatch = URI_MATCHER.match(uri);
     switch (uriMatch) {
@@ -1242,6 +1363,7 @@ public class TransactionProvider extends BaseTransactionProvider {
       case TRANSACTION_ID:
         //maybe TODO ?: where and whereArgs are ignored
         segment = uri.getPathSegments().get(1);
+        accountScope = accountsOfTransaction(db, segment);
         //when we are deleting a transfer whose peer is part of a split, we cannot delete the peer,
         //because the split would be left in an invalid state, hence we transform the peer to a normal split part
         //first we find out the account label
@@ -1380,8 +1502,9 @@ public class TransactionProvider extends BaseTransactionProvider {
       default:
         throw unknownUri(uri);
     }
+    invalidateLabelIdCache(uriMatch);
     if (uriMatch == TRANSACTIONS || uriMatch == TRANSACTION_ID) {
-      notifyChange(TRANSACTIONS_URI, callerIsNotSyncAdatper(uri));
+      notifyTransactionsChange(callerIsNotSyncAdatper(uri), accountScope);
       notifyChange(ACCOUNTS_URI, false);
       notifyChange(DEBTS_URI, false);
       notifyChange(UNCOMMITTED_URI, false);
@@ -1402,6 +1525,29 @@ public class TransactionProvider extends BaseTransactionProvider {
     return count;
   }
 
+  /**
+   * clears the ids cached for labels of the table behind uriMatch synchronously, so that the next
+   * lookup, e.g. by an import running concurrently, does not resolve to a renamed or deleted row
+   */
+  private void invalidateLabelIdCache(int uriMatch) {
+    switch (uriMatch) {
+      case CATEGORIES:
+      case CATEGORY_ID:
+        labelIdCache.getCategories().clear();
+        break;
+      case PAYEES:
+      case PAYEE_ID:
+        labelIdCache.getPayees().clear();
+        break;
+      case METHOD_ID:
+        labelIdCache.getMethods().clear();
+        break;
+      case TAG_ID:
+        labelIdCache.getTags().clear();
+        break;
+    }
+  }
+
   private String prefixAnd(String where) {
     if (!TextUtils.isEmpty(where)) {
       return " AND (" + where + ')';
@@ -1419,6 +1565,7 @@ public class TransactionProvider extends BaseTransactionProvider {
     int count;
     int uriMatch = URI_MATCHER.match(uri);
     Cursor c;
+    Set<Long> accountScope = null;
     log("UPDATE Uri: %s, values: %s", uri, values);
     switch (uriMatch) {
       case TRANSACTIONS:
@@ -1427,12 +1574,16 @@ public class TransactionProvider extends BaseTransactionProvider {
         break;
       case TRANSACTION_ID:
       case UNCOMMITTED_ID:
+        if (uriMatch == TRANSACTION_ID) {
+          accountScope = accountsOfValues(values, accountsOfTransaction(db, uri.getLastPathSegment()));
+        }
         count = db.update(TABLE_TRANSACTIONS, values,
             KEY_ROWID + " = " + uri.getLastPathSegment() + prefixAnd(where),
             whereArgs);
         break;
       case TRANSACTION_UNDELETE:
         segment = uri.getPathSegments().get(1);
+        accountScope = accountsOfTransaction(db, segment);
         whereArgs = new String[]{segment, segment, segment};
         ContentValues v = new ContentValues();
         v.put(KEY_CR_STATUS, CrStatus.UNRECONCILED.name());
@@ -1442,6 +1593,8 @@ public class TransactionProvider extends BaseTransactionProvider {
         count = db.update(TABLE_ACCOUNTS, values, where, whereArgs);
         break;
       case ACCOUNT_ID:
+        //the label of an account is displayed in the lists of its transfer peers, the scope is
+        //left null, so that observers of all accounts are notified
         count = db.update(TABLE_ACCOUNTS, values,
             KEY_ROWID + " = " + uri.getLastPathSegment() + prefixAnd(where), whereArgs);
         break;
@@ -1521,6 +1674,8 @@ public class TransactionProvider extends BaseTransactionProvider {
       case TRANSACTION_MOVE:
         segment = uri.getPathSegments().get(1);
         String target = uri.getPathSegments().get(3);
+        accountScope = accountsOfTransaction(db, segment);
+        accountScope.add(Long.parseLong(target));
         db.execSQL("UPDATE " + TABLE_TRANSACTIONS +
                 " SET " +
                 KEY_ACCOUNTID + " = ?, " +
@@ -1541,6 +1696,7 @@ public class TransactionProvider extends BaseTransactionProvider {
         count = 1;
         break;
       case TRANSACTION_TOGGLE_CRSTATUS:
+        accountScope = accountsOfTransaction(db, uri.getPathSegments().get(1));
         db.execSQL("UPDATE " + TABLE_TRANSACTIONS +
                 " SET " + KEY_CR_STATUS +
                 " = CASE " + KEY_CR_STATUS +
@@ -1766,10 +1922,11 @@ public class TransactionProvider extends BaseTransactionProvider {
       default:
         throw unknownUri(uri);
     }
+    invalidateLabelIdCache(uriMatch);
     if (uriMatch == TRANSACTIONS || uriMatch == TRANSACTION_ID || uriMatch == ACCOUNTS || uriMatch == ACCOUNT_ID ||
         uriMatch == CURRENCIES_CHANGE_FRACTION_DIGITS || uriMatch == TRANSACTION_UNDELETE ||
         uriMatch == TRANSACTION_MOVE || uriMatch == TRANSACTION_TOGGLE_CRSTATUS || uriMatch == TRANSACTION_LINK_TRANSFER) {
-      notifyChange(TRANSACTIONS_URI, callerIsNotSyncAdatper(uri));
+      notifyTransactionsChange(callerIsNotSyncAdatper(uri), accountScope);
       notifyChange(ACCOUNTS_URI, false);
       notifyChange(DEBTS_URI, false);
       notifyChange(UNCOMMITTED_URI, false);
@@ -1801,13 +1958,77 @@ public class TransactionProvider extends BaseTransactionProvider {
   }
 
   private void notifyChange(Uri uri, boolean syncToNetwork) {
-    if (!bulkInProgress) {
-      log("Notifying %s  syncToNetwork %s", uri.toString(), syncToNetwork ? "true" : "false");
-      getContext().getContentResolver().notifyChange(uri, null,
-          syncToNetwork && prefHandler.getBoolean(PrefKey.SYNC_CHANGES_IMMEDIATELY, true));
+    changeNotifier.notifyChange(uri, syncToNetwork);
+    //we do not know which accounts are affected
+    if (isTransactionsUri(uri)) {
+      changeNotifier.notifyChange(ACCOUNT_CHANGES_URI, false);
+    }
+  }
+
+  /**
+   * @param accountIds the accounts affected by the change, if null observers of all accounts are
+   *                   notified
+   */
+  private void notifyTransactionsChange(boolean syncToNetwork, @Nullable Set<Long> accountIds) {
+    if (accountIds == null) {
+      notifyChange(TRANSACTIONS_URI, syncToNetwork);
+    } else {
+      changeNotifier.notifyChange(TRANSACTIONS_URI, syncToNetwork);
+      for (long accountId : accountIds) {
+        changeNotifier.notifyChange(accountChangesUri(accountId), false);
+      }
     }
   }
 
+  /**
+   * @return true for uris below {@link #TRANSACTIONS_URI}, except uncommitted transactions, which
+   * are not shown in any account
+   */
+  private static boolean isTransactionsUri(Uri uri) {
+    final List<String> segments = uri.getPathSegments();
+    return !segments.isEmpty() && segments.get(0).equals(TRANSACTIONS_URI.getLastPathSegment()) &&
+        !(segments.size() > 1 && segments.get(1).equals(URI_SEGMENT_UNCOMMITTED));
+  }
+
+  /**
+   * @return the accounts of the transaction, of its split parts, and of their transfer peers
+   */
+  private Set<Long> accountsOfTransaction(SQLiteDatabase db, String id) {
+    Set<Long> result = new HashSet<>();
+    try (Cursor c = db.query(TABLE_TRANSACTIONS, new String[]{KEY_ACCOUNTID, KEY_TRANSFER_ACCOUNT},
+        KEY_ROWID + " = ? OR " + KEY_PARENTID + " = ?", new String[]{id, id}, null, null, null)) {
+      while (c.moveToNext()) {
+        result.add(c.getLong(0));
+        if (!c.isNull(1)) {
+          result.add(c.getLong(1));
+        }
+      }
+    }
+    return result;
+  }
+
+  /**
+   * @return the accounts a transaction is written to, or null if values do not tell
+   */
+  @Nullable
+  private Set<Long> accountsOfValues(@Nullable ContentValues values, @Nullable Set<Long> accountIds) {
+    if (values == null || accountIds == null) return null;
+    final Long accountId = values.getAsLong(KEY_ACCOUNTID);
+    if (accountId != null) {
+      accountIds.add(accountId);
+    }
+    final Long transferAccount = values.getAsLong(KEY_TRANSFER_ACCOUNT);
+    if (transferAccount != null) {
+      accountIds.add(transferAccount);
+    }
+    return accountIds;
+  }
+
+  @VisibleForTesting
+  public ChangeNotifier getChangeNotifierForTest() {
+    return changeNotifier;
+  }
+
   private boolean callerIsNotSyncAdatper(Uri uri) {
     return uri.getQueryParameter(QUERY_PARAMETER_CALLER_IS_SYNCADAPTER) == null;
   }
@@ -1822,9 +2043,10 @@ public class TransactionProvider extends BaseTransactionProvider {
   public ContentProviderResult[] applyBatch(@NonNull ArrayList<ContentProviderOperation> operations)
       throws OperationApplicationException {
     final SQLiteDatabase db = mOpenHelper.getWritableDatabase();
+    final int numOperations = operations.size();
+    changeNotifier.begin();
     db.beginTransaction();
     try {
-      final int numOperations = operations.size();
       final ContentProviderResult[] results = new ContentProviderResult[numOperations];
       for (int i = 0; i < numOperations; i++) {
         final ContentProviderOperation contentProviderOperation = operations.get(i);
@@ -1842,6 +2064,11 @@ public class TransactionProvider extends BaseTransactionProvider {
       return results;
     } finally {
       db.endTransaction();
+      final ChangeNotifier.Stats stats = changeNotifier.end();
+      if (stats != null) {
+        log("Batch of %d operations: %d notifications requested, %d dispatched, %d queries",
+            numOperations, stats.getRequested(), stats.getDispatched(), stats.getQueries());
+      }
     }
   }
 
@@ -1854,16 +2081,20 @@ public class TransactionProvider extends BaseTransactionProvider {
         break;
       }
       case METHOD_BULK_START: {
-        bulkInProgress = true;
+        changeNotifier.beginBulk();
         break;
       }
       case METHOD_BULK_END: {
-        bulkInProgress = false;
         notifyChange(TRANSACTIONS_URI, true);
         notifyChange(ACCOUNTS_URI, false);
         notifyChange(CATEGORIES_URI, false);
         notifyChange(PAYEES_URI, false);
         notifyChange(METHODS_URI, false);
+        final ChangeNotifier.Stats stats = changeNotifier.endBulk();
+        if (stats != null) {
+          log("Bulk operation: %d notifications requested, %d dispatched, %d queries",
+              stats.getRequested(), stats.getDispatched(), stats.getQueries());
+        }
         break;
       }
       case METHOD_SORT_ACCOUNTS: {
@@ -1898,6 +2129,38 @@ public class TransactionProvider extends BaseTransactionProvider {
         });
         return result;
       }
+      case METHOD_CHECK_ACCOUNT_TOTALS: {
+        Bundle result = new Bundle(1);
+        result.putLongArray(KEY_RESULT, AccountTotalsKt.findInconsistentAccountTotals(mOpenHelper.getReadableDatabase()));
+        return result;
+      }
+      case METHOD_REBUILD_ACCOUNT_TOTALS: {
+        Bundle result = new Bundle(1);
+        result.putInt(KEY_RESULT, AccountTotalsKt.rebuildAccountTotals(mOpenHelper.getWritableDatabase()));
+        notifyChange(ACCOUNTS_URI, false);
+        return result;
+      }
+      case METHOD_ARCHIVE: {
+        final SQLiteDatabase db = mOpenHelper.getWritableDatabase();
+        Bundle result = new Bundle(1);
+        //balances are not affected, hence sealed accounts, also those of transfer peers, can be archived
+        MoreDbUtilsKt.safeUpdateWithSealedAccounts(db, () -> result.putInt(KEY_RESULT, ArchiveKt.archive(db,
+            extras.getLong(KEY_ACCOUNTID), extras.getLong(KEY_DATE), extras.getString(KEY_COMMENT))));
+        notifyChange(TRANSACTIONS_URI, false);
+        notifyChange(ACCOUNTS_URI, false);
+        return result;
+      }
+      case METHOD_REFRESH_DATE_BUCKETS: {
+        if (DateBucketsKt.ensureDateBuckets(mOpenHelper.getWritableDatabase())) {
+          notifyChange(TRANSACTIONS_URI, false);
+        }
+        break;
+      }
+      case METHOD_DATA_VERSION: {
+        Bundle result = new Bundle(1);
+        result.putString(KEY_RESULT, changeNotifier.dataVersion(arg == null ? "" : arg));
+        return result;
+      }
     }
     return null;
   }
@@ -1908,6 +2171,7 @@ public class TransactionProvider extends BaseTransactionProvider {
     URI_MATCHER.addURI(AUTHORITY, "transactions/" + URI_SEGMENT_UNCOMMITTED, UNCOMMITTED);
     URI_MATCHER.addURI(AUTHORITY, "transactions/" + URI_SEGMENT_GROUPS + "/*", TRANSACTIONS_GROUPS);
     URI_MATCHER.addURI(AUTHORITY, "transactions/sumsForAccounts", TRANSACTIONS_SUMS);
+    URI_MATCHER.addURI(AUTHORITY, "transactions/sumsForCategories", TRANSACTIONS_CATEGORY_SUMS);
     URI_MATCHER.addURI(AUTHORITY, "transactions/" + URI_SEGMENT_LAST_EXCHANGE + "/*/*", TRANSACTIONS_LASTEXCHANGE);
     URI_MATCHER.addURI(AUTHORITY, "transactions/#", TRANSACTION_ID);
     URI_MATCHER.addURI(AUTHORITY, "transactions/" + URI_SEGMENT_UNCOMMITTED + "/#", UNCOMMITTED_ID);
@@ -1935,6 +2199,7 @@ public class TransactionProvider extends BaseTransactionProvider {
     URI_MATCHER.addURI(AUTHORITY, "accounttypes_methods", ACCOUNTTYPES_METHODS);
     URI_MATCHER.addURI(AUTHORITY, "templates", TEMPLATES);
     URI_MATCHER.addURI(AUTHORITY, "templates/uncommitted", TEMPLATES_UNCOMMITTED);
+    URI_MATCHER.addURI(AUTHORITY, "templates/planInstances/#/#", TEMPLATES_PLAN_INSTANCES);
     URI_MATCHER.addURI(AUTHORITY, "templates/#", TEMPLATE_ID);
     URI_MATCHER.addURI(AUTHORITY, "templates/#/" + URI_SEGMENT_INCREASE_USAGE, TEMPLATES_INCREASE_USAGE);
     URI_MATCHER.addURI(AUTHORITY, "sqlite_sequence/*", SQLITE_SEQUENCE_TABLE);
@@ -1954,6 +2219,8 @@ public class TransactionProvider extends BaseTransactionProvider {
     URI_MATCHER.addURI(AUTHORITY, "changes", CHANGES);
     URI_MATCHER.addURI(AUTHORITY, "settings", SETTINGS);
     URI_MATCHER.addURI(AUTHORITY, "autofill/#", AUTOFILL);
+    URI_MATCHER.addURI(AUTHORITY, "autofill/#/" + URI_SEGMENT_CATEGORIES, AUTOFILL_CATEGORIES);
+    URI_MATCHER.addURI(AUTHORITY, "attachments", ATTACHMENTS);
     URI_MATCHER.addURI(AUTHORITY, "account_exchangerates/#/*/*", ACCOUNT_EXCHANGE_RATE);
     URI_MATCHER.addURI(AUTHORITY, "budgets", BUDGETS);
     URI_MATCHER.addURI(AUTHORITY, "budgets/#", BUDGET_ID);
@@ -2049,6 +2316,7 @@ public class TransactionProvider extends BaseTransactionProvider {
       result = FileCopyUtils.copy(backupFile, currentDb);
     } finally {
       initOpenHelper();
+      labelIdCache.clear();
     }
     return result;
   }
@@ -0,0 +1,128 @@
+package org.totschnig.myexpenses.provider
+
+import android.database.sqlite.SQLiteDatabase
+import android.database.sqlite.SQLiteException
+import org.totschnig.myexpenses.provider.DatabaseConstants.KEY_CATID
+import org.totschnig.myexpenses.provider.DatabaseConstants.KEY_COMMENT
+import org.totschnig.myexpenses.provider.DatabaseConstants.KEY_LABEL
+import org.totschnig.myexpenses.provider.DatabaseConstants.KEY_PARENTID
+import org.totschnig.myexpenses.provider.DatabaseConstants.KEY_PAYEEID
+import org.totschnig.myexpenses.provider.DatabaseConstants.KEY_PAYEE_NAME
+import org.totschnig.myexpenses.provider.DatabaseConstants.KEY_PAYEE_NAME_NORMALIZED
+import org.totschnig.myexpenses.provider.DatabaseConstants.KEY_REFERENCE_NUMBER
+import org.totschnig.myexpenses.provider.DatabaseConstants.KEY_ROWID
+import org.totschnig.myexpenses.provider.DatabaseConstants.KEY_TAGID
+import org.totschnig.myexpenses.provider.DatabaseConstants.KEY_TRANSACTIONID
+import org.totschnig.myexpenses.provider.DatabaseConstants.SPLIT_CATID
+import org.totschnig.myexpenses.provider.DatabaseConstants.TABLE_CATEGORIES
+import org.totschnig.myexpenses.provider.DatabaseConstants.TABLE_PAYEES
+import org.totschnig.myexpenses.provider.DatabaseConstants.TABLE_TAGS
+import org.totschnig.myexpenses.provider.DatabaseConstants.TABLE_TRANSACTIONS
+import org.totschnig.myexpenses.provider.DatabaseConstants.TABLE_TRANSACTIONS_SEARCH
+import org.totschnig.myexpenses.provider.DatabaseConstants.TABLE_TRANSACTIONS_TAGS
+import org.totschnig.myexpenses.util.Utils
+import timber.log.Timber
+
+private const val SEARCH_COLUMNS = "docid, $KEY_COMMENT, payee, $KEY_REFERENCE_NUMBER, tags, category"
+
+/**
+ * One document per transaction, with the transaction id as docid. The payee is indexed with its
+ * normalized name, the tags of a transaction are concatenated and the category is indexed with
+ * the label of its main category. Split transactions have no category in the index. Prefix
+ * indexes for up to three characters keep the short prefixes typed first in search as you type
+ * cheap.
+ * The unicode61 tokenizer folds case and removes diacritics like [Utils.normalize] does.
+ */
+private fun searchCreate(tokenizer: String) =
+    "CREATE VIRTUAL TABLE $TABLE_TRANSACTIONS_SEARCH USING fts4($KEY_COMMENT, payee, $KEY_REFERENCE_NUMBER, tags, category, tokenize=$tokenizer, prefix=\"1,2,3\")"
+
+private val SEARCH_DOCUMENT = "SELECT $TABLE_TRANSACTIONS.$KEY_ROWID, $TABLE_TRANSACTIONS.$KEY_COMMENT, " +
+        "(SELECT $KEY_PAYEE_NAME_NORMALIZED FROM $TABLE_PAYEES WHERE $TABLE_PAYEES.$KEY_ROWID = $TABLE_TRANSACTIONS.$KEY_PAYEEID), " +
+        "$TABLE_TRANSACTIONS.$KEY_REFERENCE_NUMBER, " +
+        "(SELECT group_concat($KEY_LABEL, ' ') FROM $TABLE_TAGS WHERE $TABLE_TAGS.$KEY_ROWID IN " +
+        "(SELECT $KEY_TAGID FROM $TABLE_TRANSACTIONS_TAGS WHERE $KEY_TRANSACTIONID = $TABLE_TRANSACTIONS.$KEY_ROWID)), " +
+        "(SELECT coalesce(main.$KEY_LABEL || ' ', '') || sub.$KEY_LABEL FROM $TABLE_CATEGORIES sub " +
+        "LEFT JOIN $TABLE_CATEGORIES main ON main.$KEY_ROWID = sub.$KEY_PARENTID " +
+        "WHERE sub.$KEY_ROWID = $TABLE_TRANSACTIONS.$KEY_CATID AND sub.$KEY_ROWID != $SPLIT_CATID) " +
+        "FROM $TABLE_TRANSACTIONS"
+
+private fun insertDocuments(where: String) =
+    "INSERT INTO $TABLE_TRANSACTIONS_SEARCH ($SEARCH_COLUMNS) $SEARCH_DOCUMENT WHERE $where;"
+
+private fun refreshDocuments(where: String) =
+    "DELETE FROM $TABLE_TRANSACTIONS_SEARCH WHERE docid IN (SELECT $KEY_ROWID FROM $TABLE_TRANSACTIONS WHERE $where); " +
+            insertDocuments(where)
+
+private fun searchTrigger(name: String, event: String, action: String) =
+    name to "CREATE TRIGGER $name AFTER $event BEGIN $action END"
+
+private val SEARCH_TRIGGERS = listOf(
+    searchTrigger(
+        "search_transaction_insert", "INSERT ON $TABLE_TRANSACTIONS",
+        insertDocuments("$KEY_ROWID = new.$KEY_ROWID")
+    ),
+    searchTrigger(
+        "search_transaction_update",
+        "UPDATE OF $KEY_COMMENT, $KEY_PAYEEID, $KEY_REFERENCE_NUMBER, $KEY_CATID ON $TABLE_TRANSACTIONS",
+        refreshDocuments("$KEY_ROWID = new.$KEY_ROWID")
+    ),
+    searchTrigger(
+        "search_transaction_delete", "DELETE ON $TABLE_TRANSACTIONS",
+        "DELETE FROM $TABLE_TRANSACTIONS_SEARCH WHERE docid = old.$KEY_ROWID;"
+    ),
+    searchTrigger(
+        "search_transaction_tag_insert", "INSERT ON $TABLE_TRANSACTIONS_TAGS",
+        refreshDocuments("$KEY_ROWID = new.$KEY_TRANSACTIONID")
+    ),
+    searchTrigger(
+        "search_transaction_tag_delete", "DELETE ON $TABLE_TRANSACTIONS_TAGS",
+        refreshDocuments("$KEY_ROWID = old.$KEY_TRANSACTIONID")
+    ),
+    searchTrigger(
+        "search_tag_update", "UPDATE OF $KEY_LABEL ON $TABLE_TAGS",
+        refreshDocuments("$KEY_ROWID IN (SELECT $KEY_TRANSACTIONID FROM $TABLE_TRANSACTIONS_TAGS WHERE $KEY_TAGID = new.$KEY_ROWID)")
+    ),
+    searchTrigger(
+        "search_payee_update", "UPDATE OF $KEY_PAYEE_NAME, $KEY_PAYEE_NAME_NORMALIZED ON $TABLE_PAYEES",
+        refreshDocuments("$KEY_PAYEEID = new.$KEY_ROWID")
+    ),
+    searchTrigger(
+        "search_category_update", "UPDATE OF $KEY_LABEL, $KEY_PARENTID ON $TABLE_CATEGORIES",
+        refreshDocuments("$KEY_CATID IN (SELECT $KEY_ROWID FROM $TABLE_CATEGORIES WHERE $KEY_ROWID = new.$KEY_ROWID OR $KEY_PARENTID = new.$KEY_ROWID)")
+    )
+)
+
+fun createTransactionSearch(db: SQLiteDatabase) {
+    with(db) {
+        try {
+            execSQL(searchCreate("unicode61"))
+        } catch (e: SQLiteException) {
+            //SQLite builds without unicode61 only fold ASCII characters, the normalized payee
+            //names are still found
+            Timber.w(e)
+            execSQL(searchCreate("simple"))
+        }
+        execSQL("CREATE INDEX transactions_tags_transaction_id_index ON $TABLE_TRANSACTIONS_TAGS ($KEY_TRANSACTIONID)")
+        execSQL(insertDocuments("1"))
+    }
+    createOrRefreshTransactionSearchTriggers(db)
+}
+
+fun createOrRefreshTransactionSearchTriggers(db: SQLiteDatabase) {
+    SEARCH_TRIGGERS.forEach { (name, trigger) ->
+        db.execSQL("DROP TRIGGER IF EXISTS $name")
+        db.execSQL(trigger)
+    }
+}
+
+private val TOKEN_SEPARATOR = Regex("[^\\p{L}\\p{N}]+")
+
+/**
+ * @return a full text query that matches documents containing a word starting with each word
+ * of [searchString], normalized with [Utils.normalize], or an empty string if [searchString]
+ * does not contain any word. Since the words are reduced to letters and digits, and are in
+ * lower case, they can not be mistaken for query operators.
+ */
+fun searchMatchExpression(searchString: String) =
+    Utils.normalize(searchString).split(TOKEN_SEPARATOR).filter { it.isNotEmpty() }
+        .joinToString(" ") { "$it*" }
@@ -25,6 +25,9 @@ class FilterPersistence(val prefHandler: PrefHandler, private val keyTemplate: S
         prefHandler.getString(prefNameForCriteria(CommentCriteria.COLUMN), null)?.let {
             whereFilter.put(CommentCriteria.fromStringExtra(it))
         }
+        prefHandler.getString(prefNameForCriteria(SEARCH_COLUMN), null)?.let {
+            whereFilter.put(SearchCriteria.fromStringExtra(it))
+        }
         prefHandler.getString(prefNameForCriteria(CrStatusCriteria.COLUMN), null)?.let {
             whereFilter.put(CrStatusCriteria.fromStringExtra(it))
         }
@@ -68,7 +71,7 @@ class FilterPersistence(val prefHandler: PrefHandler, private val keyTemplate: S
     } ?: false
 
     fun persistAll() {
-        arrayOf(CategoryCriteria.COLUMN, AmountCriteria.COLUMN, CommentCriteria.COLUMN,
+        arrayOf(CategoryCriteria.COLUMN, AmountCriteria.COLUMN, CommentCriteria.COLUMN, SEARCH_COLUMN,
                 CrStatusCriteria.COLUMN, PayeeCriteria.COLUMN, MethodCriteria.COLUMN,
                 DateCriteria.COLUMN, TRANSFER_COLUMN, TAG_COLUMN, ACCOUNT_COLUMN).forEach { column ->
             whereFilter.get(column)?.let {
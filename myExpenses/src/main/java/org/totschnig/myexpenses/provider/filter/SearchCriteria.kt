@@ -0,0 +1,64 @@
+package org.totschnig.myexpenses.provider.filter
+
+import android.content.Context
+import android.os.Parcel
+import android.os.Parcelable
+import org.totschnig.myexpenses.R
+import org.totschnig.myexpenses.provider.DatabaseConstants.KEY_PARENTID
+import org.totschnig.myexpenses.provider.DatabaseConstants.KEY_ROWID
+import org.totschnig.myexpenses.provider.DatabaseConstants.TABLE_TRANSACTIONS
+import org.totschnig.myexpenses.provider.DatabaseConstants.TABLE_TRANSACTIONS_SEARCH
+import org.totschnig.myexpenses.provider.searchMatchExpression
+
+const val SEARCH_COLUMN = TABLE_TRANSACTIONS_SEARCH
+
+private const val MATCHING_IDS =
+    "SELECT docid FROM $TABLE_TRANSACTIONS_SEARCH WHERE $TABLE_TRANSACTIONS_SEARCH MATCH ?"
+
+/**
+ * Finds transactions where each word of the search string is the start of a word in comment,
+ * payee, reference number, tags or category, through the full text index (see TransactionSearch.kt).
+ * Instead of the correlated sub queries that [Criteria.applyToSplitParts] and
+ * [Criteria.applyToSplitParents] wrap around the selection, split transactions are related to
+ * their parts through the ids of the matching documents.
+ */
+class SearchCriteria : Criteria {
+    private val searchString: String
+
+    constructor(searchString: String) : super(WhereFilter.Operation.MATCH, searchMatchExpression(searchString)) {
+        this.searchString = searchString
+    }
+
+    private constructor(parcel: Parcel) : super(parcel) {
+        searchString = parcel.readString()!!
+    }
+
+    override fun getSelection() = "$KEY_ROWID IN ($MATCHING_IDS)"
+
+    override fun getSelectionForParents(tableName: String) =
+        "$tableName.$KEY_ROWID IN ($MATCHING_IDS UNION SELECT $KEY_PARENTID FROM $TABLE_TRANSACTIONS WHERE $KEY_ROWID IN ($MATCHING_IDS))"
+
+    override fun getSelectionForParts(tableName: String) =
+        "($tableName.$KEY_ROWID IN ($MATCHING_IDS) OR $tableName.$KEY_PARENTID IN ($MATCHING_IDS))"
+
+    override fun getID() = R.id.FILTER_SEARCH_COMMAND
+
+    override fun getColumn() = SEARCH_COLUMN
+
+    override fun prettyPrint(context: Context?) = searchString
+
+    override fun writeToParcel(dest: Parcel, flags: Int) {
+        super.writeToParcel(dest, flags)
+        dest.writeString(searchString)
+    }
+
+    override fun toStringExtra() = searchString
+
+    companion object CREATOR : Parcelable.Creator<SearchCriteria> {
+        override fun createFromParcel(parcel: Parcel) = SearchCriteria(parcel)
+
+        override fun newArray(size: Int): Array<SearchCriteria?> = arrayOfNulls(size)
+
+        fun fromStringExtra(extra: String) = SearchCriteria(extra)
+    }
+}
@@ -146,7 +146,7 @@ public class WhereFilter {
   public enum Operation {
     NOPE(""), EQ("=?"), NEQ("!=?"), GT(">?"), GTE(">=?"), LT("<?"), LTE("<=?"), BTW(
         "BETWEEN ? AND ?"), ISNULL("is NULL"), LIKE("LIKE ? ESCAPE '" + LIKE_ESCAPE_CHAR + "'"),
-    IN(null);
+    IN(null), MATCH("MATCH ?");
 
     private final String op;
 
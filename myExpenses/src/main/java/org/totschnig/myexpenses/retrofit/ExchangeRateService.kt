@@ -100,6 +100,34 @@ class ExchangeRateService(
     }
 }
 
+    /**
+     * @return the rates for the days from [start] to [end], which must lie in the past. Days
+     * for which the source does not publish a rate (e.g. weekends) are missing from the result.
+     */
+    fun getTimeSeries(
+        configuration: Configuration,
+        start: LocalDate,
+        end: LocalDate,
+        symbol: String,
+        base: String
+    ): Map<LocalDate, Float> = when (configuration.source) {
+        ExchangeRateSource.EXCHANGE_RATE_HOST -> {
+            val response = exchangeRateHost.getTimeSeries(start, end, symbol, base).execute()
+            log(response)
+            if (response.isSuccessful) {
+                response.body()?.rates
+                    ?.mapNotNull { (date, rates) -> rates[symbol]?.let { date to it } }?.toMap()
+                    ?: throw IOException("Unable to retrieve data")
+            } else {
+                throw IOException(response.errorBody()?.string() ?: "Unknown Error")
+            }
+        }
+        //time series are not available on the free plan of Open Exchange Rates
+        ExchangeRateSource.OPENEXCHANGERATES -> generateSequence(start) { it.plusDays(1) }
+            .takeWhile { it <= end }
+            .associateWith { getRate(configuration, it, symbol, base).second }
+    }
+
 fun log(response: Response<*>) {
     if (BuildConfig.DEBUG) {
         if (response.raw().cacheResponse != null) {
@@ -11,6 +11,16 @@ interface ExchangeRateDao {
             " UNION select 1/rate from exchange_rates where from_currency = :to and to_currency = :from AND date = :date AND source = :source limit 1")
     suspend fun getRate(from: String, to: String, date: java.time.LocalDate, source: String): Float?
 
+    /**
+     * rates stored for the inverse pair are returned inverted, ordered by date
+     */
+    @Query("SELECT from_currency, to_currency, date, rate, source FROM exchange_rates WHERE from_currency = :from AND to_currency = :to AND date BETWEEN :start AND :end AND source = :source" +
+            " UNION SELECT to_currency AS from_currency, from_currency AS to_currency, date, 1/rate AS rate, source FROM exchange_rates WHERE from_currency = :to AND to_currency = :from AND date BETWEEN :start AND :end AND source = :source ORDER BY date")
+    suspend fun getRates(from: String, to: String, start: java.time.LocalDate, end: java.time.LocalDate, source: String): List<ExchangeRate>
+
     @Insert(onConflict = OnConflictStrategy.REPLACE)
     suspend fun insert(exchangeRate: ExchangeRate)
+
+    @Insert(onConflict = OnConflictStrategy.REPLACE)
+    suspend fun insert(exchangeRates: List<ExchangeRate>)
 }
\ No newline at end of file
@@ -23,7 +23,7 @@ import org.totschnig.myexpenses.MyApplication;
 import org.totschnig.myexpenses.R;
 import org.totschnig.myexpenses.activity.ExpenseEdit;
 import org.totschnig.myexpenses.activity.MyExpenses;
-import org.totschnig.myexpenses.model.Account;
+import org.totschnig.myexpenses.model.PlanInstanceResolver;
 import org.totschnig.myexpenses.model.Template;
 import org.totschnig.myexpenses.model.Transaction;
 import org.totschnig.myexpenses.preference.PrefHandler;
@@ -35,6 +35,7 @@ import org.totschnig.myexpenses.util.PermissionHelper;
 import org.totschnig.myexpenses.util.crashreporting.CrashHandler;
 import org.totschnig.myexpenses.viewmodel.data.Tag;
 
+import java.util.ArrayList;
 import java.util.Date;
 import java.util.List;
 
@@ -151,121 +152,122 @@ public class PlanExecutor extends JobIntentService {
           //sqlite database not yet available observed on samsung GT-N7100 (SQLiteException)
           return;
         }
+        List<PlanInstanceResolver.Event> events = new ArrayList<>();
         if (cursor != null) {
-          if (cursor.moveToFirst()) {
-            LocalDate today = LocalDate.now();
-            while (!cursor.isAfterLast()) {
-              long planId = cursor.getLong(cursor.getColumnIndexOrThrow(CalendarContractCompat.Instances.EVENT_ID));
-              long date = cursor.getLong(cursor.getColumnIndexOrThrow(CalendarContractCompat.Instances.BEGIN));
-              LocalDate localDate = epochMillis2LocalDate(date, ZoneId.systemDefault());
-              long diff = ChronoUnit.DAYS.between(today, localDate);
-              long instanceId = CalendarProviderProxy.calculateId(date);
-              //2) check if they are part of a plan linked to a template
-              //3) execute the template
-              log("found instance %d of plan %d", instanceId, planId);
-              //TODO if we have multiple Event instances for one plan, we should maybe cache the template objects
-              Template template = Template.getInstanceForPlanIfInstanceIsOpen(planId, instanceId);
-              if (!(template == null || template.isSealed())) {
-                if (template.getPlanExecutionAdvance() >= diff) {
-                  Account account = Account.getInstanceFromDb(template.getAccountId());
-                  if (account != null) {
-                    log("belongs to template %d", template.getId());
-                    Notification notification;
-                    int notificationId = (int) ((instanceId * planId) % Integer.MAX_VALUE);
-                    log("notification id %d", notificationId);
-                    PendingIntent resultIntent;
-                    NotificationManager notificationManager =
-                        (NotificationManager) getSystemService(Context.NOTIFICATION_SERVICE);
-                    String title = account.getLabel() + " : " + template.getTitle();
-                    NotificationBuilderWrapper builder =
-                        new NotificationBuilderWrapper(this, NotificationBuilderWrapper.CHANNEL_ID_PLANNER)
-                            .setSmallIcon(R.drawable.ic_stat_notification_sigma)
-                            .setContentTitle(title);
-                    builder.setWhen(date);
-                    String content = template.getLabel();
-                    if (TextUtils.isEmpty(content)) {
-                      content = "";
-                    } else {
-                      content += " : ";
-                    }
-                    content += formatMoney(currencyFormatter, template.getAmount());
-                    builder.setContentText(content);
-                    if (template.isPlanExecutionAutomatic()) {
-                      Pair<Transaction, List<Tag>> pair = Transaction.getInstanceFromTemplateWithTags(template);
-                      Transaction t = pair.getFirst();
-                      t.setOriginPlanInstanceId(instanceId);
-                      t.setDate(new Date(date));
-                      if (t.save(true) != null && t.saveTags(pair.getSecond())) {
-                        Intent displayIntent = new Intent(this, MyExpenses.class)
-                            .putExtra(KEY_ROWID, template.getAccountId())
-                            .putExtra(KEY_TRANSACTIONID, t.getId());
-                        resultIntent = PendingIntent.getActivity(this, notificationId, displayIntent,
-                            FLAG_UPDATE_CURRENT);
-                        builder.setContentIntent(resultIntent);
-                      } else {
-                        builder.setContentText(getString(R.string.save_transaction_error));
-                      }
-                      builder.setAutoCancel(true);
-                      notification = builder.build();
-                    } else {
-                      Intent cancelIntent = new Intent(this, PlanNotificationClickHandler.class)
-                          .setAction(ACTION_CANCEL)
-                          .putExtra(MyApplication.KEY_NOTIFICATION_ID, notificationId)
-                          .putExtra(KEY_TEMPLATEID, template.getId())
-                          .putExtra(KEY_INSTANCEID, instanceId)
-                          //we also put the title in the intent, because we need it while we update the notification
-                          .putExtra(KEY_TITLE, title);
-                      builder.addAction(
-                          android.R.drawable.ic_menu_close_clear_cancel,
-                          R.drawable.ic_menu_close_clear_cancel,
-                          getString(android.R.string.cancel),
-                          PendingIntent.getService(this, notificationId, cancelIntent, FLAG_UPDATE_CURRENT));
-                      Intent editIntent = new Intent(this, ExpenseEdit.class)
-                          .putExtra(MyApplication.KEY_NOTIFICATION_ID, notificationId)
-                          .putExtra(KEY_TEMPLATEID, template.getId())
-                          .putExtra(KEY_INSTANCEID, instanceId);
-                      final boolean useDateFromPlan = "noon".equals(prefHandler.getString(PrefKey.PLANNER_MANUAL_TIME, "noon"));
-                      if (useDateFromPlan) {
-                          editIntent.putExtra(KEY_DATE, date);
-                      }
-                      resultIntent = PendingIntent.getActivity(this, notificationId, editIntent, FLAG_UPDATE_CURRENT);
-                      builder.addAction(
-                          android.R.drawable.ic_menu_edit,
-                          R.drawable.ic_menu_edit,
-                          getString(R.string.menu_edit),
-                          resultIntent);
-                      Intent applyIntent = new Intent(this, PlanNotificationClickHandler.class);
-                      applyIntent.setAction(ACTION_APPLY)
-                          .putExtra(MyApplication.KEY_NOTIFICATION_ID, notificationId)
-                          .putExtra(KEY_TITLE, title)
-                          .putExtra(KEY_TEMPLATEID, template.getId())
-                          .putExtra(KEY_INSTANCEID, instanceId);
-                      if (useDateFromPlan) {
-                        applyIntent.putExtra(KEY_DATE, date);
-                      }
-                      builder.addAction(
-                          android.R.drawable.ic_menu_save,
-                          R.drawable.ic_menu_save,
-                          getString(R.string.menu_apply_template),
-                          PendingIntent.getService(this, notificationId, applyIntent, FLAG_UPDATE_CURRENT));
-                      builder.setContentIntent(resultIntent);
-                      notification = builder.build();
-                      notification.flags |= Notification.FLAG_NO_CLEAR;
-                    }
-                    notificationManager.notify(notificationId, notification);
+          while (cursor.moveToNext()) {
+            events.add(PlanInstanceResolver.Event.fromEventCursor(cursor));
+          }
+          cursor.close();
+        }
+        //2) check if they are part of a plan linked to a template, templates of all plans are loaded at once
+        PlanInstanceResolver.Resolution resolution = new PlanInstanceResolver(getContentResolver()).resolve(events);
+        LocalDate today = LocalDate.now();
+        for (PlanInstanceResolver.Event event : events) {
+          long planId = event.getPlanId();
+          long date = event.getDate();
+          LocalDate localDate = epochMillis2LocalDate(date, ZoneId.systemDefault());
+          long diff = ChronoUnit.DAYS.between(today, localDate);
+          long instanceId = event.getInstanceId();
+          //3) execute the template
+          log("found instance %d of plan %d", instanceId, planId);
+          Template template = resolution.openTemplate(event);
+          if (!(template == null || template.isSealed())) {
+            if (template.getPlanExecutionAdvance() >= diff) {
+              String accountLabel = resolution.accountLabel(event);
+              if (accountLabel != null) {
+                log("belongs to template %d", template.getId());
+                Notification notification;
+                int notificationId = (int) ((instanceId * planId) % Integer.MAX_VALUE);
+                log("notification id %d", notificationId);
+                PendingIntent resultIntent;
+                NotificationManager notificationManager =
+                    (NotificationManager) getSystemService(Context.NOTIFICATION_SERVICE);
+                String title = accountLabel + " : " + template.getTitle();
+                NotificationBuilderWrapper builder =
+                    new NotificationBuilderWrapper(this, NotificationBuilderWrapper.CHANNEL_ID_PLANNER)
+                        .setSmallIcon(R.drawable.ic_stat_notification_sigma)
+                        .setContentTitle(title);
+                builder.setWhen(date);
+                String content = template.getLabel();
+                if (TextUtils.isEmpty(content)) {
+                  content = "";
+                } else {
+                  content += " : ";
+                }
+                content += formatMoney(currencyFormatter, template.getAmount());
+                builder.setContentText(content);
+                if (template.isPlanExecutionAutomatic()) {
+                  Pair<Transaction, List<Tag>> pair = Transaction.getInstanceFromTemplateWithTags(template);
+                  Transaction t = pair.getFirst();
+                  t.setOriginPlanInstanceId(instanceId);
+                  t.setDate(new Date(date));
+                  if (t.save(true) != null && t.saveTags(pair.getSecond())) {
+                    Intent displayIntent = new Intent(this, MyExpenses.class)
+                        .putExtra(KEY_ROWID, template.getAccountId())
+                        .putExtra(KEY_TRANSACTIONID, t.getId());
+                    resultIntent = PendingIntent.getActivity(this, notificationId, displayIntent,
+                        FLAG_UPDATE_CURRENT);
+                    builder.setContentIntent(resultIntent);
                   } else {
-                    log("Account.getInstanceFromDb returned null");
+                    builder.setContentText(getString(R.string.save_transaction_error));
                   }
+                  builder.setAutoCancel(true);
+                  notification = builder.build();
                 } else {
-                  log("Instance is not ready yet (%d days in the future), advance execution is %d", diff, template.getPlanExecutionAdvance());
+                  Intent cancelIntent = new Intent(this, PlanNotificationClickHandler.class)
+                      .setAction(ACTION_CANCEL)
+                      .putExtra(MyApplication.KEY_NOTIFICATION_ID, notificationId)
+                      .putExtra(KEY_TEMPLATEID, template.getId())
+                      .putExtra(KEY_INSTANCEID, instanceId)
+                      //we also put the title in the intent, because we need it while we update the notification
+                      .putExtra(KEY_TITLE, title);
+                  builder.addAction(
+                      android.R.drawable.ic_menu_close_clear_cancel,
+                      R.drawable.ic_menu_close_clear_cancel,
+                      getString(android.R.string.cancel),
+                      PendingIntent.getService(this, notificationId, cancelIntent, FLAG_UPDATE_CURRENT));
+                  Intent editIntent = new Intent(this, ExpenseEdit.class)
+                      .putExtra(MyApplication.KEY_NOTIFICATION_ID, notificationId)
+                      .putExtra(KEY_TEMPLATEID, template.getId())
+                      .putExtra(KEY_INSTANCEID, instanceId);
+                  final boolean useDateFromPlan = "noon".equals(prefHandler.getString(PrefKey.PLANNER_MANUAL_TIME, "noon"));
+                  if (useDateFromPlan) {
+                      editIntent.putExtra(KEY_DATE, date);
+                  }
+                  resultIntent = PendingIntent.getActivity(this, notificationId, editIntent, FLAG_UPDATE_CURRENT);
+                  builder.addAction(
+                      android.R.drawable.ic_menu_edit,
+                      R.drawable.ic_menu_edit,
+                      getString(R.string.menu_edit),
+                      resultIntent);
+                  Intent applyIntent = new Intent(this, PlanNotificationClickHandler.class);
+                  applyIntent.setAction(ACTION_APPLY)
+                      .putExtra(MyApplication.KEY_NOTIFICATION_ID, notificationId)
+                      .putExtra(KEY_TITLE, title)
+                      .putExtra(KEY_TEMPLATEID, template.getId())
+                      .putExtra(KEY_INSTANCEID, instanceId);
+                  if (useDateFromPlan) {
+                    applyIntent.putExtra(KEY_DATE, date);
+                  }
+                  builder.addAction(
+                      android.R.drawable.ic_menu_save,
+                      R.drawable.ic_menu_save,
+                      getString(R.string.menu_apply_template),
+                      PendingIntent.getService(this, notificationId, applyIntent, FLAG_UPDATE_CURRENT));
+                  builder.setContentIntent(resultIntent);
+                  notification = builder.build();
+                  notification.flags |= Notification.FLAG_NO_CLEAR;
                 }
+                notificationManager.notify(notificationId, notification);
               } else {
-                log(template == null ? "Template.getInstanceForPlanIfInstanceIsOpen returned null, instance might already have been dealt with" : "Plan refers to a closed account or debt");
+                log("Account of template %d not found", template.getId());
               }
-              cursor.moveToNext();
+            } else {
+              log("Instance is not ready yet (%d days in the future), advance execution is %d", diff, template.getPlanExecutionAdvance());
             }
+          } else {
+            log(template == null ? "No open instance of a template found, instance might already have been dealt with" : "Plan refers to a closed account or debt");
           }
-          cursor.close();
         }
 
         prefHandler.putLong(PrefKey.PLANNER_LAST_EXECUTION_TIMESTAMP, nowMillis);
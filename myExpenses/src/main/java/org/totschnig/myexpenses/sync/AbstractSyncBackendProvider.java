@@ -7,11 +7,11 @@ import android.net.Uri;
 import android.provider.Settings;
 import android.text.TextUtils;
 import android.util.Base64;
+import android.util.SparseArray;
 import android.webkit.MimeTypeMap;
 
 import com.annimon.stream.Exceptional;
 import com.annimon.stream.Optional;
-import com.annimon.stream.Stream;
 import com.google.gson.Gson;
 import com.google.gson.GsonBuilder;
 
@@ -24,6 +24,7 @@ import org.totschnig.myexpenses.model.Model;
 import org.totschnig.myexpenses.sync.json.AccountMetaData;
 import org.totschnig.myexpenses.sync.json.AdapterFactory;
 import org.totschnig.myexpenses.sync.json.ChangeSet;
+import org.totschnig.myexpenses.sync.json.ChangeSetCodec;
 import org.totschnig.myexpenses.sync.json.TransactionChange;
 import org.totschnig.myexpenses.util.PictureDirHelper;
 import org.totschnig.myexpenses.util.Utils;
@@ -32,17 +33,24 @@ import org.totschnig.myexpenses.util.io.FileCopyUtils;
 
 import java.io.BufferedReader;
 import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
 import java.io.File;
 import java.io.FileNotFoundException;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.InputStreamReader;
+import java.io.InterruptedIOException;
 import java.io.OutputStream;
 import java.security.GeneralSecurityException;
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.List;
 import java.util.ListIterator;
 import java.util.Locale;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 import java.util.concurrent.TimeUnit;
 import java.util.regex.Pattern;
 
@@ -52,7 +60,6 @@ import dagger.internal.Preconditions;
 import timber.log.Timber;
 
 import static org.totschnig.myexpenses.sync.SyncAdapter.LOCK_TIMEOUT_MINUTES;
-import static org.totschnig.myexpenses.sync.json.Utils.getChanges;
 
 abstract class AbstractSyncBackendProvider implements SyncBackendProvider {
   static final String KEY_LOCK_TOKEN = "lockToken";
@@ -64,7 +71,14 @@ abstract class AbstractSyncBackendProvider implements SyncBackendProvider {
   private static final String KEY_TIMESTAMP = "timestamp";
   private static final long LOCK_TIMEOUT_MILLIS = TimeUnit.MINUTES.toMillis(LOCK_TIMEOUT_MINUTES);
   protected static final String ENCRYPTION_TOKEN_FILE_NAME = "ENCRYPTION_TOKEN";
+  /**
+   * holds the highest {@link ChangeSetCodec} version that all devices syncing the account can
+   * read, if missing, change sets are written in the legacy format
+   */
+  static final String CHANGE_SET_FORMAT_FILE_NAME = "CHANGE_SET_FORMAT";
   private static final String MIME_TYPE_OCTET_STREAM = "application/octet-stream";
+  static final int CHANGE_SET_FETCH_PARALLELISM = 4;
+  static final int PICTURE_FETCH_PARALLELISM = 4;
 
   /**
    * this holds the uuid of the db account which data is currently synced
@@ -77,6 +91,9 @@ abstract class AbstractSyncBackendProvider implements SyncBackendProvider {
   private String appInstance;
   @Nullable
   private String encryptionPassword;
+  private final Object pictureTargetLock = new Object();
+  @Nullable
+  private Boolean compressedChangeSets;
 
   AbstractSyncBackendProvider(Context context) {
     this.context = context;
@@ -105,8 +122,45 @@ abstract class AbstractSyncBackendProvider implements SyncBackendProvider {
     return isEncrypted() ? "enc" : "json";
   }
 
+  /**
+   * change sets in the compressed format of {@link ChangeSetCodec}, legacy change sets carry the
+   * extension of {@link #getExtensionForData()}
+   */
+  private String getExtensionForChangeSets() {
+    return isEncrypted() ? "encz" : "jsonz";
+  }
+
   public void setAccountUuid(Account account) {
     this.accountUuid = account.getUuid();
+    compressedChangeSets = null;
+  }
+
+  /**
+   * Versions before {@link ChangeSetCodec#VERSION} do not see compressed change sets and would
+   * reuse their sequence numbers, hence they are only written once {@link #enableCompressedChangeSets()}
+   * has recorded in the account folder that all devices syncing it have been updated. Once the
+   * marker exists, every device that reads it writes compressed change sets.
+   */
+  private boolean useCompressedChangeSets() throws IOException {
+    if (compressedChangeSets == null) {
+      String version = readFileContentsFromAccountDir(CHANGE_SET_FORMAT_FILE_NAME);
+      try {
+        compressedChangeSets = version != null && Integer.parseInt(version.trim()) >= ChangeSetCodec.VERSION;
+      } catch (NumberFormatException e) {
+        log().w(e);
+        compressedChangeSets = false;
+      }
+    }
+    return compressedChangeSets;
+  }
+
+  @Override
+  public void enableCompressedChangeSets() throws IOException {
+    if (!useCompressedChangeSets()) {
+      saveFileContentsToAccountDir(null, CHANGE_SET_FORMAT_FILE_NAME, String.valueOf(ChangeSetCodec.VERSION),
+          "text/plain", false);
+      compressedChangeSets = true;
+    }
   }
 
   @NonNull
@@ -194,13 +248,13 @@ abstract class AbstractSyncBackendProvider implements SyncBackendProvider {
     return false;
   }
 
+  /**
+   * Parses the change set without resolving pictures, which is done by {@link #readChangeSets}
+   */
   @NonNull
   ChangeSet getChangeSetFromInputStream(SequenceNumber sequenceNumber, InputStream inputStream)
       throws IOException {
-    List<TransactionChange> changes;
-    try (BufferedReader reader = new BufferedReader(new InputStreamReader(maybeDecrypt(inputStream)))) {
-      changes = getChanges(gson, reader);
-    }
+    List<TransactionChange> changes = ChangeSetCodec.read(gson, maybeDecrypt(inputStream));
     if (changes == null || changes.size() == 0) {
       return ChangeSet.empty(sequenceNumber);
     }
@@ -209,35 +263,143 @@ abstract class AbstractSyncBackendProvider implements SyncBackendProvider {
       if (transactionChange.isEmpty()) {
         log().w("found empty transaction change in json");
         iterator.remove();
-      } else {
-        iterator.set(mapPictureDuringRead(transactionChange));
-        if (transactionChange.splitParts() != null) {
-          for (ListIterator<TransactionChange> jterator = transactionChange.splitParts().listIterator();
-               jterator.hasNext(); ) {
-            TransactionChange splitPart = jterator.next();
-            jterator.set(mapPictureDuringRead(splitPart));
+      }
+    }
+    return ChangeSet.create(sequenceNumber, changes);
+  }
+
+  protected interface ChangeSetReader<T> {
+    @NonNull
+    ChangeSet read(T source) throws IOException;
+  }
+
+  /**
+   * Downloads, decrypts and parses the change sets from sources on up to
+   * {@link #CHANGE_SET_FETCH_PARALLELISM} threads. As soon as a change set is parsed, the pictures
+   * it references are downloaded on a separate pool, so that change sets and pictures are fetched
+   * concurrently. The change sets are merged in sequence order.
+   */
+  protected <T> Optional<ChangeSet> readChangeSets(List<T> sources, ChangeSetReader<T> reader) throws IOException {
+    if (sources.isEmpty()) {
+      return Optional.empty();
+    }
+    ExecutorService fetchExecutor = Executors.newFixedThreadPool(Math.min(CHANGE_SET_FETCH_PARALLELISM, sources.size()));
+    ExecutorService pictureExecutor = Executors.newFixedThreadPool(PICTURE_FETCH_PARALLELISM);
+    try {
+      List<Future<PendingChangeSet>> pending = new ArrayList<>(sources.size());
+      for (T source : sources) {
+        pending.add(fetchExecutor.submit(() -> {
+          ChangeSet changeSet = reader.read(source);
+          SparseArray<Future<TransactionChange>> pictures = new SparseArray<>();
+          for (int i = 0; i < changeSet.changes.size(); i++) {
+            TransactionChange change = changeSet.changes.get(i);
+            if (hasPicture(change)) {
+              pictures.put(i, pictureExecutor.submit(() -> mapPicturesDuringRead(change)));
+            }
           }
+          return new PendingChangeSet(changeSet, pictures);
+        }));
+      }
+      List<ChangeSet> changeSets = new ArrayList<>(sources.size());
+      for (Future<PendingChangeSet> future : pending) {
+        PendingChangeSet pendingChangeSet = await(future);
+        List<TransactionChange> changes = pendingChangeSet.changeSet.changes;
+        for (int i = 0; i < pendingChangeSet.pictures.size(); i++) {
+          changes.set(pendingChangeSet.pictures.keyAt(i), await(pendingChangeSet.pictures.valueAt(i)));
         }
+        changeSets.add(pendingChangeSet.changeSet);
       }
+      //backends do not guarantee that folder members are listed in sequence order
+      Collections.sort(changeSets, (o1, o2) -> {
+        int result = Utils.compare(o1.sequenceNumber.shard, o2.sequenceNumber.shard);
+        return result != 0 ? result : Utils.compare(o1.sequenceNumber.number, o2.sequenceNumber.number);
+      });
+      return merge(changeSets);
+    } finally {
+      fetchExecutor.shutdownNow();
+      pictureExecutor.shutdownNow();
     }
-    return ChangeSet.create(sequenceNumber, changes);
+  }
+
+  private static class PendingChangeSet {
+    final ChangeSet changeSet;
+    /**
+     * maps positions in changeSet to the change with its pictures downloaded
+     */
+    final SparseArray<Future<TransactionChange>> pictures;
+
+    PendingChangeSet(ChangeSet changeSet, SparseArray<Future<TransactionChange>> pictures) {
+      this.changeSet = changeSet;
+      this.pictures = pictures;
+    }
+  }
+
+  private static <V> V await(Future<V> future) throws IOException {
+    try {
+      return future.get();
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new InterruptedIOException();
+    } catch (ExecutionException e) {
+      Throwable cause = e.getCause();
+      if (cause instanceof IOException) {
+        throw (IOException) cause;
+      }
+      if (cause instanceof RuntimeException) {
+        throw (RuntimeException) cause;
+      }
+      throw new IOException(cause);
+    }
+  }
+
+  private static boolean hasPicture(TransactionChange transactionChange) {
+    if (transactionChange.pictureUri() != null) {
+      return true;
+    }
+    if (transactionChange.splitParts() != null) {
+      for (TransactionChange splitPart : transactionChange.splitParts()) {
+        if (splitPart.pictureUri() != null) {
+          return true;
+        }
+      }
+    }
+    return false;
+  }
+
+  private TransactionChange mapPicturesDuringRead(TransactionChange transactionChange) throws IOException {
+    TransactionChange result = mapPictureDuringRead(transactionChange);
+    if (result.splitParts() != null) {
+      List<TransactionChange> splitParts = new ArrayList<>(result.splitParts());
+      for (ListIterator<TransactionChange> iterator = splitParts.listIterator(); iterator.hasNext(); ) {
+        iterator.set(mapPictureDuringRead(iterator.next()));
+      }
+      result = result.toBuilder().setSplitParts(splitParts).build();
+    }
+    return result;
   }
 
   private TransactionChange mapPictureDuringRead(TransactionChange transactionChange) throws IOException {
     if (transactionChange.pictureUri() != null) {
-      Uri homeUri = PictureDirHelper.getOutputMediaUri(false);
-      if (homeUri == null) {
-        throw new IOException("Unable to write picture");
+      Uri homeUri;
+      OutputStream output;
+      //file names are derived from the current time and only made unique by checking for existing
+      //files, hence we create the file before the next concurrent download picks its name
+      synchronized (pictureTargetLock) {
+        homeUri = PictureDirHelper.getOutputMediaUri(false);
+        if (homeUri == null) {
+          throw new IOException("Unable to write picture");
+        }
+        output = MyApplication.getInstance().getContentResolver()
+            .openOutputStream(homeUri);
       }
-      InputStream input = getInputStreamForPicture(transactionChange.pictureUri());
-      OutputStream output = MyApplication.getInstance().getContentResolver()
-          .openOutputStream(homeUri);
       if (output == null) {
         throw new IOException("Unable to write picture");
       }
-      FileCopyUtils.copy(maybeDecrypt(input), output);
-      input.close();
-      output.close();
+      try (InputStream input = maybeDecrypt(getInputStreamForPicture(transactionChange.pictureUri()))) {
+        FileCopyUtils.copy(input, output);
+      } finally {
+        output.close();
+      }
       return transactionChange.toBuilder().setPictureUri(homeUri.toString()).build();
     }
     return transactionChange;
@@ -267,12 +429,13 @@ abstract class AbstractSyncBackendProvider implements SyncBackendProvider {
   boolean isNewerJsonFile(int sequenceNumber, String name) {
     String fileName = getNameWithoutExtension(name);
     String fileExtension = getFileExtension(name);
-    return fileExtension.equals(getExtensionForData()) && FILE_PATTERN.matcher(fileName).matches() &&
+    return (fileExtension.equals(getExtensionForChangeSets()) || fileExtension.equals(getExtensionForData())) &&
+        FILE_PATTERN.matcher(fileName).matches() &&
         Integer.parseInt(fileName.substring(1)) > sequenceNumber;
   }
 
-  protected Optional<ChangeSet> merge(List<ChangeSet> changeSetStream) {
-    return Stream.of(changeSetStream).reduce(ChangeSet::merge);
+  protected Optional<ChangeSet> merge(List<ChangeSet> changeSets) {
+    return Optional.ofNullable(ChangeSet.mergeAll(changeSets));
   }
 
   int getSequenceFromFileName(String fileName) {
@@ -335,11 +498,18 @@ abstract class AbstractSyncBackendProvider implements SyncBackendProvider {
       }
       changeSetMutable.set(i, mappedChange);
     }
-    String fileName = String.format(Locale.ROOT, "_%d.%s", nextSequence.number, getExtensionForData());
-    String fileContents = gson.toJson(changeSetMutable);
-    log().i("Writing to %s", fileName);
-    log().i(fileContents);
-    saveFileContentsToAccountDir(nextSequence.shard == 0 ? null : "_" + nextSequence.shard, fileName, fileContents, getMimeTypeForData(), true);
+    boolean compressed = useCompressedChangeSets();
+    String fileName = String.format(Locale.ROOT, "_%d.%s", nextSequence.number,
+        compressed ? getExtensionForChangeSets() : getExtensionForData());
+    ByteArrayOutputStream contents = new ByteArrayOutputStream();
+    if (compressed) {
+      ChangeSetCodec.write(gson, changeSetMutable, maybeEncrypt(contents));
+    } else {
+      ChangeSetCodec.writeLegacy(gson, changeSetMutable, maybeEncrypt(contents));
+    }
+    log().i("Writing %d changes (%d bytes) to %s", changeSetMutable.size(), contents.size(), fileName);
+    saveBytesToAccountDir(nextSequence.shard == 0 ? null : "_" + nextSequence.shard, fileName, contents.toByteArray(),
+        compressed ? MIME_TYPE_OCTET_STREAM : getMimeTypeForData());
     return nextSequence;
   }
 
@@ -367,6 +537,11 @@ abstract class AbstractSyncBackendProvider implements SyncBackendProvider {
 
   abstract void saveFileContentsToAccountDir(@Nullable String folder, String fileName, String fileContents, String mimeType, boolean maybeEncrypt) throws IOException;
 
+  /**
+   * @param contents are stored as is, i.e. already encrypted if backend is configured with encryption
+   */
+  abstract void saveBytesToAccountDir(@Nullable String folder, String fileName, byte[] contents, String mimeType) throws IOException;
+
   abstract void saveFileContentsToBase(String fileName, String fileContents, String mimeType, boolean maybeEncrypt) throws IOException;
 
   void createWarningFile() {
@@ -381,6 +556,13 @@ abstract class AbstractSyncBackendProvider implements SyncBackendProvider {
 
   protected abstract String getExistingLockToken() throws IOException;
 
+  /**
+   * @return the unencrypted contents of fileName in the folder of the current account, or null if
+   * it does not exist
+   */
+  @Nullable
+  protected abstract String readFileContentsFromAccountDir(String fileName) throws IOException;
+
   protected abstract void writeLockToken(String lockToken) throws IOException;
 
   @Override
@@ -26,6 +26,7 @@ import org.totschnig.myexpenses.util.Preconditions;
 import org.totschnig.myexpenses.util.Utils;
 import org.totschnig.myexpenses.util.io.StreamReader;
 
+import java.io.ByteArrayInputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.util.ArrayList;
@@ -173,6 +174,15 @@ public class DropboxBackendProvider extends AbstractSyncBackendProvider {
     return null;
   }
 
+  @Override
+  protected String readFileContentsFromAccountDir(String fileName) throws IOException {
+    String resourcePath = getResourcePath(fileName);
+    if (exists(resourcePath)) {
+      return new StreamReader(getInputStream(resourcePath)).read();
+    }
+    return null;
+  }
+
   private InputStream getInputStream(String resourcePath) throws IOException {
     try {
       return mDbxClient.files().download(resourcePath).getInputStream();
@@ -203,11 +213,7 @@ public class DropboxBackendProvider extends AbstractSyncBackendProvider {
   @NonNull
   @Override
   public Optional<ChangeSet> getChangeSetSince(SequenceNumber sequenceNumber, Context context) throws IOException {
-    List<ChangeSet> changeSetList = new ArrayList<>();
-    for (Pair<Integer, Metadata> integerMetadataPair: filterMetadata(sequenceNumber)) {
-      changeSetList.add(getChangeSetFromMetadata(integerMetadataPair));
-    }
-    return merge(changeSetList);
+    return readChangeSets(filterMetadata(sequenceNumber), this::getChangeSetFromMetadata);
   }
 
   @NonNull
@@ -309,15 +315,22 @@ public class DropboxBackendProvider extends AbstractSyncBackendProvider {
 
   @Override
   void saveFileContentsToAccountDir(String folder, String fileName, String fileContents, String mimeType, boolean maybeEncrypt) throws IOException {
-    String path;
+    saveInputStream(getAccountFolderPath(folder) + "/" + fileName, toInputStream(fileContents, maybeEncrypt));
+  }
+
+  @Override
+  void saveBytesToAccountDir(String folder, String fileName, byte[] contents, String mimeType) throws IOException {
+    saveInputStream(getAccountFolderPath(folder) + "/" + fileName, new ByteArrayInputStream(contents));
+  }
+
+  private String getAccountFolderPath(@Nullable String folder) throws IOException {
     final String accountPath = getAccountPath();
     if (folder == null) {
-      path = accountPath;
-    } else {
-      path = accountPath + "/" + folder;
-      requireFolder(path);
+      return accountPath;
     }
-    saveInputStream(path + "/" + fileName, toInputStream(fileContents, maybeEncrypt));
+    String path = accountPath + "/" + folder;
+    requireFolder(path);
+    return path;
   }
 
   @Override
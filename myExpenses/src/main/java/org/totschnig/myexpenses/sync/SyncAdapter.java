@@ -36,6 +36,7 @@ import org.totschnig.myexpenses.activity.ManageSyncBackends;
 import org.totschnig.myexpenses.model.CurrencyContext;
 import org.totschnig.myexpenses.preference.PrefKey;
 import org.totschnig.myexpenses.provider.DatabaseConstants;
+import org.totschnig.myexpenses.provider.LabelIdCache;
 import org.totschnig.myexpenses.provider.TransactionProvider;
 import org.totschnig.myexpenses.service.SyncNotificationDismissHandler;
 import org.totschnig.myexpenses.sync.json.AccountMetaData;
@@ -130,7 +131,7 @@ public class SyncAdapter extends AbstractThreadedSyncAdapter {
       notificationContent.remove(account.hashCode());
       return;
     }
-    syncDelegate = new SyncDelegate(getCurrencyConext());
+    syncDelegate = new SyncDelegate(getCurrencyConext(), getLabelIdCache());
     String uuidFromExtras = extras.getString(KEY_UUID);
     int notificationId = account.hashCode();
     if (notificationContent.get(notificationId) == null) {
@@ -138,6 +139,7 @@ public class SyncAdapter extends AbstractThreadedSyncAdapter {
     }
 
     shouldNotify = getBooleanSetting(provider, PrefKey.SYNC_NOTIFICATION, true);
+    final boolean compressedChangeSets = getBooleanSetting(provider, PrefKey.SYNC_COMPRESSED_CHANGE_SETS, false);
 
     if (getBooleanSetting(provider, PrefKey.SYNC_WIFI_ONLY, false) && !isConnectedWifi(getContext())) {
       final String message = getContext().getString(R.string.wifi_not_connected);
@@ -276,6 +278,9 @@ public class SyncAdapter extends AbstractThreadedSyncAdapter {
           appendToNotification(getContext().getString(R.string.synchronization_start, instanceFromDb.getLabel()), account, true);
           try {
             backend.withAccount(instanceFromDb);
+            if (compressedChangeSets) {
+              backend.enableCompressedChangeSets();
+            }
           } catch (IOException e) {
             log().w(e);
             if (handleAuthException(backend, e, account)) {
@@ -359,7 +364,7 @@ public class SyncAdapter extends AbstractThreadedSyncAdapter {
               }
 
               if (localChanges.size() > 0) {
-                localChanges = syncDelegate.collectSplits(localChanges);
+                localChanges = syncDelegate.collectSplits(syncDelegate.compactLocalChanges(localChanges));
               }
 
               Pair<List<TransactionChange>, List<TransactionChange>> mergeResult =
@@ -423,12 +428,17 @@ public class SyncAdapter extends AbstractThreadedSyncAdapter {
       }
       cursor.close();
     }
+    log().i("%s", getLabelIdCache());
   }
 
   private CurrencyContext getCurrencyConext() {
     return ((MyApplication) getContext().getApplicationContext()).getAppComponent().currencyContext();
   }
 
+  private LabelIdCache getLabelIdCache() {
+    return ((MyApplication) getContext().getApplicationContext()).getAppComponent().labelIdCache();
+  }
+
   private boolean updateAccountFromMetadata(ContentProviderClient provider, AccountMetaData accountMetaData) throws RemoteException, OperationApplicationException {
     ArrayList<ContentProviderOperation> ops = new ArrayList<>();
     ops.add(TransactionProvider.pauseChangeTrigger());
@@ -62,6 +62,12 @@ public interface SyncBackendProvider {
 
   Exceptional<AccountMetaData> readAccountMetaData();
 
+  /**
+   * records in the folder of the current account that change sets are to be written in the
+   * compressed format, which devices running older versions do not read
+   */
+  void enableCompressedChangeSets() throws IOException;
+
   class SyncParseException extends Exception {
     SyncParseException(Exception e) {
       super(e.getMessage(), e);
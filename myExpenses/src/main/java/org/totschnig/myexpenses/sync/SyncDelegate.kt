@@ -23,18 +23,22 @@ import org.totschnig.myexpenses.model.Transfer
 import org.totschnig.myexpenses.model.extractTagIds
 import org.totschnig.myexpenses.model.saveTagLinks
 import org.totschnig.myexpenses.provider.DatabaseConstants
+import org.totschnig.myexpenses.provider.LabelIdCache
 import org.totschnig.myexpenses.provider.TransactionProvider
 import org.totschnig.myexpenses.sync.json.TransactionChange
 import org.totschnig.myexpenses.util.Utils
 import org.totschnig.myexpenses.util.crashreporting.CrashHandler
 import java.util.*
 
-class SyncDelegate @JvmOverloads constructor(val currencyContext: CurrencyContext, val resolver: (accountId: Long, transactionUUid: String) -> Long = Transaction::findByAccountAndUuid) {
+class SyncDelegate @JvmOverloads constructor(
+        val currencyContext: CurrencyContext,
+        labelIdCache: LabelIdCache = LabelIdCache(),
+        val resolver: (accountId: Long, transactionUUid: String) -> Long = Transaction::findByAccountAndUuid) {
 
-    private val categoryToId: MutableMap<String, Long> = HashMap()
-    private val payeeToId: MutableMap<String, Long> = HashMap()
-    private val methodToId: MutableMap<String, Long> = HashMap()
-    private val tagToId: MutableMap<String, Long> = HashMap()
+    private val categoryToId: MutableMap<String, Long> = labelIdCache.categories
+    private val payeeToId: MutableMap<String, Long> = labelIdCache.payees
+    private val methodToId: MutableMap<String, Long> = labelIdCache.methods
+    private val tagToId: MutableMap<String, Long> = labelIdCache.tags
     private val accountUuidToId: MutableMap<String, Long> = HashMap()
 
     lateinit var account: Account
@@ -97,6 +101,52 @@ class SyncDelegate @JvmOverloads constructor(val currencyContext: CurrencyContex
         return changeList.map { change: TransactionChange -> if (splitsPerUuid.containsKey(change.uuid())) change.toBuilder().setSplitPartsAndValidate(splitsPerUuid[change.uuid()]).build() else change }
     }
 
+    /**
+     * Compacts the local changes before they are written to the backend: for each transaction, a
+     * create followed by updates is collapsed into a single create, and a series of updates into a
+     * single update carrying the merged delta. Changes of a transaction that is created and deleted
+     * within the same change set are dropped altogether, together with those of its split parts.
+     * If a transaction is deleted after being updated, only the delete is kept. A compacted change
+     * takes the position of the first and the time stamp of the last change it replaces. Changes of
+     * other types, and all changes of transactions they reference, are passed through unmodified.
+     */
+    fun compactLocalChanges(changeList: List<TransactionChange>): MutableList<TransactionChange> {
+        val isCrud = { change: TransactionChange -> change.isCreateOrUpdate || change.isDelete }
+        val untouchable = changeList.filterNot(isCrud)
+                .flatMap { listOfNotNull(it.uuid(), it.referenceNumber()) }.toSet()
+        val changesPerUuid = LinkedHashMap<String, MutableList<TransactionChange>>()
+        changeList.filter { isCrud(it) && !untouchable.contains(it.uuid()) }
+                .forEach { change -> changesPerUuid.getOrPut(change.uuid()) { ArrayList() }.add(change) }
+        val dropped = changesPerUuid.filterValues { changes -> changes.any { it.isCreate } && changes.any { it.isDelete } }
+                .keys.toMutableSet()
+        changesPerUuid.forEach { (uuid, changes) ->
+            if (changes.any { dropped.contains(it.parentUuid()) }) {
+                dropped.add(uuid)
+            }
+        }
+        //maps the change whose position is kept to the change replacing it
+        val replacements = IdentityHashMap<TransactionChange, TransactionChange>()
+        changesPerUuid.forEach { (uuid, changes) ->
+            if (!dropped.contains(uuid) && changes.size > 1) {
+                val delete = changes.find { it.isDelete }
+                if (delete != null) {
+                    replacements[delete] = delete
+                } else {
+                    replacements[changes.first()] = mergeUpdates(changes).toBuilder()
+                            .setTimeStamp(changes.last().timeStamp()).build()
+                }
+            }
+        }
+        return changeList.mapNotNullTo(ArrayList()) { change ->
+            when {
+                !isCrud(change) || untouchable.contains(change.uuid()) -> change
+                dropped.contains(change.uuid()) -> null
+                changesPerUuid[change.uuid()]!!.size == 1 -> change
+                else -> replacements[change]
+            }
+        }
+    }
+
     fun mergeChangeSets(
             first: List<TransactionChange>, second: List<TransactionChange>): Pair<List<TransactionChange>, List<TransactionChange>> {
 
@@ -159,11 +209,19 @@ class SyncDelegate @JvmOverloads constructor(val currencyContext: CurrencyContex
             builder.setDate(change.date())
         }
         if (change.valueDate() != null) {
-            builder.setDate(change.valueDate())
+            builder.setValueDate(change.valueDate())
         }
         if (change.amount() != null) {
             builder.setAmount(change.amount())
         }
+        if (change.originalAmount() != null) {
+            builder.setOriginalAmount(change.originalAmount())
+            builder.setOriginalCurrency(change.originalCurrency())
+        }
+        if (change.equivalentAmount() != null) {
+            builder.setEquivalentAmount(change.equivalentAmount())
+            builder.setEquivalentCurrency(change.equivalentCurrency())
+        }
         if (change.label() != null) {
             builder.setLabel(change.label())
         }
@@ -185,6 +243,9 @@ class SyncDelegate @JvmOverloads constructor(val currencyContext: CurrencyContex
         if (change.pictureUri() != null) {
             builder.setPictureUri(change.pictureUri())
         }
+        if (change.tags() != null) {
+            builder.setTags(change.tags())
+        }
         if (change.splitParts() != null) {
             builder.setSplitParts(change.splitParts())
         }
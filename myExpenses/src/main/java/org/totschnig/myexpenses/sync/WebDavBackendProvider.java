@@ -30,6 +30,7 @@ import java.util.List;
 import java.util.Set;
 
 import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
 import androidx.core.util.Pair;
 import at.bitfire.dav4android.DavResource;
 import at.bitfire.dav4android.LockableDavResource;
@@ -120,6 +121,11 @@ public class WebDavBackendProvider extends AbstractSyncBackendProvider {
     return readResourceIfExists(getLockFile());
   }
 
+  @Override
+  protected String readFileContentsFromAccountDir(String fileName) throws IOException {
+    return readResourceIfExists(webDavClient.getResource(fileName, accountUuid));
+  }
+
   @Override
   protected String readEncryptionToken() throws IOException {
     return readResourceIfExists(webDavClient.getResource(ENCRYPTION_TOKEN_FILE_NAME, (String[]) null));
@@ -165,11 +171,7 @@ public class WebDavBackendProvider extends AbstractSyncBackendProvider {
   @NonNull
   @Override
   public Optional<ChangeSet> getChangeSetSince(SequenceNumber sequenceNumber, Context context) throws IOException {
-    List<ChangeSet> changeSetList = new ArrayList<>();
-    for (Pair<Integer, DavResource> davResourcePair: filterDavResources(sequenceNumber)) {
-      changeSetList.add(getChangeSetFromDavResource(davResourcePair));
-    }
-    return merge(changeSetList);
+    return readChangeSets(filterDavResources(sequenceNumber), this::getChangeSetFromDavResource);
   }
 
   @NonNull
@@ -348,6 +350,20 @@ public class WebDavBackendProvider extends AbstractSyncBackendProvider {
 
   @Override
   void saveFileContentsToAccountDir(String folder, String fileName, String fileContents, String mimeType, boolean maybeEncrypt) throws IOException {
+    saveFileContents(fileName, fileContents, mimeType, maybeEncrypt, getAccountFolder(folder));
+  }
+
+  @Override
+  void saveBytesToAccountDir(String folder, String fileName, byte[] contents, String mimeType) throws IOException {
+    LockableDavResource parent = getAccountFolder(folder);
+    try {
+      webDavClient.upload(fileName, RequestBody.create(MediaType.parse(mimeType), contents), parent);
+    } catch (HttpException e) {
+      throw transform(e);
+    }
+  }
+
+  private LockableDavResource getAccountFolder(@Nullable String folder) throws IOException {
     LockableDavResource base = webDavClient.getCollection(accountUuid, (String[]) null);
     LockableDavResource parent;
     if (folder != null) {
@@ -359,8 +375,7 @@ public class WebDavBackendProvider extends AbstractSyncBackendProvider {
     } else {
       parent = base;
     }
-
-    saveFileContents(fileName, fileContents, mimeType, maybeEncrypt, parent);
+    return parent;
   }
 
   private IOException transform(HttpException e) {
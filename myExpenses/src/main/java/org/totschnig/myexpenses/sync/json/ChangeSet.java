@@ -6,6 +6,8 @@ import org.totschnig.myexpenses.sync.SequenceNumber;
 import java.util.ArrayList;
 import java.util.List;
 
+import androidx.annotation.Nullable;
+
 public class ChangeSet {
 
   public final SequenceNumber sequenceNumber;
@@ -35,4 +37,26 @@ public class ChangeSet {
     SequenceNumber max = SequenceNumber.max(changeset1.sequenceNumber, changeset2.sequenceNumber);
     return new ChangeSet(max, changes);
   }
+
+  /**
+   * merges all change sets in one pass, keeping their order
+   * @return null if changeSets is empty
+   */
+  @Nullable
+  public static ChangeSet mergeAll(List<ChangeSet> changeSets) {
+    if (changeSets.isEmpty()) {
+      return null;
+    }
+    int size = 0;
+    for (ChangeSet changeSet : changeSets) {
+      size += changeSet.changes.size();
+    }
+    List<TransactionChange> changes = new ArrayList<>(size);
+    SequenceNumber max = changeSets.get(0).sequenceNumber;
+    for (ChangeSet changeSet : changeSets) {
+      changes.addAll(changeSet.changes);
+      max = SequenceNumber.max(max, changeSet.sequenceNumber);
+    }
+    return new ChangeSet(max, changes);
+  }
 }
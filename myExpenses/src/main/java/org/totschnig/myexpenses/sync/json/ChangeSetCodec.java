@@ -0,0 +1,124 @@
+package org.totschnig.myexpenses.sync.json;
+
+import com.google.gson.Gson;
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonWriter;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.PushbackInputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+import androidx.annotation.Nullable;
+
+/**
+ * Change set files of {@link #VERSION} hold the gzip compressed JSON object
+ * {"version":2,"changes":[...]}, which is written and read one {@link TransactionChange} at a time.
+ * Legacy files hold the uncompressed JSON array of changes; they are recognized by the absence of
+ * the gzip magic header.
+ */
+public class ChangeSetCodec {
+  public static final int VERSION = 2;
+  private static final String KEY_VERSION = "version";
+  private static final String KEY_CHANGES = "changes";
+
+  /**
+   * compresses and writes the changes to outputStream, which is closed afterwards
+   */
+  public static void write(Gson gson, List<TransactionChange> changes, OutputStream outputStream) throws IOException {
+    try (JsonWriter writer = new JsonWriter(new BufferedWriter(
+        new OutputStreamWriter(new GZIPOutputStream(outputStream), StandardCharsets.UTF_8)))) {
+      writer.beginObject();
+      writer.name(KEY_VERSION).value(VERSION);
+      writer.name(KEY_CHANGES).beginArray();
+      for (TransactionChange change : changes) {
+        gson.toJson(change, TransactionChange.class, writer);
+      }
+      writer.endArray();
+      writer.endObject();
+    }
+  }
+
+  /**
+   * writes the changes to outputStream as the uncompressed JSON array of the legacy format, that
+   * versions not knowing {@link #VERSION} can read, outputStream is closed afterwards
+   */
+  public static void writeLegacy(Gson gson, List<TransactionChange> changes, OutputStream outputStream) throws IOException {
+    try (JsonWriter writer = new JsonWriter(new BufferedWriter(
+        new OutputStreamWriter(outputStream, StandardCharsets.UTF_8)))) {
+      writer.beginArray();
+      for (TransactionChange change : changes) {
+        gson.toJson(change, TransactionChange.class, writer);
+      }
+      writer.endArray();
+    }
+  }
+
+  /**
+   * reads changes in either format from the (decrypted) inputStream, which is closed afterwards
+   */
+  @Nullable
+  public static List<TransactionChange> read(Gson gson, InputStream inputStream) throws IOException {
+    try (PushbackInputStream in = new PushbackInputStream(inputStream, 2)) {
+      if (isGzip(in)) {
+        return readVersioned(gson, new JsonReader(new BufferedReader(
+            new InputStreamReader(new GZIPInputStream(in), StandardCharsets.UTF_8))));
+      } else {
+        return Utils.getChanges(gson, new BufferedReader(new InputStreamReader(in)));
+      }
+    }
+  }
+
+  private static boolean isGzip(PushbackInputStream in) throws IOException {
+    byte[] header = new byte[2];
+    int read = 0;
+    while (read < 2) {
+      int count = in.read(header, read, 2 - read);
+      if (count == -1) break;
+      read += count;
+    }
+    if (read > 0) {
+      in.unread(header, 0, read);
+    }
+    return read == 2 && (header[0] & 0xff | (header[1] & 0xff) << 8) == GZIPInputStream.GZIP_MAGIC;
+  }
+
+  private static List<TransactionChange> readVersioned(Gson gson, JsonReader reader) throws IOException {
+    List<TransactionChange> changes = new ArrayList<>();
+    reader.beginObject();
+    while (reader.hasNext()) {
+      switch (reader.nextName()) {
+        case KEY_VERSION: {
+          int version = reader.nextInt();
+          if (version > VERSION) {
+            throw new IOException(String.format(Locale.ROOT,
+                "Change set format version %d is not supported", version));
+          }
+          break;
+        }
+        case KEY_CHANGES: {
+          reader.beginArray();
+          while (reader.hasNext()) {
+            changes.add(gson.fromJson(reader, TransactionChange.class));
+          }
+          reader.endArray();
+          break;
+        }
+        default:
+          reader.skipValue();
+      }
+    }
+    reader.endObject();
+    return changes;
+  }
+}
@@ -12,6 +12,7 @@ import org.totschnig.myexpenses.R
 import org.totschnig.myexpenses.export.CsvExporter
 import org.totschnig.myexpenses.export.JSONExporter
 import org.totschnig.myexpenses.export.QifExporter
+import org.totschnig.myexpenses.export.exportInParallel
 import org.totschnig.myexpenses.fragment.BaseTransactionList.KEY_FILTER
 import org.totschnig.myexpenses.model.Account
 import org.totschnig.myexpenses.model.ExportFormat
@@ -105,7 +106,6 @@ class ExportTask(private val taskExecutionFragment: TaskExecutionFragment<*>, ex
                 DbUtils.getLongArrayFromCursor(it, DatabaseConstants.KEY_ROWID)
             } ?: throw IOException("Cursor was null")
         }
-        var account: Account?
         val destDir: DocumentFile
         val appDir = AppDirHelper.getAppDir(application)
         val context = ContextHelper.wrap(
@@ -126,18 +126,18 @@ class ExportTask(private val taskExecutionFragment: TaskExecutionFragment<*>, ex
                 fileName
             )
         }
-        val successfullyExported = ArrayList<Account>()
-        val simpleDateFormat = SimpleDateFormat("yyyMMdd-HHmmss", Locale.US)
-        val now = Date()
-        for (i in accountIds.indices) {
-            account = Account.getInstanceFromDb(accountIds[i])
-            if (account == null) continue
+        val timestamp = SimpleDateFormat("yyyMMdd-HHmmss", Locale.US).format(Date())
+        //when each account is written to its own file, accounts are exported in parallel
+        val exported = exportInParallel(
+            accountIds.asList(),
+            if (oneFile) 1 else EXPORT_PARALLELISM
+        ) { i, accountId ->
+            val account = Account.getInstanceFromDb(accountId) ?: return@exportInParallel null
             publishProgress(account.label + " ...")
             try {
                 val append = mergeP && i > 0
                 val fileNameForAccount = if (oneFile) fileName else String.format(
-                    "%s-%s", Utils.escapeForFileName(account.label),
-                    simpleDateFormat.format(now)
+                    "%s-%s", Utils.escapeForFileName(account.label), timestamp
                 )
                 val exporter = when (format) {
                     ExportFormat.CSV -> CsvExporter(
@@ -169,19 +169,14 @@ class ExportTask(private val taskExecutionFragment: TaskExecutionFragment<*>, ex
                         gson
                     )
                 }
-                val result = exporter.export(context, lazy {
+                exporter.export(context, lazy {
                     Result.success(
                         AppDirHelper.buildFile(
                             destDir, fileNameForAccount, format.mimeType,
                             append, true
                         ) ?: throw createFileFailure(context, destDir, fileName)
                     )
-                }, append)
-                result.onSuccess {
-                    if (PrefKey.PERFORM_SHARE.getBoolean(false)) {
-                        addResult(it)
-                    }
-                    successfullyExported.add(account)
+                }, append).onSuccess {
                     publishProgress(
                         "..." + context.getString(
                             R.string.export_sdcard_success,
@@ -190,7 +185,7 @@ class ExportTask(private val taskExecutionFragment: TaskExecutionFragment<*>, ex
                     )
                 }.onFailure {
                     publishProgress("... " + it.message)
-                }
+                }.getOrNull()?.let { Pair.create(account, it) }
             } catch (e: IOException) {
                 publishProgress(
                     "... " + context.getString(
@@ -199,7 +194,12 @@ class ExportTask(private val taskExecutionFragment: TaskExecutionFragment<*>, ex
                         e.message
                     )
                 )
+                null
             }
+        }.filterNotNull()
+        val successfullyExported = exported.map { it.first }
+        if (PrefKey.PERFORM_SHARE.getBoolean(false)) {
+            exported.forEach { addResult(it.second) }
         }
         for (a in successfullyExported) {
             try {
@@ -233,5 +233,6 @@ class ExportTask(private val taskExecutionFragment: TaskExecutionFragment<*>, ex
         const val KEY_FILE_NAME = "file_name"
         const val KEY_DELIMITER = "export_delimiter"
         const val KEY_MERGE_P = "export_merge_accounts"
+        private const val EXPORT_PARALLELISM = 3
     }
 }
\ No newline at end of file
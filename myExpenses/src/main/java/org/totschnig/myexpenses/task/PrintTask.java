@@ -10,24 +10,35 @@ import org.totschnig.myexpenses.R;
 import org.totschnig.myexpenses.export.pdf.PdfPrinter;
 import org.totschnig.myexpenses.fragment.TransactionList;
 import org.totschnig.myexpenses.model.Account;
+import org.totschnig.myexpenses.model.AggregateAccount;
 import org.totschnig.myexpenses.provider.filter.WhereFilter;
 import org.totschnig.myexpenses.ui.ContextHelper;
 import org.totschnig.myexpenses.util.AppDirHelper;
 import org.totschnig.myexpenses.util.Result;
 
+import java.util.ArrayList;
+import java.util.List;
+
 import androidx.documentfile.provider.DocumentFile;
 import timber.log.Timber;
 
 import static org.totschnig.myexpenses.provider.DatabaseConstants.KEY_ROWID;
 
 public class PrintTask extends AsyncTask<Void, String, Result<Uri>> {
+  /**
+   * if true and {@link org.totschnig.myexpenses.provider.DatabaseConstants#KEY_ROWID} refers to an
+   * aggregate account, each of its accounts is printed on its own into one document
+   */
+  public static final String KEY_PER_ACCOUNT = "perAccount";
   private final TaskExecutionFragment taskExecutionFragment;
   private long accountId;
+  private boolean perAccount;
   private WhereFilter filter;
 
   PrintTask(TaskExecutionFragment taskExecutionFragment, Bundle extras) {
     this.taskExecutionFragment = taskExecutionFragment;
     accountId = extras.getLong(KEY_ROWID);
+    perAccount = extras.getBoolean(KEY_PER_ACCOUNT);
     filter = new WhereFilter(extras.getParcelableArrayList(TransactionList.KEY_FILTER));
   }
 
@@ -58,8 +69,19 @@ public class PrintTask extends AsyncTask<Void, String, Result<Uri>> {
     if (appDir == null) {
       return Result.ofFailure(R.string.external_storage_unavailable);
     }
-    account = Account.getInstanceFromDb(accountId);
     try {
+      account = Account.getInstanceFromDb(accountId);
+      if (perAccount && account instanceof AggregateAccount) {
+        long[] accountIds = ((AggregateAccount) account).getAggregatedAccountIds();
+        List<Account> accounts = new ArrayList<>(accountIds.length);
+        for (long id : accountIds) {
+          Account aggregated = Account.getInstanceFromDb(id);
+          if (aggregated != null) {
+            accounts.add(aggregated);
+          }
+        }
+        return PdfPrinter.printAll(context, accounts, appDir, filter);
+      }
       return new PdfPrinter(account, appDir, filter).print(context);
     } catch (Exception e) {
       Timber.e(e, "Error while printing");
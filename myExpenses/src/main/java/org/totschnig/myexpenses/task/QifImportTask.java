@@ -18,27 +18,31 @@ package org.totschnig.myexpenses.task;
 
 import android.content.ContentResolver;
 import android.content.Context;
+import android.content.OperationApplicationException;
 import android.net.Uri;
 import android.os.AsyncTask;
 import android.os.Bundle;
+import android.os.RemoteException;
 import android.text.TextUtils;
 
 import org.totschnig.myexpenses.MyApplication;
 import org.totschnig.myexpenses.R;
 import org.totschnig.myexpenses.dialog.DialogUtils;
+import org.totschnig.myexpenses.export.CsvImporter;
+import org.totschnig.myexpenses.export.QifImporter;
+import org.totschnig.myexpenses.export.QifLookup;
 import org.totschnig.myexpenses.export.qif.QifAccount;
 import org.totschnig.myexpenses.export.qif.QifBufferedReader;
 import org.totschnig.myexpenses.export.qif.QifCategory;
 import org.totschnig.myexpenses.export.qif.QifDateFormat;
 import org.totschnig.myexpenses.export.qif.QifParser;
-import org.totschnig.myexpenses.export.qif.QifTransaction;
-import org.totschnig.myexpenses.export.qif.QifUtils;
+import org.totschnig.myexpenses.export.qif.QifTransferReducer;
 import org.totschnig.myexpenses.model.Account;
 import org.totschnig.myexpenses.model.ContribFeature;
 import org.totschnig.myexpenses.model.CurrencyUnit;
 import org.totschnig.myexpenses.model.Payee;
-import org.totschnig.myexpenses.model.Transaction;
 import org.totschnig.myexpenses.provider.DatabaseConstants;
+import org.totschnig.myexpenses.provider.LabelIdCache;
 import org.totschnig.myexpenses.provider.TransactionProvider;
 import org.totschnig.myexpenses.ui.ContextHelper;
 import org.totschnig.myexpenses.util.crashreporting.CrashHandler;
@@ -51,24 +55,23 @@ import java.io.IOException;
 import java.io.InputStream;
 import java.io.InputStreamReader;
 import java.util.HashMap;
-import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
 import java.util.concurrent.TimeUnit;
 
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
 import timber.log.Timber;
 
-import static org.totschnig.myexpenses.provider.DatabaseConstants.STATUS_UNCOMMITTED;
-
-public class QifImportTask extends AsyncTask<Void, String, Void> {
+public class QifImportTask extends AsyncTask<Void, String, Void> implements QifLookup {
   private final TaskExecutionFragment taskExecutionFragment;
   private QifDateFormat dateFormat;
   private String encoding;
   private long accountId;
   private int totalCategories = 0;
-  private final Map<String, Long> payeeToId = new HashMap<>();
-  private final Map<String, Long> categoryToId = new HashMap<>();
+  private final Map<String, Long> payeeToId;
+  private final Map<String, Long> categoryToId;
   private final Map<String, QifAccount> accountTitleToAccount = new HashMap<>();
   Uri fileUri;
   /**
@@ -88,6 +91,9 @@ public class QifImportTask extends AsyncTask<Void, String, Void> {
     this.withTransactionsP = b.getBoolean(TaskExecutionFragment.KEY_WITH_TRANSACTIONS);
     this.currencyUnit = (CurrencyUnit) b.getSerializable(DatabaseConstants.KEY_CURRENCY);
     this.encoding = b.getString(TaskExecutionFragment.KEY_ENCODING);
+    LabelIdCache labelIdCache = MyApplication.getInstance().getAppComponent().labelIdCache();
+    this.payeeToId = labelIdCache.getPayees();
+    this.categoryToId = labelIdCache.getCategories();
   }
 
   @Override
@@ -112,26 +118,15 @@ public class QifImportTask extends AsyncTask<Void, String, Void> {
     final MyApplication application = MyApplication.getInstance();
     final Context context = ContextHelper.wrap(application, application.getAppComponent().userLocaleProvider().getUserPreferredLocale());
     long t0 = System.currentTimeMillis();
-    QifBufferedReader r;
-    QifParser parser;
     ContentResolver contentResolver = application.getContentResolver();
-    try {
-      InputStream inputStream = contentResolver.openInputStream(fileUri);
-      r = new QifBufferedReader(
-          new BufferedReader(
-              new InputStreamReader(
-                  inputStream,
-                  encoding)));
-    } catch (FileNotFoundException e) {
-      publishProgress(context.getString(R.string.parse_error_file_not_found, fileUri));
-      return null;
-    } catch (Exception e) {
-      publishProgress(context.getString(R.string.parse_error_other_exception, e.getMessage()));
+    QifBufferedReader r = openReader(contentResolver, context);
+    if (r == null) {
       return null;
     }
-    parser = new QifParser(r, dateFormat, currencyUnit);
+    QifParser parser = new QifParser(r, dateFormat, currencyUnit);
+    QifTransferReducer transferReducer = new QifTransferReducer();
     try {
-      parser.parse();
+      parser.scan(transferReducer);
       long t1 = System.currentTimeMillis();
       Timber.i("QIF Import: Parsing done in %d s", TimeUnit.MILLISECONDS.toSeconds(t1 - t0));
       publishProgress(MyApplication.getInstance()
@@ -141,19 +136,47 @@ public class QifImportTask extends AsyncTask<Void, String, Void> {
               String.valueOf(parser.categories.size()),
               String.valueOf(parser.payees.size())));
       contentResolver.call(TransactionProvider.DUAL_URI, TransactionProvider.METHOD_BULK_START, null, null);
-      doImport(parser, context);
-      contentResolver.call(TransactionProvider.DUAL_URI, TransactionProvider.METHOD_BULK_END, null, null);
+      try {
+        doImport(parser, transferReducer, contentResolver, context);
+      } finally {
+        contentResolver.call(TransactionProvider.DUAL_URI, TransactionProvider.METHOD_BULK_END, null, null);
+      }
       return (null);
     } catch (IOException | IllegalArgumentException e) {
       publishProgress(MyApplication.getInstance()
           .getString(R.string.parse_error_other_exception, e.getMessage()));
       return null;
     } finally {
-      try {
-        r.close();
-      } catch (IOException e) {
-        Timber.e(e);
-      }
+      close(r);
+    }
+  }
+
+  /**
+   * the file is read twice, first for collecting accounts, categories, payees and transfers, then
+   * for streaming transactions into the database
+   */
+  @Nullable
+  private QifBufferedReader openReader(ContentResolver contentResolver, Context context) {
+    try {
+      InputStream inputStream = contentResolver.openInputStream(fileUri);
+      return new QifBufferedReader(
+          new BufferedReader(
+              new InputStreamReader(
+                  inputStream,
+                  encoding)));
+    } catch (FileNotFoundException e) {
+      publishProgress(context.getString(R.string.parse_error_file_not_found, fileUri));
+    } catch (Exception e) {
+      publishProgress(context.getString(R.string.parse_error_other_exception, e.getMessage()));
+    }
+    return null;
+  }
+
+  private void close(QifBufferedReader r) {
+    try {
+      r.close();
+    } catch (IOException e) {
+      Timber.e(e);
     }
   }
 
@@ -184,7 +207,8 @@ public class QifImportTask extends AsyncTask<Void, String, Void> {
     return encoding;
   }*/
 
-  private void doImport(QifParser parser, Context context) {
+  private void doImport(QifParser parser, QifTransferReducer transferReducer,
+                        ContentResolver contentResolver, Context context) throws IOException {
     if (withPartiesP) {
       int totalParties = insertPayees(parser.payees);
       publishProgress(totalParties == 0 ?
@@ -226,7 +250,7 @@ public class QifImportTask extends AsyncTask<Void, String, Void> {
               + accountId);
         }
       }
-      insertTransactions(parser.accounts, context);
+      insertTransactions(parser.accounts, transferReducer, contentResolver, context);
     }
   }
 
@@ -296,161 +320,95 @@ public class QifImportTask extends AsyncTask<Void, String, Void> {
     return importCount;
   }
 
-  private void insertTransactions(List<QifAccount> accounts, Context context) {
+  private void insertTransactions(List<QifAccount> accounts, QifTransferReducer transferReducer,
+                                  ContentResolver contentResolver, Context context) throws IOException {
     long t0 = System.currentTimeMillis();
-    reduceTransfers(accounts);
-    long t1 = System.currentTimeMillis();
-    Timber.i("QIF Import: Reducing transfers done in %d s", TimeUnit.MILLISECONDS.toSeconds(t1 - t0));
-    convertUnknownTransfers(accounts);
-    long t2 = System.currentTimeMillis();
-    Timber.i("QIF Import: Converting transfers done in %d s", TimeUnit.MILLISECONDS.toSeconds(t2 - t1));
-    int count = accounts.size();
-    for (int i = 0; i < count; i++) {
-      long t3 = System.currentTimeMillis();
+    Map<String, Integer> accountsByTitle = new HashMap<>();
+    for (int i = 0; i < accounts.size(); i++) {
       QifAccount account = accounts.get(i);
-      Account a = account.dbAccount;
-      int countTransactions = 0;
-      if (a != null) {
-        countTransactions = insertTransactions(a, account.transactions);
-        publishProgress(countTransactions == 0 ?
-            context.getString(R.string.import_transactions_none, a.getLabel()) :
-            context.getString(R.string.import_transactions_success, countTransactions, a.getLabel()));
-      } else {
-        publishProgress("Unable to import into QIF account " + account.memo + ". No matching database account found");
+      if (accountTitleToAccount.get(account.memo) == account) {
+        accountsByTitle.put(account.memo, i);
       }
-      // this might help GC
-      account.transactions.clear();
-      long t4 = System.currentTimeMillis();
-      Timber.i("QIF Import: Inserting %d transactions for account %d/%d done in %d s",
-          countTransactions, i, count, TimeUnit.MILLISECONDS.toSeconds(t4 - t3));
     }
-  }
-
-  private void reduceTransfers(List<QifAccount> accounts) {
-    for (QifAccount fromAccount : accounts) {
-      List<QifTransaction> transactions = fromAccount.transactions;
-      reduceTransfers(fromAccount, transactions);
+    transferReducer.reduce(accounts, accountsByTitle);
+    long t1 = System.currentTimeMillis();
+    Timber.i("QIF Import: Reducing transfers done in %d s", TimeUnit.MILLISECONDS.toSeconds(t1 - t0));
+    QifBufferedReader r = openReader(contentResolver, context);
+    if (r == null) {
+      return;
     }
-  }
-
-  private void reduceTransfers(QifAccount fromAccount,
-                               List<QifTransaction> transactions) {
-    for (QifTransaction fromTransaction : transactions) {
-      if (fromTransaction.isTransfer() && fromTransaction.amount.signum() == -1) {
-        boolean found = false;
-        if (!fromTransaction.toAccount.equals(fromAccount.memo)) {
-          QifAccount toAccount = accountTitleToAccount
-              .get(fromTransaction.toAccount);
-          if (toAccount != null) {
-            Iterator<QifTransaction> iterator = toAccount.transactions
-                .iterator();
-            while (iterator.hasNext()) {
-              QifTransaction toTransaction = iterator.next();
-              if (QifUtils.twoSidesOfTheSameTransfer(fromAccount, fromTransaction,
-                  toAccount, toTransaction)) {
-                iterator.remove();
-                found = true;
-                break;
-              }
+    try {
+      QifImporter importer = new QifImporter(accounts, transferReducer, this, CsvImporter.DEFAULT_CHUNK_SIZE,
+          ops -> {
+            try {
+              return contentResolver.applyBatch(TransactionProvider.AUTHORITY, ops).length;
+            } catch (RemoteException | OperationApplicationException e) {
+              throw new IOException(e);
             }
-          }
-        }
-        if (!found) {
-          convertIntoRegularTransaction(fromTransaction);
-        }
-      }
-      if (fromTransaction.splits != null) {
-        reduceTransfers(fromAccount, fromTransaction.splits);
-      }
+          },
+          (account, count) -> {
+            Account a = account.dbAccount;
+            if (a != null) {
+              publishProgress(count == 0 ?
+                  context.getString(R.string.import_transactions_none, a.getLabel()) :
+                  context.getString(R.string.import_transactions_success, count, a.getLabel()));
+            } else {
+              publishProgress("Unable to import into QIF account " + account.memo + ". No matching database account found");
+            }
+          });
+      new QifParser(r, dateFormat, currencyUnit).stream(importer);
+      importer.finish();
+      Timber.i("QIF Import: Inserting %d transactions done in %d s", importer.getTotalImported(),
+          TimeUnit.MILLISECONDS.toSeconds(System.currentTimeMillis() - t1));
+    } finally {
+      close(r);
     }
   }
 
-  private void convertUnknownTransfers(List<QifAccount> accounts) {
-    for (QifAccount fromAccount : accounts) {
-      List<QifTransaction> transactions = fromAccount.transactions;
-      convertUnknownTransfers(fromAccount, transactions);
-    }
+  @Nullable
+  @Override
+  public Long transferAccountId(@NonNull String title) {
+    Account account = findAccount(title);
+    return account != null ? account.getId() : null;
   }
 
-  private void convertUnknownTransfers(QifAccount fromAccount,
-                                       List<QifTransaction> transactions) {
-    for (QifTransaction transaction : transactions) {
-      if (transaction.isTransfer() && transaction.amount.signum() >= 0) {
-        convertIntoRegularTransaction(transaction);
-      }
-      if (transaction.splits != null) {
-        convertUnknownTransfers(fromAccount, transaction.splits);
-      }
-    }
+  private Account findAccount(String account) {
+    QifAccount a = accountTitleToAccount.get(account);
+    return a != null ? a.dbAccount : null;
   }
 
-  private String prependMemo(String prefix, QifTransaction fromTransaction) {
-    if (TextUtils.isEmpty(fromTransaction.memo)) {
-      return prefix;
-    } else {
-      return prefix + " | " + fromTransaction.memo;
+  /**
+   * payees and categories are looked up in the shared {@link LabelIdCache}, which might have been
+   * cleared after they were inserted, hence we fall back to the database
+   */
+  @Nullable
+  @Override
+  public Long payeeId(@Nullable String payee) {
+    if (!withPartiesP || payee == null) {
+      return null;
     }
-  }
-
-  private void convertIntoRegularTransaction(QifTransaction fromTransaction) {
-    fromTransaction.memo = prependMemo(
-        "Transfer: " + fromTransaction.toAccount, fromTransaction);
-    fromTransaction.toAccount = null;
-  }
-
-  private int insertTransactions(Account a, List<QifTransaction> transactions) {
-    int count = 0;
-    for (QifTransaction transaction : transactions) {
-      Transaction t = transaction.toTransaction(a);
-      t.setPayeeId(findPayee(transaction.payee));
-      // t.projectId = findProject(transaction.categoryClass);
-      findToAccount(transaction, t);
-
-      if (transaction.splits != null) {
-        t.save();
-        for (QifTransaction split : transaction.splits) {
-          Transaction s = split.toTransaction(a);
-          s.setParentId(t.getId());
-          s.setStatus(STATUS_UNCOMMITTED);
-          findToAccount(split, s);
-          findCategory(split, s);
-          s.save();
-        }
-      } else {
-        findCategory(transaction, t);
+    Long id = payeeToId.get(payee);
+    if (id == null) {
+      id = Payee.find(payee);
+      if (id == -1) {
+        return null;
       }
-      t.save(true);
-      count++;
+      payeeToId.put(payee, id);
     }
-    return count;
+    return id;
   }
 
-  private void findToAccount(QifTransaction transaction, Transaction t) {
-    if (transaction.isTransfer()) {
-      Account toAccount = findAccount(transaction.toAccount);
-      if (toAccount != null) {
-        t.setTransferAccountId(toAccount.getId());
-      }
+  @Nullable
+  @Override
+  public Long categoryId(@Nullable String category) {
+    if (!withCategoriesP || category == null) {
+      return null;
     }
-  }
-
-  private Account findAccount(String account) {
-    QifAccount a = accountTitleToAccount.get(account);
-    return a != null ? a.dbAccount : null;
-  }
-
-  public Long findPayee(String payee) {
-    return findIdInAMap(payee, payeeToId);
-  }
-
-  private Long findIdInAMap(String project, Map<String, Long> map) {
-    if (map.containsKey(project)) {
-      return map.get(project);
+    Long id = categoryToId.get(category);
+    if (id == null) {
+      new QifCategory(category, false).insert(categoryToId, false);
+      id = categoryToId.get(category);
     }
-    return null;
-  }
-
-  private void findCategory(QifTransaction transaction, Transaction t) {
-    t.setCatId(categoryToId.get(transaction.category));
+    return id;
   }
 }
\ No newline at end of file
@@ -23,6 +23,7 @@ import org.totschnig.myexpenses.R;
 import org.totschnig.myexpenses.model.Account;
 import org.totschnig.myexpenses.model.Template;
 import org.totschnig.myexpenses.preference.PrefKey;
+import org.totschnig.myexpenses.provider.BackupPictureStoreKt;
 import org.totschnig.myexpenses.provider.BackupUtilsKt;
 import org.totschnig.myexpenses.provider.BaseTransactionDatabaseKt;
 import org.totschnig.myexpenses.provider.DatabaseConstants;
@@ -145,6 +146,8 @@ public class RestoreTask extends AsyncTask<Void, Result, Result> {
           return Result.ofFailure(R.string.backup_is_encrypted);
         }
       }
+      //a manifest left over from a previous restore must not be taken for part of this backup
+      new File(workingDir, BackupPictureStoreKt.BACKUP_MANIFEST_FILE_NAME).delete();
       try {
         ZipUtils.unzip(is, workingDir, isEncrypted ? password : null);
       } catch (IOException e) {
@@ -354,6 +357,14 @@ public class RestoreTask extends AsyncTask<Void, Result, Result> {
 
       //3. move pictures home and update uri
       File backupPictureDir = new File(workingDir, ZipUtils.PICTURES);
+      //incremental backups reference pictures in the picture store instead of holding them
+      File manifestFile = new File(workingDir, BackupPictureStoreKt.BACKUP_MANIFEST_FILE_NAME);
+      if (manifestFile.exists()) {
+        if (!BackupUtilsKt.materializeBackupPictures(application, manifestFile, backupPictureDir, password)) {
+          CrashHandler.report("Backup picture store not found");
+        }
+        manifestFile.delete();
+      }
       Cursor c = cr.query(TransactionProvider.TRANSACTIONS_URI,
           new String[]{KEY_ROWID, DatabaseConstants.KEY_PICTURE_URI, DatabaseConstants.KEY_ACCOUNTID},
           DatabaseConstants.KEY_PICTURE_URI + " IS NOT NULL", null, null);
@@ -11,11 +11,19 @@ import java.math.BigDecimal
 import java.text.DecimalFormat
 import java.text.NumberFormat
 import java.util.*
+import java.util.concurrent.ConcurrentHashMap
 import javax.inject.Inject
 import javax.inject.Singleton
 
 interface ICurrencyFormatter {
     fun formatCurrency(amount: BigDecimal, currency: CurrencyUnit): String
+
+    /**
+     * appends [amount] given in minor units of [currency] to [out]
+     * @return [out]
+     */
+    fun formatCurrency(amount: Long, currency: CurrencyUnit, out: StringBuilder): StringBuilder =
+        out.append(formatCurrency(BigDecimal(amount).movePointLeft(currency.fractionDigits), currency))
 }
 
 object DebugCurrencyFormatter: ICurrencyFormatter {
@@ -39,7 +47,13 @@ fun ICurrencyFormatter.formatMoney(money: Money): String {
  * @return formatted string
  */
 fun ICurrencyFormatter.convAmount(amount: Long, currency: CurrencyUnit): String {
-    return formatMoney(Money(currency, amount))
+    val builder = amountBuilder.get()!!
+    builder.setLength(0)
+    return formatCurrency(amount, currency, builder).toString()
+}
+
+private val amountBuilder = object : ThreadLocal<StringBuilder>() {
+    override fun initialValue() = StringBuilder()
 }
 
 @Singleton
@@ -47,7 +61,9 @@ class CurrencyFormatter @Inject constructor(
     private val prefHandler: PrefHandler,
     private val userLocaleProvider: UserLocaleProvider
 ): ICurrencyFormatter {
-    private val numberFormats: MutableMap<String, NumberFormat> = HashMap()
+    private class CurrencyFormat(val numberFormat: NumberFormat, val minorUnitFormat: MinorUnitFormat?)
+
+    private val numberFormats: MutableMap<String, CurrencyFormat> = ConcurrentHashMap()
     fun invalidate(currency: String, contentResolver: ContentResolver) {
         numberFormats.remove(currency)
         notifyUris(contentResolver)
@@ -79,10 +95,9 @@ class CurrencyFormatter @Inject constructor(
         return NumberFormat.getCurrencyInstance(userLocaleProvider.getUserPreferredLocale())
     }
 
-    private fun getNumberFormat(currencyUnit: CurrencyUnit): NumberFormat {
-        var numberFormat = numberFormats[currencyUnit.code]
-        if (numberFormat == null) {
-            numberFormat = initNumberFormat()
+    private fun getCurrencyFormat(currencyUnit: CurrencyUnit): CurrencyFormat =
+        numberFormats[currencyUnit.code] ?: run {
+            val numberFormat = initNumberFormat()
             val fractionDigits = currencyUnit.fractionDigits
             try {
                 numberFormat.currency = Currency.getInstance(currencyUnit.code)
@@ -96,12 +111,153 @@ class CurrencyFormatter @Inject constructor(
             val decimalFormatSymbols = (numberFormat as DecimalFormat).decimalFormatSymbols
             decimalFormatSymbols.currencySymbol = currencySymbol
             numberFormat.decimalFormatSymbols = decimalFormatSymbols
-            numberFormats[currencyUnit.code] = numberFormat
+            CurrencyFormat(numberFormat, MinorUnitFormat.compile(numberFormat, fractionDigits)).also {
+                numberFormats[currencyUnit.code] = it
+            }
         }
-        return numberFormat
-    }
 
     override fun formatCurrency(amount: BigDecimal, currency: CurrencyUnit): String {
-        return getNumberFormat(currency).format(amount)
+        val numberFormat = getCurrencyFormat(currency).numberFormat
+        //NumberFormat is not thread safe
+        return synchronized(numberFormat) { numberFormat.format(amount) }
+    }
+
+    override fun formatCurrency(amount: Long, currency: CurrencyUnit, out: StringBuilder): StringBuilder {
+        val currencyFormat = getCurrencyFormat(currency)
+        return currencyFormat.minorUnitFormat?.format(amount, out)
+            ?: out.append(synchronized(currencyFormat.numberFormat) {
+                currencyFormat.numberFormat.format(BigDecimal(amount).movePointLeft(currency.fractionDigits))
+            })
+    }
+}
+
+/**
+ * The affixes, symbols and digit counts of a configured [DecimalFormat], which allow to format
+ * amounts given in minor units directly from the long value, without creating a [BigDecimal]
+ * and without locking the [DecimalFormat]. Instances are immutable and can be shared between
+ * threads.
+ */
+class MinorUnitFormat private constructor(
+    private val fractionDigits: Int,
+    private val positivePrefix: String,
+    private val positiveSuffix: String,
+    private val negativePrefix: String,
+    private val negativeSuffix: String,
+    private val zeroDigit: Char,
+    private val groupingSeparator: Char,
+    private val groupingSize: Int,
+    private val decimalSeparator: Char,
+    private val decimalSeparatorAlwaysShown: Boolean,
+    private val minimumIntegerDigits: Int,
+    private val minimumFractionDigits: Int
+) {
+    private val scale = POWERS_OF_TEN[fractionDigits]
+
+    /**
+     * appends [amount] given in minor units to [out]
+     * @return [out], or null if [amount] cannot be formatted by this format
+     */
+    fun format(amount: Long, out: StringBuilder): StringBuilder? {
+        if (amount == Long.MIN_VALUE) return null
+        val negative = amount < 0
+        val absolute = if (negative) -amount else amount
+        val integerPart = absolute / scale
+        var fractionPart = absolute % scale
+        var fractionLength = fractionDigits
+        while (fractionLength > minimumFractionDigits && fractionPart % 10 == 0L) {
+            fractionPart /= 10
+            fractionLength--
+        }
+        out.append(if (negative) negativePrefix else positivePrefix)
+        val integerLength = maxOf(digitCount(integerPart), minimumIntegerDigits)
+        if (integerLength == 0 && fractionLength == 0) {
+            out.append(zeroDigit)
+        } else {
+            for (position in integerLength - 1 downTo 0) {
+                out.append(digitAt(integerPart, position))
+                if (groupingSize > 0 && position > 0 && position % groupingSize == 0) {
+                    out.append(groupingSeparator)
+                }
+            }
+        }
+        if (fractionLength > 0 || decimalSeparatorAlwaysShown) {
+            out.append(decimalSeparator)
+        }
+        for (position in fractionLength - 1 downTo 0) {
+            out.append(digitAt(fractionPart, position))
+        }
+        return out.append(if (negative) negativeSuffix else positiveSuffix)
     }
-}
\ No newline at end of file
+
+    private fun digitAt(value: Long, position: Int) =
+        zeroDigit + ((if (position < POWERS_OF_TEN.size) value / POWERS_OF_TEN[position] else 0L) % 10).toInt()
+
+    companion object {
+        private val POWERS_OF_TEN = LongArray(19).also {
+            it[0] = 1
+            for (i in 1 until it.size) it[i] = it[i - 1] * 10
+        }
+
+        private fun digitCount(value: Long): Int {
+            var count = 0
+            var rest = value
+            while (rest > 0) {
+                count++
+                rest /= 10
+            }
+            return count
+        }
+
+        /**
+         * amounts that are formatted with [numberFormat] and with the compiled format, in order to
+         * make sure that both produce identical output, covering every number of integer digits
+         */
+        private fun probes(fractionDigits: Int) = sequence {
+            yield(0L)
+            val digits = "1234567890123456789"
+            for (length in 1 until digits.length) {
+                val value = digits.substring(0, length).toLong()
+                yield(value)
+                yield(-value)
+                yield(POWERS_OF_TEN[length - 1])
+                yield(-POWERS_OF_TEN[length - 1])
+            }
+            if (fractionDigits < POWERS_OF_TEN.size) {
+                yield(POWERS_OF_TEN[fractionDigits] + 5)
+            }
+        }
+
+        /**
+         * @return a format producing output identical to [numberFormat] for amounts with
+         * [fractionDigits], or null if [numberFormat] uses features not supported by
+         * [MinorUnitFormat] (e.g. a multiplier, exponential notation or secondary grouping)
+         */
+        fun compile(numberFormat: DecimalFormat, fractionDigits: Int): MinorUnitFormat? {
+            if (fractionDigits !in 0 until POWERS_OF_TEN.size || numberFormat.multiplier != 1) return null
+            val symbols = numberFormat.decimalFormatSymbols
+            val isCurrencyFormat = numberFormat.toPattern().contains('\u00A4')
+            val format = MinorUnitFormat(
+                fractionDigits,
+                numberFormat.positivePrefix,
+                numberFormat.positiveSuffix,
+                numberFormat.negativePrefix,
+                numberFormat.negativeSuffix,
+                symbols.zeroDigit,
+                symbols.groupingSeparator,
+                if (numberFormat.isGroupingUsed) numberFormat.groupingSize else 0,
+                if (isCurrencyFormat) symbols.monetaryDecimalSeparator else symbols.decimalSeparator,
+                numberFormat.isDecimalSeparatorAlwaysShown,
+                minOf(numberFormat.minimumIntegerDigits, POWERS_OF_TEN.size),
+                minOf(numberFormat.minimumFractionDigits, fractionDigits)
+            )
+            val builder = StringBuilder()
+            return format.takeIf {
+                probes(fractionDigits).all { amount ->
+                    builder.setLength(0)
+                    format.format(amount, builder)?.toString() ==
+                            numberFormat.format(BigDecimal(amount).movePointLeft(fractionDigits))
+                }
+            }
+        }
+    }
+}
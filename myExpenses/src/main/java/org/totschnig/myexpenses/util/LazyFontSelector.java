@@ -1,6 +1,6 @@
 package org.totschnig.myexpenses.util;
 
-import android.util.SparseArray;
+import android.util.SparseIntArray;
 
 import com.itextpdf.text.BaseColor;
 import com.itextpdf.text.Chunk;
@@ -30,7 +30,6 @@ public class LazyFontSelector {
     INCOME(12, Font.NORMAL, new BaseColor(0xff006800)),
     EXPENSE(12, Font.NORMAL, new BaseColor(0xff800000));
 
-    SparseArray<Font> fonts = new SparseArray<>();
     float size;
     int style;
     BaseColor color;
@@ -40,22 +39,25 @@ public class LazyFontSelector {
       this.style = style;
       this.color = color;
     }
-
-    public Font addFont(int index, BaseFont base) {
-      Font f = new Font(base, size, style, color);
-      fonts.put(index, f);
-      return f;
-    }
-
-    public Font getFont(int index) {
-      return fonts.get(index);
-    }
   }
 
+  private static final int NOT_FOUND = -1;
+  private static final int NOT_LOOKED_UP = -2;
+
   protected File[] files;
   protected ArrayList<BaseFont> baseFonts = new ArrayList<>();
   protected Font currentFont = null;
   protected FontType type;
+  /**
+   * fonts are kept per selector and not in {@link FontType}, so that documents can be generated
+   * concurrently, each with its own selector
+   */
+  private final Font[][] fonts = new Font[FontType.values().length][];
+  /**
+   * index of the first font that has a character, since characters of the same script are found in
+   * the same font, lookups stop after the first few rows
+   */
+  private final SparseIntArray fontIndexForChar = new SparseIntArray();
 
   public LazyFontSelector(File[] files) {
     this.files = files;
@@ -77,7 +79,7 @@ public class LazyFontSelector {
           MessageLocalization.getComposedMessage("no.font.is.defined"));
     char cc[] = text.toCharArray();
     int len = cc.length;
-    StringBuffer sb = new StringBuffer();
+    StringBuilder sb = new StringBuilder(len);
     Phrase ret = new Phrase();
     currentFont = null;
     this.type = type;
@@ -86,6 +88,10 @@ public class LazyFontSelector {
       if (newChunk != null) {
         ret.add(newChunk);
       }
+      if (Utilities.isSurrogatePair(cc, k)) {
+        //low surrogate has been appended together with the high surrogate
+        ++k;
+      }
     }
     if (sb.length() > 0) {
       Chunk ck = new Chunk(sb.toString(), currentFont != null ? currentFont
@@ -95,58 +101,52 @@ public class LazyFontSelector {
     return ret;
   }
 
-  protected Chunk processChar(char[] cc, int k, StringBuffer sb) throws DocumentException, IOException {
+  protected Chunk processChar(char[] cc, int k, StringBuilder sb) throws DocumentException, IOException {
     Chunk newChunk = null;
     char c = cc[k];
     if (c == '\n' || c == '\r') {
       sb.append(c);
     } else {
-      Font font;
-      if (Utilities.isSurrogatePair(cc, k)) {
-        int u = Utilities.convertToUtf32(cc, k);
-        for (int f = 0; f < files.length; ++f) {
-          font = getFont(f);
-          if (font.getBaseFont().charExists(u)
-              || Character.getType(u) == Character.FORMAT) {
-            if (currentFont != font) {
-              if (sb.length() > 0 && currentFont != null) {
-                newChunk = new Chunk(sb.toString(), currentFont);
-                sb.setLength(0);
-              }
-              currentFont = font;
-            }
-            sb.append(c);
-            sb.append(cc[++k]);
-            break;
+      boolean isSurrogatePair = Utilities.isSurrogatePair(cc, k);
+      int u = isSurrogatePair ? Utilities.convertToUtf32(cc, k) : c;
+      int index = findFontIndex(u);
+      if (index != NOT_FOUND) {
+        Font font = getFont(index);
+        if (currentFont != font) {
+          if (sb.length() > 0 && currentFont != null) {
+            newChunk = new Chunk(sb.toString(), currentFont);
+            sb.setLength(0);
           }
+          currentFont = font;
         }
-      } else {
-        boolean found = false;
-        for (int f = 0; f < files.length; ++f) {
-          font = getFont(f);
-          if (font.getBaseFont().charExists(c)
-              || Character.getType(c) == Character.FORMAT) {
-            if (currentFont != font) {
-              if (sb.length() > 0 && currentFont != null) {
-                newChunk = new Chunk(sb.toString(), currentFont);
-                sb.setLength(0);
-              }
-              currentFont = font;
-            }
-            sb.append(c);
-            found = true;
-            //Log.d("MyExpenses","Character " + c + " was found in font " + currentFont.getBaseFont().getPostscriptFontName());
-            break;
-          }
-        }
-        if (!found && BuildConfig.DEBUG) {
-          Timber.d("Character %c was not found in any fonts", c);
+        sb.append(c);
+        if (isSurrogatePair) {
+          sb.append(cc[k + 1]);
         }
+      } else if (BuildConfig.DEBUG) {
+        Timber.d("Character %c was not found in any fonts", c);
       }
     }
     return newChunk;
   }
 
+  private int findFontIndex(int codePoint) throws DocumentException, IOException {
+    int cached = fontIndexForChar.get(codePoint, NOT_LOOKED_UP);
+    if (cached != NOT_LOOKED_UP) {
+      return cached;
+    }
+    int result = NOT_FOUND;
+    for (int f = 0; f < files.length; ++f) {
+      if (getBaseFont(f).charExists(codePoint)
+          || Character.getType(codePoint) == Character.FORMAT) {
+        result = f;
+        break;
+      }
+    }
+    fontIndexForChar.put(codePoint, result);
+    return result;
+  }
+
   private BaseFont getBaseFont(int index) throws DocumentException, IOException {
     if (baseFonts.size() < index + 1) {
       String file = files[index].getAbsolutePath();
@@ -164,9 +164,15 @@ public class LazyFontSelector {
   }
 
   private Font getFont(int index) throws DocumentException, IOException {
-    Font f = type.getFont(index);
+    Font[] fontsOfType = fonts[type.ordinal()];
+    if (fontsOfType == null) {
+      fontsOfType = new Font[files.length];
+      fonts[type.ordinal()] = fontsOfType;
+    }
+    Font f = fontsOfType[index];
     if (f == null) {
-      f = type.addFont(index, getBaseFont(index));
+      f = new Font(getBaseFont(index), type.size, type.style, type.color);
+      fontsOfType[index] = f;
     }
     return f;
   }
@@ -20,13 +20,9 @@ import java.io.File;
 import java.io.IOException;
 import java.util.Arrays;
 import java.util.Locale;
-import java.util.regex.Pattern;
 
 public class PdfHelper {
 
-  private static final Pattern HAS_ANY_RTL_RE =
-      Pattern.compile(".*[\\p{InArabic}\\p{InHebrew}].*");
-
   private LazyFontSelector lfs;
   private Font fNormal, fTitle, fHeader, fBold, fItalic, fUnderline, fIncome,
       fExpense;
@@ -128,8 +124,18 @@ public class PdfHelper {
     return null;
   }
 
+  /**
+   * @return true if str contains a character from the Hebrew (U+0590 - U+05FF) or the Arabic
+   * (U+0600 - U+06FF) block, checked without regex, since it is called for every cell
+   */
   public static boolean hasAnyRtl(String str) {
-    return HAS_ANY_RTL_RE.matcher(str).matches();
+    for (int i = 0, length = str.length(); i < length; i++) {
+      char c = str.charAt(i);
+      if (c >= '\u0590' && c <= '\u06FF') {
+        return true;
+      }
+    }
+    return false;
   }
 
   public PdfPCell emptyCell() {
@@ -2,12 +2,20 @@ package org.totschnig.myexpenses.util;
 
 import androidx.annotation.NonNull;
 
-public class StringBuilderWrapper {
+import java.io.IOException;
+import java.io.Writer;
+
+public class StringBuilderWrapper implements Appendable {
   public StringBuilderWrapper() {
     this.sb = new StringBuilder();
   }
 
-  private StringBuilder sb;
+  private final StringBuilder sb;
+
+  /**
+   * reused by {@link #writeTo(Writer)}, so that the content can be written without creating a String
+   */
+  private char[] chars = new char[0];
 
   public StringBuilderWrapper append(String s) {
     sb.append(s);
@@ -19,17 +27,54 @@ public class StringBuilderWrapper {
     return this;
   }
 
+  @Override
+  public StringBuilderWrapper append(CharSequence csq) {
+    sb.append(csq);
+    return this;
+  }
+
+  @Override
+  public StringBuilderWrapper append(CharSequence csq, int start, int end) {
+    sb.append(csq, start, end);
+    return this;
+  }
+
   public StringBuilderWrapper appendQ(@NonNull String s) {
-    sb.append('"').append(s.replace("\"", "\"\"")).append('"');
+    sb.append('"');
+    for (int i = 0; i < s.length(); i++) {
+      char c = s.charAt(i);
+      if (c == '"') {
+        sb.append('"');
+      }
+      sb.append(c);
+    }
+    sb.append('"');
     return this;
   }
 
+  public int length() {
+    return sb.length();
+  }
+
+  /**
+   * writes the content to out and clears the buffer, keeping its capacity for reuse
+   */
+  public void writeTo(Writer out) throws IOException {
+    int length = sb.length();
+    if (chars.length < length) {
+      chars = new char[Math.max(length, chars.length * 2)];
+    }
+    sb.getChars(0, length, chars, 0);
+    out.write(chars, 0, length);
+    clear();
+  }
+
   @NonNull
   public String toString() {
     return sb.toString();
   }
 
   public void clear() {
-    sb = new StringBuilder();
+    sb.setLength(0);
   }
 }
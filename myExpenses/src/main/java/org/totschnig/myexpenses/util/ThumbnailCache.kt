@@ -0,0 +1,148 @@
+package org.totschnig.myexpenses.util
+
+import android.content.ContentResolver
+import android.graphics.Bitmap
+import android.graphics.BitmapFactory
+import android.graphics.Matrix
+import android.media.ExifInterface
+import android.net.Uri
+import com.squareup.picasso.Picasso
+import com.squareup.picasso.Request
+import com.squareup.picasso.RequestHandler
+import timber.log.Timber
+import java.io.File
+import java.io.FileOutputStream
+import java.io.IOException
+import java.security.MessageDigest
+
+/**
+ * Thumbnails of attached pictures, generated the first time they are requested and kept as JPEG
+ * files in [dir]. Once the files exceed [maxBytes], the least recently used are deleted. Since
+ * pictures with identical content share one uri (see Attachments.kt), the uri is a sufficient key.
+ */
+class ThumbnailCache(
+    private val contentResolver: ContentResolver,
+    private val dir: File,
+    private val maxBytes: Long = DEFAULT_MAX_BYTES,
+    private val size: Int = DEFAULT_SIZE
+) {
+    private var cachedBytes = -1L
+
+    /**
+     * @return a file holding a thumbnail of [pictureUri], whose shorter side is between [size]
+     * and twice [size], or null if the picture can not be decoded
+     */
+    @Throws(IOException::class)
+    fun get(pictureUri: Uri): File? {
+        val file = File(dir, key(pictureUri))
+        if (file.exists()) {
+            //lastModified serves as access time for eviction
+            file.setLastModified(System.currentTimeMillis())
+            return file
+        }
+        val bitmap = decode(pictureUri) ?: return null
+        if (!dir.isDirectory && !dir.mkdirs()) throw IOException("Unable to create $dir")
+        //thumbnails of the same picture might be generated concurrently
+        val temp = File.createTempFile(file.name, null, dir)
+        try {
+            FileOutputStream(temp).use { bitmap.compress(Bitmap.CompressFormat.JPEG, QUALITY, it) }
+        } finally {
+            bitmap.recycle()
+        }
+        if (!temp.renameTo(file)) {
+            temp.delete()
+            throw IOException("Unable to store thumbnail for $pictureUri")
+        }
+        added(file.length())
+        return file
+    }
+
+    private fun decode(pictureUri: Uri): Bitmap? {
+        val bounds = BitmapFactory.Options().apply { inJustDecodeBounds = true }
+        contentResolver.openInputStream(pictureUri)?.use { BitmapFactory.decodeStream(it, null, bounds) }
+        if (bounds.outWidth <= 0 || bounds.outHeight <= 0) return null
+        var sampleSize = 1
+        while (minOf(bounds.outWidth, bounds.outHeight) / (sampleSize * 2) >= size) {
+            sampleSize *= 2
+        }
+        val options = BitmapFactory.Options().apply { inSampleSize = sampleSize }
+        val bitmap = contentResolver.openInputStream(pictureUri)?.use {
+            BitmapFactory.decodeStream(it, null, options)
+        } ?: return null
+        //the thumbnail does not carry over the orientation tag of the picture
+        val rotation = orientation(pictureUri)
+        return if (rotation == 0) bitmap else Bitmap.createBitmap(
+            bitmap, 0, 0, bitmap.width, bitmap.height, Matrix().apply { postRotate(rotation.toFloat()) }, true
+        ).also { if (it != bitmap) bitmap.recycle() }
+    }
+
+    private fun orientation(pictureUri: Uri) = try {
+        when (ExifInterface(PictureDirHelper.getFileForUri(pictureUri).path)
+            .getAttributeInt(ExifInterface.TAG_ORIENTATION, ExifInterface.ORIENTATION_NORMAL)) {
+            ExifInterface.ORIENTATION_ROTATE_90 -> 90
+            ExifInterface.ORIENTATION_ROTATE_180 -> 180
+            ExifInterface.ORIENTATION_ROTATE_270 -> 270
+            else -> 0
+        }
+    } catch (e: IllegalArgumentException) {
+        0
+    } catch (e: IOException) {
+        0
+    }
+
+    @Synchronized
+    private fun added(bytes: Long) {
+        val files = lazy { dir.listFiles()?.toList() ?: emptyList() }
+        if (cachedBytes < 0) {
+            cachedBytes = files.value.sumOf { it.length() }
+        } else {
+            cachedBytes += bytes
+        }
+        if (cachedBytes > maxBytes) {
+            //trim to three quarters, so that eviction does not happen on every insert
+            for (file in files.value.sortedBy { it.lastModified() }) {
+                if (cachedBytes <= maxBytes * 3 / 4) break
+                val length = file.length()
+                if (file.delete()) cachedBytes -= length
+            }
+            Timber.d("Trimmed thumbnail cache to %d bytes", cachedBytes)
+        }
+    }
+
+    private fun key(pictureUri: Uri) = MessageDigest.getInstance("SHA-1")
+        .digest("$size:$pictureUri".toByteArray())
+        .joinToString("") { "%02x".format(it) } + ".jpg"
+
+    companion object {
+        const val SCHEME = "thumbnail"
+        const val DEFAULT_SIZE = 512
+        const val DEFAULT_MAX_BYTES = 20L * 1024 * 1024
+        private const val QUALITY = 85
+        private const val QUERY_PARAMETER_URI = "uri"
+
+        /**
+         * @return an uri that when loaded with Picasso, yields the thumbnail of [pictureUri]
+         */
+        @JvmStatic
+        fun thumbnailUri(pictureUri: Uri): Uri = Uri.Builder().scheme(SCHEME).authority("picture")
+            .appendQueryParameter(QUERY_PARAMETER_URI, pictureUri.toString()).build()
+
+        @JvmStatic
+        fun thumbnailUri(pictureUri: String): Uri = thumbnailUri(Uri.parse(pictureUri))
+    }
+
+    /**
+     * Serves uris built with [thumbnailUri] from the cache
+     */
+    class PicassoRequestHandler(private val cache: ThumbnailCache) : RequestHandler() {
+        override fun canHandleRequest(data: Request) = data.uri?.scheme == SCHEME
+
+        override fun load(request: Request, networkPolicy: Int): Result? {
+            val pictureUri = request.uri.getQueryParameter(QUERY_PARAMETER_URI)?.let { Uri.parse(it) }
+                ?: return null
+            val file = cache.get(pictureUri) ?: throw IOException("Unable to decode $pictureUri")
+            val bitmap = BitmapFactory.decodeFile(file.path) ?: throw IOException("Unable to decode $file")
+            return Result(bitmap, Picasso.LoadedFrom.DISK)
+        }
+    }
+}
@@ -6,11 +6,16 @@ import android.os.Environment;
 import android.text.TextUtils;
 
 import org.totschnig.myexpenses.MyApplication;
+import org.totschnig.myexpenses.provider.BackupManifest;
+import org.totschnig.myexpenses.provider.BackupPictureStore;
+import org.totschnig.myexpenses.provider.BackupPictureStoreKt;
 import org.totschnig.myexpenses.provider.BackupUtilsKt;
 import org.totschnig.myexpenses.provider.DatabaseConstants;
 import org.totschnig.myexpenses.provider.TransactionProvider;
 import org.totschnig.myexpenses.util.crypt.EncryptionHelper;
 
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
 import java.io.File;
 import java.io.FileInputStream;
 import java.io.FileNotFoundException;
@@ -18,7 +23,10 @@ import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
 import java.security.GeneralSecurityException;
+import java.util.LinkedHashMap;
+import java.util.Map;
 import java.util.zip.ZipEntry;
 import java.util.zip.ZipInputStream;
 import java.util.zip.ZipOutputStream;
@@ -99,6 +107,70 @@ public class ZipUtils {
     zip.close();
   }
 
+  /**
+   * writes a backup point of the incremental format: the database snapshot and the preferences
+   * together with a {@link BackupPictureStoreKt#BACKUP_MANIFEST_FILE_NAME manifest} that maps the uri of each
+   * picture to its blob in the picture store. Only pictures that are not yet part of the store are
+   * copied.
+   */
+  public static void zipIncrementalBackup(File cacheDir, DocumentFile destZipFile, String password,
+                                          BackupPictureStore pictureStore)
+      throws IOException, GeneralSecurityException {
+    Map<String, String> pictures = new LinkedHashMap<>();
+    Cursor c = MyApplication.getInstance().getContentResolver()
+        .query(TransactionProvider.TRANSACTIONS_URI.buildUpon().appendQueryParameter(
+            TransactionProvider.QUERY_PARAMETER_DISTINCT, "1").build(),
+            new String[]{DatabaseConstants.KEY_PICTURE_URI},
+            DatabaseConstants.KEY_PICTURE_URI + " IS NOT NULL",
+            null, null);
+    if (c != null) {
+      try {
+        while (c.moveToNext()) {
+          String blob = pictureStore.store(Uri.parse(c.getString(0)));
+          if (blob != null) {
+            pictures.put(c.getString(0), blob);
+          }
+        }
+      } finally {
+        c.close();
+      }
+    }
+    Timber.i("Stored pictures: %s", pictureStore);
+    final OutputStream out = MyApplication.getInstance().getContentResolver().openOutputStream(destZipFile.getUri());
+    ZipOutputStream zip = new ZipOutputStream(TextUtils.isEmpty(password) ? out : EncryptionHelper.encrypt(out, password));
+    //first, so that readManifest does not need to inflate the database snapshot
+    addInputStreamToZip(BackupPictureStoreKt.BACKUP_MANIFEST_FILE_NAME,
+        new ByteArrayInputStream(new BackupManifest(BackupPictureStoreKt.BACKUP_MANIFEST_VERSION, pictures)
+            .toJson().getBytes(StandardCharsets.UTF_8)), zip);
+    addFileToZip("", BackupUtilsKt.getBackupDbFile(cacheDir), zip);
+    addFileToZip("", BackupUtilsKt.getBackupPrefFile(cacheDir), zip);
+    zip.flush();
+    zip.close();
+  }
+
+  /**
+   * @return the manifest of an incremental backup point, or null if fileIn holds a full backup
+   */
+  @Nullable
+  public static BackupManifest readManifest(InputStream fileIn, @Nullable String password)
+      throws IOException, GeneralSecurityException {
+    try (ZipInputStream zin = new ZipInputStream(TextUtils.isEmpty(password) ? fileIn : EncryptionHelper.decrypt(fileIn, password))) {
+      ZipEntry ze;
+      while ((ze = zin.getNextEntry()) != null) {
+        if (ze.getName().equals(BackupPictureStoreKt.BACKUP_MANIFEST_FILE_NAME)) {
+          ByteArrayOutputStream out = new ByteArrayOutputStream();
+          byte[] buffer = new byte[1024];
+          int count;
+          while ((count = zin.read(buffer)) != -1) {
+            out.write(buffer, 0, count);
+          }
+          return BackupManifest.fromJson(out.toString("UTF-8"));
+        }
+      }
+    }
+    return null;
+  }
+
   /*
    * zip the folders
    */
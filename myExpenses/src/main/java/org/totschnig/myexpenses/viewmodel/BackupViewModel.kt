@@ -35,7 +35,8 @@ class BackupViewModel(application: Application) : ContentResolvingAndroidViewMod
             doBackup(
                 getApplication(),
                 password,
-                if (withSync) prefHandler.getString(PrefKey.AUTO_BACKUP_CLOUD, null) else null
+                if (withSync) prefHandler.getString(PrefKey.AUTO_BACKUP_CLOUD, null) else null,
+                prefHandler.getBoolean(PrefKey.BACKUP_INCREMENTAL, false)
             ).onSuccess {
                 backupState.postValue(
                     BackupState.Success(
@@ -11,35 +11,37 @@ import org.totschnig.myexpenses.model.AggregateAccount
 import org.totschnig.myexpenses.model.Grouping
 import org.totschnig.myexpenses.model.Money
 import org.totschnig.myexpenses.preference.PrefKey
-import org.totschnig.myexpenses.provider.DatabaseConstants.DAY
 import org.totschnig.myexpenses.provider.DatabaseConstants.KEY_ACCOUNTID
 import org.totschnig.myexpenses.provider.DatabaseConstants.KEY_ACCOUNT_LABEL
 import org.totschnig.myexpenses.provider.DatabaseConstants.KEY_BUDGET
 import org.totschnig.myexpenses.provider.DatabaseConstants.KEY_CODE
 import org.totschnig.myexpenses.provider.DatabaseConstants.KEY_COLOR
 import org.totschnig.myexpenses.provider.DatabaseConstants.KEY_CURRENCY
+import org.totschnig.myexpenses.provider.DatabaseConstants.KEY_DAY
 import org.totschnig.myexpenses.provider.DatabaseConstants.KEY_DESCRIPTION
 import org.totschnig.myexpenses.provider.DatabaseConstants.KEY_END
 import org.totschnig.myexpenses.provider.DatabaseConstants.KEY_GROUPING
 import org.totschnig.myexpenses.provider.DatabaseConstants.KEY_LABEL
+import org.totschnig.myexpenses.provider.DatabaseConstants.KEY_MONTH
 import org.totschnig.myexpenses.provider.DatabaseConstants.KEY_ROWID
 import org.totschnig.myexpenses.provider.DatabaseConstants.KEY_START
 import org.totschnig.myexpenses.provider.DatabaseConstants.KEY_TITLE
+import org.totschnig.myexpenses.provider.DatabaseConstants.KEY_TRANSACTIONID
+import org.totschnig.myexpenses.provider.DatabaseConstants.KEY_WEEK
+import org.totschnig.myexpenses.provider.DatabaseConstants.KEY_YEAR
+import org.totschnig.myexpenses.provider.DatabaseConstants.KEY_YEAR_OF_MONTH_START
+import org.totschnig.myexpenses.provider.DatabaseConstants.KEY_YEAR_OF_WEEK_START
 import org.totschnig.myexpenses.provider.DatabaseConstants.TABLE_ACCOUNTS
 import org.totschnig.myexpenses.provider.DatabaseConstants.TABLE_BUDGETS
 import org.totschnig.myexpenses.provider.DatabaseConstants.TABLE_CURRENCIES
+import org.totschnig.myexpenses.provider.DatabaseConstants.TABLE_DATE_BUCKETS
 import org.totschnig.myexpenses.provider.DatabaseConstants.THIS_DAY
 import org.totschnig.myexpenses.provider.DatabaseConstants.THIS_YEAR
 import org.totschnig.myexpenses.provider.DatabaseConstants.VIEW_WITH_ACCOUNT
-import org.totschnig.myexpenses.provider.DatabaseConstants.YEAR
-import org.totschnig.myexpenses.provider.DatabaseConstants.getMonth
 import org.totschnig.myexpenses.provider.DatabaseConstants.getThisMonth
 import org.totschnig.myexpenses.provider.DatabaseConstants.getThisWeek
 import org.totschnig.myexpenses.provider.DatabaseConstants.getThisYearOfMonthStart
 import org.totschnig.myexpenses.provider.DatabaseConstants.getThisYearOfWeekStart
-import org.totschnig.myexpenses.provider.DatabaseConstants.getWeek
-import org.totschnig.myexpenses.provider.DatabaseConstants.getYearOfMonthStart
-import org.totschnig.myexpenses.provider.DatabaseConstants.getYearOfWeekStart
 import org.totschnig.myexpenses.provider.TransactionProvider
 import org.totschnig.myexpenses.provider.filter.FilterPersistence
 import org.totschnig.myexpenses.util.Utils
@@ -137,14 +139,16 @@ open class BudgetViewModel(application: Application) : ContentResolvingAndroidVi
     }
 
     private fun buildDateFilterClause(budget: Budget): String {
-        val year = "$YEAR = $THIS_YEAR"
-        return when (budget.grouping) {
-            Grouping.YEAR -> year
-            Grouping.DAY -> "$year AND $DAY = $THIS_DAY"
-            Grouping.WEEK -> getYearOfWeekStart() + " = " + getThisYearOfWeekStart() + " AND " + getWeek() + " = " + getThisWeek()
-            Grouping.MONTH -> getYearOfMonthStart() + " = " + getThisYearOfMonthStart() + " AND " + getMonth() + " = " + getThisMonth()
-            else -> budget.durationAsSqlFilter()
+        val bucketFilter = when (budget.grouping) {
+            Grouping.YEAR -> "$KEY_YEAR = $THIS_YEAR"
+            Grouping.DAY -> "$KEY_YEAR = $THIS_YEAR AND $KEY_DAY = $THIS_DAY"
+            Grouping.WEEK -> "$KEY_YEAR_OF_WEEK_START = ${getThisYearOfWeekStart()} AND $KEY_WEEK = ${getThisWeek()}"
+            Grouping.MONTH -> "$KEY_YEAR_OF_MONTH_START = ${getThisYearOfMonthStart()} AND $KEY_MONTH = ${getThisMonth()}"
+            else -> return budget.durationAsSqlFilter()
+        }.let { filter ->
+            if (budget.accountId > 0) "$filter AND $KEY_ACCOUNTID = ${budget.accountId}" else filter
         }
+        return "$VIEW_WITH_ACCOUNT.$KEY_ROWID IN (SELECT $KEY_TRANSACTIONID FROM $TABLE_DATE_BUCKETS WHERE $bucketFilter)"
     }
 
     fun createQuery(selection: String?, selectionArgs: Array<String>?) =
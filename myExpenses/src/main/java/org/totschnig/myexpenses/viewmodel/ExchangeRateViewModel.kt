@@ -31,6 +31,7 @@ class ExchangeRateViewModel(application: MyApplication) {
     fun loadExchangeRate(other: String, base: String, date: LocalDate) {
         bgScope.launch {
             try {
+                repository.prefetchAround(other, base, date)
                 postResult(repository.loadExchangeRate(other, base, date))
             } catch (e: Exception) {
                 postException(e)
@@ -24,6 +24,7 @@ import java.time.ZonedDateTime
 import java.time.format.DateTimeFormatter
 import java.time.temporal.TemporalAdjusters
 import org.totschnig.myexpenses.MyApplication
+import org.totschnig.myexpenses.model.PlanInstanceResolver
 import org.totschnig.myexpenses.model.Transaction
 import org.totschnig.myexpenses.provider.CalendarProviderProxy
 import org.totschnig.myexpenses.provider.DatabaseConstants
@@ -124,7 +125,8 @@ class PlannerViewModel(application: Application) : ContentResolvingAndroidViewMo
                 CalendarContractCompat.Events.CALENDAR_ID + " = " + plannerCalendarId,
                 null, CalendarContractCompat.Instances.BEGIN + " ASC", false
             )
-                .mapToList(PlanInstance.Companion::fromEventCursor)
+                .mapToList(PlanInstanceResolver.Event::fromEventCursor)
+                .map { PlanInstanceResolver(contentResolver).resolve(it).planInstances(it) }
                 .subscribe {
                     val start = SpannableString(first.startDate().format(formatter))
                     val end = SpannableString(last.endDate().format(formatter))
@@ -141,7 +143,7 @@ class PlannerViewModel(application: Application) : ContentResolvingAndroidViewMo
                         Spannable.SPAN_EXCLUSIVE_EXCLUSIVE
                     )
                     title.postValue(TextUtils.concat(start, " - ", end))
-                    instances.postValue(Event(Pair(later ?: false, it.filterNotNull())))
+                    instances.postValue(Event(Pair(later ?: false, it)))
                 }
         }
     }
@@ -43,6 +43,17 @@ class SettingsViewModel(application: Application) : ContentResolvingAndroidViewM
         emit(DbUtils.storeSetting(contentResolver, key, value) != null)
     }
 
+    /**
+     * to be called after the preferences the date buckets depend on have changed and
+     * [org.totschnig.myexpenses.provider.DatabaseConstants.buildLocalized] has been called
+     */
+    fun refreshDateBuckets() {
+        viewModelScope.launch(context = coroutineContext()) {
+            contentResolver.call(TransactionProvider.DUAL_URI,
+                    TransactionProvider.METHOD_REFRESH_DATE_BUCKETS, null, null)
+        }
+    }
+
     fun resetEquivalentAmounts() = liveData(context = coroutineContext()) {
         emit(contentResolver.call(TransactionProvider.DUAL_URI,
                 TransactionProvider.METHOD_RESET_EQUIVALENT_AMOUNTS, null, null)
@@ -5,8 +5,8 @@ import android.net.Uri
 import androidx.lifecycle.viewModelScope
 import kotlinx.coroutines.launch
 import org.totschnig.myexpenses.MyApplication
-import org.totschnig.myexpenses.provider.DatabaseConstants
 import org.totschnig.myexpenses.provider.TransactionProvider
+import org.totschnig.myexpenses.provider.isAttachmentInUse
 import org.totschnig.myexpenses.util.crashreporting.CrashHandler
 import org.totschnig.myexpenses.util.io.FileCopyUtils
 import timber.log.Timber
@@ -95,9 +95,5 @@ class StaleImagesViewModel(application: Application) : ContentResolvingAndroidVi
 
     private fun staleImageUri(id: Long) = TransactionProvider.STALE_IMAGES_URI.buildUpon().appendPath(id.toString()).build()
 
-    private fun checkImagePath(lastPathSegment: String) = contentResolver.query(
-            TransactionProvider.TRANSACTIONS_URI, arrayOf("count(*)"),
-            DatabaseConstants.KEY_PICTURE_URI + " LIKE '%" + lastPathSegment + "'", null, null)?.use {
-        it.moveToFirst() && it.getInt(0) == 0
-    } ?: false
+    private fun checkImagePath(lastPathSegment: String) = !isAttachmentInUse(contentResolver, lastPathSegment)
 }
\ No newline at end of file
@@ -1,11 +1,8 @@
 package org.totschnig.myexpenses.viewmodel.data
 
-import android.database.Cursor
 import android.os.Parcelable
-import com.android.calendar.CalendarContractCompat
 import kotlinx.parcelize.Parcelize
 import org.totschnig.myexpenses.model.Money
-import org.totschnig.myexpenses.model.Template
 import org.totschnig.myexpenses.provider.CalendarProviderProxy
 import org.totschnig.myexpenses.util.epochMillis2LocalDate
 import java.time.LocalDate
@@ -30,12 +27,6 @@ data class PlanInstance(val templateId: Long, val transactionId: Long?, val titl
 
     val instanceId: Long
         get() = CalendarProviderProxy.calculateId(date)
-
-    companion object {
-        fun fromEventCursor(cursor: Cursor) = Template.getPlanInstance(
-                cursor.getLong(cursor.getColumnIndexOrThrow(CalendarContractCompat.Instances.EVENT_ID)),
-                cursor.getLong(cursor.getColumnIndexOrThrow(CalendarContractCompat.Instances.BEGIN)))
-    }
 }
 
 @Parcelize
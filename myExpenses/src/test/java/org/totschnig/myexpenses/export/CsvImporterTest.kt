@@ -0,0 +1,139 @@
+package org.totschnig.myexpenses.export
+
+import android.content.ContentProviderOperation
+import androidx.test.core.app.ApplicationProvider
+import com.google.common.truth.Truth.assertThat
+import org.apache.commons.csv.CSVFormat
+import org.junit.Test
+import org.junit.runner.RunWith
+import org.robolectric.RobolectricTestRunner
+import org.totschnig.myexpenses.MyApplication
+import org.totschnig.myexpenses.R
+import org.totschnig.myexpenses.db2.AutoFillInfo
+import org.totschnig.myexpenses.export.qif.QifDateFormat
+import org.totschnig.myexpenses.model.Account
+import org.totschnig.myexpenses.model.CurrencyUnit
+import org.totschnig.myexpenses.model.SplitTransaction
+import org.totschnig.myexpenses.model.Transaction
+import org.totschnig.myexpenses.provider.DatabaseConstants.KEY_ACCOUNTID
+import org.totschnig.myexpenses.provider.DatabaseConstants.KEY_PARENTID
+import org.totschnig.myexpenses.provider.LabelIdCache
+import org.totschnig.myexpenses.provider.TransactionProvider
+import org.totschnig.testutils.assumeBenchmark
+import org.totschnig.testutils.measure
+import java.io.StringReader
+
+@RunWith(RobolectricTestRunner::class)
+class CsvImporterTest {
+    private val columnToFieldMap = intArrayOf(
+        R.string.split_transaction, R.string.date, R.string.payer_or_payee, R.string.amount,
+        R.string.category, R.string.subcategory, R.string.method, R.string.tags
+    )
+
+    private class CountingLookup : ImportLookup {
+        private val ids = mutableMapOf<String, Long>()
+
+        private fun resolve(kind: String, key: String) = ids.getOrPut("$kind:$key") { ids.size.toLong() + 1 }
+
+        override fun categoryId(path: String) = resolve("category", path)
+        override fun transferAccountId(label: String): Long? = null
+        override fun payee(name: String, autoFill: Boolean): Pair<Long, AutoFillInfo?> = Pair(resolve("payee", name), null)
+        override fun methodId(label: String) = resolve("method", label)
+        override fun tagIds(tags: List<String>) = tags.map { resolve("tag", it) }
+    }
+
+    private fun buildCsv(rows: Int) = buildString {
+        for (i in 0 until rows) {
+            if (i % 100 == 0) {
+                append("${SplitTransaction.CSV_INDICATOR},01/02/2021,Payee ${i % 50},-30.00,,,CHEQUE,\n")
+                append("${SplitTransaction.CSV_PART_INDICATOR},01/02/2021,,-10.00,Food,Groceries,,\n")
+                append("${SplitTransaction.CSV_PART_INDICATOR},01/02/2021,,-20.00,Car,Fuel,,\n")
+            } else {
+                append(",0${1 + i % 9}/02/2021,Payee ${i % 50},${i % 1000}.${i % 100},Category ${i % 20},Sub ${i % 5},CASH,\"tag ${i % 3},tag ${i % 7}\"\n")
+            }
+        }
+    }
+
+    private val application: MyApplication
+        get() = ApplicationProvider.getApplicationContext()
+
+    /**
+     * imports into a new account through the provider, with the lookups of the app
+     */
+    private fun importIntoProvider(
+        csv: String,
+        chunkSize: Int,
+        labelIdCache: LabelIdCache = LabelIdCache(),
+        lookup: (ImportLookup) -> ImportLookup = { it }
+    ): Pair<CsvImporter, Account> {
+        val account = Account("CSV import", 0, "").apply { save() }
+        val importer = CsvImporter(
+            account.id, account.currencyUnit, columnToFieldMap, QifDateFormat.EU, false, "Transfer",
+            lookup(CachingImportLookup(application.appComponent.repository(), labelIdCache)), chunkSize
+        ) { application.contentResolver.applyBatch(TransactionProvider.AUTHORITY, it).size }
+        CSVFormat.DEFAULT.parse(StringReader(csv)).use {
+            importer.import(it.asSequence()) {}
+        }
+        return importer to account
+    }
+
+    private fun countTransactions(account: Account) = application.contentResolver.query(
+        TransactionProvider.TRANSACTIONS_URI, arrayOf("count(*)"),
+        "$KEY_ACCOUNTID = ? AND $KEY_PARENTID IS NULL", arrayOf(account.id.toString()), null
+    )!!.use {
+        it.moveToFirst()
+        it.getInt(0)
+    }
+
+    @Test
+    fun splitTransactionIsNotDistributedOverChunks() {
+        val chunkSize = 7
+        val chunks = mutableListOf<ArrayList<ContentProviderOperation>>()
+        val importer = CsvImporter(
+            1L, CurrencyUnit("EUR", "€", 2), columnToFieldMap, QifDateFormat.EU, false,
+            "Transfer", CountingLookup(), chunkSize
+        ) { ops -> chunks.add(ArrayList(ops)); ops.size }
+        CSVFormat.DEFAULT.parse(StringReader(buildCsv(20))).use {
+            importer.import(it.asSequence()) {}
+        }
+        assertThat(importer.totalImported).isEqualTo(20)
+        assertThat(chunks).hasSize(3)
+        //the first record is a split with two parts, which are collected together with their parent
+        assertThat(chunks[0].count { it.isInsert && it.uri == Transaction.CONTENT_URI })
+            .isEqualTo(chunkSize + 2)
+    }
+
+    @Test
+    fun failingChunkIsRetriedTransactionByTransaction() {
+        val csv = buildCsv(20).lines().mapIndexed { index, line ->
+            if (index == 10) line.replace("Category", "Bad category") else line
+        }.joinToString("\n")
+        val (importer, account) = importIntoProvider(csv, 7) { delegate ->
+            object : ImportLookup by delegate {
+                //violates the foreign key constraint
+                override fun categoryId(path: String) =
+                    if (path.startsWith("Bad")) Long.MAX_VALUE else delegate.categoryId(path)
+            }
+        }
+        assertThat(importer.totalImported).isEqualTo(19)
+        assertThat(importer.totalFailed).isEqualTo(1)
+        assertThat(countTransactions(account)).isEqualTo(19)
+    }
+
+    @Test
+    fun benchmarkImportOf100kRows() {
+        assumeBenchmark()
+        val rows = 100_000
+        val chunkSize = 1000
+        val labelIdCache = LabelIdCache()
+        val (importer, account) = measure("Importing $rows rows") {
+            importIntoProvider(buildCsv(rows), chunkSize, labelIdCache)
+        }
+        assertThat(importer.totalImported).isEqualTo(rows)
+        assertThat(importer.totalFailed).isEqualTo(0)
+        assertThat(countTransactions(account)).isEqualTo(rows)
+        //every distinct label is resolved only once
+        assertThat(labelIdCache.methods.missCount).isEqualTo(2)
+        assertThat(labelIdCache.tags.missCount).isEqualTo(7)
+    }
+}
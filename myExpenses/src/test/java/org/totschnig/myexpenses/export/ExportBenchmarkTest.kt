@@ -0,0 +1,116 @@
+package org.totschnig.myexpenses.export
+
+import android.content.ContentProviderOperation
+import android.content.Context
+import androidx.documentfile.provider.DocumentFile
+import androidx.test.core.app.ApplicationProvider
+import com.google.common.truth.Truth.assertThat
+import org.junit.Test
+import org.junit.runner.RunWith
+import org.robolectric.RobolectricTestRunner
+import org.totschnig.myexpenses.model.Account
+import org.totschnig.myexpenses.model.Category
+import org.totschnig.myexpenses.model.saveTagLinks
+import org.totschnig.myexpenses.provider.DatabaseConstants.KEY_ACCOUNTID
+import org.totschnig.myexpenses.provider.DatabaseConstants.KEY_AMOUNT
+import org.totschnig.myexpenses.provider.DatabaseConstants.KEY_CATID
+import org.totschnig.myexpenses.provider.DatabaseConstants.KEY_COMMENT
+import org.totschnig.myexpenses.provider.DatabaseConstants.KEY_DATE
+import org.totschnig.myexpenses.provider.DatabaseConstants.KEY_PARENTID
+import org.totschnig.myexpenses.provider.DatabaseConstants.KEY_VALUE_DATE
+import org.totschnig.myexpenses.provider.DatabaseConstants.SPLIT_CATID
+import org.totschnig.myexpenses.provider.TransactionProvider
+import org.totschnig.testutils.assumeBenchmark
+import org.totschnig.testutils.measure
+import java.io.File
+
+@RunWith(RobolectricTestRunner::class)
+class ExportBenchmarkTest {
+    private val context: Context
+        get() = ApplicationProvider.getApplicationContext()
+
+    private val baseSinceEpoch = 1609495200L
+
+    /**
+     * Every tenth transaction is tagged and every 50th is a split with two parts. Ten transactions
+     * share the same date, so that the merge of split parts and tags relies on the id as tie breaker.
+     */
+    private fun insertData(label: String, rows: Int): Account {
+        val account = Account(label, 0, label)
+        account.save()
+        val catId = Category.write(0, "Category $label", null)
+        val tagId = org.totschnig.myexpenses.model.write("Tag $label")
+        val ops = ArrayList<ContentProviderOperation>()
+        for (i in 0 until rows) {
+            val offset = ops.size
+            val isSplit = i % 50 == 0
+            ops.add(
+                ContentProviderOperation.newInsert(TransactionProvider.TRANSACTIONS_URI)
+                    .withValue(KEY_ACCOUNTID, account.id)
+                    .withValue(KEY_AMOUNT, -300L)
+                    .withValue(KEY_DATE, baseSinceEpoch + i / 10)
+                    .withValue(KEY_VALUE_DATE, baseSinceEpoch + i / 10)
+                    .withValue(KEY_CATID, if (isSplit) SPLIT_CATID else catId)
+                    .withValue(KEY_COMMENT, "Comment $i")
+                    .build()
+            )
+            if (isSplit) {
+                repeat(2) {
+                    ops.add(
+                        ContentProviderOperation.newInsert(TransactionProvider.TRANSACTIONS_URI)
+                            .withValue(KEY_ACCOUNTID, account.id)
+                            .withValue(KEY_AMOUNT, -150L)
+                            .withValue(KEY_DATE, baseSinceEpoch + i / 10)
+                            .withValue(KEY_VALUE_DATE, baseSinceEpoch + i / 10)
+                            .withValue(KEY_CATID, catId)
+                            .withValueBackReference(KEY_PARENTID, offset)
+                            .build()
+                    )
+                }
+            }
+            if (i % 10 == 0) {
+                ops.addAll(saveTagLinks(listOf(tagId), null, offset, false))
+            }
+        }
+        context.contentResolver.applyBatch(TransactionProvider.AUTHORITY, ops)
+        return account
+    }
+
+    private fun export(account: Account, outFile: File) = CsvExporter(
+        account, null, false, "dd/MM/yyyy", '.', "UTF-8", false, ';', false
+    ).export(context, lazy { Result.success(DocumentFile.fromFile(outFile)) }, false)
+
+    private fun assertExported(outFile: File, label: String, rows: Int) {
+        val lines = outFile.readLines()
+        assertThat(lines).hasSize(rows + rows / 50 * 2)
+        val transactionLines = lines.filter { !it.startsWith("\"-\"") }
+        assertThat(transactionLines).hasSize(rows)
+        transactionLines.forEachIndexed { index, line ->
+            assertThat(line).contains("\"Comment $index\"")
+            assertThat(line.startsWith("\"*\"")).isEqualTo(index % 50 == 0)
+            assertThat(line.endsWith("\"Tag $label\"")).isEqualTo(index % 10 == 0)
+        }
+    }
+
+    @Test
+    fun benchmarkExportOf10kTransactions() {
+        assumeBenchmark()
+        val rows = 10_000
+        val account = insertData("Benchmark", rows)
+        val outFile = File(context.cacheDir, "benchmark.csv")
+        assertThat(measure("Exporting $rows transactions") { export(account, outFile) }.isSuccess).isTrue()
+        assertExported(outFile, "Benchmark", rows)
+    }
+
+    @Test
+    fun accountsAreExportedInParallelToSeparateFiles() {
+        val rows = 500
+        val accounts = (1..3).map { insertData("Account $it", rows) }
+        val results = exportInParallel(accounts, 3) { index, account ->
+            File(context.cacheDir, "account$index.csv").let { export(account, it).map { _ -> it } }
+        }
+        results.forEachIndexed { index, result ->
+            assertExported(result.getOrThrow(), "Account ${index + 1}", rows)
+        }
+    }
+}
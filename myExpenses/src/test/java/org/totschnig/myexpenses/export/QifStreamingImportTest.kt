@@ -0,0 +1,166 @@
+package org.totschnig.myexpenses.export
+
+import android.content.ContentProviderOperation
+import com.google.common.truth.Truth.assertThat
+import org.junit.Test
+import org.junit.runner.RunWith
+import org.robolectric.RobolectricTestRunner
+import org.totschnig.myexpenses.export.qif.QifBufferedReader
+import org.totschnig.myexpenses.export.qif.QifDateFormat
+import org.totschnig.myexpenses.export.qif.QifParser
+import org.totschnig.myexpenses.export.qif.QifTransaction
+import org.totschnig.myexpenses.export.qif.QifTransferReducer
+import org.totschnig.myexpenses.model.Account
+import org.totschnig.myexpenses.model.AccountType
+import org.totschnig.myexpenses.model.CurrencyUnit
+import org.totschnig.myexpenses.model.Transaction
+import org.totschnig.testutils.assumeBenchmark
+import org.totschnig.testutils.measure
+import java.io.BufferedReader
+import java.io.IOException
+import java.io.StringReader
+
+@RunWith(RobolectricTestRunner::class)
+class QifStreamingImportTest {
+    private val currencyUnit = CurrencyUnit("EUR", "€", 2)
+
+    private fun parser(qif: String) =
+        QifParser(QifBufferedReader(BufferedReader(StringReader(qif))), QifDateFormat.EU, currencyUnit)
+
+    private fun transaction(date: String, amount: String, category: String, memo: String? = null) = buildString {
+        append("D$date\nT$amount\nL$category\n")
+        memo?.let { append("M$it\n") }
+        append("^\n")
+    }
+
+    private val transfers = "!Account\nNChecking\nTBank\n^\n!Type:Bank\n" +
+            transaction("01/02/2021", "-100.00", "[Savings]") +
+            transaction("02/02/2021", "-50.00", "[Unknown]", "rent") +
+            transaction("03/02/2021", "20.00", "[Savings]") +
+            "!Account\nNSavings\nTBank\n^\n!Type:Bank\n" +
+            transaction("01/02/2021", "100.00", "[Checking]") +
+            transaction("03/02/2021", "-20.00", "[Checking]")
+
+    private class Collector : QifParser.TransactionHandler {
+        val transactions = mutableListOf<Triple<Int, Int, QifTransaction>>()
+        override fun onTransaction(accountIndex: Int, ordinal: Int, transaction: QifTransaction) {
+            transactions.add(Triple(accountIndex, ordinal, transaction))
+        }
+    }
+
+    private fun reduce(qif: String, withAccounts: Boolean): List<Triple<Int, Int, QifTransaction>> {
+        val reducer = QifTransferReducer()
+        val firstPass = parser(qif).apply { scan(reducer) }
+        reducer.reduce(firstPass.accounts,
+            if (withAccounts) firstPass.accounts.withIndex().associate { it.value.memo to it.index } else emptyMap())
+        val collector = Collector()
+        parser(qif).stream(collector)
+        return collector.transactions
+            .filter { (account, ordinal, _) -> !reducer.isReduced(account, ordinal) }
+            .onEach { (account, ordinal, transaction) -> reducer.apply(account, ordinal, transaction) }
+    }
+
+    @Test
+    fun scanCollectsDictionariesAndStreamKeepsPositions() {
+        val scanned = Collector()
+        val firstPass = parser(transfers).apply { scan(scanned) }
+        assertThat(firstPass.accounts.map { it.memo }).containsExactly("Checking", "Savings").inOrder()
+        assertThat(firstPass.accounts.all { it.transactions.isEmpty() }).isTrue()
+        val streamed = Collector()
+        val secondPass = parser(transfers).apply { stream(streamed) }
+        assertThat(secondPass.payees).isEmpty()
+        assertThat(streamed.transactions.map { it.first to it.second })
+            .containsExactlyElementsIn(scanned.transactions.map { it.first to it.second }).inOrder()
+    }
+
+    @Test
+    fun peersOfImportedTransfersAreReducedAndUnknownTransfersConverted() {
+        val result = reduce(transfers, true)
+        //each incoming transfer is reduced by its outgoing peer from the other account
+        assertThat(result.map { it.first to it.second }).containsExactly(0 to 0, 0 to 1, 1 to 1).inOrder()
+        assertThat(result[0].third.toAccount).isEqualTo("Savings")
+        assertThat(result[1].third.toAccount).isNull()
+        assertThat(result[1].third.memo).isEqualTo("Transfer: Unknown | rent")
+        assertThat(result[2].third.toAccount).isEqualTo("Checking")
+    }
+
+    @Test
+    fun allTransfersAreConvertedIfAccountsAreNotImported() {
+        val result = reduce(transfers, false)
+        assertThat(result).hasSize(5)
+        assertThat(result.all { it.third.toAccount == null }).isTrue()
+    }
+
+    @Test
+    fun failedBatchAbortsImport() {
+        val reducer = QifTransferReducer()
+        val firstPass = parser(transfers).apply { scan(reducer) }
+        firstPass.accounts.forEachIndexed { index, account ->
+            account.dbAccount = Account(account.memo, currencyUnit, 0L, "", AccountType.BANK).also { it.id = index + 1L }
+        }
+        reducer.reduce(firstPass.accounts, firstPass.accounts.withIndex().associate { it.value.memo to it.index })
+        val reported = mutableListOf<Pair<String, Int>>()
+        val importer = QifImporter(firstPass.accounts, reducer, object : QifLookup {
+            override fun payeeId(name: String?) = null
+            override fun categoryId(path: String?) = null
+            override fun transferAccountId(title: String) = null
+        }, 1, { throw IOException("disk full") }) { account, count -> reported.add(account.memo to count) }
+        val failure = try {
+            parser(transfers).stream(importer)
+            importer.finish()
+            null
+        } catch (e: IOException) {
+            e
+        }
+        assertThat(failure).hasMessageThat().isEqualTo("disk full")
+        assertThat(reported).isEmpty()
+        assertThat(importer.totalImported).isEqualTo(0)
+    }
+
+    @Test
+    fun benchmarkStreamingImportOf100kTransactions() {
+        assumeBenchmark()
+        val perAccount = 50_000
+        val chunkSize = 1000
+        val qif = buildString {
+            listOf("Checking", "Savings").forEachIndexed { index, title ->
+                append("!Account\nN$title\nTBank\n^\n!Type:Bank\n")
+                for (i in 0 until perAccount) {
+                    append(
+                        when {
+                            i % 100 == 0 -> "D01/02/2021\nT-30.00\nPPayee ${i % 50}\nLFood\nSGroceries\n$-10.00\nSFuel\n$-20.00\n^\n"
+                            i % 10 == 0 -> transaction("01/02/2021", "${if (index == 0) "-" else ""}${i}.00", if (index == 0) "[Savings]" else "[Checking]")
+                            else -> transaction("0${1 + i % 9}/02/2021", "-${i % 1000}.${i % 100}", "Category ${i % 20}")
+                        }
+                    )
+                }
+            }
+        }
+        val chunks = mutableListOf<Int>()
+        val reported = mutableListOf<Pair<String, Int>>()
+        val importer = measure("Importing ${2 * perAccount} transactions") {
+            val reducer = QifTransferReducer()
+            val firstPass = parser(qif).apply { scan(reducer) }
+            firstPass.accounts.forEachIndexed { index, account ->
+                account.dbAccount = Account(account.memo, currencyUnit, 0L, "", AccountType.BANK).also { it.id = index + 1L }
+            }
+            reducer.reduce(firstPass.accounts, firstPass.accounts.withIndex().associate { it.value.memo to it.index })
+            QifImporter(firstPass.accounts, reducer, object : QifLookup {
+                override fun payeeId(name: String?) = name?.let { 1L }
+                override fun categoryId(path: String?) = path?.let { 2L }
+                override fun transferAccountId(title: String) = firstPass.accounts.indexOfFirst { it.memo == title } + 1L
+            }, chunkSize, { ops: ArrayList<ContentProviderOperation> ->
+                chunks.add(ops.count { it.isInsert && it.uri.toString().startsWith(Transaction.CONTENT_URI.toString()) })
+                ops.size
+            }) { account, count -> reported.add(account.memo to count) }.also {
+                parser(qif).stream(it)
+                it.finish()
+            }
+        }
+        //incoming transfers of Savings are reduced by their peers from Checking
+        val reducedTransfers = (0 until perAccount).count { it % 10 == 0 && it % 100 != 0 }
+        assertThat(reported).containsExactly("Checking" to perAccount, "Savings" to perAccount - reducedTransfers).inOrder()
+        assertThat(importer.totalImported).isEqualTo(2 * perAccount - reducedTransfers)
+        assertThat(chunks.size).isAtLeast(importer.totalImported / chunkSize)
+    }
+}
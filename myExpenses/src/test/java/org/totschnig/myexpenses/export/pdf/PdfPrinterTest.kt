@@ -0,0 +1,75 @@
+package org.totschnig.myexpenses.export.pdf
+
+import android.content.Context
+import androidx.documentfile.provider.DocumentFile
+import androidx.test.core.app.ApplicationProvider
+import com.google.common.truth.Truth.assertThat
+import com.itextpdf.text.pdf.PdfReader
+import com.itextpdf.text.pdf.parser.PdfTextExtractor
+import org.junit.Rule
+import org.junit.Test
+import org.junit.rules.TemporaryFolder
+import org.junit.runner.RunWith
+import org.robolectric.RobolectricTestRunner
+import org.totschnig.myexpenses.model.Account
+import org.totschnig.myexpenses.model.AccountType
+import org.totschnig.myexpenses.model.AggregateAccount
+import org.totschnig.myexpenses.model.Money
+import org.totschnig.myexpenses.model.Transaction
+import org.totschnig.myexpenses.util.Utils
+
+@RunWith(RobolectricTestRunner::class)
+class PdfPrinterTest {
+    @get:Rule
+    val tempFolder = TemporaryFolder()
+
+    private val context: Context
+        get() = ApplicationProvider.getApplicationContext()
+
+    private fun account(label: String, transactions: Int, excludeFromTotals: Boolean = false): Account {
+        val currencyUnit = Utils.getHomeCurrency()
+        return Account(label, currencyUnit, 0L, AccountType.CASH).apply {
+            this.excludeFromTotals = excludeFromTotals
+            save()
+            repeat(transactions) {
+                Transaction(id, Money(currencyUnit, -100L * (it + 1))).save()
+            }
+        }
+    }
+
+    @Test
+    fun aggregateShouldListAccountsIncludedInTotals() {
+        val first = account("First", 1)
+        val second = account("Second", 1)
+        val excluded = account("Excluded", 1, true)
+        val ids = AggregateAccount.getInstanceFromDb(Account.HOME_AGGREGATE_ID).aggregatedAccountIds
+        assertThat(ids.toList()).containsAtLeast(first.id, second.id)
+        assertThat(ids.toList()).doesNotContain(excluded.id)
+    }
+
+    @Test
+    fun printAllShouldConcatenateAccountsWithTransactions() {
+        val accounts = listOf(account("First", 3), account("Empty", 0), account("Second", 2))
+        val result = PdfPrinter.printAll(context, accounts, DocumentFile.fromFile(tempFolder.root), null)
+        assertThat(result.isSuccess).isTrue()
+        val file = tempFolder.root.listFiles()!!.single()
+        val reader = PdfReader(file.path)
+        val text = (1..reader.numberOfPages).joinToString("\n") {
+            PdfTextExtractor.getTextFromPage(reader, it)
+        }
+        reader.close()
+        assertThat(text).contains("First")
+        assertThat(text).contains("Second")
+        assertThat(text).doesNotContain("Empty")
+        assertThat(text.indexOf("First")).isLessThan(text.indexOf("Second"))
+    }
+
+    @Test
+    fun printAllShouldFailWithoutTransactions() {
+        val result = PdfPrinter.printAll(
+            context, listOf(account("Empty", 0)), DocumentFile.fromFile(tempFolder.root), null
+        )
+        assertThat(result.isSuccess).isFalse()
+        assertThat(tempFolder.root.listFiles()!!).isEmpty()
+    }
+}
@@ -0,0 +1,88 @@
+package org.totschnig.myexpenses.model
+
+import android.content.ContentUris
+import android.content.ContentValues
+import android.content.Context
+import androidx.test.core.app.ApplicationProvider
+import com.google.common.truth.Truth.assertThat
+import org.junit.Test
+import org.junit.runner.RunWith
+import org.robolectric.RobolectricTestRunner
+import org.totschnig.myexpenses.provider.DatabaseConstants.KEY_ACCOUNTID
+import org.totschnig.myexpenses.provider.DatabaseConstants.KEY_AMOUNT
+import org.totschnig.myexpenses.provider.DatabaseConstants.KEY_INSTANCEID
+import org.totschnig.myexpenses.provider.DatabaseConstants.KEY_PLANID
+import org.totschnig.myexpenses.provider.DatabaseConstants.KEY_TEMPLATEID
+import org.totschnig.myexpenses.provider.DatabaseConstants.KEY_TITLE
+import org.totschnig.myexpenses.provider.DatabaseConstants.KEY_TRANSACTIONID
+import org.totschnig.myexpenses.provider.TransactionProvider
+import org.totschnig.myexpenses.util.Utils
+import org.totschnig.myexpenses.viewmodel.data.PlanInstanceState
+
+@RunWith(RobolectricTestRunner::class)
+class PlanInstanceResolverTest {
+    private val context: Context
+        get() = ApplicationProvider.getApplicationContext()
+
+    private val start = 1609495200000L
+    private val day = 24 * 60 * 60 * 1000L
+
+    private fun insertTemplate(account: Account, planId: Long) = ContentUris.parseId(
+        context.contentResolver.insert(TransactionProvider.TEMPLATES_URI, ContentValues().apply {
+            put(KEY_TITLE, "Plan $planId")
+            put(KEY_AMOUNT, -100L * planId)
+            put(KEY_ACCOUNTID, account.id)
+            put(KEY_PLANID, planId)
+        })!!
+    )
+
+    private fun insertStatus(templateId: Long, event: PlanInstanceResolver.Event, transactionId: Long?) {
+        context.contentResolver.insert(TransactionProvider.PLAN_INSTANCE_STATUS_URI, ContentValues().apply {
+            put(KEY_TEMPLATEID, templateId)
+            put(KEY_INSTANCEID, event.instanceId)
+            put(KEY_TRANSACTIONID, transactionId)
+        })
+    }
+
+    @Test
+    fun shouldResolveMonthOfInstancesWithOneQuery() {
+        val currencyUnit = Utils.getHomeCurrency()
+        val account = Account("Planner", currencyUnit, 0L, AccountType.CASH).apply { save() }
+        val templates = (1L..40L).associateWith { insertTemplate(account, it) }
+        //a plan without template is ignored
+        val events = (1L..41L).flatMap { planId ->
+            (0 until 30).map { PlanInstanceResolver.Event(planId, start + it * day) }
+        }
+        val applied = events[0]
+        val transaction = Transaction(account.id, Money(currencyUnit, -150L)).apply { save() }
+        insertStatus(templates.getValue(applied.planId), applied, transaction.id)
+        val cancelled = events[1]
+        insertStatus(templates.getValue(cancelled.planId), cancelled, null)
+
+        val provider = context.contentResolver.acquireContentProviderClient(TransactionProvider.AUTHORITY)!!
+        val notifier = (provider.localContentProvider as TransactionProvider).changeNotifierForTest
+        val before = notifier.stats
+        val resolution = PlanInstanceResolver(context.contentResolver).resolve(events)
+        val planInstances = resolution.planInstances(events)
+        val queries = (notifier.stats - before).queries
+        provider.release()
+
+        assertThat(queries).isEqualTo(1)
+        assertThat(planInstances).hasSize(40 * 30)
+        with(planInstances[0]) {
+            assertThat(state).isEqualTo(PlanInstanceState.APPLIED)
+            assertThat(transactionId).isEqualTo(transaction.id)
+            assertThat(amount.amountMinor).isEqualTo(-150L)
+        }
+        with(planInstances[1]) {
+            assertThat(state).isEqualTo(PlanInstanceState.CANCELLED)
+            assertThat(amount.amountMinor).isEqualTo(-100L)
+        }
+        assertThat(planInstances.drop(2).map { it.state }.distinct()).containsExactly(PlanInstanceState.OPEN)
+        assertThat(resolution.openTemplate(applied)).isNull()
+        assertThat(resolution.openTemplate(cancelled)).isNull()
+        assertThat(resolution.openTemplate(events[2])?.id).isEqualTo(templates.getValue(1L))
+        assertThat(resolution.accountLabel(events[2])).isEqualTo("Planner")
+        assertThat(resolution.template(PlanInstanceResolver.Event(41L, start))).isNull()
+    }
+}
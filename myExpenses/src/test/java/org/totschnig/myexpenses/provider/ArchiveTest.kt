@@ -0,0 +1,208 @@
+package org.totschnig.myexpenses.provider
+
+import android.content.ContentValues
+import android.content.Context
+import android.database.sqlite.SQLiteDatabase
+import androidx.test.core.app.ApplicationProvider
+import com.google.common.truth.Truth.assertThat
+import org.junit.After
+import org.junit.Before
+import org.junit.Test
+import org.junit.runner.RunWith
+import org.robolectric.RobolectricTestRunner
+import org.totschnig.myexpenses.model.Account
+import org.totschnig.myexpenses.model.Transaction
+import org.totschnig.myexpenses.provider.DatabaseConstants.KEY_ACCOUNTID
+import org.totschnig.myexpenses.provider.DatabaseConstants.KEY_AMOUNT
+import org.totschnig.myexpenses.provider.DatabaseConstants.KEY_CATID
+import org.totschnig.myexpenses.provider.DatabaseConstants.KEY_DATE
+import org.totschnig.myexpenses.provider.DatabaseConstants.KEY_PARENTID
+import org.totschnig.myexpenses.provider.DatabaseConstants.KEY_PICTURE_URI
+import org.totschnig.myexpenses.provider.DatabaseConstants.KEY_ROWID
+import org.totschnig.myexpenses.provider.DatabaseConstants.KEY_STATUS
+import org.totschnig.myexpenses.provider.DatabaseConstants.KEY_TRANSFER_ACCOUNT
+import org.totschnig.myexpenses.provider.DatabaseConstants.KEY_TRANSFER_PEER
+import org.totschnig.myexpenses.provider.DatabaseConstants.SPLIT_CATID
+import org.totschnig.myexpenses.provider.DatabaseConstants.STATUS_ARCHIVE_SUMMARY
+import org.totschnig.myexpenses.provider.DatabaseConstants.TABLE_CATEGORIES
+import org.totschnig.myexpenses.provider.DatabaseConstants.TABLE_TRANSACTIONS
+import org.totschnig.myexpenses.provider.DatabaseConstants.TABLE_TRANSACTIONS_ARCHIVE
+import org.totschnig.testutils.assumeBenchmark
+import org.totschnig.testutils.benchmark
+import org.totschnig.testutils.measure
+import kotlin.random.Random
+
+@RunWith(RobolectricTestRunner::class)
+class ArchiveTest {
+    private val context: Context
+        get() = ApplicationProvider.getApplicationContext()
+
+    private val provider by lazy { context.contentResolver.acquireContentProviderClient(TransactionProvider.AUTHORITY)!! }
+    private val db: SQLiteDatabase
+        get() = (provider.localContentProvider as TransactionProvider).openHelperForTest.writableDatabase
+
+    private lateinit var account: Account
+    private lateinit var other: Account
+    private val categories = mutableListOf<Long?>(null)
+
+    //2020-01-01
+    private val start = 1577836800L
+    private val day = 86400L
+
+    @Before
+    fun setUp() {
+        account = Account("Archive", 0, "").apply { save() }
+        other = Account("Archive other", 0, "").apply { save() }
+        repeat(3) {
+            categories += db.insert(TABLE_CATEGORIES, null, ContentValues(1).apply { put(DatabaseConstants.KEY_LABEL, "Category $it") })
+        }
+    }
+
+    @After
+    fun tearDown() {
+        provider.release()
+    }
+
+    private fun insert(accountId: Long, date: Long, amount: Long, catId: Long? = null, parentId: Long? = null, pictureUri: String? = null) =
+        db.insert(TABLE_TRANSACTIONS, null, ContentValues().apply {
+            put(KEY_ACCOUNTID, accountId)
+            put(KEY_DATE, date)
+            put(KEY_AMOUNT, amount)
+            put(KEY_CATID, catId)
+            put(KEY_PARENTID, parentId)
+            put(KEY_PICTURE_URI, pictureUri)
+        })
+
+    private fun insertTransfer(date: Long, amount: Long) {
+        val first = db.insert(TABLE_TRANSACTIONS, null, ContentValues().apply {
+            put(KEY_ACCOUNTID, account.id)
+            put(KEY_DATE, date)
+            put(KEY_AMOUNT, amount)
+            put(KEY_TRANSFER_ACCOUNT, other.id)
+        })
+        val second = db.insert(TABLE_TRANSACTIONS, null, ContentValues().apply {
+            put(KEY_ACCOUNTID, other.id)
+            put(KEY_DATE, date)
+            put(KEY_AMOUNT, -amount)
+            put(KEY_TRANSFER_ACCOUNT, account.id)
+            put(KEY_TRANSFER_PEER, first)
+        })
+        db.update(TABLE_TRANSACTIONS, ContentValues(1).apply { put(KEY_TRANSFER_PEER, second) }, "$KEY_ROWID = $first", null)
+    }
+
+    private fun insertRandom(random: Random, count: Int, days: Int) {
+        repeat(count) {
+            val date = start + random.nextLong(days * day)
+            when (random.nextInt(10)) {
+                0 -> insertTransfer(date, random.nextLong(-1000, 1000))
+                1 -> {
+                    val parent = insert(account.id, date, -300, SPLIT_CATID)
+                    insert(account.id, date, -100, categories[1], parent)
+                    insert(account.id, date, -200, categories[2], parent)
+                }
+                else -> insert(account.id, date, random.nextLong(-1000, 1000), categories.random(random))
+            }
+        }
+    }
+
+    private fun rows(sql: String) = db.rawQuery(sql, null).use { cursor ->
+        generateSequence { if (cursor.moveToNext()) (0 until cursor.columnCount).map { cursor.getString(it) } else null }.toList()
+    }
+
+    /**
+     * what the balance, the distribution and the monthly history are computed from
+     */
+    private fun aggregates() = listOf(
+        rows("SELECT $KEY_ACCOUNTID, sum($KEY_AMOUNT) FROM $TABLE_TRANSACTIONS WHERE $KEY_PARENTID IS null GROUP BY 1"),
+        rows("SELECT $KEY_ACCOUNTID, $KEY_CATID, sum($KEY_AMOUNT) FROM $TABLE_TRANSACTIONS " +
+                "WHERE ($KEY_CATID IS null OR $KEY_CATID != $SPLIT_CATID) GROUP BY 1, 2"),
+        rows("SELECT $KEY_ACCOUNTID, ${DatabaseConstants.getYearOfMonthStart()}, ${DatabaseConstants.getMonth()}, " +
+                "sum(CASE WHEN $KEY_TRANSFER_PEER IS null AND $KEY_AMOUNT > 0 THEN $KEY_AMOUNT ELSE 0 END), " +
+                "sum(CASE WHEN $KEY_TRANSFER_PEER IS null AND $KEY_AMOUNT < 0 THEN $KEY_AMOUNT ELSE 0 END), " +
+                "sum(CASE WHEN $KEY_TRANSFER_PEER IS NOT null THEN $KEY_AMOUNT ELSE 0 END) FROM $TABLE_TRANSACTIONS " +
+                "WHERE ($KEY_CATID IS null OR $KEY_CATID != $SPLIT_CATID) GROUP BY 1, 2, 3")
+    )
+
+    private fun committedIds(includeArchive: Boolean) = context.contentResolver.query(
+        TransactionProvider.TRANSACTIONS_URI.buildUpon().apply {
+            if (includeArchive) appendQueryParameter(TransactionProvider.QUERY_PARAMETER_INCLUDE_ARCHIVE, "1")
+        }.build(), arrayOf(KEY_ROWID, KEY_STATUS), null, null, null
+    )!!.use { cursor ->
+        generateSequence { if (cursor.moveToNext()) cursor.getLong(0) to cursor.getInt(1) else null }.toList()
+    }
+
+    @Test
+    fun archivingPreservesAggregates() {
+        insertRandom(Random(1), 2000, 3 * 365)
+        val before = aggregates()
+        val visibleBefore = committedIds(false)
+        val cutoff = start + 2 * 365 * day
+        val archived = account.archive(cutoff, "Archived")
+        assertThat(archived).isGreaterThan(0)
+        assertThat(aggregates()).isEqualTo(before)
+        assertThat(rows("SELECT count(*) FROM $TABLE_TRANSACTIONS WHERE $KEY_ACCOUNTID = ${account.id} AND $KEY_DATE < $cutoff " +
+                "AND $KEY_STATUS != $STATUS_ARCHIVE_SUMMARY")).containsExactly(listOf("0"))
+        assertThat(committedIds(true).map { it.first }).containsExactlyElementsIn(visibleBefore.map { it.first })
+        assertThat(committedIds(false).map { it.second }).contains(STATUS_ARCHIVE_SUMMARY)
+        //summaries are not archived again
+        assertThat(account.archive(cutoff, "Archived")).isEqualTo(0)
+    }
+
+    @Test
+    fun archivedPicturesDoNotBecomeStale() {
+        val uri = "content://org.totschnig.myexpenses.fileprovider/images/archived.jpg"
+        insert(account.id, start, -100, pictureUri = uri)
+        account.archive(start + day, "Archived")
+        assertThat(isAttachmentInUse(context.contentResolver, "archived.jpg")).isTrue()
+        db.delete(TABLE_TRANSACTIONS_ARCHIVE, null, null)
+        assertThat(isAttachmentInUse(context.contentResolver, "archived.jpg")).isFalse()
+    }
+
+    @Test
+    fun summariesAndOrphanedTransfersAreReadOnly() {
+        insertTransfer(start, -500)
+        insert(account.id, start, -100, categories[1])
+        account.archive(start + day, "Archived")
+        val before = aggregates()
+        //the summaries of the transfer and of the category, and the side of the transfer left in the other account
+        val ids = rows("SELECT $KEY_ROWID FROM $TABLE_TRANSACTIONS WHERE $KEY_STATUS = $STATUS_ARCHIVE_SUMMARY " +
+                "OR $KEY_TRANSFER_PEER = $KEY_ROWID").map { it[0].toLong() }
+        assertThat(ids).hasSize(3)
+        ids.forEach { id ->
+            val transaction = Transaction.getInstanceFromDb(id)
+            assertThat(transaction.isArchived).isTrue()
+            transaction.comment = "Edited"
+            assertThat(transaction.save()).isNull()
+        }
+        assertThat(aggregates()).isEqualTo(before)
+    }
+
+    @Test(expected = IllegalStateException::class)
+    fun transfersWithSynchronizedAccountAreNotArchived() {
+        db.update(DatabaseConstants.TABLE_ACCOUNTS, ContentValues(1).apply { put(DatabaseConstants.KEY_SYNC_ACCOUNT_NAME, "Sync") },
+            "$KEY_ROWID = ${other.id}", null)
+        insertTransfer(start, -500)
+        account.archive(start + day, "Archived")
+    }
+
+    @Test
+    fun benchmarkAggregatesBeforeAndAfterArchiving200kTransactions() {
+        assumeBenchmark()
+        val random = Random(2)
+        db.beginTransaction()
+        try {
+            repeat(200_000) {
+                insert(account.id, start + random.nextLong(5 * 365 * day), random.nextLong(-1000, 1000), categories.random(random))
+            }
+            db.setTransactionSuccessful()
+        } finally {
+            db.endTransaction()
+        }
+        val before = aggregates()
+        benchmark("Aggregates over 200k transactions", 1, 10) { aggregates() }
+        val archived = measure("Archiving four of five years") { account.archive(start + 4 * 365 * day, "Archived") }
+        assertThat(archived).isGreaterThan(0)
+        benchmark("Aggregates after archiving", 1, 10) { aggregates() }
+        assertThat(aggregates()).isEqualTo(before)
+    }
+}
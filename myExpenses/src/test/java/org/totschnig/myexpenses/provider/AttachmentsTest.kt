@@ -0,0 +1,162 @@
+package org.totschnig.myexpenses.provider
+
+import android.content.ContentValues
+import android.content.Context
+import android.database.Cursor
+import android.database.sqlite.SQLiteDatabase
+import android.net.Uri
+import androidx.test.core.app.ApplicationProvider
+import com.google.common.truth.Truth.assertThat
+import org.junit.After
+import org.junit.Before
+import org.junit.Test
+import org.junit.runner.RunWith
+import org.robolectric.RobolectricTestRunner
+import org.totschnig.myexpenses.model.Account
+import org.totschnig.myexpenses.provider.DatabaseConstants.KEY_ACCOUNTID
+import org.totschnig.myexpenses.provider.DatabaseConstants.KEY_AMOUNT
+import org.totschnig.myexpenses.provider.DatabaseConstants.KEY_DATE
+import org.totschnig.myexpenses.provider.DatabaseConstants.KEY_FILE_NAME
+import org.totschnig.myexpenses.provider.DatabaseConstants.KEY_HASH
+import org.totschnig.myexpenses.provider.DatabaseConstants.KEY_PICTURE_URI
+import org.totschnig.myexpenses.provider.DatabaseConstants.KEY_ROWID
+import org.totschnig.myexpenses.provider.DatabaseConstants.KEY_USAGES
+import org.totschnig.myexpenses.provider.DatabaseConstants.TABLE_ATTACHMENTS
+import org.totschnig.myexpenses.provider.DatabaseConstants.TABLE_TRANSACTIONS
+import org.totschnig.testutils.assumeBenchmark
+import org.totschnig.testutils.benchmark
+import org.totschnig.testutils.measure
+import kotlin.random.Random
+
+@RunWith(RobolectricTestRunner::class)
+class AttachmentsTest {
+    private val context: Context
+        get() = ApplicationProvider.getApplicationContext()
+
+    private val provider by lazy { context.contentResolver.acquireContentProviderClient(TransactionProvider.AUTHORITY)!! }
+    private val db: SQLiteDatabase
+        get() = (provider.localContentProvider as TransactionProvider).openHelperForTest.writableDatabase
+
+    private lateinit var account: Account
+
+    private val uris = (0 until 10).map { "content://org.totschnig.myexpenses.fileprovider/images/20210101_$it.jpg" }
+
+    @Before
+    fun setUp() {
+        account = Account("Attachments", 0, "").apply { save() }
+    }
+
+    @After
+    fun tearDown() {
+        provider.release()
+    }
+
+    private fun insert(pictureUri: String?) = db.insert(TABLE_TRANSACTIONS, null, ContentValues().apply {
+        put(KEY_ACCOUNTID, account.id)
+        put(KEY_AMOUNT, -100)
+        put(KEY_DATE, 1609495200L)
+        put(KEY_PICTURE_URI, pictureUri)
+    })
+
+    private fun update(id: Long, pictureUri: String?) {
+        db.update(TABLE_TRANSACTIONS, ContentValues(1).apply { put(KEY_PICTURE_URI, pictureUri) }, "$KEY_ROWID = $id", null)
+    }
+
+    private fun delete(id: Long) {
+        db.delete(TABLE_TRANSACTIONS, "$KEY_ROWID = $id", null)
+    }
+
+    private fun pairs(cursor: Cursor) = cursor.use {
+        generateSequence { if (it.moveToNext()) it.getString(0) to it.getInt(1) else null }.toMap()
+    }
+
+    private fun staleUris() = context.contentResolver.query(TransactionProvider.STALE_IMAGES_URI, null, null, null, null)!!.use {
+        generateSequence { if (it.moveToNext()) it.getString(1) else null }.toList()
+    }
+
+    @Test
+    fun usagesFollowTransactions() {
+        val random = Random(1)
+        val ids = mutableListOf<Long>()
+        repeat(2000) {
+            when (random.nextInt(3)) {
+                0 -> ids.add(insert(uris.random(random).takeIf { random.nextBoolean() }))
+                1 -> if (ids.isNotEmpty()) update(ids.random(random), uris.random(random).takeIf { random.nextBoolean() })
+                else -> if (ids.isNotEmpty()) ids.removeAt(random.nextInt(ids.size)).let { delete(it) }
+            }
+        }
+        assertThat(pairs(db.rawQuery("SELECT $KEY_PICTURE_URI, $KEY_USAGES FROM $TABLE_ATTACHMENTS", null))).isEqualTo(
+            pairs(db.rawQuery("SELECT $KEY_PICTURE_URI, count(*) FROM $TABLE_TRANSACTIONS WHERE $KEY_PICTURE_URI NOT NULL GROUP BY 1", null))
+        )
+    }
+
+    @Test
+    fun pictureBecomesStaleWithLastReference() {
+        val first = insert(uris[0])
+        val second = insert(uris[0])
+        delete(first)
+        assertThat(staleUris()).isEmpty()
+        assertThat(isAttachmentInUse(context.contentResolver, "20210101_0.jpg")).isTrue()
+        update(second, uris[1])
+        assertThat(staleUris()).containsExactly(uris[0])
+        assertThat(isAttachmentInUse(context.contentResolver, "20210101_0.jpg")).isFalse()
+        delete(second)
+        assertThat(staleUris()).containsExactly(uris[0], uris[1])
+        assertThat(isAttachmentInUse(context.contentResolver, "20210101_1.jpg")).isFalse()
+    }
+
+    private fun registerHash(uri: String, hash: String) {
+        context.contentResolver.insert(TransactionProvider.ATTACHMENTS_URI, ContentValues(2).apply {
+            put(KEY_PICTURE_URI, uri)
+            put(KEY_HASH, hash)
+        })
+    }
+
+    @Test
+    fun hashWithoutTransactionDoesNotCreateAttachment() {
+        registerHash(uris[0], contentHash("picture".byteInputStream()))
+        assertThat(pairs(db.rawQuery("SELECT $KEY_PICTURE_URI, $KEY_USAGES FROM $TABLE_ATTACHMENTS", null))).isEmpty()
+    }
+
+    @Test
+    fun attachmentWithoutUsagesIsNotInUse() {
+        db.insert(TABLE_ATTACHMENTS, null, ContentValues(2).apply {
+            put(KEY_PICTURE_URI, uris[0])
+            put(KEY_FILE_NAME, "20210101_0.jpg")
+        })
+        assertThat(isAttachmentInUse(context.contentResolver, "20210101_0.jpg")).isFalse()
+    }
+
+    @Test
+    fun identicalContentIsFoundByHash() {
+        val hash = contentHash("picture".byteInputStream())
+        insert(uris[0])
+        registerHash(uris[0], hash)
+        assertThat(findAttachment(context.contentResolver, hash, Uri.parse(uris[1]))).isEqualTo(Uri.parse(uris[0]))
+        assertThat(findAttachment(context.contentResolver, hash, Uri.parse(uris[0]))).isNull()
+        assertThat(findAttachment(context.contentResolver, contentHash("other".byteInputStream()), Uri.parse(uris[1]))).isNull()
+    }
+
+    @Test
+    fun benchmarkStaleCheckOver200kTransactions() {
+        assumeBenchmark()
+        val ids = mutableListOf<Long>()
+        db.beginTransaction()
+        try {
+            repeat(200_000) { ids += insert(if (it % 10 == 0) "content://org.totschnig.myexpenses.fileprovider/images/$it.jpg" else null) }
+            db.setTransactionSuccessful()
+        } finally {
+            db.endTransaction()
+        }
+        benchmark("Picture in use through LIKE scan of transactions", 1, 20) {
+            db.rawQuery("SELECT count(*) FROM $TABLE_TRANSACTIONS WHERE $KEY_PICTURE_URI LIKE '%1000.jpg'", null).use { it.moveToFirst() }
+        }
+        benchmark("Picture in use through attachments", 1, 20) {
+            isAttachmentInUse(context.contentResolver, "1000.jpg")
+        }
+        measure("Deleting 100k transactions with attachment triggers") {
+            db.delete(TABLE_TRANSACTIONS, "$KEY_ROWID < ${ids[100_000]}", null)
+        }
+        assertThat(staleUris()).hasSize(10_000)
+    }
+}
@@ -0,0 +1,102 @@
+package org.totschnig.myexpenses.provider
+
+import android.net.Uri
+import androidx.documentfile.provider.DocumentFile
+import androidx.test.core.app.ApplicationProvider
+import com.google.common.truth.Truth.assertThat
+import org.junit.Before
+import org.junit.Rule
+import org.junit.Test
+import org.junit.rules.TemporaryFolder
+import org.junit.runner.RunWith
+import org.robolectric.RobolectricTestRunner
+import org.totschnig.myexpenses.MyApplication
+import java.io.File
+
+@RunWith(RobolectricTestRunner::class)
+class BackupPictureStoreTest {
+    @get:Rule
+    val tempFolder = TemporaryFolder()
+
+    private val contentResolver
+        get() = ApplicationProvider.getApplicationContext<MyApplication>().contentResolver
+
+    private lateinit var storeDir: File
+
+    @Before
+    fun setUp() {
+        storeDir = tempFolder.newFolder(BACKUP_PICTURE_STORE_DIR_NAME)
+    }
+
+    private fun picture(name: String, content: String) =
+        Uri.fromFile(tempFolder.newFile(name).apply { writeText(content) })
+
+    private fun store(password: String? = null) =
+        BackupPictureStore(DocumentFile.fromFile(storeDir), contentResolver, password)
+
+    private fun BackupPictureStore.read(blob: String) = open(blob)!!.use { String(it.readBytes()) }
+
+    @Test
+    fun shouldStoreIdenticalPicturesOnce() {
+        val store = store()
+        val first = store.store(picture("first.jpg", "image"))
+        val second = store.store(picture("second.jpg", "image"))
+        val other = store.store(picture("other.jpg", "other image"))
+        assertThat(first).isEqualTo(second)
+        assertThat(other).isNotEqualTo(first)
+        assertThat(store.addedCount).isEqualTo(2)
+        assertThat(store.reusedCount).isEqualTo(1)
+        assertThat(storeDir.list()).asList().containsExactly(first, other)
+        assertThat(store.read(first!!)).isEqualTo("image")
+    }
+
+    @Test
+    fun laterBackupShouldOnlyAddNewPictures() {
+        val existing = picture("existing.jpg", "image")
+        store().store(existing)
+        val store = store()
+        store.store(existing)
+        store.store(picture("new.jpg", "new image"))
+        assertThat(store.addedCount).isEqualTo(1)
+        assertThat(store.reusedCount).isEqualTo(1)
+        assertThat(storeDir.list()).hasLength(2)
+    }
+
+    @Test
+    fun shouldEncryptBlobsPerPassword() {
+        val picture = picture("picture.jpg", "image")
+        val plain = store().store(picture)
+        val encrypted = store("secret").store(picture)
+        val otherPassword = store("other").store(picture)
+        assertThat(encrypted).endsWith(".enc")
+        assertThat(encrypted).isNotEqualTo(plain)
+        assertThat(otherPassword).isNotEqualTo(encrypted)
+        assertThat(File(storeDir, encrypted!!).readText()).isNotEqualTo("image")
+        assertThat(store("secret").read(encrypted)).isEqualTo("image")
+    }
+
+    @Test
+    fun shouldSkipMissingPicture() {
+        val store = store()
+        assertThat(store.store(Uri.fromFile(File(tempFolder.root, "missing.jpg")))).isNull()
+        assertThat(store.open("missing")).isNull()
+        assertThat(storeDir.list()).isEmpty()
+    }
+
+    @Test
+    fun shouldDeleteUnreferencedBlobs() {
+        val kept = store().store(picture("kept.jpg", "image"))!!
+        store().store(picture("dropped.jpg", "dropped image"))
+        assertThat(store().collectGarbage(setOf(kept))).isEqualTo(1)
+        assertThat(storeDir.list()).asList().containsExactly(kept)
+    }
+
+    @Test
+    fun manifestShouldRoundTrip() {
+        val manifest = BackupManifest(
+            BACKUP_MANIFEST_VERSION,
+            mapOf("content://org.totschnig.myexpenses.fileprovider/external-files/1.jpg" to "abc")
+        )
+        assertThat(BackupManifest.fromJson(manifest.toJson())).isEqualTo(manifest)
+    }
+}
@@ -0,0 +1,155 @@
+package org.totschnig.myexpenses.provider
+
+import android.content.Context
+import android.database.Cursor
+import androidx.test.core.app.ApplicationProvider
+import com.google.common.truth.Truth.assertThat
+import org.junit.Test
+import org.junit.runner.RunWith
+import org.robolectric.RobolectricTestRunner
+import org.totschnig.myexpenses.adapter.CategoryTreeBaseAdapter
+import org.totschnig.myexpenses.fragment.AbstractCategoryList.CAT_TREE_WHERE_CLAUSE
+import org.totschnig.myexpenses.model.Account
+import org.totschnig.myexpenses.provider.DatabaseConstants.KEY_ACCOUNTID
+import org.totschnig.myexpenses.provider.DatabaseConstants.KEY_AMOUNT
+import org.totschnig.myexpenses.provider.DatabaseConstants.KEY_CATID
+import org.totschnig.myexpenses.provider.DatabaseConstants.KEY_COLOR
+import org.totschnig.myexpenses.provider.DatabaseConstants.KEY_DATE
+import org.totschnig.myexpenses.provider.DatabaseConstants.KEY_ICON
+import org.totschnig.myexpenses.provider.DatabaseConstants.KEY_LABEL
+import org.totschnig.myexpenses.provider.DatabaseConstants.KEY_PARENTID
+import org.totschnig.myexpenses.provider.DatabaseConstants.KEY_ROWID
+import org.totschnig.myexpenses.provider.DatabaseConstants.KEY_SUM
+import org.totschnig.myexpenses.provider.DatabaseConstants.KEY_VALUE_DATE
+import org.totschnig.myexpenses.provider.DatabaseConstants.TABLE_TRANSACTIONS
+import org.totschnig.myexpenses.provider.DatabaseConstants.VIEW_COMMITTED
+import org.totschnig.myexpenses.provider.DatabaseConstants.WHERE_NOT_VOID
+import org.totschnig.myexpenses.viewmodel.data.Category
+import org.totschnig.testutils.assumeBenchmark
+import org.totschnig.testutils.measure
+import org.totschnig.myexpenses.model.Category as CategoryModel
+
+@RunWith(RobolectricTestRunner::class)
+class CategoryDistributionTest {
+    private val context: Context
+        get() = ApplicationProvider.getApplicationContext()
+
+    private fun category(id: Long, parentId: Long? = null) =
+        Category(id, parentId, "Category $id", null, null, 0, null, null, parentId == null)
+
+    @Test
+    fun shouldRollUpSumsOfSubCategories() {
+        val distribution = CategoryDistribution(
+            longArrayOf(1, 2, 3, 5),
+            longArrayOf(-100, -20, -30, -7),
+            intArrayOf(1, 2, 3, 1)
+        )
+        val categories = listOf(category(1), category(4), category(6), category(2, 1), category(3, 1), category(5, 4))
+        val tree = distribution.tree(categories, false, null)
+        assertThat(tree.map { it.id }).containsExactly(1L, 4L).inOrder()
+        assertThat(tree[0].sum).isEqualTo(-150L)
+        assertThat(tree[0].getChildren().map { it.sum }).containsExactly(-20L, -30L).inOrder()
+        //a main category without own transactions is shown because of its children
+        assertThat(tree[1].sum).isEqualTo(-7L)
+        assertThat(distribution.tree(categories, true, null).map { it.id }).containsExactly(1L, 4L, 6L).inOrder()
+    }
+
+    @Test
+    fun shouldSortMainAndSubCategoriesBySum() {
+        val distribution = CategoryDistribution(
+            longArrayOf(1, 2, 3, 5),
+            longArrayOf(-1, -20, -30, -70),
+            intArrayOf(1, 1, 1, 1)
+        )
+        val categories = listOf(category(1), category(4), category(2, 1), category(3, 1), category(5, 4))
+        val tree = distribution.tree(categories, false, compareBy { it.sum })
+        assertThat(tree.map { it.id }).containsExactly(4L, 1L).inOrder()
+        assertThat(tree[1].getChildren().map { it.id }).containsExactly(3L, 2L).inOrder()
+    }
+
+    private fun insertData(mainCategories: Int, subCategoriesPerMain: Int, transactions: Int): Account {
+        val account = Account("Distribution", 0, "Distribution")
+        account.save()
+        val categoryIds = mutableListOf<Long>()
+        for (main in 0 until mainCategories) {
+            val mainId = CategoryModel.write(0, "Main $main", null)
+            categoryIds.add(mainId)
+            for (sub in 0 until subCategoriesPerMain) {
+                categoryIds.add(CategoryModel.write(0, "Sub $main.$sub", mainId))
+            }
+        }
+        //a category without transactions, which is left out of the distribution
+        CategoryModel.write(0, "Empty", null)
+        val provider = context.contentResolver.acquireContentProviderClient(TransactionProvider.AUTHORITY)!!
+        val db = (provider.localContentProvider as TransactionProvider).openHelperForTest.writableDatabase
+        db.beginTransaction()
+        try {
+            val statement = db.compileStatement(
+                "INSERT INTO $TABLE_TRANSACTIONS ($KEY_ACCOUNTID, $KEY_AMOUNT, $KEY_DATE, $KEY_VALUE_DATE, $KEY_CATID) VALUES (?, ?, ?, ?, ?)"
+            )
+            for (i in 0 until transactions) {
+                statement.bindLong(1, account.id)
+                statement.bindLong(2, if (i % 7 == 0) i % 500L else -(i % 1000L))
+                statement.bindLong(3, 1609495200L + i * 60L)
+                statement.bindLong(4, 1609495200L + i * 60L)
+                statement.bindLong(5, categoryIds[i % categoryIds.size])
+                statement.executeInsert()
+            }
+            db.setTransactionSuccessful()
+        } finally {
+            db.endTransaction()
+            provider.release()
+        }
+        return account
+    }
+
+    private fun <T> query(block: () -> Cursor?, mapper: (Cursor) -> T) = block()!!.use(mapper)
+
+    private fun readRows(cursor: Cursor) = generateSequence { if (cursor.moveToNext()) cursor else null }
+        .map { CategoryTreeBaseAdapter.readCategory(it) }.toList()
+
+    /**
+     * The correlated sub query per category, that [CategoryDistribution] replaces
+     */
+    private fun correlatedQuery(account: Account): List<Category> {
+        val catFilter = "FROM $VIEW_COMMITTED WHERE $WHERE_NOT_VOID AND +$KEY_ACCOUNTID = ${account.id} AND $CAT_TREE_WHERE_CLAUSE"
+        return query({
+            context.contentResolver.query(
+                TransactionProvider.CATEGORIES_URI,
+                arrayOf(KEY_ROWID, KEY_PARENTID, KEY_LABEL, KEY_COLOR, "(SELECT sum($KEY_AMOUNT) $catFilter) AS $KEY_SUM", KEY_ICON),
+                "exists (SELECT 1 $catFilter)", null, "case when $KEY_PARENTID is null then 0 else 1 end"
+            )
+        }) { CategoryTreeBaseAdapter.buildTree(readRows(it)) }
+    }
+
+    private fun groupedScan(account: Account): List<Category> {
+        val distribution = query({
+            context.contentResolver.query(
+                TransactionProvider.TRANSACTIONS_CATEGORY_SUMS_URI.buildUpon()
+                    .appendQueryParameter(KEY_ACCOUNTID, account.id.toString()).build(),
+                null, null, null, null
+            )
+        }) { CategoryDistribution.fromCursor(it) }
+        val categories = query({
+            context.contentResolver.query(
+                TransactionProvider.CATEGORIES_URI,
+                arrayOf(KEY_ROWID, KEY_PARENTID, KEY_LABEL, KEY_COLOR, KEY_ICON),
+                null, null, "case when $KEY_PARENTID is null then 0 else 1 end"
+            )
+        }) { readRows(it) }
+        return distribution.tree(categories, false, null)
+    }
+
+    private fun flatten(tree: List<Category>) =
+        tree.flatMap { listOf(it) + it.getChildren() }.associate { it.id to it.sum }
+
+    @Test
+    fun benchmarkAgainst200kTransactions() {
+        assumeBenchmark()
+        val account = insertData(30, 9, 200_000)
+        val correlated = measure("Distribution over 300 categories through correlated sub queries") { correlatedQuery(account) }
+        val grouped = measure("Distribution over 300 categories through grouped scan") { groupedScan(account) }
+        assertThat(grouped.map { it.id }).containsExactlyElementsIn(correlated.map { it.id })
+        assertThat(flatten(grouped)).containsExactlyEntriesIn(flatten(correlated))
+    }
+}
@@ -0,0 +1,172 @@
+package org.totschnig.myexpenses.provider
+
+import android.content.ContentProviderOperation
+import android.content.ContentUris
+import android.content.ContentValues
+import android.content.Context
+import android.database.ContentObserver
+import android.net.Uri
+import androidx.test.core.app.ApplicationProvider
+import com.google.common.truth.Truth.assertThat
+import org.junit.Test
+import org.junit.runner.RunWith
+import org.robolectric.RobolectricTestRunner
+import org.totschnig.myexpenses.model.Account
+import org.totschnig.myexpenses.provider.DatabaseConstants.KEY_ACCOUNTID
+import org.totschnig.myexpenses.provider.DatabaseConstants.KEY_AMOUNT
+import org.totschnig.myexpenses.provider.DatabaseConstants.KEY_COMMENT
+import org.totschnig.myexpenses.provider.DatabaseConstants.KEY_DATE
+import org.totschnig.myexpenses.provider.DatabaseConstants.KEY_LABEL
+import org.totschnig.myexpenses.provider.DatabaseConstants.KEY_VALUE_DATE
+import kotlin.concurrent.thread
+
+@RunWith(RobolectricTestRunner::class)
+class ChangeNotifierTest {
+    private val context: Context
+        get() = ApplicationProvider.getApplicationContext()
+
+    private val transactions = TransactionProvider.TRANSACTIONS_URI
+    private val uncommitted = TransactionProvider.UNCOMMITTED_URI
+    private val accounts = TransactionProvider.ACCOUNTS_URI
+
+    @Test
+    fun shouldDispatchDescendantsOfPendingUris() {
+        val dispatched = mutableListOf<Pair<Uri, Boolean>>()
+        val notifier = ChangeNotifier { uri, syncToNetwork -> dispatched.add(uri to syncToNetwork) }
+        val category = ContentUris.withAppendedId(TransactionProvider.CATEGORIES_URI, 1)
+        notifier.begin()
+        notifier.notifyChange(uncommitted, true)
+        notifier.notifyChange(category, false)
+        notifier.notifyChange(transactions, false)
+        notifier.notifyChange(TransactionProvider.CATEGORIES_URI, false)
+        notifier.notifyChange(category, false)
+        notifier.end()
+        assertThat(dispatched).containsExactly(
+            uncommitted to true, category to false, transactions to false, TransactionProvider.CATEGORIES_URI to false
+        ).inOrder()
+    }
+
+    @Test
+    fun shouldOnlyCollectNotificationsOfTheThreadInBatch() {
+        val dispatched = mutableListOf<Uri>()
+        val notifier = ChangeNotifier { uri, _ -> synchronized(dispatched) { dispatched.add(uri) } }
+        notifier.begin()
+        notifier.notifyChange(transactions, false)
+        thread {
+            notifier.notifyChange(accounts, false)
+            notifier.countQuery()
+        }.join()
+        assertThat(dispatched).containsExactly(accounts)
+        notifier.countQuery()
+        assertThat(notifier.end()).isEqualTo(ChangeNotifier.Stats(1, 1, 1))
+        assertThat(dispatched).containsExactly(accounts, transactions).inOrder()
+    }
+
+    @Test
+    fun shouldDispatchOnceWhenOutermostBatchEnds() {
+        val dispatched = mutableListOf<Uri>()
+        val notifier = ChangeNotifier { uri, _ -> dispatched.add(uri) }
+        notifier.begin()
+        notifier.begin()
+        repeat(10) { notifier.notifyChange(transactions, false) }
+        assertThat(notifier.end()).isNull()
+        notifier.notifyChange(accounts, false)
+        assertThat(dispatched).isEmpty()
+        assertThat(notifier.end()).isEqualTo(ChangeNotifier.Stats(11, 2, 0))
+        assertThat(dispatched).containsExactly(transactions, accounts).inOrder()
+        notifier.notifyChange(accounts, false)
+        assertThat(dispatched).hasSize(3)
+    }
+
+    @Test
+    fun dataVersionChangesOnceDispatched() {
+        val notifier = ChangeNotifier { _, _ -> }
+        val payees = notifier.dataVersion("payees")
+        val transactionsVersion = notifier.dataVersion("transactions")
+        notifier.begin()
+        notifier.notifyChange(ContentUris.withAppendedId(TransactionProvider.PAYEES_URI, 1), false)
+        //not yet committed
+        assertThat(notifier.dataVersion("payees")).isEqualTo(payees)
+        notifier.end()
+        assertThat(notifier.dataVersion("payees")).isNotEqualTo(payees)
+        assertThat(notifier.dataVersion("transactions")).isEqualTo(transactionsVersion)
+        //a change of everything changes all versions
+        notifier.notifyChange(Uri.parse("content://" + TransactionProvider.AUTHORITY), false)
+        assertThat(notifier.dataVersion("transactions")).isNotEqualTo(transactionsVersion)
+    }
+
+    private class CountingObserver : ContentObserver(null) {
+        var count = 0
+        override fun onChange(selfChange: Boolean) {
+            count++
+        }
+    }
+
+    private fun observe(uri: Uri) = CountingObserver().also {
+        context.contentResolver.registerContentObserver(uri, true, it)
+    }
+
+    private fun insert(account: Account, i: Int) = ContentProviderOperation.newInsert(transactions)
+        .withValues(ContentValues().apply {
+            put(KEY_ACCOUNTID, account.id)
+            put(KEY_AMOUNT, -100L * i)
+            put(KEY_DATE, 1609495200L + i)
+            put(KEY_VALUE_DATE, 1609495200L + i)
+        }).build()
+
+    @Test
+    fun accountUpdateShouldNotBeScopedToTheAccount() {
+        val accountA = Account("A", 0, "").apply { save() }
+        //not notified for descendants, i.e. only for changes not scoped to an account
+        val observerAll = CountingObserver().also {
+            context.contentResolver.registerContentObserver(TransactionProvider.ACCOUNT_CHANGES_URI, false, it)
+        }
+        try {
+            context.contentResolver.update(
+                ContentUris.withAppendedId(accounts, accountA.id),
+                ContentValues().apply { put(KEY_LABEL, "Renamed") }, null, null
+            )
+            //transfers in account B display the label of account A
+            assertThat(observerAll.count).isAtLeast(1)
+        } finally {
+            context.contentResolver.unregisterContentObserver(observerAll)
+        }
+    }
+
+    @Test
+    fun batchShouldNotifyOnceAndOnlyObserversOfAffectedAccount() {
+        val accountA = Account("A", 0, "").apply { save() }
+        val accountB = Account("B", 0, "").apply { save() }
+        val observerA = observe(TransactionProvider.accountChangesUri(accountA.id))
+        val observerB = observe(TransactionProvider.accountChangesUri(accountB.id))
+        val observerTransactions = observe(transactions)
+        val provider = context.contentResolver.acquireContentProviderClient(TransactionProvider.AUTHORITY)!!
+        try {
+            val notifier = (provider.localContentProvider as TransactionProvider).changeNotifierForTest
+            val before = notifier.stats
+            val results = context.contentResolver.applyBatch(
+                TransactionProvider.AUTHORITY, ArrayList((0 until 50).map { insert(accountA, it) })
+            )
+            val stats = notifier.stats - before
+            assertThat(stats.requested).isAtLeast(50)
+            assertThat(stats.dispatched).isAtMost(5)
+            assertThat(observerA.count).isEqualTo(1)
+            assertThat(observerB.count).isEqualTo(0)
+            //once for transactions and once for uncommitted transactions
+            assertThat(observerTransactions.count).isEqualTo(2)
+
+            //a single update is scoped to the account of the transaction as well
+            context.contentResolver.update(
+                ContentUris.withAppendedId(transactions, ContentUris.parseId(results[0].uri!!)),
+                ContentValues().apply { put(KEY_COMMENT, "Edited") }, null, null
+            )
+            assertThat(observerA.count).isEqualTo(2)
+            assertThat(observerB.count).isEqualTo(0)
+        } finally {
+            provider.release()
+            listOf(observerA, observerB, observerTransactions).forEach {
+                context.contentResolver.unregisterContentObserver(it)
+            }
+        }
+    }
+}
@@ -0,0 +1,89 @@
+package org.totschnig.myexpenses.provider
+
+import android.content.ContentValues
+import android.content.Context
+import android.database.sqlite.SQLiteDatabase
+import androidx.test.core.app.ApplicationProvider
+import com.google.common.truth.Truth.assertThat
+import org.junit.After
+import org.junit.Before
+import org.junit.Test
+import org.junit.runner.RunWith
+import org.robolectric.RobolectricTestRunner
+import org.totschnig.myexpenses.model.Account
+import org.totschnig.myexpenses.preference.PrefKey
+import org.totschnig.myexpenses.provider.DatabaseConstants.KEY_ACCOUNTID
+import org.totschnig.myexpenses.provider.DatabaseConstants.KEY_AMOUNT
+import org.totschnig.myexpenses.provider.DatabaseConstants.KEY_DATE
+import org.totschnig.myexpenses.provider.DatabaseConstants.KEY_TRANSACTIONID
+import org.totschnig.myexpenses.provider.DatabaseConstants.KEY_YEAR_OF_MONTH_START
+import org.totschnig.myexpenses.provider.DatabaseConstants.TABLE_DATE_BUCKETS
+import org.totschnig.myexpenses.provider.DatabaseConstants.TABLE_TRANSACTIONS
+import java.util.Locale
+
+@RunWith(RobolectricTestRunner::class)
+class DateBucketsTest {
+    private val context: Context
+        get() = ApplicationProvider.getApplicationContext()
+
+    private val provider by lazy { context.contentResolver.acquireContentProviderClient(TransactionProvider.AUTHORITY)!! }
+    private val db: SQLiteDatabase
+        get() = (provider.localContentProvider as TransactionProvider).openHelperForTest.writableDatabase
+
+    private lateinit var account: Account
+    private lateinit var other: Account
+
+    //2020-01-10 12:00 UTC
+    private val date = 1578657600L
+
+    @Before
+    fun setUp() {
+        account = Account("Buckets", 0, "").apply { save() }
+        other = Account("Buckets other", 0, "").apply { save() }
+    }
+
+    @After
+    fun tearDown() {
+        PrefKey.GROUP_MONTH_STARTS.remove()
+        DatabaseConstants.buildLocalized(Locale.getDefault())
+        provider.release()
+    }
+
+    private fun insert() = db.insert(TABLE_TRANSACTIONS, null, ContentValues().apply {
+        put(KEY_ACCOUNTID, account.id)
+        put(KEY_DATE, date)
+        put(KEY_AMOUNT, 100)
+    })
+
+    private fun bucket(id: Long, column: String) = db.query(
+        TABLE_DATE_BUCKETS, arrayOf(column), "$KEY_TRANSACTIONID = ?", arrayOf(id.toString()),
+        null, null, null
+    ).use {
+        it.moveToFirst()
+        it.getLong(0)
+    }
+
+    private fun refresh() = provider.call(TransactionProvider.METHOD_REFRESH_DATE_BUCKETS, null, null)
+
+    @Test
+    fun bucketsShouldFollowAccount() {
+        val id = insert()
+        assertThat(bucket(id, KEY_ACCOUNTID)).isEqualTo(account.id)
+        db.update(TABLE_TRANSACTIONS, ContentValues(1).apply { put(KEY_ACCOUNTID, other.id) },
+            "_id = ?", arrayOf(id.toString()))
+        assertThat(bucket(id, KEY_ACCOUNTID)).isEqualTo(other.id)
+    }
+
+    @Test
+    fun bucketsShouldBeRecomputedWhenMonthStartChanges() {
+        val id = insert()
+        assertThat(bucket(id, KEY_YEAR_OF_MONTH_START)).isEqualTo(2020)
+        PrefKey.GROUP_MONTH_STARTS.putString("15")
+        DatabaseConstants.buildLocalized(Locale.getDefault())
+        //queries do not recompute stale buckets
+        provider.query(TransactionProvider.TRANSACTIONS_URI, null, null, null, null)?.close()
+        assertThat(bucket(id, KEY_YEAR_OF_MONTH_START)).isEqualTo(2020)
+        refresh()
+        assertThat(bucket(id, KEY_YEAR_OF_MONTH_START)).isEqualTo(2019)
+    }
+}
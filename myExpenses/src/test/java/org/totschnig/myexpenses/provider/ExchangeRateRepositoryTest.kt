@@ -0,0 +1,152 @@
+package org.totschnig.myexpenses.provider
+
+import androidx.room.Room
+import androidx.test.core.app.ApplicationProvider
+import com.google.common.truth.Truth.assertThat
+import kotlinx.coroutines.runBlocking
+import org.junit.After
+import org.junit.Before
+import org.junit.Test
+import org.junit.runner.RunWith
+import org.mockito.ArgumentMatchers.any
+import org.mockito.ArgumentMatchers.anyString
+import org.mockito.Mockito.mock
+import org.mockito.Mockito.verify
+import org.mockito.Mockito.verifyNoInteractions
+import org.mockito.Mockito.verifyNoMoreInteractions
+import org.mockito.Mockito.`when`
+import org.robolectric.RobolectricTestRunner
+import org.totschnig.myexpenses.preference.PrefHandler
+import org.totschnig.myexpenses.preference.PrefKey
+import org.totschnig.myexpenses.retrofit.ExchangeRateHost
+import org.totschnig.myexpenses.retrofit.ExchangeRateService
+import org.totschnig.myexpenses.retrofit.OpenExchangeRates
+import org.totschnig.myexpenses.room.ExchangeRateDatabase
+import retrofit2.Call
+import retrofit2.Response
+import java.time.DayOfWeek
+import java.time.LocalDate
+
+@RunWith(RobolectricTestRunner::class)
+class ExchangeRateRepositoryTest {
+    private lateinit var database: ExchangeRateDatabase
+    private lateinit var host: ExchangeRateHost
+    private val prefHandler: PrefHandler = mock(PrefHandler::class.java).also {
+        `when`(it.getString(any(PrefKey::class.java), anyString())).thenAnswer { invocation -> invocation.arguments[1] }
+    }
+
+    private fun rate(date: LocalDate) = 1 + date.dayOfYear / 1000f
+
+    @Before
+    fun setup() {
+        database = Room.inMemoryDatabaseBuilder(ApplicationProvider.getApplicationContext(), ExchangeRateDatabase::class.java)
+            .allowMainThreadQueries()
+            .build()
+        host = mock(ExchangeRateHost::class.java)
+        //like ECB based sources, rates are only published on weekdays
+        `when`(host.getTimeSeries(any(), any(), anyString(), anyString())).thenAnswer { invocation ->
+            val start = invocation.getArgument<LocalDate>(0)
+            val end = invocation.getArgument<LocalDate>(1)
+            val symbol = invocation.getArgument<String>(2)
+            val rates = generateSequence(start) { it.plusDays(1) }.takeWhile { it <= end }
+                .filter { it.dayOfWeek != DayOfWeek.SATURDAY && it.dayOfWeek != DayOfWeek.SUNDAY }
+                .associateWith { mapOf(symbol to rate(it)) }
+            @Suppress("UNCHECKED_CAST")
+            (mock(Call::class.java) as Call<ExchangeRateHost.TimeSeriesResult>).also {
+                `when`(it.execute()).thenReturn(Response.success(ExchangeRateHost.TimeSeriesResult(rates)))
+            }
+        }
+    }
+
+    @After
+    fun tearDown() {
+        database.close()
+    }
+
+    private fun repository() = ExchangeRateRepository(
+        database.exchangeRateDao(), prefHandler,
+        ExchangeRateService(host, mock(OpenExchangeRates::class.java))
+    )
+
+    @Test
+    fun prefetchFetchesMissingRangeWithOneRequest(): Unit = runBlocking {
+        val start = LocalDate.of(2021, 1, 1)
+        val end = LocalDate.of(2021, 12, 31)
+        val repository = repository()
+        assertThat(repository.prefetch("USD", "EUR", start, end)).isEqualTo(1)
+        verify(host).getTimeSeries(start, end, "USD", "EUR")
+        assertThat(database.exchangeRateDao().getRates("EUR", "USD", start, end, "EXCHANGE_RATE_HOST")).hasSize(261)
+
+        //weekdays are served from memory, weekends from the previous Friday
+        assertThat(repository.loadExchangeRate("USD", "EUR", LocalDate.of(2021, 3, 4)))
+            .isEqualTo(rate(LocalDate.of(2021, 3, 4)))
+        assertThat(repository.loadExchangeRate("USD", "EUR", LocalDate.of(2021, 3, 7)))
+            .isEqualTo(rate(LocalDate.of(2021, 3, 5)))
+        assertThat(repository.prefetch("USD", "EUR", start, end)).isEqualTo(0)
+        verifyNoMoreInteractions(host)
+    }
+
+    @Test
+    fun prefetchOnlyFetchesRangeMissingInDatabase(): Unit = runBlocking {
+        repository().prefetch("USD", "EUR", LocalDate.of(2021, 1, 1), LocalDate.of(2021, 12, 31))
+        //a new repository has an empty cache, but weekends between stored rates are not refetched
+        assertThat(repository().prefetch("USD", "EUR", LocalDate.of(2021, 6, 1), LocalDate.of(2022, 1, 31))).isEqualTo(1)
+        verify(host).getTimeSeries(LocalDate.of(2022, 1, 1), LocalDate.of(2022, 1, 31), "USD", "EUR")
+    }
+
+    @Test
+    fun inverseRatesAreServedFromDatabase(): Unit = runBlocking {
+        val date = LocalDate.of(2021, 3, 4)
+        repository().prefetch("USD", "EUR", date, date)
+        assertThat(database.exchangeRateDao().getRates("USD", "EUR", date, date, "EXCHANGE_RATE_HOST").single().rate)
+            .isWithin(0.0001f).of(1 / rate(date))
+    }
+
+    @Test
+    fun prefetchAroundServesNearbyDatesFromOneRequest(): Unit = runBlocking {
+        val date = LocalDate.of(2021, 3, 4)
+        val repository = repository()
+        repository.prefetchAround("USD", "EUR", date)
+        verify(host).getTimeSeries(date.minusDays(PREFETCH_DAYS), date.plusDays(PREFETCH_DAYS), "USD", "EUR")
+        assertThat(repository.loadExchangeRate("USD", "EUR", date)).isEqualTo(rate(date))
+        assertThat(repository.loadExchangeRate("USD", "EUR", LocalDate.of(2021, 4, 15)))
+            .isEqualTo(rate(LocalDate.of(2021, 4, 15)))
+        verifyNoMoreInteractions(host)
+    }
+
+    @Test
+    fun prefetchAroundIsSkippedForSourcesWithoutTimeSeries(): Unit = runBlocking {
+        val openExchangeRates = mock(OpenExchangeRates::class.java)
+        val prefHandler = mock(PrefHandler::class.java).also {
+            `when`(it.getString(any(PrefKey::class.java), anyString())).thenAnswer { invocation ->
+                if (invocation.arguments[0] == PrefKey.EXCHANGE_RATE_PROVIDER) "OPENEXCHANGERATES" else "appId"
+            }
+        }
+        ExchangeRateRepository(database.exchangeRateDao(), prefHandler, ExchangeRateService(host, openExchangeRates))
+            .prefetchAround("USD", "EUR", LocalDate.of(2021, 3, 4))
+        verifyNoInteractions(host, openExchangeRates)
+    }
+
+    @Test
+    fun unstoredRangesIgnoreWeekendsBetweenStoredRates() {
+        val range = LocalDate.of(2021, 3, 1)..LocalDate.of(2021, 3, 31)
+        val stored = generateSequence(range.start) { it.plusDays(1) }.takeWhile { it <= LocalDate.of(2021, 3, 12) }
+            .filter { it.dayOfWeek != DayOfWeek.SATURDAY && it.dayOfWeek != DayOfWeek.SUNDAY }.toSet()
+        assertThat(unstoredRanges(range, stored))
+            .containsExactly(LocalDate.of(2021, 3, 13)..LocalDate.of(2021, 3, 31))
+    }
+
+    @Test
+    fun cacheTracksLoadedRanges() {
+        val cache = ExchangeRateCache()
+        val key = ExchangeRateCache.Key("EUR", "USD", "EXCHANGE_RATE_HOST")
+        cache.put(key, LocalDate.of(2021, 1, 1), LocalDate.of(2021, 1, 31), emptyMap())
+        cache.put(key, LocalDate.of(2021, 3, 1), LocalDate.of(2021, 3, 31), emptyMap())
+        cache.put(key, LocalDate.of(2021, 2, 1), LocalDate.of(2021, 2, 10), emptyMap())
+        assertThat(cache.missingRanges(key, LocalDate.of(2020, 12, 1), LocalDate.of(2021, 4, 30))).containsExactly(
+            LocalDate.of(2020, 12, 1)..LocalDate.of(2020, 12, 31),
+            LocalDate.of(2021, 2, 11)..LocalDate.of(2021, 2, 28),
+            LocalDate.of(2021, 4, 1)..LocalDate.of(2021, 4, 30)
+        ).inOrder()
+    }
+}
@@ -0,0 +1,226 @@
+package org.totschnig.myexpenses.provider
+
+import android.content.ContentUris
+import android.content.ContentValues
+import android.content.Context
+import android.database.Cursor
+import android.database.MatrixCursor
+import android.widget.FrameLayout
+import androidx.test.core.app.ActivityScenario
+import androidx.test.core.app.ApplicationProvider
+import com.google.common.truth.Truth.assertThat
+import org.junit.Test
+import org.junit.runner.RunWith
+import org.robolectric.RobolectricTestRunner
+import org.totschnig.myexpenses.MyApplication
+import org.totschnig.myexpenses.R
+import org.totschnig.myexpenses.activity.ManageParties
+import org.totschnig.myexpenses.adapter.TransactionAdapter
+import org.totschnig.myexpenses.model.Account
+import org.totschnig.myexpenses.provider.DatabaseConstants.KEY_ACCOUNTID
+import org.totschnig.myexpenses.provider.DatabaseConstants.KEY_AMOUNT
+import org.totschnig.myexpenses.provider.DatabaseConstants.KEY_COMMENT
+import org.totschnig.myexpenses.provider.DatabaseConstants.KEY_DATE
+import org.totschnig.myexpenses.provider.DatabaseConstants.KEY_PARENTID
+import org.totschnig.myexpenses.provider.DatabaseConstants.KEY_ROWID
+import org.totschnig.myexpenses.provider.DatabaseConstants.KEY_VALUE_DATE
+import org.totschnig.myexpenses.provider.DatabaseConstants.TABLE_TRANSACTIONS
+import org.totschnig.testutils.assumeBenchmark
+import org.totschnig.testutils.measure
+
+@RunWith(RobolectricTestRunner::class)
+class KeysetPagingCursorTest {
+    private val context: Context
+        get() = ApplicationProvider.getApplicationContext()
+
+    private fun index(ids: List<Long>, fingerprints: List<Long> = ids) =
+        KeysetIndex(ids.toLongArray(), ids.toLongArray(), fingerprints.toLongArray())
+
+    @Test
+    fun editShouldOnlyInvalidatePageOfEditedRow() {
+        val ids = (1L..10L).toList()
+        val pages = reconcilePages(index(ids), emptyList(), 4)
+        assertThat(pages.map { it.size }).containsExactly(4, 4, 2).inOrder()
+        val edited = reconcilePages(index(ids, ids.map { if (it == 6L) -6L else it }), pages, 4)
+        assertThat(edited[0]).isSameInstanceAs(pages[0])
+        assertThat(edited[1]).isNotSameInstanceAs(pages[1])
+        assertThat(edited[2]).isSameInstanceAs(pages[2])
+    }
+
+    @Test
+    fun insertAndDeleteShouldKeepOtherPages() {
+        val ids = (1L..10L).toList()
+        val pages = reconcilePages(index(ids), emptyList(), 4)
+        val inserted = reconcilePages(index(listOf(0L) + ids), pages, 4)
+        assertThat(inserted.map { it.size }).containsExactly(1, 4, 4, 2).inOrder()
+        assertThat(inserted.drop(1)).containsExactlyElementsIn(pages).inOrder()
+        val deleted = reconcilePages(index(ids - 2L), pages, 4)
+        assertThat(deleted.map { it.size }).containsExactly(3, 4, 2).inOrder()
+        assertThat(deleted.drop(1)).containsExactlyElementsIn(pages.drop(1)).inOrder()
+    }
+
+    @Test
+    fun cacheShouldDropRowsOfLeastRecentlyUsedPage() {
+        val cache = KeysetPageCache(2)
+        val pages = reconcilePages(index((1L..9L).toList()), emptyList(), 3)
+        pages.forEach {
+            it.rows = arrayOf()
+            cache.touch(it)
+        }
+        assertThat(cache.loadedCount).isEqualTo(2)
+        assertThat(pages.map { it.rows != null }).containsExactly(false, true, true).inOrder()
+    }
+
+    @Test
+    fun rowsChangedSinceIndexWasLoadedShouldBeFilledFromDatabase() {
+        val names = arrayOf(KEY_ROWID, KEY_DATE, KEY_COMMENT)
+        val index = index((1L..4L).toList())
+        val pages = reconcilePages(index, emptyList(), 4)
+        val cursor = KeysetPagingCursor(names, index, pages, KeysetPageCache(), { ids ->
+            //row 3 has been moved out of the page, row 2 has been deleted
+            assertThat(ids).containsExactly(2L, 3L)
+            MatrixCursor(names).apply { addRow(arrayOf<Any?>(3L, 10L, "third")) }
+        }) { _, _ ->
+            MatrixCursor(names).apply {
+                addRow(arrayOf<Any?>(1L, 1L, "first"))
+                addRow(arrayOf<Any?>(4L, 4L, "fourth"))
+            }
+        }
+        val rows = (0 until cursor.count).map {
+            cursor.moveToPosition(it)
+            cursor.getString(2)
+        }
+        assertThat(rows).containsExactly("first", "first", "third", "fourth").inOrder()
+        assertThat(pages[0].stale).isTrue()
+    }
+
+    private fun insertData(transactions: Int): Account {
+        val account = Account("Paging", 0, "Paging")
+        account.save()
+        val provider = context.contentResolver.acquireContentProviderClient(TransactionProvider.AUTHORITY)!!
+        val db = (provider.localContentProvider as TransactionProvider).openHelperForTest.writableDatabase
+        db.beginTransaction()
+        try {
+            val statement = db.compileStatement(
+                "INSERT INTO $TABLE_TRANSACTIONS ($KEY_ACCOUNTID, $KEY_AMOUNT, $KEY_DATE, $KEY_VALUE_DATE, $KEY_COMMENT) VALUES (?, ?, ?, ?, ?)"
+            )
+            for (i in 0 until transactions) {
+                statement.bindLong(1, account.id)
+                statement.bindLong(2, -(i % 1000L))
+                //several transactions share the same date, so that the key needs the id
+                val date = 1609495200L + (i / 3) * 3600L
+                statement.bindLong(3, date)
+                statement.bindLong(4, date)
+                statement.bindString(5, "Transaction $i")
+                statement.executeInsert()
+            }
+            db.setTransactionSuccessful()
+        } finally {
+            db.endTransaction()
+            provider.release()
+        }
+        return account
+    }
+
+    private fun loader(account: Account) = KeysetPagingLoader(
+        context, account.getExtendedUriForTransactionList(false), account.extendedProjectionForTransactionList,
+        "${account.selectionForTransactionList} AND $KEY_PARENTID is null", account.selectionArgsForTransactionList, true,
+        TransactionProvider.accountChangesUri(account.id)
+    )
+
+    private fun Cursor.rows(): List<Pair<Long, String>> {
+        val idColumn = getColumnIndexOrThrow(KEY_ROWID)
+        val commentColumn = getColumnIndexOrThrow(KEY_COMMENT)
+        return (0 until count).map {
+            moveToPosition(it)
+            getLong(idColumn) to getString(commentColumn)
+        }
+    }
+
+    @Test
+    fun pagedCursorShouldMatchFullCursorAndReloadOnlyChangedPage() {
+        val account = insertData(1000)
+        val full = context.contentResolver.query(
+            account.getExtendedUriForTransactionList(false), account.extendedProjectionForTransactionList,
+            "${account.selectionForTransactionList} AND $KEY_PARENTID is null", account.selectionArgsForTransactionList,
+            keysetSortOrder(true)
+        )!!.use { it.rows() }
+        val loader = loader(account)
+        val paged = loader.loadInBackground() as KeysetPagingCursor
+        assertThat(paged.rows()).containsExactlyElementsIn(full).inOrder()
+        paged.close()
+
+        val pages = (loader.loadInBackground() as KeysetPagingCursor).use { cursor ->
+            //display the first three pages
+            (0 until 3 * KEYSET_PAGE_SIZE).forEach { cursor.moveToPosition(it) }
+            cursor.pages
+        }
+        val edited = full[KEYSET_PAGE_SIZE + 5].first
+        context.contentResolver.update(
+            ContentUris.withAppendedId(TransactionProvider.TRANSACTIONS_URI, edited),
+            ContentValues().apply { put(KEY_COMMENT, "Edited") }, null, null
+        )
+        (loader.loadInBackground() as KeysetPagingCursor).use { cursor ->
+            assertThat(cursor.pages[0]).isSameInstanceAs(pages[0])
+            assertThat(cursor.pages[1]).isNotSameInstanceAs(pages[1])
+            assertThat(cursor.pages[1].rows).isNull()
+            assertThat(cursor.pages[2]).isSameInstanceAs(pages[2])
+            assertThat(cursor.pages[2].rows).isNotNull()
+            cursor.moveToPosition(KEYSET_PAGE_SIZE + 5)
+            assertThat(cursor.getString(cursor.getColumnIndexOrThrow(KEY_COMMENT))).isEqualTo("Edited")
+        }
+    }
+
+    @Test
+    fun stalePageShouldBindInTransactionAdapter() {
+        val account = insertData(10)
+        val loader = loader(account)
+        val cursor = loader.loadInBackground() as KeysetPagingCursor
+        val ids = cursor.rows().map { it.first }
+        context.contentResolver.delete(
+            ContentUris.withAppendedId(TransactionProvider.TRANSACTIONS_URI, ids[3]), null, null
+        )
+        //moves the transaction out of the range of keys of the page
+        context.contentResolver.update(
+            ContentUris.withAppendedId(TransactionProvider.TRANSACTIONS_URI, ids[5]),
+            ContentValues().apply { put(KEY_DATE, 0L) }, null, null
+        )
+        cursor.pages[0].rows = null
+        ActivityScenario.launch(ManageParties::class.java).onActivity { activity ->
+            val appComponent = (activity.application as MyApplication).appComponent
+            val adapter = TransactionAdapter(
+                activity, R.layout.expense_row, null, 0, appComponent.currencyFormatter(),
+                appComponent.prefHandler(), appComponent.currencyContext()
+            ) { }
+            adapter.setAccount(account)
+            adapter.swapCursor(cursor)
+            val parent = FrameLayout(activity)
+            (0 until adapter.count).forEach { adapter.getView(it, null, parent) }
+        }
+        assertThat(cursor.pages[0].stale).isTrue()
+        assertThat(cursor.rows().map { it.first })
+            .containsExactlyElementsIn(ids.mapIndexed { i, id -> if (i == 3) ids[2] else id }).inOrder()
+        cursor.close()
+    }
+
+    @Test
+    fun benchmarkOpeningListOf50kTransactions() {
+        assumeBenchmark()
+        val account = insertData(50_000)
+        measure("Opening list of 50k transactions with full cursor") {
+            context.contentResolver.query(
+                account.getExtendedUriForTransactionList(false), account.extendedProjectionForTransactionList,
+                "${account.selectionForTransactionList} AND $KEY_PARENTID is null", account.selectionArgsForTransactionList,
+                keysetSortOrder(true)
+            )!!.use { cursor ->
+                //a CursorWindow is only filled, once the cursor is moved
+                cursor.moveToLast()
+            }
+        }
+        measure("Opening list of 50k transactions with index and first page") {
+            (loader(account).loadInBackground() as KeysetPagingCursor).use {
+                assertThat(it.count).isEqualTo(50_000)
+            }
+        }
+    }
+}
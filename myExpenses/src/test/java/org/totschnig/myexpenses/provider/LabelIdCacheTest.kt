@@ -0,0 +1,57 @@
+package org.totschnig.myexpenses.provider
+
+import android.content.ContentUris
+import android.content.ContentValues
+import androidx.test.core.app.ApplicationProvider
+import com.google.common.truth.Truth.assertThat
+import org.junit.Test
+import org.junit.runner.RunWith
+import org.robolectric.RobolectricTestRunner
+import org.totschnig.myexpenses.MyApplication
+import org.totschnig.myexpenses.provider.DatabaseConstants.KEY_PAYEE_NAME
+
+@RunWith(RobolectricTestRunner::class)
+class LabelIdCacheTest {
+
+    @Test
+    fun shouldCountHitsAndMisses() {
+        val cache = LabelIdCache()
+        assertThat(cache.categories["Food"]).isNull()
+        cache.categories["Food"] = 1L
+        assertThat(cache.categories["Food"]).isEqualTo(1L)
+        assertThat(cache.categories["Food"]).isEqualTo(1L)
+        assertThat(cache.categories.missCount).isEqualTo(1)
+        assertThat(cache.categories.hitCount).isEqualTo(2)
+    }
+
+    @Test
+    fun shouldEvictLeastRecentlyUsed() {
+        val cache = LabelIdCache(2)
+        cache.payees["one"] = 1L
+        cache.payees["two"] = 2L
+        cache.payees["one"]
+        cache.payees["three"] = 3L
+        assertThat(cache.payees.keys).containsExactly("one", "three")
+    }
+
+    @Test
+    fun shouldBeClearedWithinUpdateAndDelete() {
+        val contentResolver = ApplicationProvider.getApplicationContext<MyApplication>().contentResolver
+        val cache = ApplicationProvider.getApplicationContext<MyApplication>().appComponent.labelIdCache()
+        val payeeId = ContentUris.parseId(contentResolver.insert(TransactionProvider.PAYEES_URI,
+            ContentValues(1).apply { put(KEY_PAYEE_NAME, "Payee") })!!)
+        cache.payees["Payee"] = payeeId
+        cache.tags["Tag"] = 2L
+        //inserts, e.g. by an import, leave cached ids valid
+        contentResolver.insert(TransactionProvider.PAYEES_URI,
+            ContentValues(1).apply { put(KEY_PAYEE_NAME, "Other") })
+        assertThat(cache.payees).containsExactly("Payee", payeeId)
+        contentResolver.update(ContentUris.withAppendedId(TransactionProvider.PAYEES_URI, payeeId),
+            ContentValues(1).apply { put(KEY_PAYEE_NAME, "Renamed") }, null, null)
+        assertThat(cache.payees).isEmpty()
+        assertThat(cache.tags).containsExactly("Tag", 2L)
+        cache.payees["Renamed"] = payeeId
+        contentResolver.delete(ContentUris.withAppendedId(TransactionProvider.PAYEES_URI, payeeId), null, null)
+        assertThat(cache.payees).isEmpty()
+    }
+}
@@ -0,0 +1,244 @@
+package org.totschnig.myexpenses.provider
+
+import android.content.ContentUris
+import android.content.ContentValues
+import android.content.Context
+import android.database.Cursor
+import android.database.sqlite.SQLiteDatabase
+import androidx.test.core.app.ApplicationProvider
+import com.google.common.truth.Truth.assertThat
+import org.junit.After
+import org.junit.Before
+import org.junit.Test
+import org.junit.runner.RunWith
+import org.mockito.Mockito
+import org.robolectric.RobolectricTestRunner
+import org.totschnig.myexpenses.db2.Repository
+import org.totschnig.myexpenses.model.Account
+import org.totschnig.myexpenses.model.CurrencyContext
+import org.totschnig.myexpenses.provider.DatabaseConstants.CAT_AS_LABEL
+import org.totschnig.myexpenses.provider.DatabaseConstants.KEY_ACCOUNTID
+import org.totschnig.myexpenses.provider.DatabaseConstants.KEY_AMOUNT
+import org.totschnig.myexpenses.provider.DatabaseConstants.KEY_CATID
+import org.totschnig.myexpenses.provider.DatabaseConstants.KEY_COMMENT
+import org.totschnig.myexpenses.provider.DatabaseConstants.KEY_CURRENCY
+import org.totschnig.myexpenses.provider.DatabaseConstants.KEY_DATE
+import org.totschnig.myexpenses.provider.DatabaseConstants.KEY_METHODID
+import org.totschnig.myexpenses.provider.DatabaseConstants.KEY_PARENTID
+import org.totschnig.myexpenses.provider.DatabaseConstants.KEY_PAYEEID
+import org.totschnig.myexpenses.provider.DatabaseConstants.KEY_PAYEE_NAME
+import org.totschnig.myexpenses.provider.DatabaseConstants.KEY_PAYEE_NAME_NORMALIZED
+import org.totschnig.myexpenses.provider.DatabaseConstants.KEY_ROWID
+import org.totschnig.myexpenses.provider.DatabaseConstants.KEY_STATUS
+import org.totschnig.myexpenses.provider.DatabaseConstants.SPLIT_CATID
+import org.totschnig.myexpenses.provider.DatabaseConstants.STATUS_NONE
+import org.totschnig.myexpenses.provider.DatabaseConstants.STATUS_UNCOMMITTED
+import org.totschnig.myexpenses.provider.DatabaseConstants.TABLE_PAYEES
+import org.totschnig.myexpenses.provider.DatabaseConstants.TABLE_TRANSACTIONS
+import org.totschnig.myexpenses.provider.DatabaseConstants.VIEW_EXTENDED
+import org.totschnig.myexpenses.provider.DatabaseConstants.WHERE_NOT_SPLIT
+import org.totschnig.testutils.assumeBenchmark
+import org.totschnig.testutils.benchmark
+import org.totschnig.testutils.measure
+import kotlin.random.Random
+import org.totschnig.myexpenses.model.Category as CategoryModel
+
+@RunWith(RobolectricTestRunner::class)
+class PayeeAutofillTest {
+    private val context: Context
+        get() = ApplicationProvider.getApplicationContext()
+
+    private val provider by lazy { context.contentResolver.acquireContentProviderClient(TransactionProvider.AUTHORITY)!! }
+    private val db: SQLiteDatabase
+        get() = (provider.localContentProvider as TransactionProvider).openHelperForTest.writableDatabase
+
+    private val repository by lazy { Repository(context.contentResolver, Mockito.mock(CurrencyContext::class.java)) }
+
+    private lateinit var accounts: List<Account>
+    private lateinit var payees: List<Long>
+    private lateinit var categories: List<Long>
+
+    private val projection = arrayOf(KEY_ACCOUNTID, KEY_CATID, CAT_AS_LABEL, KEY_METHODID, KEY_AMOUNT, KEY_COMMENT, KEY_CURRENCY)
+
+    @Before
+    fun setUp() {
+        accounts = listOf("A", "B").map { Account("Autofill $it", 0, "").apply { save() } }
+    }
+
+    @After
+    fun tearDown() {
+        provider.release()
+    }
+
+    private fun insertMasterData(payeeCount: Int) {
+        payees = (0 until payeeCount).map { index ->
+            db.insert(TABLE_PAYEES, null, ContentValues(2).apply {
+                put(KEY_PAYEE_NAME, "Payee $index")
+                put(KEY_PAYEE_NAME_NORMALIZED, "payee $index")
+            })
+        }
+        val mainId = CategoryModel.write(0, "Main", null)
+        categories = listOf(mainId) + (0 until 9).map { CategoryModel.write(0, "Sub $it", mainId) }
+    }
+
+    private fun randomValues(random: Random) = ContentValues().apply {
+        put(KEY_ACCOUNTID, accounts.random(random).id)
+        put(KEY_AMOUNT, random.nextLong(-10000, 10000))
+        put(KEY_DATE, 1609495200L + random.nextInt(1000000))
+        put(KEY_PAYEEID, if (random.nextInt(10) == 0) null else payees.random(random))
+        put(KEY_CATID, when (random.nextInt(10)) {
+            0 -> null
+            1 -> SPLIT_CATID
+            else -> categories.random(random)
+        })
+        put(KEY_METHODID, if (random.nextBoolean()) null else random.nextLong(1, 4))
+        put(KEY_COMMENT, if (random.nextBoolean()) null else "Comment ${random.nextInt(100)}")
+    }
+
+    private fun insertTransactions(count: Int, random: Random = Random(1)) {
+        db.beginTransaction()
+        try {
+            repeat(count) { db.insert(TABLE_TRANSACTIONS, null, randomValues(random)) }
+            db.setTransactionSuccessful()
+        } finally {
+            db.endTransaction()
+        }
+    }
+
+    private fun rows(cursor: Cursor?) = cursor!!.use {
+        generateSequence { if (it.moveToNext()) (0 until it.columnCount).map { column -> it.getString(column) } else null }.toList()
+    }
+
+    /**
+     * The lookup in the extended view this table replaces
+     */
+    private fun autofillFromView(payeeId: Long) = rows(
+        db.query(
+            VIEW_EXTENDED, projection,
+            "$KEY_ROWID = (SELECT max($KEY_ROWID) FROM $TABLE_TRANSACTIONS WHERE $WHERE_NOT_SPLIT AND $KEY_PAYEEID = ?)",
+            arrayOf(payeeId.toString()), null, null, null
+        )
+    )
+
+    private fun autofill(payeeId: Long) = rows(
+        context.contentResolver.query(
+            ContentUris.withAppendedId(TransactionProvider.AUTOFILL_URI, payeeId), projection, null, null, null
+        )
+    )
+
+    /**
+     * category histogram computed from scratch, ranked like [PAYEE_CATEGORIES_RANK] before any deletes
+     */
+    private fun expectedSuggestions(payeeId: Long) = rows(
+        db.rawQuery(
+            "SELECT $KEY_CATID, count(*) AS usages FROM $TABLE_TRANSACTIONS WHERE $KEY_PAYEEID = ? AND $WHERE_NOT_SPLIT " +
+                    "AND $KEY_CATID IS NOT null AND $KEY_STATUS != $STATUS_UNCOMMITTED GROUP BY $KEY_CATID ORDER BY usages DESC, max($KEY_ROWID) DESC",
+            arrayOf(payeeId.toString())
+        )
+    ).map { it[0].toLong() to it[1].toInt() }
+
+    private fun suggestions(payeeId: Long) =
+        repository.categorySuggestions(payeeId, Int.MAX_VALUE).map { it.categoryId to it.usages }
+
+    private fun assertMatchesTransactions() {
+        for (payeeId in payees) {
+            assertThat(autofill(payeeId)).isEqualTo(autofillFromView(payeeId))
+            //the transaction breaking ties is not lowered on delete, hence only the usages determine the order
+            val suggestions = suggestions(payeeId)
+            assertThat(suggestions).containsExactlyElementsIn(expectedSuggestions(payeeId))
+            assertThat(suggestions.map { it.second }).isInOrder(Comparator.reverseOrder<Int>())
+        }
+    }
+
+    @Test
+    fun tablesFollowInsertsUpdatesAndDeletes() {
+        insertMasterData(20)
+        insertTransactions(2000)
+        assertMatchesTransactions()
+        val random = Random(2)
+        val ids = rows(db.rawQuery("SELECT $KEY_ROWID FROM $TABLE_TRANSACTIONS", null)).map { it[0].toLong() }
+        db.beginTransaction()
+        try {
+            ids.shuffled(random).take(500).forEach { id ->
+                val values = randomValues(random)
+                //update only one column at a time, to cover each part of the triggers
+                val column = values.keySet().random(random)
+                db.update(TABLE_TRANSACTIONS, ContentValues(1).apply { put(column, values.getAsString(column)) }, "$KEY_ROWID = $id", null)
+            }
+            ids.shuffled(random).take(500).forEach { id ->
+                db.delete(TABLE_TRANSACTIONS, "$KEY_ROWID = $id", null)
+            }
+            db.setTransactionSuccessful()
+        } finally {
+            db.endTransaction()
+        }
+        assertMatchesTransactions()
+        db.delete(TABLE_PAYEES, "$KEY_ROWID = ${payees[0]}", null)
+        assertThat(autofill(payees[0])).isEmpty()
+        assertThat(suggestions(payees[0])).isEmpty()
+    }
+
+    @Test
+    fun uncommittedTransactionsAreSkipped() {
+        insertMasterData(1)
+        val payeeId = payees[0]
+        fun insert(catId: Long, status: Int) = db.insert(TABLE_TRANSACTIONS, null, ContentValues().apply {
+            put(KEY_ACCOUNTID, accounts[0].id)
+            put(KEY_AMOUNT, -100)
+            put(KEY_DATE, 1609495200L)
+            put(KEY_PAYEEID, payeeId)
+            put(KEY_CATID, catId)
+            put(KEY_STATUS, status)
+        })
+        insert(categories[1], STATUS_NONE)
+        val uncommitted = insert(categories[2], STATUS_UNCOMMITTED)
+        assertThat(autofill(payeeId).single()[1]).isEqualTo(categories[1].toString())
+        assertThat(suggestions(payeeId)).containsExactly(categories[1] to 1)
+        db.update(TABLE_TRANSACTIONS, ContentValues(1).apply { put(KEY_STATUS, STATUS_NONE) }, "$KEY_ROWID = $uncommitted", null)
+        assertThat(autofill(payeeId).single()[1]).isEqualTo(categories[2].toString())
+        assertThat(suggestions(payeeId)).containsExactly(categories[2] to 1, categories[1] to 1).inOrder()
+    }
+
+    @Test
+    fun splitPartsAreUsedButNotSplitParents() {
+        insertMasterData(1)
+        val payeeId = payees[0]
+        val values = ContentValues().apply {
+            put(KEY_ACCOUNTID, accounts[0].id)
+            put(KEY_AMOUNT, -100)
+            put(KEY_DATE, 1609495200L)
+            put(KEY_PAYEEID, payeeId)
+        }
+        db.insert(TABLE_TRANSACTIONS, null, ContentValues(values).apply { put(KEY_CATID, categories[3]) })
+        val parentId = db.insert(TABLE_TRANSACTIONS, null, ContentValues(values).apply { put(KEY_CATID, SPLIT_CATID) })
+        assertThat(autofill(payeeId).single()[1]).isEqualTo(categories[3].toString())
+        db.insert(TABLE_TRANSACTIONS, null, ContentValues(values).apply {
+            put(KEY_CATID, categories[4])
+            put(KEY_PARENTID, parentId)
+        })
+        assertThat(autofill(payeeId).single()[1]).isEqualTo(categories[4].toString())
+        assertThat(suggestions(payeeId).map { it.first }).containsExactly(categories[4], categories[3]).inOrder()
+    }
+
+    @Test
+    fun benchmarkAutofillOver200kTransactions() {
+        assumeBenchmark()
+        insertMasterData(1000)
+        measure("Inserting 200k transactions with autofill triggers") { insertTransactions(200_000) }
+        val lookups = payees.shuffled(Random(3)).take(200)
+        benchmark("Autofill for 200 payees from extended view", 1, 3) {
+            lookups.forEach { autofillFromView(it) }
+        }
+        benchmark("Autofill for 200 payees from payee_autofill", 1, 3) {
+            lookups.forEach { autofill(it) }
+        }
+        benchmark("Category histogram for 200 payees from transactions", 1, 3) {
+            lookups.forEach { expectedSuggestions(it) }
+        }
+        benchmark("Category suggestions for 200 payees from payee_categories", 1, 3) {
+            lookups.forEach { repository.categorySuggestions(it, 3) }
+        }
+        measure("Rebuilding from 200k transactions") { rebuildPayeeAutofill(db) }
+        lookups.forEach { assertThat(autofill(it)).isEqualTo(autofillFromView(it)) }
+    }
+}
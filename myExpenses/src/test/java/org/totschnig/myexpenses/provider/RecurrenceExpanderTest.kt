@@ -0,0 +1,133 @@
+package org.totschnig.myexpenses.provider
+
+import com.google.common.truth.Truth.assertThat
+import org.junit.Test
+import org.junit.runner.RunWith
+import org.robolectric.RobolectricTestRunner
+import org.totschnig.testutils.assumeBenchmark
+import org.totschnig.testutils.benchmark
+import java.time.Instant
+import java.time.LocalDate
+import java.time.LocalTime
+import java.time.ZoneId
+import java.time.ZonedDateTime
+
+@RunWith(RobolectricTestRunner::class)
+class RecurrenceExpanderTest {
+    private val zone = ZoneId.of("Europe/Vienna")
+
+    private fun millis(date: LocalDate, time: LocalTime = LocalTime.NOON) =
+        ZonedDateTime.of(date, time, zone).toInstant().toEpochMilli()
+
+    private fun plan(start: LocalDate, rRule: String?, planId: Long = 1) =
+        RecurrenceExpander.PlanDefinition(planId, millis(start), rRule, zone.id)
+
+    private fun expand(
+        start: LocalDate, rRule: String?, from: LocalDate, to: LocalDate,
+        expander: RecurrenceExpander = RecurrenceExpander()
+    ) = expander.expand(plan(start, rRule), millis(from, LocalTime.MIN), millis(to, LocalTime.MAX))
+        ?.map { Instant.ofEpochMilli(it).atZone(zone).toLocalDate() }
+
+    @Test
+    fun monthlySkipsMonthsWithoutDayOfStart() {
+        assertThat(
+            expand(LocalDate.of(2021, 1, 31), "FREQ=MONTHLY;INTERVAL=1;WKST=MO",
+                LocalDate.of(2021, 1, 1), LocalDate.of(2021, 5, 31))
+        ).containsExactly(LocalDate.of(2021, 1, 31), LocalDate.of(2021, 3, 31), LocalDate.of(2021, 5, 31)).inOrder()
+    }
+
+    @Test
+    fun lastDayOfMonth() {
+        assertThat(
+            expand(LocalDate.of(2021, 1, 31), "FREQ=MONTHLY;INTERVAL=1;BYDAY=SU,MO,TU,WE,TH,FR,SA;BYSETPOS=-1;WKST=MO",
+                LocalDate.of(2021, 2, 1), LocalDate.of(2021, 4, 30))
+        ).containsExactly(LocalDate.of(2021, 2, 28), LocalDate.of(2021, 3, 31), LocalDate.of(2021, 4, 30)).inOrder()
+    }
+
+    @Test
+    fun weeklyWithIntervalSkipsToWindow() {
+        //2021-01-04 is a Monday
+        assertThat(
+            expand(LocalDate.of(2021, 1, 4), "FREQ=WEEKLY;INTERVAL=2;BYDAY=MO,TH;WKST=MO",
+                LocalDate.of(2021, 3, 1), LocalDate.of(2021, 3, 21))
+        ).containsExactly(LocalDate.of(2021, 3, 1), LocalDate.of(2021, 3, 4), LocalDate.of(2021, 3, 15), LocalDate.of(2021, 3, 18)).inOrder()
+    }
+
+    @Test
+    fun countIsCountedFromStart() {
+        assertThat(
+            expand(LocalDate.of(2021, 1, 1), "FREQ=DAILY;COUNT=10",
+                LocalDate.of(2021, 1, 8), LocalDate.of(2021, 1, 31))
+        ).containsExactly(LocalDate.of(2021, 1, 8), LocalDate.of(2021, 1, 9), LocalDate.of(2021, 1, 10)).inOrder()
+    }
+
+    @Test
+    fun untilIsInclusive() {
+        assertThat(
+            expand(LocalDate.of(2020, 2, 29), "FREQ=YEARLY;UNTIL=20280229T235959Z",
+                LocalDate.of(2020, 1, 1), LocalDate.of(2030, 12, 31))
+        ).containsExactly(LocalDate.of(2020, 2, 29), LocalDate.of(2024, 2, 29), LocalDate.of(2028, 2, 29)).inOrder()
+    }
+
+    @Test
+    fun oneTimePlan() {
+        val start = LocalDate.of(2021, 6, 1)
+        assertThat(expand(start, null, LocalDate.of(2021, 1, 1), LocalDate.of(2021, 12, 31))).containsExactly(start)
+        assertThat(expand(start, null, LocalDate.of(2022, 1, 1), LocalDate.of(2022, 12, 31))).isEmpty()
+    }
+
+    @Test
+    fun unsupportedRuleIsNotExpanded() {
+        assertThat(expand(LocalDate.of(2021, 1, 1), "FREQ=DAILY;BYHOUR=9,17",
+            LocalDate.of(2021, 1, 1), LocalDate.of(2021, 1, 31))).isNull()
+        assertThat(expand(LocalDate.of(2021, 1, 1), "FREQ=YEARLY;BYWEEKNO=20",
+            LocalDate.of(2021, 1, 1), LocalDate.of(2021, 12, 31))).isNull()
+    }
+
+    @Test
+    fun expandedWindowIsCached() {
+        val expander = RecurrenceExpander(2)
+        val start = LocalDate.of(2021, 1, 1)
+        val end = LocalDate.of(2021, 12, 31)
+        val first = expand(start, "FREQ=WEEKLY;BYDAY=FR", start, end, expander)
+        assertThat(expand(start, "FREQ=WEEKLY;BYDAY=FR", start, end, expander)).isEqualTo(first)
+        assertThat(expander.hitCount).isEqualTo(1)
+        //an edited plan is expanded again
+        expand(start, "FREQ=WEEKLY;BYDAY=SA", start, end, expander)
+        assertThat(expander.missCount).isEqualTo(2)
+    }
+
+    private val rules = listOf(
+        "FREQ=DAILY;INTERVAL=1;WKST=MO",
+        "FREQ=WEEKLY;INTERVAL=1;WKST=MO;BYDAY=FR",
+        "FREQ=MONTHLY;INTERVAL=1;WKST=MO",
+        "FREQ=MONTHLY;INTERVAL=1;BYDAY=SU,MO,TU,WE,TH,FR,SA;BYSETPOS=-1;WKST=MO",
+        "FREQ=YEARLY;INTERVAL=1;WKST=MO"
+    )
+
+    private val plans = (0 until 100).map {
+        //days up to 28, so that monthly plans have an instance in each month
+        plan(LocalDate.of(2020, 1 + it % 12, 1 + it % 28), rules[it % rules.size], it.toLong())
+    }
+    private val from = millis(LocalDate.of(2021, 1, 1), LocalTime.MIN)
+    private val to = millis(LocalDate.of(2021, 12, 31), LocalTime.MAX)
+
+    @Test
+    fun expanding100PlansOverAYear() {
+        val instances = plans.sumOf { RecurrenceExpander.expandUncached(it, from, to)!!.size }
+        //20 daily plans, 20 weekly, 2 * 20 monthly and 20 yearly
+        assertThat(instances).isEqualTo(20 * 365 + 20 * 53 + 40 * 12 + 20)
+    }
+
+    @Test
+    fun benchmarkExpanding100PlansOverAYear() {
+        assumeBenchmark()
+        benchmark("Expanding 100 plans over a year", 5, 20) {
+            plans.forEach { RecurrenceExpander.expandUncached(it, from, to) }
+        }
+        val expander = RecurrenceExpander()
+        benchmark("Expanding 100 plans over a year from cache", 5, 20) {
+            plans.forEach { expander.expand(it, from, to) }
+        }
+    }
+}
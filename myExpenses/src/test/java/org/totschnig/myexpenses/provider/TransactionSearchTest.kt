@@ -0,0 +1,280 @@
+package org.totschnig.myexpenses.provider
+
+import android.content.ContentValues
+import android.content.Context
+import android.database.sqlite.SQLiteDatabase
+import androidx.test.core.app.ApplicationProvider
+import com.google.common.truth.Truth.assertThat
+import org.junit.After
+import org.junit.Before
+import org.junit.Test
+import org.junit.runner.RunWith
+import org.robolectric.RobolectricTestRunner
+import org.totschnig.myexpenses.model.Account
+import org.totschnig.myexpenses.provider.DatabaseConstants.KEY_ACCOUNTID
+import org.totschnig.myexpenses.provider.DatabaseConstants.KEY_AMOUNT
+import org.totschnig.myexpenses.provider.DatabaseConstants.KEY_CATID
+import org.totschnig.myexpenses.provider.DatabaseConstants.KEY_COMMENT
+import org.totschnig.myexpenses.provider.DatabaseConstants.KEY_DATE
+import org.totschnig.myexpenses.provider.DatabaseConstants.KEY_LABEL
+import org.totschnig.myexpenses.provider.DatabaseConstants.KEY_PARENTID
+import org.totschnig.myexpenses.provider.DatabaseConstants.KEY_PAYEEID
+import org.totschnig.myexpenses.provider.DatabaseConstants.KEY_PAYEE_NAME
+import org.totschnig.myexpenses.provider.DatabaseConstants.KEY_PAYEE_NAME_NORMALIZED
+import org.totschnig.myexpenses.provider.DatabaseConstants.KEY_REFERENCE_NUMBER
+import org.totschnig.myexpenses.provider.DatabaseConstants.KEY_ROWID
+import org.totschnig.myexpenses.provider.DatabaseConstants.KEY_TAGID
+import org.totschnig.myexpenses.provider.DatabaseConstants.KEY_TRANSACTIONID
+import org.totschnig.myexpenses.provider.DatabaseConstants.SPLIT_CATID
+import org.totschnig.myexpenses.provider.DatabaseConstants.TABLE_CATEGORIES
+import org.totschnig.myexpenses.provider.DatabaseConstants.TABLE_PAYEES
+import org.totschnig.myexpenses.provider.DatabaseConstants.TABLE_TAGS
+import org.totschnig.myexpenses.provider.DatabaseConstants.TABLE_TRANSACTIONS
+import org.totschnig.myexpenses.provider.DatabaseConstants.TABLE_TRANSACTIONS_TAGS
+import org.totschnig.myexpenses.provider.filter.CommentCriteria
+import org.totschnig.myexpenses.provider.filter.Criteria
+import org.totschnig.myexpenses.provider.filter.SearchCriteria
+import org.totschnig.myexpenses.provider.filter.WhereFilter
+import org.totschnig.myexpenses.util.Utils
+import org.totschnig.testutils.assumeBenchmark
+import org.totschnig.testutils.benchmark
+import org.totschnig.testutils.measure
+import kotlin.random.Random
+import org.totschnig.myexpenses.model.Category as CategoryModel
+
+@RunWith(RobolectricTestRunner::class)
+class TransactionSearchTest {
+    private val context: Context
+        get() = ApplicationProvider.getApplicationContext()
+
+    private val provider by lazy { context.contentResolver.acquireContentProviderClient(TransactionProvider.AUTHORITY)!! }
+    private val db: SQLiteDatabase
+        get() = (provider.localContentProvider as TransactionProvider).openHelperForTest.writableDatabase
+
+    private lateinit var account: Account
+
+    private val vocabulary = listOf(
+        "groceries", "supermarket", "rent", "fuel", "Café", "Müller", "bakery", "insurance",
+        "dentist", "gift", "holiday", "train", "parking", "super", "Crème"
+    )
+
+    /**
+     * What we store for each transaction, to compute the expected search results independently
+     * of the database
+     */
+    private class Document(val id: Long, val parentId: Long?, val words: List<String>)
+
+    private val documents = mutableListOf<Document>()
+
+    @Before
+    fun setUp() {
+        account = Account("Search", 0, "Search").apply { save() }
+    }
+
+    @After
+    fun tearDown() {
+        provider.release()
+    }
+
+    private fun normalizedWords(vararg fields: String?) = fields.filterNotNull()
+        .flatMap { Utils.normalize(it).split(Regex("[^\\p{L}\\p{N}]+")) }
+        .filter { it.isNotEmpty() }
+
+    private fun insertPayee(name: String) = db.insert(TABLE_PAYEES, null, ContentValues(2).apply {
+        put(KEY_PAYEE_NAME, name)
+        put(KEY_PAYEE_NAME_NORMALIZED, Utils.normalize(name))
+    })
+
+    private fun insertTag(label: String) = db.insert(TABLE_TAGS, null, ContentValues(1).apply {
+        put(KEY_LABEL, label)
+    })
+
+    private fun linkTag(transactionId: Long, tagId: Long) =
+        db.insert(TABLE_TRANSACTIONS_TAGS, null, ContentValues(2).apply {
+            put(KEY_TRANSACTIONID, transactionId)
+            put(KEY_TAGID, tagId)
+        })
+
+    private fun insertTransaction(
+        comment: String? = null, payeeId: Long? = null, number: String? = null,
+        catId: Long? = null, parentId: Long? = null
+    ) = db.insert(TABLE_TRANSACTIONS, null, ContentValues().apply {
+        put(KEY_ACCOUNTID, account.id)
+        put(KEY_AMOUNT, -100L)
+        put(KEY_DATE, 1609495200L)
+        put(KEY_COMMENT, comment)
+        put(KEY_PAYEEID, payeeId)
+        put(KEY_REFERENCE_NUMBER, number)
+        put(KEY_CATID, catId)
+        put(KEY_PARENTID, parentId)
+    })
+
+    /**
+     * Inserts random transactions, every tenth one is a split transaction with two parts
+     */
+    private fun insertData(count: Int, random: Random = Random(1)) {
+        fun phrase(maxWords: Int) = (0 until random.nextInt(maxWords + 1)).joinToString(" ") { vocabulary.random(random) }
+        val payees = (0 until 50).map { "${vocabulary.random(random)} $it".let { name -> name to insertPayee(name) } }
+        val tags = (0 until 10).map { "${vocabulary.random(random)}-$it".let { label -> label to insertTag(label) } }
+        val categories = mutableListOf<Pair<String, Long>>()
+        for (main in 0 until 5) {
+            val mainLabel = "${vocabulary.random(random)} $main"
+            val mainId = CategoryModel.write(0, mainLabel, null)
+            categories.add(mainLabel to mainId)
+            for (sub in 0 until 4) {
+                val subLabel = "${vocabulary.random(random)} $main.$sub"
+                categories.add("$mainLabel $subLabel" to CategoryModel.write(0, subLabel, mainId))
+            }
+        }
+        db.beginTransaction()
+        try {
+            fun insert(parentId: Long?, split: Boolean): Long {
+                val comment = phrase(3).takeIf { it.isNotEmpty() }
+                val payee = if (parentId == null && random.nextBoolean()) payees.random(random) else null
+                val number = if (random.nextInt(4) == 0) "R-${random.nextInt(100000)}" else null
+                val category = if (split) null else categories.random(random)
+                val id = insertTransaction(comment, payee?.second, number, if (split) SPLIT_CATID else category?.second, parentId)
+                val transactionTags = (0 until random.nextInt(3)).map { tags.random(random) }.distinct()
+                transactionTags.forEach { linkTag(id, it.second) }
+                documents.add(Document(id, parentId, normalizedWords(comment, payee?.first, number, category?.first, *transactionTags.map { it.first }.toTypedArray())))
+                return id
+            }
+            for (i in 0 until count) {
+                if (i % 10 == 0) {
+                    val parentId = insert(null, true)
+                    insert(parentId, false)
+                    insert(parentId, false)
+                } else {
+                    insert(null, false)
+                }
+            }
+            db.setTransactionSuccessful()
+        } finally {
+            db.endTransaction()
+        }
+    }
+
+    private fun Document.matches(query: String) =
+        normalizedWords(query).all { token -> words.any { it.startsWith(token) } }
+
+    private fun expectedParents(query: String) = documents.filter { document ->
+        document.parentId == null && (document.matches(query) ||
+                documents.any { it.parentId == document.id && it.matches(query) })
+    }.map { it.id }
+
+    private fun expectedParts(query: String) = documents.filter { document ->
+        document.parentId != null && (document.matches(query) ||
+                documents.first { it.id == document.parentId }.matches(query))
+    }.map { it.id }
+
+    private fun queryIds(sql: String, args: Array<String>) = db.rawQuery(sql, args).use { cursor ->
+        generateSequence { if (cursor.moveToNext()) cursor.getLong(0) else null }.toList()
+    }
+
+    private fun searchParents(criteria: Criteria): List<Long> {
+        val filter = WhereFilter().apply { put(criteria) }
+        return queryIds(
+            "SELECT $KEY_ROWID FROM $TABLE_TRANSACTIONS WHERE $KEY_PARENTID IS NULL AND ${filter.getSelectionForParents(TABLE_TRANSACTIONS)}",
+            filter.getSelectionArgs(false)
+        )
+    }
+
+    private fun searchParts(criteria: Criteria): List<Long> {
+        val filter = WhereFilter().apply { put(criteria) }
+        return queryIds(
+            "SELECT $KEY_ROWID FROM $TABLE_TRANSACTIONS WHERE $KEY_PARENTID IS NOT NULL AND ${filter.getSelectionForParts(TABLE_TRANSACTIONS)}",
+            filter.getSelectionArgs(true)
+        )
+    }
+
+    private fun search(query: String) = searchParents(SearchCriteria(query))
+
+    @Test
+    fun matchExpressionIsNormalizedPrefixQuery() {
+        assertThat(searchMatchExpression("Café  au-lait")).isEqualTo("cafe* au* lait*")
+        assertThat(searchMatchExpression("OR \"NEAR\" *")).isEqualTo("or* near*")
+        assertThat(searchMatchExpression(" - ")).isEmpty()
+    }
+
+    @Test
+    fun searchMatchesWordPrefixesLikeNormalizedText() {
+        insertData(500)
+        val random = Random(2)
+        repeat(200) {
+            val query = (1..random.nextInt(1, 3)).joinToString(" ") {
+                vocabulary.random(random).let { word -> word.substring(0, random.nextInt(1, word.length + 1)) }
+            }
+            assertThat(search(query)).containsExactlyElementsIn(expectedParents(query))
+            assertThat(searchParts(SearchCriteria(query))).containsExactlyElementsIn(expectedParts(query))
+        }
+        for (query in listOf("R-1", "cafe", "CRÈME", "muller 3", "super 0.1")) {
+            assertThat(search(query)).containsExactlyElementsIn(expectedParents(query))
+        }
+    }
+
+    @Test
+    fun triggersKeepIndexInSync() {
+        val payeeId = insertPayee("Bäckerei Huber")
+        val tagId = insertTag("vacation")
+        val mainId = CategoryModel.write(0, "Food", null)
+        val subId = CategoryModel.write(0, "Bread", mainId)
+        val id = insertTransaction("croissant", payeeId, "4711", subId)
+        linkTag(id, tagId)
+        for (query in listOf("croiss", "backerei", "huber", "47", "vac", "food bread")) {
+            assertThat(search(query)).containsExactly(id)
+        }
+
+        db.update(TABLE_TRANSACTIONS, ContentValues(1).apply { put(KEY_COMMENT, "baguette") }, "$KEY_ROWID = $id", null)
+        assertThat(search("croissant")).isEmpty()
+        assertThat(search("baguette")).containsExactly(id)
+
+        db.update(TABLE_PAYEES, ContentValues(2).apply {
+            put(KEY_PAYEE_NAME, "Bakery Miller")
+            put(KEY_PAYEE_NAME_NORMALIZED, "bakery miller")
+        }, "$KEY_ROWID = $payeeId", null)
+        assertThat(search("huber")).isEmpty()
+        assertThat(search("miller")).containsExactly(id)
+
+        db.update(TABLE_TAGS, ContentValues(1).apply { put(KEY_LABEL, "business") }, "$KEY_ROWID = $tagId", null)
+        assertThat(search("vacation")).isEmpty()
+        assertThat(search("business")).containsExactly(id)
+
+        db.update(TABLE_CATEGORIES, ContentValues(1).apply { put(KEY_LABEL, "Groceries") }, "$KEY_ROWID = $mainId", null)
+        assertThat(search("food")).isEmpty()
+        assertThat(search("groceries bread")).containsExactly(id)
+
+        db.delete(TABLE_TRANSACTIONS_TAGS, "$KEY_TRANSACTIONID = $id", null)
+        assertThat(search("business")).isEmpty()
+        assertThat(search("baguette")).containsExactly(id)
+
+        db.delete(TABLE_TRANSACTIONS, "$KEY_ROWID = $id", null)
+        assertThat(search("baguette")).isEmpty()
+    }
+
+    @Test
+    fun splitTransactionIsFoundThroughItsParts() {
+        val parentId = insertTransaction("weekly shopping", catId = SPLIT_CATID)
+        val partId = insertTransaction("shampoo", parentId = parentId)
+        val otherPartId = insertTransaction("apples", parentId = parentId)
+        assertThat(search("shampoo")).containsExactly(parentId)
+        assertThat(searchParts(SearchCriteria("shampoo"))).containsExactly(partId)
+        assertThat(searchParts(SearchCriteria("weekly"))).containsExactly(partId, otherPartId)
+        //the split category is not indexed
+        assertThat(search("split")).isEmpty()
+    }
+
+    @Test
+    fun benchmarkSearchAsYouTypeOver200kTransactions() {
+        assumeBenchmark()
+        measure("Inserting 200k transactions with index") { insertData(200_000) }
+        val typed = "supermarket".let { word -> (1..word.length).map { word.substring(0, it) } }
+        benchmark("Typing 'supermarket' with comment criteria", 1, 3) {
+            typed.forEach { searchParents(CommentCriteria(it)) }
+        }
+        benchmark("Typing 'supermarket' with search criteria", 1, 3) {
+            typed.forEach { searchParents(SearchCriteria(it)) }
+        }
+        val result = measure("Search criteria, one query") { search("supermarket") }
+        assertThat(result).isNotEmpty()
+    }
+}
@@ -0,0 +1,134 @@
+package org.totschnig.myexpenses.sync;
+
+import com.google.gson.Gson;
+import com.google.gson.GsonBuilder;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.totschnig.myexpenses.sync.json.AdapterFactory;
+import org.totschnig.myexpenses.sync.json.ChangeSetCodec;
+import org.totschnig.myexpenses.sync.json.TransactionChange;
+import org.totschnig.myexpenses.sync.json.Utils;
+import org.totschnig.testutils.Benchmark;
+
+import java.io.BufferedReader;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.zip.GZIPOutputStream;
+
+import static com.google.common.truth.Truth.assertThat;
+import static org.junit.Assert.fail;
+
+public class ChangeSetCodecTest {
+  private Gson gson;
+
+  @Before
+  public void setup() {
+    gson = new GsonBuilder()
+        .registerTypeAdapterFactory(AdapterFactory.create())
+        .create();
+  }
+
+  private List<TransactionChange> buildChanges(int count) {
+    List<TransactionChange> changes = new ArrayList<>(count);
+    for (int i = 0; i < count; i++) {
+      changes.add(TransactionChange.builder()
+          .setType(TransactionChange.Type.created)
+          .setUuid(String.format("825ec542-a434-4954-b59e-%012d", i))
+          .setTimeStamp(1475560175L + i)
+          .setDate(1475559751L + i * 60)
+          .setAmount((long) -(i % 1000) * 100)
+          .setCrStatus("UNRECONCILED")
+          .setPayeeName("Payee " + (i % 50))
+          .setLabel("Category " + (i % 20))
+          .setComment(i % 3 == 0 ? "Comment " + i : null)
+          .setTags(i % 5 == 0 ? Arrays.asList("tag1", "tag2") : null)
+          .build());
+    }
+    return changes;
+  }
+
+  private byte[] encode(List<TransactionChange> changes) throws IOException {
+    ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+    ChangeSetCodec.write(gson, changes, outputStream);
+    return outputStream.toByteArray();
+  }
+
+  @Test
+  public void shouldRoundTripChanges() throws IOException {
+    List<TransactionChange> changes = buildChanges(100);
+    assertThat(ChangeSetCodec.read(gson, new ByteArrayInputStream(encode(changes))))
+        .containsExactlyElementsIn(changes).inOrder();
+  }
+
+  @Test
+  public void shouldReadLegacyFormat() throws IOException {
+    List<TransactionChange> changes = buildChanges(100);
+    byte[] legacy = gson.toJson(changes).getBytes();
+    assertThat(ChangeSetCodec.read(gson, new ByteArrayInputStream(legacy)))
+        .containsExactlyElementsIn(changes).inOrder();
+  }
+
+  @Test
+  public void shouldWriteLegacyFormatReadableByPreviousVersions() throws IOException {
+    List<TransactionChange> changes = buildChanges(100);
+    ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+    ChangeSetCodec.writeLegacy(gson, changes, outputStream);
+    try (BufferedReader reader = new BufferedReader(new InputStreamReader(
+        new ByteArrayInputStream(outputStream.toByteArray()), StandardCharsets.UTF_8))) {
+      assertThat(Utils.getChanges(gson, reader)).containsExactlyElementsIn(changes).inOrder();
+    }
+  }
+
+  @Test
+  public void shouldRejectNewerVersion() throws IOException {
+    ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+    try (OutputStreamWriter writer = new OutputStreamWriter(new GZIPOutputStream(outputStream), StandardCharsets.UTF_8)) {
+      writer.write("{\"version\":" + (ChangeSetCodec.VERSION + 1) + ",\"changes\":[]}");
+    }
+    try {
+      ChangeSetCodec.read(gson, new ByteArrayInputStream(outputStream.toByteArray()));
+      fail("Expected IOException");
+    } catch (IOException expected) {
+      assertThat(expected).hasMessageThat().contains("not supported");
+    }
+  }
+
+  @Test
+  public void benchmarkAgainstLegacyFormat() throws IOException {
+    Benchmark.assumeBenchmark();
+    List<TransactionChange> changes = buildChanges(50_000);
+    //warm up
+    gson.toJson(changes);
+    encode(changes);
+
+    long start = System.nanoTime();
+    byte[] legacy = gson.toJson(changes).getBytes();
+    long legacyEncode = System.nanoTime() - start;
+    start = System.nanoTime();
+    List<TransactionChange> legacyDecoded = ChangeSetCodec.read(gson, new ByteArrayInputStream(legacy));
+    long legacyDecode = System.nanoTime() - start;
+
+    start = System.nanoTime();
+    byte[] compressed = encode(changes);
+    long compressedEncode = System.nanoTime() - start;
+    start = System.nanoTime();
+    List<TransactionChange> compressedDecoded = ChangeSetCodec.read(gson, new ByteArrayInputStream(compressed));
+    long compressedDecode = System.nanoTime() - start;
+
+    System.out.printf("legacy: %d bytes, encode %d ms, decode %d ms%n",
+        legacy.length, legacyEncode / 1_000_000, legacyDecode / 1_000_000);
+    System.out.printf("version %d: %d bytes, encode %d ms, decode %d ms%n", ChangeSetCodec.VERSION,
+        compressed.length, compressedEncode / 1_000_000, compressedDecode / 1_000_000);
+    assertThat(legacyDecoded).hasSize(changes.size());
+    assertThat(compressedDecoded).hasSize(changes.size());
+    assertThat(compressed.length).isLessThan(legacy.length / 4);
+  }
+}
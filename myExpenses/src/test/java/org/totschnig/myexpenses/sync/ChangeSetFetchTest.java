@@ -0,0 +1,111 @@
+package org.totschnig.myexpenses.sync;
+
+import android.content.Context;
+
+import com.annimon.stream.Optional;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.totschnig.myexpenses.model.Account;
+import org.totschnig.myexpenses.sync.json.ChangeSet;
+import org.totschnig.myexpenses.sync.json.TransactionChange;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import androidx.test.core.app.ApplicationProvider;
+
+import static com.google.common.truth.Truth.assertThat;
+
+@RunWith(RobolectricTestRunner.class)
+public class ChangeSetFetchTest {
+  @Rule
+  public TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+  private LocalFileBackendProvider backend;
+  private Context context;
+  private Account account;
+
+  @Before
+  public void setup() throws IOException {
+    context = ApplicationProvider.getApplicationContext();
+    backend = new LocalFileBackendProvider(context, temporaryFolder.getRoot().getPath());
+    account = new Account("Test account", 0, "");
+    account.save();
+    backend.withAccount(account);
+  }
+
+  private TransactionChange buildChange(int index) {
+    return TransactionChange.builder().setTimeStamp(1475560175L).setType(TransactionChange.Type.created)
+        .setUuid("uuid-" + index).setAmount((long) index).build();
+  }
+
+  @Test
+  public void changeSetsAreMergedInSequenceOrderAcrossShards() throws IOException {
+    int changeSets = 4 * AbstractSyncBackendProvider.CHANGE_SET_FETCH_PARALLELISM;
+    SequenceNumber sequenceNumber = new SequenceNumber(0, 0);
+    int index = 0;
+    for (int i = 0; i < changeSets; i++) {
+      List<TransactionChange> changes = new ArrayList<>();
+      for (int j = 0; j <= i % 3; j++) {
+        changes.add(buildChange(index++));
+      }
+      sequenceNumber = backend.writeChangeSet(sequenceNumber, changes, context);
+    }
+    Optional<ChangeSet> result = backend.getChangeSetSince(new SequenceNumber(0, 0), context);
+    assertThat(result.isPresent()).isTrue();
+    assertThat(result.get().sequenceNumber.toString()).isEqualTo(sequenceNumber.toString());
+    List<TransactionChange> changes = result.get().changes;
+    assertThat(changes).hasSize(index);
+    for (int i = 0; i < index; i++) {
+      assertThat(changes.get(i).uuid()).isEqualTo("uuid-" + i);
+    }
+  }
+
+  @Test
+  public void changeSetsAreOnlyCompressedOnceEnabled() throws IOException {
+    File accountDir = temporaryFolder.getRoot().listFiles(File::isDirectory)[0];
+    SequenceNumber sequenceNumber = backend.writeChangeSet(new SequenceNumber(0, 0),
+        Collections.singletonList(buildChange(0)), context);
+    assertThat(new File(accountDir, "_1.json").exists()).isTrue();
+    backend.enableCompressedChangeSets();
+    backend.enableCompressedChangeSets();
+    backend.writeChangeSet(sequenceNumber, Collections.singletonList(buildChange(1)), context);
+    assertThat(new File(accountDir, "_2.jsonz").exists()).isTrue();
+    Optional<ChangeSet> result = backend.getChangeSetSince(new SequenceNumber(0, 0), context);
+    assertThat(result.get().changes).hasSize(2);
+  }
+
+  @Test
+  public void otherDevicesFollowTheFormatMarker() throws IOException {
+    backend.enableCompressedChangeSets();
+    LocalFileBackendProvider other = new LocalFileBackendProvider(context, temporaryFolder.getRoot().getPath());
+    other.withAccount(account);
+    other.writeChangeSet(new SequenceNumber(0, 0), Collections.singletonList(buildChange(0)), context);
+    File accountDir = temporaryFolder.getRoot().listFiles(File::isDirectory)[0];
+    assertThat(new File(accountDir, "_1.jsonz").exists()).isTrue();
+  }
+
+  @Test
+  public void noChangeSetsYieldsEmptyResult() throws IOException {
+    assertThat(backend.getChangeSetSince(new SequenceNumber(0, 0), context).isPresent()).isFalse();
+  }
+
+  @Test
+  public void mergeAllKeepsOrderAndMaxSequence() {
+    ChangeSet first = ChangeSet.create(new SequenceNumber(0, 2), new ArrayList<>(Collections.singletonList(buildChange(0))));
+    ChangeSet second = ChangeSet.create(new SequenceNumber(1, 1), new ArrayList<>(Arrays.asList(buildChange(1), buildChange(2))));
+    ChangeSet merged = ChangeSet.mergeAll(Arrays.asList(first, second));
+    assertThat(merged.sequenceNumber.toString()).isEqualTo("1_1");
+    assertThat(merged.changes).containsExactly(buildChange(0), buildChange(1), buildChange(2)).inOrder();
+    assertThat(ChangeSet.mergeAll(Collections.emptyList())).isNull();
+  }
+}
@@ -0,0 +1,224 @@
+package org.totschnig.myexpenses.sync;
+
+import org.junit.Test;
+import org.totschnig.myexpenses.sync.json.TransactionChange;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+
+import static com.google.common.truth.Truth.assertThat;
+import static com.google.common.truth.Truth.assertWithMessage;
+
+public class SyncAdapterCompactLocalChangesTest extends SyncAdapterBaseTest {
+
+  @Test
+  public void shouldCollapseCreateAndUpdatesIntoCreate() {
+    List<TransactionChange> changes = Arrays.asList(
+        buildCreated().setUuid("one").setTimeStamp(1L).setAmount(100L).setComment("first").build(),
+        buildUpdated().setUuid("one").setTimeStamp(2L).setComment("second").build(),
+        buildUpdated().setUuid("one").setTimeStamp(3L).setValueDate(1000L).build());
+    List<TransactionChange> result = syncDelegate.compactLocalChanges(changes);
+    assertThat(result).hasSize(1);
+    TransactionChange change = result.get(0);
+    assertThat(change.isCreate()).isTrue();
+    assertThat(change.amount()).isEqualTo(100L);
+    assertThat(change.comment()).isEqualTo("second");
+    assertThat(change.valueDate()).isEqualTo(1000L);
+    assertThat(change.timeStamp()).isEqualTo(3L);
+  }
+
+  @Test
+  public void shouldCollapseUpdatesIntoSingleDelta() {
+    List<TransactionChange> changes = Arrays.asList(
+        buildUpdated().setUuid("one").setTimeStamp(1L).setAmount(100L).build(),
+        buildUpdated().setUuid("two").setTimeStamp(2L).setComment("other").build(),
+        buildUpdated().setUuid("one").setTimeStamp(3L).setPayeeName("payee").build());
+    List<TransactionChange> result = syncDelegate.compactLocalChanges(changes);
+    assertThat(result).hasSize(2);
+    assertThat(result.get(0).uuid()).isEqualTo("one");
+    assertThat(result.get(0).isUpdate()).isTrue();
+    assertThat(result.get(0).amount()).isEqualTo(100L);
+    assertThat(result.get(0).payeeName()).isEqualTo("payee");
+    assertThat(result.get(1)).isEqualTo(changes.get(1));
+  }
+
+  @Test
+  public void shouldDropCreateDeletePairTogetherWithSplitParts() {
+    List<TransactionChange> changes = Arrays.asList(
+        buildCreated().setUuid("parent").setAmount(100L).build(),
+        buildCreated().setUuid("part").setParentUuid("parent").setAmount(100L).build(),
+        buildUpdated().setUuid("part").setComment("comment").build(),
+        buildCreated().setUuid("other").setAmount(50L).build(),
+        buildDeleted().setUuid("parent").build());
+    assertThat(syncDelegate.compactLocalChanges(changes)).containsExactly(changes.get(3));
+  }
+
+  @Test
+  public void shouldOnlyKeepDeleteAfterUpdates() {
+    List<TransactionChange> changes = Arrays.asList(
+        buildUpdated().setUuid("one").setAmount(100L).build(),
+        buildUpdated().setUuid("one").setComment("comment").build(),
+        buildDeleted().setUuid("one").build());
+    assertThat(syncDelegate.compactLocalChanges(changes)).containsExactly(changes.get(2));
+  }
+
+  @Test
+  public void shouldPassThroughChangesReferencedByLinkOrUnsplit() {
+    List<TransactionChange> changes = Arrays.asList(
+        buildCreated().setUuid("one").setAmount(100L).build(),
+        buildUpdated().setUuid("one").setComment("comment").build(),
+        TransactionChange.builder().setType(TransactionChange.Type.link).setCurrentTimeStamp()
+            .setUuid("two").setReferenceNumber("one").build(),
+        TransactionChange.builder().setType(TransactionChange.Type.metadata).setCurrentTimeStamp()
+            .setUuid("account").build());
+    assertThat(syncDelegate.compactLocalChanges(changes)).containsExactlyElementsIn(changes).inOrder();
+  }
+
+  /**
+   * Generates random local change logs over transactions that already exist on the receiving side
+   * and transactions created within the log, and verifies that applying the compacted log yields
+   * the same state as applying the raw one.
+   */
+  @Test
+  public void compactedChangesShouldYieldSameStateAsRawChanges() {
+    for (int seed = 0; seed < 500; seed++) {
+      Random random = new Random(seed);
+      Map<String, Map<String, Object>> initial = new LinkedHashMap<>();
+      for (int i = 0; i < 5; i++) {
+        initial.put("existing-" + i, new HashMap<>(Collections.singletonMap("amount", (Object) (long) i)));
+      }
+      List<TransactionChange> raw = generateChanges(random, new ArrayList<>(initial.keySet()), 1 + random.nextInt(40));
+      List<TransactionChange> compacted = syncDelegate.compactLocalChanges(raw);
+
+      assertWithMessage("seed %s: %s", seed, raw)
+          .that(apply(initial, compacted)).isEqualTo(apply(initial, raw));
+      assertThat(compacted.size()).isAtMost(raw.size());
+      Set<String> uuids = new HashSet<>();
+      for (TransactionChange change : compacted) {
+        assertWithMessage("seed %s: more than one change for %s", seed, change.uuid())
+            .that(uuids.add(change.uuid())).isTrue();
+      }
+    }
+  }
+
+  private List<TransactionChange> generateChanges(Random random, List<String> existing, int count) {
+    List<String> alive = new ArrayList<>(existing);
+    Map<String, String> parents = new HashMap<>();
+    List<TransactionChange> changes = new ArrayList<>();
+    long timeStamp = 1L;
+    for (int i = 0; i < count; i++) {
+      int operation = random.nextInt(10);
+      if (operation < 3 || alive.isEmpty()) {
+        String uuid = "new-" + i;
+        TransactionChange.Builder builder = randomFields(random,
+            TransactionChange.builder().setType(TransactionChange.Type.created).setUuid(uuid).setAmount((long) i));
+        if (!alive.isEmpty() && random.nextInt(3) == 0) {
+          String parent = alive.get(random.nextInt(alive.size()));
+          if (!parents.containsKey(parent)) {
+            builder.setParentUuid(parent);
+            parents.put(uuid, parent);
+          }
+        }
+        changes.add(builder.setTimeStamp(timeStamp++).build());
+        alive.add(uuid);
+      } else if (operation < 8) {
+        String uuid = alive.get(random.nextInt(alive.size()));
+        changes.add(randomFields(random, TransactionChange.builder().setType(TransactionChange.Type.updated).setUuid(uuid))
+            .setTimeStamp(timeStamp++).build());
+      } else {
+        String uuid = alive.remove(random.nextInt(alive.size()));
+        changes.add(TransactionChange.builder().setType(TransactionChange.Type.deleted).setUuid(uuid)
+            .setTimeStamp(timeStamp++).build());
+        //split parts are deleted together with their parent
+        Iterator<String> iterator = alive.iterator();
+        while (iterator.hasNext()) {
+          String part = iterator.next();
+          if (uuid.equals(parents.get(part))) {
+            iterator.remove();
+            if (random.nextBoolean()) {
+              changes.add(TransactionChange.builder().setType(TransactionChange.Type.deleted).setUuid(part)
+                  .setTimeStamp(timeStamp++).build());
+            }
+          }
+        }
+      }
+    }
+    return changes;
+  }
+
+  private TransactionChange.Builder randomFields(Random random, TransactionChange.Builder builder) {
+    if (random.nextBoolean()) builder.setAmount((long) random.nextInt(1000));
+    if (random.nextBoolean()) builder.setComment("comment " + random.nextInt(5));
+    if (random.nextBoolean()) builder.setDate((long) random.nextInt(1000));
+    if (random.nextBoolean()) builder.setValueDate((long) random.nextInt(1000));
+    if (random.nextBoolean()) builder.setPayeeName("payee " + random.nextInt(5));
+    if (random.nextBoolean()) builder.setLabel("label " + random.nextInt(5));
+    if (random.nextBoolean()) builder.setCrStatus(random.nextBoolean() ? "CLEARED" : "UNRECONCILED");
+    if (random.nextBoolean()) builder.setOriginalAmount((long) random.nextInt(1000)).setOriginalCurrency("USD");
+    if (random.nextBoolean()) builder.setTags(Collections.singletonList("tag " + random.nextInt(3)));
+    return builder;
+  }
+
+  /**
+   * Simplified model of how the receiving side ingests changes: creates insert, updates overwrite
+   * the fields they carry, deletes remove the transaction together with its split parts.
+   */
+  private Map<String, Map<String, Object>> apply(Map<String, Map<String, Object>> initial, List<TransactionChange> changes) {
+    Map<String, Map<String, Object>> state = new HashMap<>();
+    for (Map.Entry<String, Map<String, Object>> entry : initial.entrySet()) {
+      state.put(entry.getKey(), new HashMap<>(entry.getValue()));
+    }
+    for (TransactionChange change : changes) {
+      switch (change.type()) {
+        case created:
+          if (!state.containsKey(change.uuid())) {
+            Map<String, Object> fields = new HashMap<>();
+            putFields(fields, change);
+            state.put(change.uuid(), fields);
+          }
+          break;
+        case updated: {
+          Map<String, Object> fields = state.get(change.uuid());
+          if (fields != null) {
+            putFields(fields, change);
+          }
+          break;
+        }
+        case deleted:
+          state.remove(change.uuid());
+          state.values().removeIf(fields -> change.uuid().equals(fields.get("parentUuid")));
+          break;
+      }
+    }
+    return state;
+  }
+
+  private void putFields(Map<String, Object> fields, TransactionChange change) {
+    putIfNotNull(fields, "parentUuid", change.parentUuid());
+    putIfNotNull(fields, "amount", change.amount());
+    putIfNotNull(fields, "comment", change.comment());
+    putIfNotNull(fields, "date", change.date());
+    putIfNotNull(fields, "valueDate", change.valueDate());
+    putIfNotNull(fields, "payeeName", change.payeeName());
+    putIfNotNull(fields, "label", change.label());
+    putIfNotNull(fields, "crStatus", change.crStatus());
+    putIfNotNull(fields, "originalAmount", change.originalAmount());
+    putIfNotNull(fields, "originalCurrency", change.originalCurrency());
+    putIfNotNull(fields, "tags", change.tags());
+  }
+
+  private void putIfNotNull(Map<String, Object> fields, String key, Object value) {
+    if (value != null) {
+      fields.put(key, value);
+    }
+  }
+}
@@ -11,16 +11,19 @@ import org.totschnig.myexpenses.model.Money
 import org.totschnig.myexpenses.preference.PrefHandler
 import org.totschnig.myexpenses.preference.PrefKey
 import org.totschnig.myexpenses.util.locale.UserLocaleProvider
+import org.totschnig.testutils.assumeBenchmark
+import org.totschnig.testutils.benchmark
 import java.util.*
 
 class CurrencyFormatterTest {
     //TODO extend
     private lateinit var currencyFormatter: CurrencyFormatter
     private lateinit var userLocaleProvider: UserLocaleProvider
+    private lateinit var preHandler: PrefHandler
 
     @Before
     fun setUp() {
-        val preHandler = Mockito.mock(PrefHandler::class.java)
+        preHandler = Mockito.mock(PrefHandler::class.java)
         Mockito.`when`(preHandler.getString(ArgumentMatchers.eq(PrefKey.CUSTOM_DECIMAL_FORMAT), any())).thenReturn("")
         userLocaleProvider = Mockito.mock(UserLocaleProvider::class.java)
         currencyFormatter = CurrencyFormatter(preHandler, userLocaleProvider)
@@ -35,4 +38,77 @@ class CurrencyFormatterTest {
         //newer Java version uses non-breaking space
         assertThat(currencyFormatter.formatMoney(Money(eur, 150))).isEqualTo(if (javaVersion >= 10) "1,50 €" else "1,50 €")
     }
-}
\ No newline at end of file
+
+    private val currencies = listOf(
+        CurrencyUnit("EUR", "€", 2),
+        CurrencyUnit("JPY", "¥", 0),
+        CurrencyUnit("BHD", "BD", 3),
+        CurrencyUnit("XBT", "₿", 8)
+    )
+
+    private val amounts = listOf(
+        0L, 1L, -1L, 5L, 10L, -99L, 100L, 150L, -150L, 123456L, 1000000L, -987654321L,
+        100000000000L, Long.MAX_VALUE, Long.MIN_VALUE + 1, Long.MIN_VALUE
+    )
+
+    private fun assertMinorUnitFormattingIsIdentical() {
+        val builder = StringBuilder()
+        for (currency in currencies) {
+            for (amount in amounts) {
+                builder.setLength(0)
+                assertThat(currencyFormatter.formatCurrency(amount, currency, builder).toString())
+                    .`as`("%s %s", amount, currency.code)
+                    .isEqualTo(currencyFormatter.formatMoney(Money(currency, amount)))
+            }
+        }
+    }
+
+    @Test
+    fun testMinorUnitFormattingIsIdenticalForLocales() {
+        for (locale in listOf(Locale.GERMANY, Locale.US, Locale.FRANCE, Locale("de", "CH"),
+            Locale("hi", "IN"), Locale("ar", "EG"), Locale.JAPAN)) {
+            Mockito.`when`(userLocaleProvider.getUserPreferredLocale()).thenReturn(locale)
+            currencyFormatter = CurrencyFormatter(preHandler, userLocaleProvider)
+            assertMinorUnitFormattingIsIdentical()
+        }
+    }
+
+    @Test
+    fun testMinorUnitFormattingIsIdenticalForCustomFormats() {
+        Mockito.`when`(userLocaleProvider.getUserPreferredLocale()).thenReturn(Locale.US)
+        //the last one uses a multiplier, which is delegated to DecimalFormat
+        for (pattern in listOf("#,##0.00 ¤", "¤ #,##0.00;¤ -#,##0.00", "#.00", "0000.##", "#,##0.00 %")) {
+            Mockito.`when`(preHandler.getString(ArgumentMatchers.eq(PrefKey.CUSTOM_DECIMAL_FORMAT), any())).thenReturn(pattern)
+            currencyFormatter = CurrencyFormatter(preHandler, userLocaleProvider)
+            assertMinorUnitFormattingIsIdentical()
+        }
+    }
+
+    @Test
+    fun testMinorUnitFormattingAppends() {
+        Mockito.`when`(userLocaleProvider.getUserPreferredLocale()).thenReturn(Locale.US)
+        val builder = StringBuilder("Sum: ")
+        assertThat(currencyFormatter.formatCurrency(-123456, CurrencyUnit("USD", "$", 2), builder).toString())
+            .isEqualTo("Sum: -$1,234.56")
+    }
+
+    @Test
+    fun benchmarkFormatting1000Amounts() {
+        assumeBenchmark()
+        Mockito.`when`(userLocaleProvider.getUserPreferredLocale()).thenReturn(Locale.GERMANY)
+        val eur = currencies[0]
+        val amounts = LongArray(1000) { (it - 500) * 12345L }
+        val builder = StringBuilder()
+        var length = 0
+        benchmark("Formatting 1000 amounts via BigDecimal", 20, 100) {
+            amounts.forEach { length += currencyFormatter.formatMoney(Money(eur, it)).length }
+        }
+        benchmark("Formatting 1000 amounts from minor units", 20, 100) {
+            amounts.forEach {
+                builder.setLength(0)
+                length += currencyFormatter.formatCurrency(it, eur, builder).length
+            }
+        }
+        assertThat(length).isPositive
+    }
+}
@@ -0,0 +1,31 @@
+package org.totschnig.myexpenses.util
+
+import com.google.common.truth.Truth.assertThat
+import org.junit.Test
+import org.totschnig.testutils.assumeBenchmark
+import org.totschnig.testutils.benchmark
+
+class PdfHelperTest {
+    private val rtlRegex = Regex(".*[\\p{InArabic}\\p{InHebrew}].*")
+
+    @Test
+    fun hasAnyRtlMatchesArabicAndHebrewBlocks() {
+        //line terminators are not matched by . in the regex
+        val lineTerminators = setOf('\n', '\r', '\u0085', '\u2028', '\u2029')
+        (0 until 0x10000).map { it.toChar() }.filter { !Character.isSurrogate(it) && it !in lineTerminators }.forEach {
+            val text = "a${it}b"
+            assertThat(PdfHelper.hasAnyRtl(text)).isEqualTo(rtlRegex.matches(text))
+        }
+        assertThat(PdfHelper.hasAnyRtl("test")).isFalse()
+        assertThat(PdfHelper.hasAnyRtl("مصروفاتي")).isTrue()
+        assertThat(PdfHelper.hasAnyRtl("הנושאים שלי")).isTrue()
+    }
+
+    @Test
+    fun benchmarkRtlCheckOf10kCells() {
+        assumeBenchmark()
+        val cells = (0 until 10_000).map { "Groceries ${it % 100} (reference $it)" }
+        benchmark("Rtl check through regex", 5, 20) { cells.forEach { rtlRegex.matches(it) } }
+        benchmark("Rtl check through char range", 5, 20) { cells.forEach { PdfHelper.hasAnyRtl(it) } }
+    }
+}
@@ -13,7 +13,7 @@ import javax.inject.Inject
 @Keep
 class OcrHandlerImpl @Inject constructor(prefHandler: PrefHandler, userLocaleProvider: UserLocaleProvider, context: Context) : AbstractOcrHandlerImpl(prefHandler, userLocaleProvider, context) {
     override suspend fun handleData(intent: Intent) = (intent.getParcelableExtra("result") as? Text)?.let {
-        processTextRecognitionResult(it, queryPayees())
+        processTextRecognitionResult(it, payeeIndex())
     } ?: throw IllegalArgumentException("Unable to retrieve result from intent")
 
     override fun info(context: Context): CharSequence =
@@ -12,7 +12,7 @@ import javax.inject.Inject
 
 class OcrHandlerImpl @Inject constructor(prefHandler: PrefHandler, userLocaleProvider: UserLocaleProvider, context: Context) : AbstractOcrHandlerImpl(prefHandler, userLocaleProvider, context) {
     override suspend fun runTextRecognition(file: File, context: Context) =
-            getEngine(context, prefHandler)?.let { processTextRecognitionResult(it.run(file, context, prefHandler), queryPayees()) } ?: throw java.lang.IllegalStateException("No engine loaded")
+            getEngine(context, prefHandler)?.let { processTextRecognitionResult(it.run(file, context, prefHandler), payeeIndex()) } ?: throw java.lang.IllegalStateException("No engine loaded")
 
     override suspend fun handleData(intent: Intent): OcrResult {
         throw IllegalStateException()
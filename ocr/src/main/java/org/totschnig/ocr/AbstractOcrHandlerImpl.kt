@@ -2,10 +2,12 @@ package org.totschnig.ocr
 
 import android.content.Context
 import android.content.Intent
+import android.database.ContentObserver
 import android.graphics.Rect
 import android.text.TextUtils
 import kotlinx.coroutines.Dispatchers
 import kotlinx.coroutines.withContext
+import java.time.DateTimeException
 import java.time.LocalDate
 import java.time.LocalTime
 import java.time.format.DateTimeFormatter
@@ -22,6 +24,7 @@ import org.totschnig.myexpenses.util.Utils
 import org.totschnig.myexpenses.util.locale.UserLocaleProvider
 import timber.log.Timber
 import java.text.NumberFormat
+import java.text.ParsePosition
 import java.util.Locale
 import kotlin.math.absoluteValue
 
@@ -70,21 +73,49 @@ abstract class AbstractOcrHandlerImpl(val prefHandler: PrefHandler, userLocalePr
     private fun Line.bOr0() = boundingBox.bOr0()
     private fun Line.tOr0() = boundingBox.tOr0()
 
-    suspend fun queryPayees() = withContext(Dispatchers.Default) {
-        mutableListOf<Payee>().also {
-            context.contentResolver.query(TransactionProvider.PAYEES_URI,
-                    arrayOf(DatabaseConstants.KEY_ROWID, DatabaseConstants.KEY_PAYEE_NAME),
-                    null, null, null)?.use { cursor ->
-                if (cursor.moveToFirst()) {
-                    do {
-                        it.add(Payee(cursor.getLong(0), cursor.getString(1)))
-                    } while (cursor.moveToNext())
+    private fun queryPayees() = mutableListOf<Payee>().also {
+        context.contentResolver.query(TransactionProvider.PAYEES_URI,
+                arrayOf(DatabaseConstants.KEY_ROWID, DatabaseConstants.KEY_PAYEE_NAME),
+                null, null, null)?.use { cursor ->
+            if (cursor.moveToFirst()) {
+                do {
+                    it.add(Payee(cursor.getLong(0), cursor.getString(1)))
+                } while (cursor.moveToNext())
+            }
+        }
+    }
+
+    /**
+     * @return the index of all payees, which is built once and rebuilt after payees have changed
+     */
+    suspend fun payeeIndex() = withContext(Dispatchers.Default) {
+        synchronized(PayeeIndexHolder) {
+            if (PayeeIndexHolder.observer == null) {
+                PayeeIndexHolder.observer = object : ContentObserver(null) {
+                    override fun onChange(selfChange: Boolean) {
+                        synchronized(PayeeIndexHolder) {
+                            PayeeIndexHolder.index = null
+                            PayeeIndexHolder.generation++
+                        }
+                    }
+                }.also {
+                    context.applicationContext.contentResolver.registerContentObserver(TransactionProvider.PAYEES_URI, true, it)
+                }
+            }
+            PayeeIndexHolder.index?.let { return@withContext it }
+        }
+        val generation = synchronized(PayeeIndexHolder) { PayeeIndexHolder.generation }
+        PayeeIndex(queryPayees()).also {
+            synchronized(PayeeIndexHolder) {
+                //if payees changed while we were building, the index is used once, but not kept
+                if (PayeeIndexHolder.generation == generation) {
+                    PayeeIndexHolder.index = it
                 }
             }
         }
     }
 
-    fun processTextRecognitionResult(texts: Text, payeeList: List<Payee>): OcrResult {
+    fun processTextRecognitionResult(texts: Text, payeeIndex: PayeeIndex): OcrResult {
         if (dateFormatterList.isEmpty()) {
             throw IllegalStateException("Empty date format list")
         }
@@ -142,32 +173,44 @@ abstract class AbstractOcrHandlerImpl(val prefHandler: PrefHandler, userLocalePr
                 ?: lines.mapNotNull { line -> extractDate(line, timeCandidates, 2) }.takeIf { it.isNotEmpty() }
                 ?: lines.mapNotNull { line -> extractDate(line, timeCandidates, 3) }
 
-        val payeeCandidates = lines
-                .map { line -> Utils.normalize(line.text) }
-                .mapNotNull { text ->
-            payeeList.find { payee ->
-                val normalized = Utils.normalize(payee.name)
-                startsWith2Ways(normalized, text) || startsWith2Ways(normalized.replace(" ", ""), text.replace(" ", ""))
-            }
-        }
+        val payeeCandidates = lines.mapNotNull { line -> payeeIndex.find(Utils.normalize(line.text)) }
 
         return OcrResult(amountCandidates.distinct(), dateCandidates.distinct(), payeeCandidates.distinct())
     }
 
-    private fun startsWith2Ways(one: String, two: String) =
-            one.startsWith(two, ignoreCase = true) || two.startsWith(one, ignoreCase = true)
-
     private val List<Element>.text: String
         get() = joinToString(separator = "") { it.text }
     private val List<Element>.boundingBox: Rect
         get() = Rect().apply { map { it.boundingBox }.forEach { it?.let { union(it) } } }
 
+    /**
+     * Windows of [windowSize] adjacent elements, whose text contains a digit. Dates, times and
+     * amounts need at least one digit, which rules out most of the elements on a receipt.
+     */
+    private fun Line.numericWindows(windowSize: Int) =
+            elements.windowed(windowSize).map { it to it.text }.filter { (_, text) -> text.any { c -> c.isDigit() } }
+
+    /**
+     * Parses [text] with [formatter], but only after [DateTimeFormatter.parseUnresolved], which
+     * does not throw, has confirmed that the whole [text] matches the pattern of [formatter]. An
+     * exception is only thrown and caught for text with invalid values, like a 13th month.
+     */
+    private fun <T> parseOrNull(text: String, formatter: DateTimeFormatter, parse: (CharSequence, DateTimeFormatter) -> T): T? {
+        val position = ParsePosition(0)
+        if (formatter.parseUnresolved(text, position) == null || position.index < text.length) return null
+        return try {
+            parse(text, formatter)
+        } catch (e: DateTimeException) {
+            null
+        }
+    }
+
     private fun extractTime(line: Line, windowSize: Int): Pair<LocalTime, Rect?>? {
+        val windows = line.numericWindows(windowSize)
         timeFormatterList.forEach { formatter ->
-            line.elements.windowed(windowSize).forEach { list ->
-                try {
-                    return Pair(LocalTime.parse(list.text, formatter), list.boundingBox)
-                } catch (e: Exception) {
+            windows.forEach { (list, text) ->
+                parseOrNull<LocalTime>(text, formatter, LocalTime::parse)?.let {
+                    return Pair(it, list.boundingBox)
                 }
             }
         }
@@ -175,12 +218,11 @@ abstract class AbstractOcrHandlerImpl(val prefHandler: PrefHandler, userLocalePr
     }
 
     private fun extractDate(line: Line, timeCandidates: List<Pair<LocalTime, Rect?>>, windowSize: Int): Pair<LocalDate, LocalTime?>? {
+        val windows = line.numericWindows(windowSize)
         dateFormatterList.forEach { formatter ->
-            line.elements.windowed(windowSize).forEach { list ->
-                try {
-                    val date = LocalDate.parse(list.text, formatter)
+            windows.forEach { (list, text) ->
+                parseOrNull<LocalDate>(text, formatter, LocalDate::parse)?.let { date ->
                     return Pair(date, timeCandidates.minByOrNull { (it.second.bOr0() - list.boundingBox.bottom).absoluteValue.coerceAtMost((it.second.tOr0() - list.boundingBox.top).absoluteValue) }?.first)
-                } catch (e: Exception) {
                 }
             }
         }
@@ -188,16 +230,20 @@ abstract class AbstractOcrHandlerImpl(val prefHandler: PrefHandler, userLocalePr
     }
 
     private fun extractAmount(line: Line): String? = line.elements.filter { element ->
-        numberFormatList.forEach {
-            try {
-                it.parse(element.text)
-                return@filter true
-            } catch (e: Exception) {}
-        }
-        return@filter false
+        element.text.any { it.isDigit() } &&
+                numberFormatList.any { it.parse(element.text, ParsePosition(0)) != null }
     }.map { it.text }.takeIf { it.isNotEmpty() }?.joinToString(separator = "")
 
     fun log(message: String, vararg args: Any?) {
         Timber.tag(OcrFeature.TAG).i(message, *args)
     }
+
+    /**
+     * The payee index is shared by all handlers, and dropped when payees change
+     */
+    private object PayeeIndexHolder {
+        var index: PayeeIndex? = null
+        var generation = 0
+        var observer: ContentObserver? = null
+    }
 }
\ No newline at end of file
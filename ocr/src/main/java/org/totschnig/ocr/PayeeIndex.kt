@@ -0,0 +1,96 @@
+package org.totschnig.ocr
+
+import org.totschnig.myexpenses.feature.Payee
+import org.totschnig.myexpenses.util.Utils
+
+/**
+ * Prefix tree of normalized payee names, with and without spaces. [find] returns the payee that
+ * comes first in the list the index was built from, whose name starts with the given text or
+ * is a prefix of it, ignoring case. Payee names are normalized only once, when the index is
+ * built, and a lookup only walks along the characters of the text.
+ */
+class PayeeIndex(private val payees: List<Payee>) {
+    private class Node {
+        /**
+         * sorted, [children] holds the child node for each key at the same position
+         */
+        var keys = CharArray(0)
+        var children = arrayOfNulls<Node>(0)
+
+        /**
+         * position of the first payee whose name ends at this node
+         */
+        var terminal = Int.MAX_VALUE
+
+        /**
+         * position of the first payee whose name ends at this node or below
+         */
+        var subtreeMin = Int.MAX_VALUE
+
+        fun child(key: Char): Node? = keys.binarySearch(key).let { if (it >= 0) children[it] else null }
+
+        fun getOrAdd(key: Char): Node {
+            val position = keys.binarySearch(key)
+            if (position >= 0) return children[position]!!
+            val insertion = -position - 1
+            val node = Node()
+            keys = CharArray(keys.size + 1) { i ->
+                when {
+                    i < insertion -> keys[i]
+                    i == insertion -> key
+                    else -> keys[i - 1]
+                }
+            }
+            children = Array(children.size + 1) { i ->
+                when {
+                    i < insertion -> children[i]
+                    i == insertion -> node
+                    else -> children[i - 1]
+                }
+            }
+            return node
+        }
+    }
+
+    private val root = Node()
+
+    init {
+        payees.forEachIndexed { position, payee ->
+            val normalized = Utils.normalize(payee.name)
+            add(normalized, position)
+            add(normalized.replace(" ", ""), position)
+        }
+    }
+
+    private fun fold(c: Char) = c.uppercaseChar().lowercaseChar()
+
+    private fun add(name: String, position: Int) {
+        if (name.isEmpty()) return
+        var node = root
+        root.subtreeMin = minOf(root.subtreeMin, position)
+        for (c in name) {
+            node = node.getOrAdd(fold(c))
+            node.subtreeMin = minOf(node.subtreeMin, position)
+        }
+        node.terminal = minOf(node.terminal, position)
+    }
+
+    private fun lookup(text: String): Int {
+        if (text.isEmpty()) return Int.MAX_VALUE
+        var result = Int.MAX_VALUE
+        var node = root
+        for (c in text) {
+            node = node.child(fold(c)) ?: return result
+            //a payee name that is a prefix of text
+            result = minOf(result, node.terminal)
+        }
+        //payee names starting with text
+        return minOf(result, node.subtreeMin)
+    }
+
+    /**
+     * @param text normalized with [Utils.normalize]
+     */
+    fun find(text: String) = minOf(lookup(text), lookup(text.replace(" ", "")))
+        .takeIf { it != Int.MAX_VALUE }?.let { payees[it] }
+}
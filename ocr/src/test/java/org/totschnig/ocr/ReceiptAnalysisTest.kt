@@ -0,0 +1,138 @@
+package org.totschnig.ocr
+
+import android.content.Context
+import android.content.Intent
+import android.graphics.Rect
+import org.assertj.core.api.Assertions.assertThat
+import org.junit.Test
+import org.junit.runner.RunWith
+import org.mockito.Mockito
+import org.robolectric.RobolectricTestRunner
+import org.totschnig.myexpenses.feature.OcrResult
+import org.totschnig.myexpenses.feature.Payee
+import org.totschnig.myexpenses.preference.PrefHandler
+import org.totschnig.myexpenses.preference.PrefKey
+import org.totschnig.myexpenses.util.Utils
+import org.totschnig.myexpenses.util.locale.UserLocaleProvider
+import org.totschnig.testutils.assumeBenchmark
+import org.totschnig.testutils.benchmark
+import java.io.File
+import java.time.LocalDate
+import java.time.LocalTime
+import java.util.*
+import kotlin.random.Random
+
+@RunWith(RobolectricTestRunner::class)
+class ReceiptAnalysisTest {
+    private val handler = object : AbstractOcrHandlerImpl(
+        Mockito.mock(PrefHandler::class.java).also {
+            Mockito.`when`(it.getString(PrefKey.OCR_TOTAL_INDICATORS, null)).thenReturn("Summe\nTotal")
+        },
+        Mockito.mock(UserLocaleProvider::class.java).also {
+            Mockito.`when`(it.systemLocale).thenReturn(Locale.GERMANY)
+        },
+        Mockito.mock(Context::class.java)
+    ) {
+        override suspend fun runTextRecognition(file: File, context: Context) = throw NotImplementedError()
+        override suspend fun handleData(intent: Intent) = throw NotImplementedError()
+        override fun info(context: Context): CharSequence? = null
+    }
+
+    /**
+     * A line as recorded from a text recognition engine, with one element per word
+     */
+    private fun line(text: String, index: Int): Line {
+        val top = 40 * index
+        var left = 0
+        val elements = text.split(' ').map { word ->
+            Element(word, Rect(left, top, left + 12 * word.length, top + 30)).also { left += 12 * (word.length + 1) }
+        }
+        return Line(text, Rect(0, top, left, top + 30), elements)
+    }
+
+    private fun receipt(vararg lines: String) = Text(listOf(TextBlock(lines.mapIndexed { index, text -> line(text, index) })))
+
+    private val recordedReceipts = listOf(
+        receipt("BILLA AG", "Filiale 1234 Wien", "Milch 1,29", "Brot 2,49", "SUMME EUR 3,78", "12.03.2021 14:35"),
+        receipt("dm drogerie markt", "Zahnpasta 1,95", "Shampoo 3,45", "Total 5,40", "Kartenzahlung", "03.11.2020 09:12:44"),
+        receipt("HOFER KG", "Bananen 1,49", "Käse 3,99", "Summe 5,48", "MwSt 10% 0,50", "Datum: 24.12.2021", "Zeit: 11:58")
+    )
+
+    private val knownPayees = listOf("Billa", "dm Drogerie Markt", "Hofer")
+
+    private fun payees(count: Int) = (0 until count).map { Payee(it.toLong(), "Payee ${"%05d".format(it)} Gmbh") } +
+            knownPayees.mapIndexed { index, name -> Payee((count + index).toLong(), name) }
+
+    private fun analyze(receipt: Text, payees: List<Payee>): OcrResult =
+        handler.processTextRecognitionResult(receipt, PayeeIndex(payees))
+
+    @Test
+    fun recordedReceipts() {
+        val payees = payees(100)
+        with(analyze(recordedReceipts[0], payees)) {
+            assertThat(amountCandidates).contains("3,78")
+            assertThat(dateCandidates).contains(Pair(LocalDate.of(2021, 3, 12), LocalTime.of(14, 35)))
+            assertThat(payeeCandidates.map { it.name }).containsExactly("Billa")
+        }
+        with(analyze(recordedReceipts[1], payees)) {
+            assertThat(amountCandidates).contains("5,40")
+            assertThat(dateCandidates.map { it.first }).contains(LocalDate.of(2020, 11, 3))
+            assertThat(payeeCandidates.map { it.name }).containsExactly("dm Drogerie Markt")
+        }
+        with(analyze(recordedReceipts[2], payees)) {
+            assertThat(amountCandidates).contains("5,48")
+            assertThat(dateCandidates).contains(Pair(LocalDate.of(2021, 12, 24), LocalTime.of(11, 58)))
+            assertThat(payeeCandidates.map { it.name }).containsExactly("Hofer")
+        }
+    }
+
+    /**
+     * The matching done by processTextRecognitionResult before payees were indexed
+     */
+    private fun linearSearch(payees: List<Payee>, text: String): Payee? {
+        fun startsWith2Ways(one: String, two: String) =
+            one.startsWith(two, ignoreCase = true) || two.startsWith(one, ignoreCase = true)
+        return payees.find { payee ->
+            val normalized = Utils.normalize(payee.name)
+            startsWith2Ways(normalized, text) || startsWith2Ways(normalized.replace(" ", ""), text.replace(" ", ""))
+        }
+    }
+
+    @Test
+    fun payeeIndexMatchesLinearSearch() {
+        val random = Random(1)
+        val words = listOf("Café", "Müller", "Bäckerei", "Spar", "dm", "Markt", "Bio", "Laden", "Hofer", "Wien")
+        fun randomName() = (1..random.nextInt(1, 4)).joinToString(" ") { words.random(random) }
+        val payees = (0 until 300).map { Payee(it.toLong(), randomName()) }
+        val index = PayeeIndex(payees)
+        repeat(2000) {
+            val text = Utils.normalize(randomName().let { it.substring(0, random.nextInt(1, it.length + 1)) })
+            assertThat(index.find(text)).`as`(text).isEqualTo(linearSearch(payees, text))
+        }
+    }
+
+    @Test
+    fun benchmarkRecordedReceiptsWith5000Payees() {
+        assumeBenchmark()
+        val payees = payees(5000)
+        val index = PayeeIndex(payees)
+        val noisyReceipts = recordedReceipts.map { receipt ->
+            val lines = receipt.textBlocks.single().lines
+            //noisy recognition results have many lines without any useful information
+            Text(listOf(TextBlock(lines + (0 until 40).map { line("Artikel Nr. ${1000 + it} x ${it % 7},${it % 10}9 A", lines.size + it) })))
+        }
+        val normalizedLines = noisyReceipts.flatMap { receipt -> receipt.textBlocks.flatMap { it.lines }.map { Utils.normalize(it.text) } }
+        benchmark("Matching lines of recorded receipts against 5000 payees linearly", 2, 5) {
+            normalizedLines.forEach { linearSearch(payees, it) }
+        }
+        benchmark("Matching lines of recorded receipts against 5000 indexed payees", 2, 5) {
+            normalizedLines.forEach { index.find(it) }
+        }
+        benchmark("Building index of 5000 payees", 2, 5) {
+            PayeeIndex(payees)
+        }
+        benchmark("Analyzing recorded receipts", 2, 5) {
+            noisyReceipts.forEach { handler.processTextRecognitionResult(it, index) }
+        }
+    }
+}
@@ -0,0 +1,72 @@
+package org.totschnig.tesseract
+
+/**
+ * Adaptive threshold of Bradley and Roth, which compares each pixel with the mean of its window.
+ * Instead of one integral image of the full image, each tile computes the integral image of
+ * itself and of the surrounding pixels within the window radius. Bands of tiles are processed in
+ * parallel, and each band only needs memory for the integral image of one tile.
+ */
+class BradleyThreshold(
+    private val windowSize: Int = 41,
+    private val pixelBrightnessDifferenceLimit: Float = 0.15f,
+    private val tileSize: Int = 256
+) {
+    /**
+     * @return a new plane where each pixel is 0 if it is darker than the mean of its window
+     * reduced by [pixelBrightnessDifferenceLimit], 255 otherwise
+     */
+    suspend fun apply(plane: LuminancePlane): LuminancePlane {
+        val result = LuminancePlane(plane.width, plane.height)
+        val radius = windowSize / 2
+        val tileWithHalo = tileSize + 2 * radius + 1
+        forEachBand(plane.height, tileSize) { top, bottom ->
+            val integral = IntArray(tileWithHalo * tileWithHalo)
+            for (left in 0 until plane.width step tileSize) {
+                applyToTile(plane, result, integral, radius, top, bottom, left, minOf(plane.width, left + tileSize))
+            }
+        }
+        return result
+    }
+
+    private fun applyToTile(
+        plane: LuminancePlane, result: LuminancePlane, integral: IntArray, radius: Int,
+        top: Int, bottom: Int, left: Int, right: Int
+    ) {
+        val width = plane.width
+        val height = plane.height
+        val haloTop = maxOf(0, top - radius)
+        val haloLeft = maxOf(0, left - radius)
+        val haloBottom = minOf(height, bottom + radius)
+        val haloRight = minOf(width, right + radius)
+        //integral image of the halo with an additional leading row and column of zeros
+        val stride = haloRight - haloLeft + 1
+        integral.fill(0, 0, stride)
+        for (row in haloTop until haloBottom) {
+            val current = (row - haloTop + 1) * stride
+            val previous = current - stride
+            val offset = row * width
+            var rowSum = 0
+            integral[current] = 0
+            for (column in haloLeft until haloRight) {
+                rowSum += plane.data[offset + column].toInt() and 0xFF
+                val index = column - haloLeft + 1
+                integral[current + index] = rowSum + integral[previous + index]
+            }
+        }
+        val avgBrightnessPart = 1.0f - pixelBrightnessDifferenceLimit
+        for (row in top until bottom) {
+            val x1 = maxOf(0, row - radius) - haloTop
+            val x2 = minOf(height - 1, row + radius) - haloTop + 1
+            val offset = row * width
+            for (column in left until right) {
+                val y1 = maxOf(0, column - radius) - haloLeft
+                val y2 = minOf(width - 1, column + radius) - haloLeft + 1
+                val sum = integral[x2 * stride + y2] + integral[x1 * stride + y1] -
+                        integral[x1 * stride + y2] - integral[x2 * stride + y1]
+                val mean = (sum.toDouble() / ((x2 - x1) * (y2 - y1)).toDouble()).toFloat()
+                val gray = plane.data[offset + column].toInt() and 0xFF
+                result.data[offset + column] = (if (gray < (mean * avgBrightnessPart).toInt()) 0 else 255).toByte()
+            }
+        }
+    }
+}
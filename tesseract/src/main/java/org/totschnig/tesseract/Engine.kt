@@ -1,11 +1,10 @@
 package org.totschnig.tesseract
 
-import Catalano.Imaging.FastBitmap
-import Catalano.Imaging.Filters.BradleyLocalThreshold
-import Catalano.Imaging.IApplyInPlace
 import android.app.DownloadManager
 import android.app.DownloadManager.Request.VISIBILITY_VISIBLE_NOTIFY_COMPLETED
 import android.content.Context
+import android.graphics.Bitmap
+import android.graphics.BitmapFactory
 import android.net.Uri
 import android.os.Bundle
 import androidx.annotation.Keep
@@ -161,16 +160,9 @@ object Engine : TesseractEngine {
                 setVariable("load_bigram_dawg", TessBaseAPI.VAR_FALSE)
                 setVariable("load_fixed_length_dawgs", TessBaseAPI.VAR_FALSE)
                 pageSegMode = TessBaseAPI.PageSegMode.PSM_AUTO_OSD
-                var bitmap = with(FastBitmap(file.path)) {
-                    toGrayscale()
-                    val g: IApplyInPlace = BradleyLocalThreshold()
-                    g.applyInPlace(this)
-                    toBitmap()
-                }
-                /*if (scale < 10) {
-                    bitmap = Bitmap.createScaledBitmap(bitmap, (bitmap.width * scale / 10), (bitmap.height * scale / 10), true)
-                }*/
-                setImage(bitmap)
+                val image = preprocess(loadLuminancePlane(file))
+                timing("Preprocess")
+                setImage(image.data, image.width, image.height, 1, image.width)
                 timing("SetImage")
                 utF8Text
                 timing("utF8Text")
@@ -207,6 +199,20 @@ object Engine : TesseractEngine {
         return "Tesseract (${language(context, prefHandler)})"
     }
 
+    /**
+     * Decodes [file] and converts it to grayscale band by band
+     */
+    private suspend fun loadLuminancePlane(file: File): LuminancePlane {
+        val options = BitmapFactory.Options().apply { inPreferredConfig = Bitmap.Config.ARGB_8888 }
+        val bitmap = BitmapFactory.decodeFile(file.path, options)
+            ?: throw IllegalArgumentException("Could not decode ${file.path}")
+        val plane = LuminancePlane.fromArgbRows(bitmap.width, bitmap.height) { buffer, top, rows ->
+            bitmap.getPixels(buffer, 0, bitmap.width, 0, top, bitmap.width, rows)
+        }
+        bitmap.recycle()
+        return plane
+    }
+
     private fun timing(step: String) {
         val delta = System.currentTimeMillis() - timer
         Timber.i("Timing (%s): %d", step, delta)
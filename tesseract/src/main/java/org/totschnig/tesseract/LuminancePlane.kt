@@ -0,0 +1,97 @@
+package org.totschnig.tesseract
+
+import kotlinx.coroutines.Dispatchers
+import kotlinx.coroutines.coroutineScope
+import kotlinx.coroutines.launch
+
+/**
+ * Number of rows processed by one task, when work is split in horizontal bands
+ */
+const val BAND_HEIGHT = 64
+
+/**
+ * 8-bit grayscale image stored row by row with one byte per pixel, i.e. a quarter of the memory
+ * needed by an ARGB [IntArray]
+ */
+class LuminancePlane(val width: Int, val height: Int, val data: ByteArray = ByteArray(width * height)) {
+    init {
+        require(data.size == width * height)
+    }
+
+    operator fun get(row: Int, column: Int) = data[row * width + column].toInt() and 0xFF
+
+    /**
+     * @return a plane reduced by [factor] in both dimensions, where each pixel is the mean of a
+     * block of [factor] x [factor] pixels, this plane if [factor] is less than 2
+     */
+    suspend fun downscale(factor: Int): LuminancePlane {
+        if (factor < 2) return this
+        val result = LuminancePlane(width / factor, height / factor)
+        val area = factor * factor
+        forEachBand(result.height) { from, to ->
+            val sums = IntArray(result.width)
+            for (row in from until to) {
+                sums.fill(0)
+                for (sourceRow in row * factor until (row + 1) * factor) {
+                    val offset = sourceRow * width
+                    for (column in 0 until result.width * factor) {
+                        sums[column / factor] += data[offset + column].toInt() and 0xFF
+                    }
+                }
+                val offset = row * result.width
+                for (column in sums.indices) {
+                    result.data[offset + column] = (sums[column] / area).toByte()
+                }
+            }
+        }
+        return result
+    }
+
+    /**
+     * downscales by the largest integer factor that keeps the resolution at or above [targetDpi]
+     */
+    suspend fun downscaleToDpi(sourceDpi: Float, targetDpi: Int) = downscale((sourceDpi / targetDpi).toInt())
+
+    companion object {
+        suspend fun fromArgb(pixels: IntArray, width: Int, height: Int) =
+            fromArgbRows(width, height) { buffer, top, rows ->
+                System.arraycopy(pixels, top * width, buffer, 0, rows * width)
+            }
+
+        /**
+         * Converts an ARGB image to grayscale with the BT.709 luma coefficients, band by band in
+         * parallel, so that the full image never needs to be held as ARGB [IntArray].
+         * @param readRows copies [rows] rows of ARGB pixels starting at row [top] into the given
+         * buffer, is called concurrently with one buffer per band
+         */
+        suspend fun fromArgbRows(
+            width: Int, height: Int,
+            readRows: (buffer: IntArray, top: Int, rows: Int) -> Unit
+        ): LuminancePlane {
+            val result = LuminancePlane(width, height)
+            forEachBand(height) { from, to ->
+                val buffer = IntArray(width * (to - from))
+                readRows(buffer, from, to - from)
+                val offset = from * width
+                for (i in buffer.indices) {
+                    val pixel = buffer[i]
+                    val r = (pixel shr 16 and 0xFF).toDouble()
+                    val g = (pixel shr 8 and 0xFF).toDouble()
+                    val b = (pixel and 0xFF).toDouble()
+                    result.data[offset + i] = (r * 0.2125 + g * 0.7154 + b * 0.0721).toInt().toByte()
+                }
+            }
+            return result
+        }
+    }
+}
+
+/**
+ * runs [block] for consecutive bands of [bandHeight] rows out of [height] in parallel
+ */
+suspend fun forEachBand(height: Int, bandHeight: Int = BAND_HEIGHT, block: (from: Int, to: Int) -> Unit) =
+    coroutineScope {
+        for (from in 0 until height step bandHeight) {
+            launch(Dispatchers.Default) { block(from, minOf(height, from + bandHeight)) }
+        }
+    }
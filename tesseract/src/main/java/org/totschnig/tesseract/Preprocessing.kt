@@ -0,0 +1,70 @@
+package org.totschnig.tesseract
+
+/**
+ * Resolution at which images are passed to Tesseract, higher resolutions are downscaled
+ */
+const val TARGET_DPI = 300
+
+/**
+ * Printable width of the common 80 mm thermal receipt, used to estimate the resolution of a photo
+ * from the width of its printed content
+ */
+const val RECEIPT_PRINT_WIDTH_INCHES = 2.83f
+
+/**
+ * Factor by which a plane is reduced before its content width is detected
+ */
+const val CONTENT_DETECTION_FACTOR = 8
+
+/**
+ * Columns in which less than this ratio of pixels is dark are treated as margin
+ */
+const val MIN_INK_RATIO = 0.02f
+
+/**
+ * Rows and columns in which more than this ratio of pixels is dark are treated as the edge of the
+ * paper or as background, text leaves enough white space between lines and between characters
+ */
+const val MAX_INK_RATIO = 0.5f
+
+/**
+ * Estimates the resolution of a receipt photo from the distance between the leftmost and the
+ * rightmost column containing print, which is independent of how much background the photo shows
+ * around the receipt.
+ * @return null if no print could be detected
+ */
+suspend fun LuminancePlane.estimateReceiptDpi(): Float? {
+    val coarse = BradleyThreshold().apply(downscale(CONTENT_DETECTION_FACTOR))
+    return coarse.inkWidth().takeIf { it > 0 }
+        ?.let { it * CONTENT_DETECTION_FACTOR / RECEIPT_PRINT_WIDTH_INCHES }
+}
+
+/**
+ * @return the number of columns from the leftmost to the rightmost column of this binarized plane
+ * whose ratio of black pixels lies between [MIN_INK_RATIO] and [MAX_INK_RATIO], 0 if there is none.
+ * Rows with more than [MAX_INK_RATIO] black pixels are not taken into account.
+ */
+fun LuminancePlane.inkWidth(): Int {
+    val counts = IntArray(width)
+    var rows = 0
+    for (row in 0 until height) {
+        if ((0 until width).count { get(row, it) == 0 } > width * MAX_INK_RATIO) continue
+        rows++
+        for (column in 0 until width) {
+            if (get(row, column) == 0) counts[column]++
+        }
+    }
+    val min = maxOf(1, (rows * MIN_INK_RATIO).toInt())
+    val max = (rows * MAX_INK_RATIO).toInt()
+    val inkColumns = counts.indices.filter { counts[it] in min..max }
+    return if (inkColumns.isEmpty()) 0 else inkColumns.last() - inkColumns.first() + 1
+}
+
+/**
+ * Downscales [plane] to [TARGET_DPI] if its resolution can be estimated from its content, and
+ * binarizes it with [threshold]. Photos without detectable print are kept at full resolution.
+ */
+suspend fun preprocess(plane: LuminancePlane, threshold: BradleyThreshold = BradleyThreshold()): LuminancePlane {
+    val dpi = plane.estimateReceiptDpi()
+    return threshold.apply(if (dpi == null) plane else plane.downscaleToDpi(dpi, TARGET_DPI))
+}
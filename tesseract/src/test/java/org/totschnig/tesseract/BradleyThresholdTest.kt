@@ -0,0 +1,129 @@
+package org.totschnig.tesseract
+
+import kotlinx.coroutines.runBlocking
+import org.junit.Assert.assertArrayEquals
+import org.junit.Assert.assertEquals
+import org.junit.Test
+import org.totschnig.testutils.assumeBenchmark
+import org.totschnig.testutils.benchmark
+import kotlin.random.Random
+
+class BradleyThresholdTest {
+
+    /**
+     * Synthetic receipt photo: a lighting gradient, sensor noise and dark glyph sized rectangles
+     * arranged in lines
+     */
+    private fun sampleImage(width: Int, height: Int, seed: Int = 1): IntArray {
+        val random = Random(seed)
+        val gray = IntArray(width * height) { index ->
+            val row = index / width
+            val column = index % width
+            (140 + 100 * column / width - 40 * row / height + random.nextInt(-12, 13)).coerceIn(0, 255)
+        }
+        val glyphHeight = maxOf(2, height / 60)
+        for (top in glyphHeight until height - 2 * glyphHeight step 2 * glyphHeight) {
+            var left = random.nextInt(1, maxOf(2, width / 10))
+            while (left < width - glyphHeight) {
+                val glyphWidth = random.nextInt(1, glyphHeight + 1)
+                for (row in top until top + glyphHeight) {
+                    for (column in left until minOf(width, left + glyphWidth)) {
+                        gray[row * width + column] = random.nextInt(10, 60)
+                    }
+                }
+                left += glyphWidth + random.nextInt(1, glyphHeight)
+            }
+        }
+        return IntArray(gray.size) {
+            val value = gray[it]
+            //slightly tinted paper
+            255 shl 24 or (value shl 16) or ((value * 9 / 10) shl 8) or (value * 8 / 10)
+        }
+    }
+
+    /**
+     * The processing of Catalano's Grayscale and BradleyLocalThreshold, with FastBitmap replaced
+     * by an ARGB array
+     */
+    private fun reference(pixels: IntArray, width: Int, height: Int, windowSize: Int = 41): ByteArray {
+        for (i in pixels.indices) {
+            val r = (pixels[i] shr 16 and 0xFF).toDouble()
+            val g = (pixels[i] shr 8 and 0xFF).toDouble()
+            val b = (pixels[i] and 0xFF).toDouble()
+            val gray = (r * 0.2125 + g * 0.7154 + b * 0.0721).toInt()
+            pixels[i] = 255 shl 24 or (gray shl 16) or (gray shl 8) or gray
+        }
+        val integralImage = Array(height + 1) { IntArray(width + 1) }
+        for (x in 1 until height + 1) {
+            var rowSum = 0
+            for (y in 1 until width + 1) {
+                rowSum += pixels[(x - 1) * width + y - 1] and 0xFF
+                integralImage[x][y] = rowSum + integralImage[x - 1][y]
+            }
+        }
+        val radius = windowSize / 2
+        val avgBrightnessPart = 1.0f - 0.15f
+        for (x in 0 until height) {
+            val x1 = maxOf(0, x - radius)
+            val x2 = minOf(height - 1, x + radius) + 1
+            for (y in 0 until width) {
+                val y1 = maxOf(0, y - radius)
+                val y2 = minOf(width - 1, y + radius) + 1
+                val mean = ((integralImage[x2][y2] + integralImage[x1][y1] - integralImage[x1][y2] - integralImage[x2][y1]).toDouble() /
+                        ((x2 - x1) * (y2 - y1)).toDouble()).toFloat()
+                val gray = if ((pixels[x * width + y] and 0xFF) < (mean * avgBrightnessPart).toInt()) 0 else 255
+                pixels[x * width + y] = 255 shl 24 or (gray shl 16) or (gray shl 8) or gray
+            }
+        }
+        return ByteArray(pixels.size) { pixels[it].toByte() }
+    }
+
+    private fun assertMatchesReference(width: Int, height: Int, threshold: BradleyThreshold = BradleyThreshold()) = runBlocking {
+        val pixels = sampleImage(width, height)
+        val result = threshold.apply(LuminancePlane.fromArgb(pixels, width, height))
+        assertArrayEquals(reference(pixels, width, height), result.data)
+    }
+
+    @Test
+    fun matchesCatalanoOnSampleImage() {
+        assertMatchesReference(1000, 1500)
+    }
+
+    @Test
+    fun matchesCatalanoWithTilesNotDividingImage() {
+        assertMatchesReference(317, 211, BradleyThreshold(tileSize = 50))
+    }
+
+    @Test
+    fun matchesCatalanoOnImageSmallerThanWindow() {
+        assertMatchesReference(30, 7)
+    }
+
+    @Test
+    fun downscaleAveragesBlocks(): Unit = runBlocking {
+        val plane = LuminancePlane(5, 4, ByteArray(20) { (it * 10).toByte() })
+        val result = plane.downscale(2)
+        assertEquals(2, result.width)
+        assertEquals(2, result.height)
+        //(0 + 10 + 50 + 60) / 4 etc., the last column is dropped
+        assertArrayEquals(byteArrayOf(30, 50, 130.toByte(), 150.toByte()), result.data)
+        assertEquals(plane, plane.downscaleToDpi(500f, 300))
+    }
+
+    @Test
+    fun benchmark12MegapixelPhoto() {
+        assumeBenchmark()
+        val width = 3000
+        val height = 4000
+        val pixels = sampleImage(width, height)
+        benchmark("Grayscale and threshold like Catalano", 1, 3) {
+            reference(pixels.copyOf(), width, height)
+        }
+        benchmark("Luminance plane and tiled threshold", 1, 3) {
+            runBlocking { BradleyThreshold().apply(LuminancePlane.fromArgb(pixels, width, height)) }
+        }
+        benchmark("Luminance plane downscaled to a third and tiled threshold", 1, 3) {
+            runBlocking { BradleyThreshold().apply(LuminancePlane.fromArgb(pixels, width, height).downscale(3)) }
+        }
+    }
+}
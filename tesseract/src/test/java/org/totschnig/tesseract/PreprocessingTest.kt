@@ -0,0 +1,51 @@
+package org.totschnig.tesseract
+
+import kotlinx.coroutines.runBlocking
+import org.junit.Assert.assertArrayEquals
+import org.junit.Assert.assertEquals
+import org.junit.Assert.assertNull
+import org.junit.Assert.assertTrue
+import org.junit.Test
+import java.awt.image.BufferedImage
+import java.awt.image.DataBufferByte
+import javax.imageio.ImageIO
+
+class PreprocessingTest {
+
+    private fun loadImage(name: String): BufferedImage =
+        javaClass.classLoader!!.getResourceAsStream(name).use { ImageIO.read(it) }
+
+    /**
+     * receipt.png is an 80 mm receipt rendered at 700 DPI, with its print spanning 72 mm, photographed
+     * under uneven lighting on a darker table
+     */
+    private fun receipt() = runBlocking {
+        val image = loadImage("receipt.png")
+        val pixels = image.getRGB(0, 0, image.width, image.height, null, 0, image.width)
+        LuminancePlane.fromArgb(pixels, image.width, image.height)
+    }
+
+    @Test
+    fun estimatesResolutionFromPrintWidth(): Unit = runBlocking {
+        val dpi = receipt().estimateReceiptDpi()!!
+        assertTrue("Estimated $dpi DPI", dpi in 665f..735f)
+    }
+
+    @Test
+    fun receiptSampleMatchesGolden(): Unit = runBlocking {
+        val result = preprocess(receipt())
+        val expected = loadImage("receipt_expected.png")
+        assertEquals(expected.width, result.width)
+        assertEquals(expected.height, result.height)
+        assertArrayEquals((expected.raster.dataBuffer as DataBufferByte).data, result.data)
+    }
+
+    @Test
+    fun planeWithoutPrintIsNotDownscaled(): Unit = runBlocking {
+        val plane = LuminancePlane(3000, 2000, ByteArray(3000 * 2000) { 200.toByte() })
+        assertNull(plane.estimateReceiptDpi())
+        val result = preprocess(plane)
+        assertEquals(plane.width, result.width)
+        assertEquals(plane.height, result.height)
+    }
+}
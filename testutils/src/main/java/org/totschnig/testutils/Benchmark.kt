@@ -0,0 +1,32 @@
+@file:JvmName("Benchmark")
+
+package org.totschnig.testutils
+
+import org.junit.Assume
+
+/**
+ * Benchmarks work on large data sets and mainly report timings, so they are skipped unless the
+ * unit tests are run with -Pbenchmark
+ */
+fun assumeBenchmark() {
+    Assume.assumeTrue("Benchmarks are only run with -Pbenchmark", System.getProperty("benchmark") != null)
+}
+
+/**
+ * reports the average time of [iterations] runs of [block] after [warmup] runs
+ */
+fun benchmark(name: String, warmup: Int, iterations: Int, block: () -> Unit) {
+    repeat(warmup) { block() }
+    val start = System.nanoTime()
+    repeat(iterations) { block() }
+    val average = (System.nanoTime() - start) / iterations
+    println("$name: ${average / 1000} µs/op (average of $iterations after $warmup warmup iterations)")
+}
+
+/**
+ * reports the time of a single run of [block]
+ */
+fun <T> measure(name: String, block: () -> T): T {
+    val start = System.nanoTime()
+    return block().also { println("$name: ${(System.nanoTime() - start) / 1_000_000} ms") }
+}
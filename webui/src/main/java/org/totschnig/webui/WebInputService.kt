@@ -6,12 +6,15 @@ import android.app.PendingIntent.FLAG_ONE_SHOT
 import android.app.Service
 import android.content.Context
 import android.content.Intent
+import android.database.Cursor
+import android.net.Uri
 import android.net.wifi.WifiManager
 import android.os.IBinder
 import android.text.format.Formatter
 import androidx.annotation.StringRes
 import com.google.gson.Gson
 import com.google.gson.JsonDeserializer
+import com.google.gson.stream.JsonWriter
 import io.ktor.application.*
 import io.ktor.features.*
 import io.ktor.gson.*
@@ -35,6 +38,7 @@ import org.totschnig.myexpenses.feature.START_ACTION
 import org.totschnig.myexpenses.feature.STOP_ACTION
 import org.totschnig.myexpenses.feature.ServerStateObserver
 import org.totschnig.myexpenses.feature.WebUiBinder
+import org.totschnig.myexpenses.model2.Transaction
 import org.totschnig.myexpenses.preference.PrefHandler
 import org.totschnig.myexpenses.preference.PrefKey
 import org.totschnig.myexpenses.provider.DatabaseConstants
@@ -46,7 +50,6 @@ import org.totschnig.myexpenses.provider.DatabaseConstants.KEY_PAYEE_NAME
 import org.totschnig.myexpenses.provider.DatabaseConstants.KEY_ROWID
 import org.totschnig.myexpenses.provider.DatabaseConstants.KEY_TYPE
 import org.totschnig.myexpenses.provider.TransactionProvider
-import org.totschnig.myexpenses.provider.asSequence
 import org.totschnig.myexpenses.ui.ContextHelper
 import org.totschnig.myexpenses.util.NotificationBuilderWrapper
 import org.totschnig.myexpenses.util.NotificationBuilderWrapper.NOTIFICATION_WEB_UI
@@ -58,6 +61,77 @@ import javax.inject.Inject
 
 private const val STOP_CLICK_ACTION = "STOP_CLICK_ACTION"
 
+/**
+ * Path segment of the JSON endpoints, to be changed when their format changes incompatibly
+ */
+private const val API_VERSION = "v1"
+
+/**
+ * Reference data served as JSON array by the web UI
+ * @param segments first path segments of the uris, whose data versions identify the state of
+ * the data
+ */
+private class ReferenceData(
+    val segments: List<String>,
+    val uri: Uri,
+    val projection: Array<String>,
+    val selection: String? = null,
+    val writeRow: (JsonWriter, Cursor) -> Unit
+)
+
+private val referenceData = mapOf(
+    "accounts" to ReferenceData(
+        listOf("accounts"),
+        TransactionProvider.ACCOUNTS_BASE_URI,
+        arrayOf(KEY_ROWID, KEY_LABEL, KEY_TYPE),
+        DatabaseConstants.KEY_SEALED + " = 0"
+    ) { writer, cursor ->
+        writer.name("id").value(cursor.getLong(0))
+        writer.name("label").value(cursor.getString(1))
+        writer.name("type").value(cursor.getString(2))
+    },
+    "payees" to ReferenceData(
+        listOf("payees"),
+        TransactionProvider.PAYEES_URI,
+        arrayOf(KEY_ROWID, KEY_PAYEE_NAME)
+    ) { writer, cursor ->
+        writer.name("id").value(cursor.getLong(0))
+        writer.name("name").value(cursor.getString(1))
+    },
+    "categories" to ReferenceData(
+        listOf("categories"),
+        TransactionProvider.CATEGORIES_URI,
+        arrayOf(KEY_ROWID, KEY_PARENTID, KEY_LABEL)
+    ) { writer, cursor ->
+        writer.name("id").value(cursor.getLong(0))
+        writer.name("parent").value(cursor.getLong(1))
+        writer.name("label").value(cursor.getString(2))
+    },
+    "tags" to ReferenceData(
+        listOf("tags"),
+        TransactionProvider.TAGS_URI,
+        arrayOf(KEY_ROWID, KEY_LABEL)
+    ) { writer, cursor ->
+        writer.name("id").value(cursor.getLong(0))
+        writer.name("label").value(cursor.getString(1))
+    },
+    "methods" to ReferenceData(
+        listOf("methods", "accounttypes_methods"),
+        TransactionProvider.METHODS_URI,
+        arrayOf(KEY_ROWID, KEY_LABEL, KEY_IS_NUMBERED, KEY_TYPE, KEY_ACCOUNT_TPYE_LIST)
+    ) { writer, cursor ->
+        writer.name("id").value(cursor.getLong(0))
+        writer.name("label").value(cursor.getString(1))
+        writer.name("isNumbered").value(cursor.getInt(2) > 0)
+        writer.name("type").value(cursor.getInt(3))
+        cursor.getString(4)?.split(',')?.let { accountTypes ->
+            writer.name("accountTypes").beginArray()
+            accountTypes.forEach { writer.value(it) }
+            writer.endArray()
+        }
+    }
+)
+
 class WebInputService : Service(), IWebInputService {
 
     @Inject
@@ -185,83 +259,43 @@ class WebInputService : Service(), IWebInputService {
                             get("/styles.css") {
                                 call.respondText(readFromAssets("styles.css"), ContentType.Text.CSS)
                             }
-                            get("/") {
-                                val data = mapOf(
-                                    "accounts" to contentResolver.query(
-                                        TransactionProvider.ACCOUNTS_BASE_URI,
-                                        arrayOf(KEY_ROWID, KEY_LABEL, KEY_TYPE),
-                                        DatabaseConstants.KEY_SEALED + " = 0", null, null
-                                    )?.use {
-                                        it.asSequence.map {
-                                            mapOf(
-                                                "id" to it.getLong(0),
-                                                "label" to it.getString(1),
-                                                "type" to it.getString(2)
-                                            )
-                                        }.toList()
-                                    },
-                                    "payees" to contentResolver.query(
-                                        TransactionProvider.PAYEES_URI,
-                                        arrayOf(KEY_ROWID, KEY_PAYEE_NAME),
-                                        null, null, null
-                                    )?.use {
-                                        it.asSequence.map {
-                                            mapOf(
-                                                "id" to it.getLong(0),
-                                                "name" to it.getString(1)
-                                            )
-                                        }
-                                            .toList()
-                                    },
-                                    "categories" to contentResolver.query(
-                                        TransactionProvider.CATEGORIES_URI,
-                                        arrayOf(KEY_ROWID, KEY_PARENTID, KEY_LABEL),
-                                        null, null, null
-                                    )?.use {
-                                        it.asSequence.map {
-                                            mapOf(
-                                                "id" to it.getLong(0),
-                                                "parent" to it.getLong(1),
-                                                "label" to it.getString(2)
-                                            )
-                                        }
-                                            .toList()
-                                    },
-                                    "tags" to contentResolver.query(
-                                        TransactionProvider.TAGS_URI,
-                                        arrayOf(KEY_ROWID, KEY_LABEL),
-                                        null, null, null
-                                    )?.use {
-                                        it.asSequence.map {
-                                            mapOf(
-                                                "id" to it.getLong(0),
-                                                "label" to it.getString(1)
-                                            )
+                            get("/api/$API_VERSION/{type}") {
+                                val data = referenceData[call.parameters["type"]]
+                                    ?: return@get call.respond(HttpStatusCode.NotFound)
+                                //read before the query, so that a change during the query leads to a new tag on the next request
+                                val versions = data.segments.map { dataVersion(it) }
+                                val eTag = if (versions.all { it != null }) versions.joinToString("_", "\"", "\"") else null
+                                if (eTag != null) {
+                                    call.response.header(HttpHeaders.ETag, eTag)
+                                    call.response.header(HttpHeaders.CacheControl, "no-cache")
+                                    if (matchesIfNoneMatch(call.request.header(HttpHeaders.IfNoneMatch), eTag)) {
+                                        return@get call.respond(HttpStatusCode.NotModified)
+                                    }
+                                }
+                                call.respondTextWriter(ContentType.Application.Json) {
+                                    gson.newJsonWriter(this).use { writer ->
+                                        writer.beginArray()
+                                        contentResolver.query(data.uri, data.projection, data.selection, null, null)?.use { cursor ->
+                                            while (cursor.moveToNext()) {
+                                                writer.beginObject()
+                                                data.writeRow(writer, cursor)
+                                                writer.endObject()
+                                            }
                                         }
-                                            .toList()
-                                    },
-                                    "methods" to contentResolver.query(
-                                        TransactionProvider.METHODS_URI,
-                                        arrayOf(
-                                            KEY_ROWID,
-                                            KEY_LABEL,
-                                            KEY_IS_NUMBERED,
-                                            KEY_TYPE,
-                                            KEY_ACCOUNT_TPYE_LIST
-                                        ),
-                                        null, null, null
-                                    )?.use {
-                                        it.asSequence.map {
-                                            mapOf(
-                                                "id" to it.getLong(0),
-                                                "label" to it.getString(1),
-                                                "isNumbered" to (it.getInt(2) > 0),
-                                                "type" to it.getInt(3),
-                                                "accountTypes" to it.getString(4)?.split(',')
-                                            )
-                                        }.toList()
-                                    },
+                                        writer.endArray()
+                                    }
+                                }
+                            }
+                            post("/api/$API_VERSION/transactions") {
+                                val ids = repository.createTransactions(call.receive<Array<Transaction>>().asList())
+                                val created = ids.count { it != null }
+                                count += created
+                                call.respond(
+                                    if (created == 0 && ids.isNotEmpty()) HttpStatusCode.Conflict else HttpStatusCode.Created,
+                                    mapOf("ids" to ids)
                                 )
+                            }
+                            get("/") {
                                 val lookup = StringLookup { key ->
                                     when (key) {
                                         "i18n_title" -> "${t(R.string.app_name)} ${getString(R.string.title_webui)}"
@@ -275,7 +309,6 @@ class WebInputService : Service(), IWebInputService {
                                         "i18n_method" -> t(R.string.method)
                                         "i18n_submit" -> t(R.string.menu_save)
                                         "i18n_number" -> t(R.string.reference_number)
-                                        "data" -> gson.toJson(data)
                                         else -> throw IllegalStateException("Unknown substitution key $key")
                                     }
                                 }
@@ -329,6 +362,13 @@ class WebInputService : Service(), IWebInputService {
 
     private fun t(@StringRes resId: Int) = wrappedContext.getString(resId)
 
+    private fun dataVersion(segment: String) = contentResolver.call(
+        TransactionProvider.DUAL_URI, TransactionProvider.METHOD_DATA_VERSION, segment, null
+    )?.getString(TransactionProvider.KEY_RESULT)
+
+    private fun matchesIfNoneMatch(header: String?, eTag: String) =
+        header?.split(',')?.map { it.trim().removePrefix("W/") }?.any { it == eTag || it == "*" } == true
+
     override fun onDestroy() {
         stopServer()
         super.onDestroy()